@@ -0,0 +1,61 @@
+package com.healthrecords.benchmark;
+
+import com.healthrecords.dto.UserResponseDTO;
+import com.healthrecords.dto.VisitResponseDTO;
+import com.healthrecords.entity.User;
+import com.healthrecords.entity.Visit;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Representative entities and DTOs shared by the benchmarks. Text fields are sized like real
+ * records, including a long {@code notes} value.
+ */
+public final class BenchmarkData {
+    
+    public static final String NOTES = "Patient reports intermittent headaches over the past two weeks, mostly in the "
+            + "afternoon and after prolonged screen use. No visual disturbances, nausea or fever. Advised regular "
+            + "breaks, hydration and a sleep schedule. Review in two weeks or earlier if symptoms worsen. ".repeat(3);
+    
+    private BenchmarkData() {
+    }
+    
+    public static User doctor(long id) {
+        return new User(id, "Dr. Meera Raman", "doctor" + id + "@health.com", "doctor123", User.Role.DOCTOR,
+                "98450" + id, "Female", LocalDate.of(1980, 5, 14), "General Medicine", "12 MG Road, Bengaluru");
+    }
+    
+    public static User patient(long id) {
+        return new User(id, "Arjun Nair", "patient" + id + "@health.com", "patient123", User.Role.PATIENT,
+                "99001" + id, "Male", LocalDate.of(1992, 11, 3), null, "44 Residency Road, Bengaluru");
+    }
+    
+    public static Visit visit(long id, User patient, User doctor) {
+        return new Visit(id, patient, doctor, LocalDateTime.of(2024, 3, 18, 10, 30).plusMinutes(id),
+                "Recurring headaches", "Headache, fatigue, mild neck stiffness", "Tension-type headache",
+                "Paracetamol 500mg twice daily for 5 days", 172.0, 68.5, "122/78", 74, 36.8, NOTES);
+    }
+    
+    public static List<VisitResponseDTO> visitDtos(int count) {
+        List<VisitResponseDTO> visits = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            visits.add(new VisitResponseDTO((long) i, 1000L + i % 500, "Arjun Nair", 10L + i % 20, "Dr. Meera Raman",
+                    LocalDateTime.of(2024, 3, 18, 10, 30).plusMinutes(i), "Recurring headaches",
+                    "Headache, fatigue, mild neck stiffness", "Tension-type headache",
+                    "Paracetamol 500mg twice daily for 5 days", 172.0, 68.5, "122/78", 74, 36.8, NOTES));
+        }
+        return visits;
+    }
+    
+    public static List<UserResponseDTO> userDtos(int count) {
+        List<UserResponseDTO> users = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            users.add(new UserResponseDTO((long) i, "Arjun Nair", "patient" + i + "@health.com", User.Role.PATIENT,
+                    "99001" + i, "Male", LocalDate.of(1992, 11, 3), null, "44 Residency Road, Bengaluru"));
+        }
+        return users;
+    }
+}
@@ -0,0 +1,130 @@
+package com.healthrecords.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.healthrecords.benchmark.BenchmarkData;
+import com.healthrecords.dto.UserResponseDTO;
+import com.healthrecords.dto.VisitResponseDTO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Type;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Encoding a 10,000-element visit or user list in each response format the API negotiates. The size
+ * of each encoding, the bytes on the wire, is printed once per fork before the measurements start.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ResponseFormatBenchmark {
+    
+    private static final int LIST_SIZE = 10_000;
+    private static final Type VISIT_LIST = new ParameterizedTypeReference<List<VisitResponseDTO>>() { }.getType();
+    private static final Type USER_LIST = new ParameterizedTypeReference<List<UserResponseDTO>>() { }.getType();
+    
+    @Param({"json", "json-gzip", "smile", "cbor", "protobuf"})
+    public String format;
+    
+    private ObjectMapper objectMapper;
+    private ProtobufDtoHttpMessageConverter protobufConverter;
+    private List<VisitResponseDTO> visits;
+    private List<UserResponseDTO> users;
+    
+    @Setup
+    public void setUp() throws IOException {
+        // Spring Boot writes dates as ISO strings in every Jackson format
+        Jackson2ObjectMapperBuilder builder = switch (format) {
+            case "smile" -> Jackson2ObjectMapperBuilder.smile();
+            case "cbor" -> Jackson2ObjectMapperBuilder.cbor();
+            default -> Jackson2ObjectMapperBuilder.json();
+        };
+        objectMapper = builder.featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS).build();
+        protobufConverter = new ProtobufDtoHttpMessageConverter();
+        visits = BenchmarkData.visitDtos(LIST_SIZE);
+        users = BenchmarkData.userDtos(LIST_SIZE);
+        
+        CountingOutputStream visitBytes = new CountingOutputStream();
+        write(visits, VISIT_LIST, visitBytes);
+        CountingOutputStream userBytes = new CountingOutputStream();
+        write(users, USER_LIST, userBytes);
+        System.out.printf("%n%s: visitList %,d bytes, userList %,d bytes%n", format, visitBytes.count, userBytes.count);
+    }
+    
+    @Benchmark
+    public long visitList() throws IOException {
+        CountingOutputStream out = new CountingOutputStream();
+        write(visits, VISIT_LIST, out);
+        return out.count;
+    }
+    
+    @Benchmark
+    public long userList() throws IOException {
+        CountingOutputStream out = new CountingOutputStream();
+        write(users, USER_LIST, out);
+        return out.count;
+    }
+    
+    private void write(List<?> body, Type type, OutputStream out) throws IOException {
+        switch (format) {
+            case "protobuf" -> protobufConverter.write(body, type, ProtobufDtoHttpMessageConverter.APPLICATION_PROTOBUF,
+                    new DiscardingOutputMessage(out));
+            // Tomcat compresses with the default Deflater level
+            case "json-gzip" -> {
+                try (GZIPOutputStream gzip = new GZIPOutputStream(out, 8192)) {
+                    objectMapper.writeValue(gzip, body);
+                }
+            }
+            default -> objectMapper.writeValue(out, body);
+        }
+    }
+    
+    private static final class CountingOutputStream extends OutputStream {
+        
+        private long count;
+        
+        @Override
+        public void write(int b) {
+            count++;
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+    
+    private record DiscardingOutputMessage(OutputStream body) implements HttpOutputMessage {
+        
+        @Override
+        public OutputStream getBody() {
+            return body;
+        }
+        
+        @Override
+        public HttpHeaders getHeaders() {
+            return new HttpHeaders();
+        }
+    }
+}
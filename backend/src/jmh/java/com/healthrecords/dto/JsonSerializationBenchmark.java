@@ -0,0 +1,71 @@
+package com.healthrecords.dto;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.healthrecords.benchmark.BenchmarkData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jackson serialization of response DTOs with the same {@link ObjectMapper} setup Spring MVC uses.
+ * List benchmarks stream into a discarding sink so they measure encoding rather than buffer growth.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JsonSerializationBenchmark {
+    
+    private static final int LIST_SIZE = 10_000;
+    
+    private ObjectMapper objectMapper;
+    private VisitResponseDTO visit;
+    private UserResponseDTO user;
+    private List<VisitResponseDTO> visits;
+    private List<UserResponseDTO> users;
+    
+    @Setup
+    public void setUp() {
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        visits = BenchmarkData.visitDtos(LIST_SIZE);
+        users = BenchmarkData.userDtos(LIST_SIZE);
+        visit = visits.get(0);
+        user = users.get(0);
+    }
+    
+    @Benchmark
+    public byte[] visit() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(visit);
+    }
+    
+    @Benchmark
+    public byte[] user() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(user);
+    }
+    
+    @Benchmark
+    public void visitList() throws IOException {
+        objectMapper.writeValue(OutputStream.nullOutputStream(), visits);
+    }
+    
+    @Benchmark
+    public void userList() throws IOException {
+        objectMapper.writeValue(OutputStream.nullOutputStream(), users);
+    }
+}
@@ -0,0 +1,97 @@
+package com.healthrecords.exception;
+
+import com.healthrecords.controller.VisitController;
+import com.healthrecords.dto.VisitRequestDTO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.ResponseEntity;
+import org.springframework.validation.BeanPropertyBindingResult;
+import org.springframework.web.bind.MethodArgumentNotValidException;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Error paths through {@link GlobalExceptionHandler}. The {@code throw*} variants include creating
+ * the exception, since filling in its stack trace usually costs more than handling it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExceptionHandlerBenchmark {
+    
+    private GlobalExceptionHandler handler;
+    private ResourceNotFoundException notFound;
+    private MethodArgumentNotValidException invalid;
+    private MethodParameter createVisitBody;
+    
+    @Setup
+    public void setUp() throws NoSuchMethodException {
+        handler = new GlobalExceptionHandler();
+        notFound = new ResourceNotFoundException("Visit not found with id: 42");
+        createVisitBody = new MethodParameter(VisitController.class.getMethod("createVisit", VisitRequestDTO.class), 0);
+        invalid = invalidVisit();
+    }
+    
+    @Benchmark
+    public ResponseEntity<Map<String, String>> handleNotFound() {
+        return handler.handleResourceNotFoundException(notFound);
+    }
+    
+    @Benchmark
+    public ResponseEntity<Map<String, String>> throwNotFound() {
+        try {
+            throw new ResourceNotFoundException("Visit not found with id: 42");
+        } catch (ResourceNotFoundException e) {
+            return handler.handleResourceNotFoundException(e);
+        }
+    }
+    
+    @Benchmark
+    public ResponseEntity<Map<String, String>> throwDuplicate() {
+        try {
+            throw new DuplicateResourceException("A visit already exists for this patient with this doctor at the same date and time.");
+        } catch (DuplicateResourceException e) {
+            return handler.handleDuplicateResourceException(e);
+        }
+    }
+    
+    @Benchmark
+    public ResponseEntity<Map<String, String>> handleValidation() {
+        return handler.handleValidationExceptions(invalid);
+    }
+    
+    @Benchmark
+    public ResponseEntity<Map<String, String>> throwValidation() {
+        return handler.handleValidationExceptions(invalidVisit());
+    }
+    
+    @Benchmark
+    public ResponseEntity<Map<String, String>> throwGeneric() {
+        try {
+            throw new IllegalStateException("Connection reset");
+        } catch (IllegalStateException e) {
+            return handler.handleGenericException(e);
+        }
+    }
+    
+    private MethodArgumentNotValidException invalidVisit() {
+        BeanPropertyBindingResult result = new BeanPropertyBindingResult(new VisitRequestDTO(), "visitRequest");
+        result.rejectValue("patientId", "NotNull", "Patient ID is required");
+        result.rejectValue("doctorId", "NotNull", "Doctor ID is required");
+        result.rejectValue("visitDate", "NotNull", "Visit date is required");
+        return new MethodArgumentNotValidException(createVisitBody, result);
+    }
+}
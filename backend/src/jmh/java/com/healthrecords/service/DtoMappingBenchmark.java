@@ -0,0 +1,69 @@
+package com.healthrecords.service;
+
+import com.healthrecords.benchmark.BenchmarkData;
+import com.healthrecords.dto.UserResponseDTO;
+import com.healthrecords.dto.VisitResponseDTO;
+import com.healthrecords.entity.User;
+import com.healthrecords.entity.Visit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Entity to response DTO conversion in {@link VisitService} and {@link UserService}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DtoMappingBenchmark {
+    
+    private static final int LIST_SIZE = 10_000;
+    
+    private Visit visit;
+    private User user;
+    private List<Visit> visits;
+    
+    @Setup
+    public void setUp() {
+        User doctor = BenchmarkData.doctor(1);
+        user = BenchmarkData.patient(2);
+        visit = BenchmarkData.visit(1, user, doctor);
+        visits = new ArrayList<>(LIST_SIZE);
+        for (int i = 0; i < LIST_SIZE; i++) {
+            visits.add(BenchmarkData.visit(i, user, doctor));
+        }
+    }
+    
+    @Benchmark
+    public VisitResponseDTO visitToDto() {
+        return VisitService.convertToDTO(visit);
+    }
+    
+    @Benchmark
+    public UserResponseDTO userToDto() {
+        return UserService.convertToDTO(user);
+    }
+    
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void visitListToDtos(Blackhole blackhole) {
+        for (Visit item : visits) {
+            blackhole.consume(VisitService.convertToDTO(item));
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.healthrecords.loadtest;
+
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The requests the load test can send, each built against randomly chosen seeded data.
+ */
+enum Endpoint {
+    GET_VISIT("visit.get", "GET /api/visits/{id}") {
+        @Override
+        HttpRequest.Builder build(String baseUrl, Fixture fixture) {
+            return get(baseUrl + "/api/visits/" + fixture.randomVisit());
+        }
+    },
+    PATIENT_VISITS("visit.byPatient", "GET /api/visits/patient/{id}?limit=20") {
+        @Override
+        HttpRequest.Builder build(String baseUrl, Fixture fixture) {
+            return get(baseUrl + "/api/visits/patient/" + fixture.randomPatient() + "?limit=20");
+        }
+    },
+    DOCTOR_VISITS("visit.byDoctor", "GET /api/visits/doctor/{id}?limit=50") {
+        @Override
+        HttpRequest.Builder build(String baseUrl, Fixture fixture) {
+            return get(baseUrl + "/api/visits/doctor/" + fixture.randomDoctor() + "?limit=50");
+        }
+    },
+    CREATE_VISIT("visit.create", "POST /api/visits") {
+        @Override
+        HttpRequest.Builder build(String baseUrl, Fixture fixture) {
+            return post(baseUrl + "/api/visits", SeedData.visitJson(fixture.randomPatient(), fixture.randomDoctor(),
+                    fixture.nextVisitDate(), ThreadLocalRandom.current()));
+        }
+    },
+    GET_USER("user.get", "GET /api/users/{id}") {
+        @Override
+        HttpRequest.Builder build(String baseUrl, Fixture fixture) {
+            return get(baseUrl + "/api/users/" + fixture.randomPatient());
+        }
+    },
+    LIST_DOCTORS("user.list", "GET /api/users?role=DOCTOR&limit=50") {
+        @Override
+        HttpRequest.Builder build(String baseUrl, Fixture fixture) {
+            return get(baseUrl + "/api/users?role=DOCTOR&limit=50");
+        }
+    },
+    LOGIN("auth.login", "POST /api/auth/login") {
+        @Override
+        HttpRequest.Builder build(String baseUrl, Fixture fixture) {
+            int patient = ThreadLocalRandom.current().nextInt(fixture.patientIds().length);
+            return post(baseUrl + "/api/auth/login", "{\"email\":\"" + SeedData.patientEmail(patient)
+                    + "\",\"password\":\"" + SeedData.PASSWORD + "\"}");
+        }
+    },
+    ADMIN_STATS("admin.stats", "GET /api/admin/stats") {
+        @Override
+        HttpRequest.Builder build(String baseUrl, Fixture fixture) {
+            return get(baseUrl + "/api/admin/stats");
+        }
+    };
+    
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+    
+    private final String key;
+    private final String label;
+    
+    Endpoint(String key, String label) {
+        this.key = key;
+        this.label = label;
+    }
+    
+    String key() {
+        return key;
+    }
+    
+    String label() {
+        return label;
+    }
+    
+    HttpRequest request(String baseUrl, Fixture fixture) {
+        return build(baseUrl, fixture).timeout(TIMEOUT).build();
+    }
+    
+    abstract HttpRequest.Builder build(String baseUrl, Fixture fixture);
+    
+    private static HttpRequest.Builder get(String url) {
+        return HttpRequest.newBuilder(URI.create(url)).GET();
+    }
+    
+    private static HttpRequest.Builder post(String url, String json) {
+        return HttpRequest.newBuilder(URI.create(url))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json));
+    }
+}
@@ -0,0 +1,28 @@
+package com.healthrecords.loadtest;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ids of the seeded data plus a source of visit dates that cannot collide with existing visits.
+ */
+record Fixture(long[] doctorIds, long[] patientIds, long[] visitIds, LocalDateTime newVisitsFrom, AtomicLong nextMinute) {
+    
+    long randomDoctor() {
+        return doctorIds[ThreadLocalRandom.current().nextInt(doctorIds.length)];
+    }
+    
+    long randomPatient() {
+        return patientIds[ThreadLocalRandom.current().nextInt(patientIds.length)];
+    }
+    
+    long randomVisit() {
+        return visitIds[ThreadLocalRandom.current().nextInt(visitIds.length)];
+    }
+    
+    // Every created visit gets its own minute after the seeded range, so the unique key never rejects it
+    LocalDateTime nextVisitDate() {
+        return newVisitsFrom.plusMinutes(nextMinute.incrementAndGet());
+    }
+}
@@ -0,0 +1,73 @@
+package com.healthrecords.loadtest;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Latencies and failures of one endpoint. Safe to record from HTTP client callback threads.
+ */
+class LatencyRecorder {
+    
+    private final ReentrantLock lock = new ReentrantLock();
+    private long[] micros = new long[4096];
+    private int count;
+    private int errors;
+    
+    void record(long latencyMicros, boolean success) {
+        lock.lock();
+        try {
+            if (count == micros.length) {
+                micros = Arrays.copyOf(micros, count * 2);
+            }
+            micros[count++] = latencyMicros;
+            if (!success) {
+                errors++;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    void merge(LatencyRecorder other) {
+        lock.lock();
+        try {
+            if (count + other.count > micros.length) {
+                micros = Arrays.copyOf(micros, Math.max(micros.length * 2, count + other.count));
+            }
+            System.arraycopy(other.micros, 0, micros, count, other.count);
+            count += other.count;
+            errors += other.errors;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    EndpointResult summarize(String endpoint, double seconds) {
+        lock.lock();
+        try {
+            long[] sorted = Arrays.copyOf(micros, count);
+            Arrays.sort(sorted);
+            return new EndpointResult(endpoint, count, errors, count / seconds,
+                    percentile(sorted, 50), percentile(sorted, 95), percentile(sorted, 99),
+                    count == 0 ? 0 : sorted[count - 1] / 1000.0);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    private static double percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1000.0;
+    }
+    
+    record EndpointResult(String endpoint, int requests, int errors, double throughput,
+                          double p50Millis, double p95Millis, double p99Millis, double maxMillis) {
+        
+        double errorRate() {
+            return requests == 0 ? 0 : (double) errors / requests;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.healthrecords.loadtest;
+
+import java.time.Duration;
+
+/**
+ * Load test settings, read from {@code loadtest.*} system properties.
+ *
+ * @param rate requests per second for an open-loop run; 0 runs closed-loop with {@code clients} workers
+ */
+public record LoadTestConfig(String mode, Workload workload, int rate, int clients, Duration warmup, Duration duration,
+                             int writePercent, int dbLatencyMillis, int dbPoolSize, int doctors, int patients,
+                             int visits, int maxInFlight, double maxErrorRate, double defaultMaxP99Millis,
+                             String output) {
+    
+    public static LoadTestConfig fromSystemProperties() {
+        return new LoadTestConfig(
+                System.getProperty("loadtest.mode", "platform"),
+                Workload.valueOf(System.getProperty("loadtest.workload", "mixed").toUpperCase()),
+                Integer.getInteger("loadtest.rate", 50),
+                Integer.getInteger("loadtest.clients", 400),
+                Duration.ofSeconds(Integer.getInteger("loadtest.warmupSeconds", 10)),
+                Duration.ofSeconds(Integer.getInteger("loadtest.durationSeconds", 30)),
+                Integer.getInteger("loadtest.writePercent", 15),
+                Integer.getInteger("loadtest.dbLatencyMillis", 0),
+                Integer.getInteger("loadtest.dbPoolSize", 50),
+                Integer.getInteger("loadtest.doctors", 50),
+                Integer.getInteger("loadtest.patients", 2000),
+                Integer.getInteger("loadtest.visits", 20000),
+                Integer.getInteger("loadtest.maxInFlight", 2000),
+                Double.parseDouble(System.getProperty("loadtest.maxErrorRate", "0.01")),
+                Double.parseDouble(System.getProperty("loadtest.maxP99Millis", "500")),
+                System.getProperty("loadtest.output", "target/loadtest"));
+    }
+    
+    public boolean virtualThreads() {
+        return "virtual".equalsIgnoreCase(mode);
+    }
+    
+    public boolean openLoop() {
+        return rate > 0;
+    }
+    
+    /**
+     * p99 limit for one endpoint, overridable per endpoint key with
+     * {@code -Dloadtest.p99Limits=visit.create=800,admin.stats=300}.
+     */
+    public double maxP99Millis(Endpoint endpoint) {
+        for (String limit : System.getProperty("loadtest.p99Limits", "").split(",")) {
+            String[] keyAndValue = limit.split("=");
+            if (keyAndValue.length == 2 && keyAndValue[0].trim().equals(endpoint.key())) {
+                return Double.parseDouble(keyAndValue[1].trim());
+            }
+        }
+        return defaultMaxP99Millis;
+    }
+    
+    public String describe() {
+        String load = openLoop() ? rate + " req/s open-loop" : clients + " closed-loop clients";
+        return String.format("%s workload, %s threads, %s, %d ms DB latency, pool %d, %ds measured (Java %d)",
+                workload.name().toLowerCase(), mode, load, dbLatencyMillis, dbPoolSize, duration.toSeconds(),
+                Runtime.version().feature());
+    }
+}
@@ -0,0 +1,301 @@
+package com.healthrecords.loadtest;
+
+import com.healthrecords.HealthRecordsApplication;
+import com.healthrecords.dto.VisitBatchItemResultDTO;
+import com.healthrecords.dto.VisitRequestDTO;
+import com.healthrecords.entity.User;
+import com.healthrecords.repository.UserRepository;
+import com.healthrecords.service.VisitService;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Boots the backend against an in-memory H2 database (MySQL mode), seeds realistic users and visits,
+ * drives a workload against the REST API and reports throughput and latency percentiles per endpoint.
+ * The run fails (non-zero exit) when an endpoint exceeds its p99 or error-rate threshold.
+ * <p>
+ * With {@code loadtest.rate > 0} requests are sent open-loop at that rate and latency is measured from
+ * each request's scheduled send time, so a stalled server shows up as queueing delay instead of
+ * silently lowering the offered load. With {@code loadtest.rate=0} a fixed number of clients run
+ * closed-loop.
+ * <p>
+ * Run with {@code mvn -Ploadtest verify -DskipTests}; see {@code src/loadtest/README.md}.
+ */
+public final class LoadTestRunner {
+    
+    // Seeded visits fall in 2022-2023; visits created during the run start after that
+    private static final LocalDateTime SEED_START = LocalDateTime.of(2022, 1, 1, 0, 0);
+    private static final LocalDateTime NEW_VISITS_FROM = LocalDateTime.of(2024, 1, 1, 0, 0);
+    private static final int SEED_DAYS = 730;
+    private static final int SEED_BATCH_SIZE = 1000;
+    private static final Duration DRAIN_TIMEOUT = Duration.ofSeconds(35);
+    
+    private LoadTestRunner() {
+    }
+    
+    public static void main(String[] args) throws Exception {
+        LoadTestConfig config = LoadTestConfig.fromSystemProperties();
+        SlowDataSourcePostProcessor slowDatabase = new SlowDataSourcePostProcessor(config.dbLatencyMillis());
+        
+        SpringApplication application = new SpringApplication(HealthRecordsApplication.class);
+        application.addInitializers(context -> context.getBeanFactory().addBeanPostProcessor(slowDatabase));
+        ConfigurableApplicationContext context = application.run(applicationArguments(config));
+        boolean passed;
+        try {
+            int port = context.getEnvironment().getRequiredProperty("local.server.port", Integer.class);
+            long seedStart = System.nanoTime();
+            Fixture fixture = seed(context, config);
+            System.out.printf(Locale.ROOT, "Seeded %d doctors, %d patients, %d visits in %.1fs%n",
+                    fixture.doctorIds().length, fixture.patientIds().length, fixture.visitIds().length,
+                    (System.nanoTime() - seedStart) / 1e9);
+            slowDatabase.enable();
+            
+            String baseUrl = "http://localhost:" + port;
+            Map<Endpoint, LatencyRecorder> recorders = config.openLoop()
+                    ? driveOpenLoop(baseUrl, fixture, config)
+                    : driveClosedLoop(baseUrl, fixture, config);
+            
+            double seconds = config.duration().toNanos() / 1e9;
+            List<Verdict> verdicts = new ArrayList<>();
+            LatencyRecorder total = new LatencyRecorder();
+            for (Map.Entry<Endpoint, LatencyRecorder> entry : recorders.entrySet()) {
+                LatencyRecorder.EndpointResult result = entry.getValue().summarize(entry.getKey().label(), seconds);
+                if (result.requests() > 0) {
+                    verdicts.add(new Verdict(result, config.maxP99Millis(entry.getKey()), config.maxErrorRate()));
+                }
+                total.merge(entry.getValue());
+            }
+            LatencyRecorder.EndpointResult overall = total.summarize("all", seconds);
+            passed = verdicts.stream().allMatch(Verdict::passed);
+            
+            String report = report(config, verdicts, overall, passed);
+            System.out.println(report);
+            Path output = Paths.get(config.output());
+            Files.createDirectories(output);
+            Files.writeString(output.resolve(reportName(config)), report);
+        } finally {
+            context.close();
+        }
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+    
+    private static String[] applicationArguments(LoadTestConfig config) {
+        return new String[]{
+                "--server.port=0",
+                "--spring.datasource.url=jdbc:h2:mem:loadtest;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1",
+                "--spring.datasource.driver-class-name=org.h2.Driver",
+                "--spring.datasource.username=sa",
+                "--spring.datasource.password=",
+                "--spring.datasource.hikari.maximum-pool-size=" + config.dbPoolSize(),
+                "--spring.datasource.hikari.minimum-idle=" + config.dbPoolSize(),
+                "--spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+                "--spring.jpa.hibernate.ddl-auto=create",
+                "--spring.jpa.show-sql=false",
+                "--spring.threads.virtual.enabled=" + config.virtualThreads(),
+                "--healthrecords.search.index-dir=" + Paths.get(config.output(), "search-index"),
+                "--logging.level.root=WARN"
+        };
+    }
+    
+    private static Fixture seed(ConfigurableApplicationContext context, LoadTestConfig config) {
+        UserRepository userRepository = context.getBean(UserRepository.class);
+        VisitService visitService = context.getBean(VisitService.class);
+        // Fixed seed so runs are comparable
+        Random random = new Random(42);
+        
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < config.doctors(); i++) {
+            users.add(SeedData.doctor(i, random));
+        }
+        for (int i = 0; i < config.patients(); i++) {
+            users.add(SeedData.patient(i, random));
+        }
+        List<User> saved = userRepository.saveAll(users);
+        long[] doctorIds = saved.stream().filter(user -> user.getRole() == User.Role.DOCTOR).mapToLong(User::getId).toArray();
+        long[] patientIds = saved.stream().filter(user -> user.getRole() == User.Role.PATIENT).mapToLong(User::getId).toArray();
+        
+        // Patients get a skewed number of visits (a few frequent visitors, many occasional ones), each
+        // usually with the same doctor, at clinic hours spread over two years
+        List<Long> visitIds = new ArrayList<>();
+        List<VisitRequestDTO> batch = new ArrayList<>();
+        for (int i = 0; i < config.visits(); i++) {
+            int patient = (int) (patientIds.length * Math.pow(random.nextDouble(), 2));
+            long doctorId = random.nextInt(4) == 0
+                    ? doctorIds[random.nextInt(doctorIds.length)]
+                    : doctorIds[patient % doctorIds.length];
+            LocalDateTime visitDate = SEED_START.plusDays(random.nextInt(SEED_DAYS))
+                    .plusHours(9 + random.nextInt(9))
+                    .plusMinutes(5L * random.nextInt(12));
+            batch.add(SeedData.visit(patientIds[patient], doctorId, visitDate, random));
+            if (batch.size() == SEED_BATCH_SIZE || i == config.visits() - 1) {
+                for (VisitBatchItemResultDTO result : visitService.createVisitsBatch(batch).getResults()) {
+                    if (result.getId() != null) {
+                        visitIds.add(result.getId());
+                    }
+                }
+                batch.clear();
+            }
+        }
+        return new Fixture(doctorIds, patientIds, visitIds.stream().mapToLong(Long::longValue).toArray(),
+                NEW_VISITS_FROM, new AtomicLong());
+    }
+    
+    private static HttpClient httpClient() {
+        return HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+    }
+    
+    private static Map<Endpoint, LatencyRecorder> recorders() {
+        Map<Endpoint, LatencyRecorder> recorders = new EnumMap<>(Endpoint.class);
+        for (Endpoint endpoint : Endpoint.values()) {
+            recorders.put(endpoint, new LatencyRecorder());
+        }
+        return recorders;
+    }
+    
+    private static Map<Endpoint, LatencyRecorder> driveOpenLoop(String baseUrl, Fixture fixture, LoadTestConfig config)
+            throws InterruptedException {
+        HttpClient client = httpClient();
+        Map<Endpoint, LatencyRecorder> recorders = recorders();
+        Semaphore inFlight = new Semaphore(config.maxInFlight());
+        long interval = TimeUnit.SECONDS.toNanos(1) / config.rate();
+        long start = System.nanoTime();
+        long measureFrom = start + config.warmup().toNanos();
+        long stopAt = measureFrom + config.duration().toNanos();
+        
+        for (long scheduled = start; scheduled < stopAt; scheduled += interval) {
+            long wait = scheduled - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            Endpoint endpoint = config.workload().pick(config.writePercent());
+            boolean measured = scheduled >= measureFrom;
+            if (!inFlight.tryAcquire()) {
+                // Too far behind: count the request as failed rather than letting the backlog grow unbounded
+                if (measured) {
+                    recorders.get(endpoint).record((System.nanoTime() - scheduled) / 1000, false);
+                }
+                continue;
+            }
+            long intended = scheduled;
+            client.sendAsync(endpoint.request(baseUrl, fixture), HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, error) -> {
+                        inFlight.release();
+                        if (measured) {
+                            boolean success = error == null && response.statusCode() < 400;
+                            recorders.get(endpoint).record((System.nanoTime() - intended) / 1000, success);
+                        }
+                    });
+        }
+        if (!inFlight.tryAcquire(config.maxInFlight(), DRAIN_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)) {
+            System.out.println("Warning: requests still in flight after " + DRAIN_TIMEOUT.toSeconds() + "s");
+        }
+        return recorders;
+    }
+    
+    private static Map<Endpoint, LatencyRecorder> driveClosedLoop(String baseUrl, Fixture fixture, LoadTestConfig config)
+            throws InterruptedException {
+        HttpClient client = httpClient();
+        Map<Endpoint, LatencyRecorder> recorders = recorders();
+        long measureFrom = System.nanoTime() + config.warmup().toNanos();
+        long stopAt = measureFrom + config.duration().toNanos();
+        
+        CountDownLatch done = new CountDownLatch(config.clients());
+        for (int c = 0; c < config.clients(); c++) {
+            Thread worker = new Thread(() -> {
+                try {
+                    while (System.nanoTime() < stopAt) {
+                        Endpoint endpoint = config.workload().pick(config.writePercent());
+                        HttpRequest request = endpoint.request(baseUrl, fixture);
+                        long start = System.nanoTime();
+                        boolean success;
+                        try {
+                            HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                            success = response.statusCode() < 400;
+                        } catch (IOException e) {
+                            success = false;
+                        }
+                        long end = System.nanoTime();
+                        if (start >= measureFrom && end <= stopAt) {
+                            recorders.get(endpoint).record((end - start) / 1000, success);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }, "loadtest-client-" + c);
+            worker.setDaemon(true);
+            worker.start();
+        }
+        done.await();
+        return recorders;
+    }
+    
+    private static String reportName(LoadTestConfig config) {
+        String load = config.openLoop() ? config.rate() + "rps" : config.clients() + "c";
+        String workload = config.workload() == Workload.VISITS
+                ? "visits-" + config.writePercent() + "w"
+                : config.workload().name().toLowerCase(Locale.ROOT);
+        return "results-" + workload + "-" + config.mode() + "-" + load + ".md";
+    }
+    
+    private static String report(LoadTestConfig config, List<Verdict> verdicts, LatencyRecorder.EndpointResult overall,
+                                 boolean passed) {
+        StringBuilder report = new StringBuilder();
+        report.append("### ").append(config.describe()).append("\n\n");
+        report.append("| Endpoint | Requests | Errors | Req/s | p50 ms | p95 ms | p99 ms | max ms | p99 limit | Result |\n");
+        report.append("|---|---:|---:|---:|---:|---:|---:|---:|---:|---|\n");
+        for (Verdict verdict : verdicts) {
+            row(report, verdict.result(), String.format(Locale.ROOT, "%.0f", verdict.maxP99Millis()),
+                    verdict.passed() ? "pass" : "FAIL");
+        }
+        row(report, overall, "", "");
+        report.append(String.format(Locale.ROOT, "%nError-rate limit %.2f%%. Overall: %s%n",
+                config.maxErrorRate() * 100, passed ? "PASS" : "FAIL"));
+        if (config.openLoop() && overall.throughput() < config.rate() * 0.95) {
+            report.append(String.format(Locale.ROOT, "Completed %.1f req/s of the %d req/s target.%n",
+                    overall.throughput(), config.rate()));
+        }
+        return report.toString();
+    }
+    
+    private static void row(StringBuilder report, LatencyRecorder.EndpointResult result, String limit, String outcome) {
+        report.append(String.format(Locale.ROOT, "| %s | %d | %d | %.1f | %.1f | %.1f | %.1f | %.1f | %s | %s |%n",
+                result.endpoint(), result.requests(), result.errors(), result.throughput(),
+                result.p50Millis(), result.p95Millis(), result.p99Millis(), result.maxMillis(), limit, outcome));
+    }
+    
+    private record Verdict(LatencyRecorder.EndpointResult result, double maxP99Millis, double maxErrorRate) {
+        
+        boolean passed() {
+            return result.p99Millis() <= maxP99Millis && result.errorRate() <= maxErrorRate;
+        }
+    }
+}
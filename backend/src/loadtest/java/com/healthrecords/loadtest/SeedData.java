@@ -0,0 +1,122 @@
+package com.healthrecords.loadtest;
+
+import com.healthrecords.dto.VisitRequestDTO;
+import com.healthrecords.entity.User;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Generates plausible users and visits so that row sizes, text lengths and value distributions are
+ * close to what a clinic would store. All generated users share {@link #PASSWORD}.
+ */
+final class SeedData {
+    
+    static final String PASSWORD = "LoadTest#2024";
+    
+    private static final String[] FIRST_NAMES = {
+            "Aarav", "Priya", "Rohan", "Ananya", "James", "Maria", "Wei", "Fatima", "Lucas", "Sofia",
+            "Arjun", "Meera", "Daniel", "Aisha", "Noah", "Olivia", "Kenji", "Leila", "Mateo", "Zara"
+    };
+    private static final String[] LAST_NAMES = {
+            "Sharma", "Iyer", "Patel", "Nair", "Smith", "Garcia", "Chen", "Khan", "Silva", "Rossi",
+            "Menon", "Reddy", "Brown", "Okafor", "Kim", "Martin", "Tanaka", "Haddad", "Lopez", "Singh"
+    };
+    private static final String[] SPECIALIZATIONS = {
+            "General Medicine", "Cardiology", "Pediatrics", "Dermatology", "Orthopedics", "ENT", "Endocrinology"
+    };
+    private static final String[] CITIES = {"Bengaluru", "Chennai", "Mumbai", "Pune", "Hyderabad", "Kochi"};
+    private static final String[][] CONDITIONS = {
+            {"Fever and body ache", "Fever 101F, body ache, chills for two days", "Viral fever", "Paracetamol 650mg TID for 3 days"},
+            {"Persistent cough", "Dry cough for a week, worse at night, no fever", "Acute bronchitis", "Dextromethorphan syrup 10ml TID"},
+            {"Headache", "Throbbing frontal headache, photophobia, nausea", "Migraine without aura", "Sumatriptan 50mg as needed"},
+            {"Blood pressure review", "Occasional dizziness, no chest pain", "Essential hypertension", "Amlodipine 5mg OD"},
+            {"Diabetes follow-up", "Increased thirst, fatigue, fasting sugar 160", "Type 2 diabetes mellitus", "Metformin 500mg BID"},
+            {"Skin rash", "Itchy red rash on forearms after gardening", "Contact dermatitis", "Hydrocortisone 1% cream BID"},
+            {"Knee pain", "Right knee pain on climbing stairs, mild swelling", "Osteoarthritis of knee", "Diclofenac gel, physiotherapy"},
+            {"Sore throat", "Sore throat, difficulty swallowing, tonsillar exudate", "Streptococcal pharyngitis", "Amoxicillin 500mg TID for 10 days"},
+            {"Stomach upset", "Loose stools and cramps since yesterday", "Acute gastroenteritis", "ORS, Ondansetron 4mg as needed"},
+            {"Annual check-up", "No complaints", "Healthy adult", "None"}
+    };
+    private static final String[] NOTES = {
+            "Follow up in two weeks if symptoms persist.",
+            "Advised rest, fluids and a light diet.",
+            "Review lab results at next visit.",
+            "Patient counselled on diet and exercise.",
+            "Refer to specialist if no improvement.",
+            ""
+    };
+    
+    private SeedData() {
+    }
+    
+    static String doctorEmail(int index) {
+        return "doctor" + index + "@loadtest.local";
+    }
+    
+    static String patientEmail(int index) {
+        return "patient" + index + "@loadtest.local";
+    }
+    
+    static User doctor(int index, Random random) {
+        return new User(null, "Dr. " + name(index, random), doctorEmail(index), PASSWORD, User.Role.DOCTOR,
+                phone(1, index), random.nextBoolean() ? "Male" : "Female", birthDate(random, 30, 65),
+                SPECIALIZATIONS[random.nextInt(SPECIALIZATIONS.length)], address(random));
+    }
+    
+    static User patient(int index, Random random) {
+        return new User(null, name(index, random), patientEmail(index), PASSWORD, User.Role.PATIENT,
+                phone(2, index), random.nextBoolean() ? "Male" : "Female", birthDate(random, 1, 90), null, address(random));
+    }
+    
+    static VisitRequestDTO visit(long patientId, long doctorId, LocalDateTime visitDate, Random random) {
+        String[] condition = CONDITIONS[random.nextInt(CONDITIONS.length)];
+        VisitRequestDTO visit = new VisitRequestDTO();
+        visit.setPatientId(patientId);
+        visit.setDoctorId(doctorId);
+        visit.setVisitDate(visitDate);
+        visit.setReasonForVisit(condition[0]);
+        visit.setSymptoms(condition[1]);
+        visit.setDiagnosis(condition[2]);
+        visit.setPrescribedMedicines(condition[3]);
+        visit.setHeightCm(150 + random.nextInt(40) + 0.5 * random.nextInt(2));
+        visit.setWeightKg(45 + random.nextInt(55) + 0.1 * random.nextInt(10));
+        visit.setBloodPressure((100 + random.nextInt(60)) + "/" + (60 + random.nextInt(35)));
+        visit.setPulse(55 + random.nextInt(50));
+        visit.setTemperature(36.2 + 0.1 * random.nextInt(30));
+        visit.setNotes(NOTES[random.nextInt(NOTES.length)]);
+        return visit;
+    }
+    
+    static String visitJson(long patientId, long doctorId, LocalDateTime visitDate, Random random) {
+        VisitRequestDTO visit = visit(patientId, doctorId, visitDate, random);
+        return String.format(Locale.ROOT,
+                "{\"patientId\":%d,\"doctorId\":%d,\"visitDate\":\"%s\",\"reasonForVisit\":\"%s\",\"symptoms\":\"%s\"," +
+                "\"diagnosis\":\"%s\",\"prescribedMedicines\":\"%s\",\"heightCm\":%.1f,\"weightKg\":%.1f," +
+                "\"bloodPressure\":\"%s\",\"pulse\":%d,\"temperature\":%.1f,\"notes\":\"%s\"}",
+                patientId, doctorId, visitDate, visit.getReasonForVisit(), visit.getSymptoms(), visit.getDiagnosis(),
+                visit.getPrescribedMedicines(), visit.getHeightCm(), visit.getWeightKg(), visit.getBloodPressure(),
+                visit.getPulse(), visit.getTemperature(), visit.getNotes());
+    }
+    
+    private static String name(int index, Random random) {
+        return FIRST_NAMES[random.nextInt(FIRST_NAMES.length)] + " " + LAST_NAMES[random.nextInt(LAST_NAMES.length)]
+                + " " + index;
+    }
+    
+    // Unique per user: the prefix separates doctors from patients
+    private static String phone(int prefix, int index) {
+        return String.format(Locale.ROOT, "+91 9%d%08d", prefix, index);
+    }
+    
+    private static LocalDate birthDate(Random random, int minAge, int maxAge) {
+        return LocalDate.of(2024, 1, 1).minusDays(365L * minAge + random.nextInt(365 * (maxAge - minAge)));
+    }
+    
+    private static String address(Random random) {
+        return (1 + random.nextInt(400)) + ", " + LAST_NAMES[random.nextInt(LAST_NAMES.length)] + " Road, "
+                + CITIES[random.nextInt(CITIES.length)];
+    }
+}
@@ -0,0 +1,88 @@
+package com.healthrecords.loadtest;
+
+import org.springframework.beans.factory.config.BeanPostProcessor;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+
+/**
+ * Adds a fixed delay to every statement execution so the in-memory database behaves like a
+ * remote one: the request thread blocks while holding a pooled connection. The delay only applies
+ * once {@link #enable()} is called, so seeding runs at full speed.
+ */
+class SlowDataSourcePostProcessor implements BeanPostProcessor {
+    
+    private final int latencyMillis;
+    private volatile boolean enabled;
+    
+    SlowDataSourcePostProcessor(int latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+    
+    void enable() {
+        enabled = true;
+    }
+    
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (latencyMillis <= 0 || !(bean instanceof DataSource dataSource)) {
+            return bean;
+        }
+        return proxy(DataSource.class, dataSource, (target, method, args) -> {
+            Object result = invoke(method, target, args);
+            return result instanceof Connection connection ? proxy(Connection.class, connection, this::connectionCall) : result;
+        });
+    }
+    
+    private Object connectionCall(Object target, Method method, Object[] args) throws Throwable {
+        Object result = invoke(method, target, args);
+        if (result instanceof Statement statement) {
+            Class<? extends Statement> type = statementInterface(statement);
+            return proxy(type, statement, this::statementCall);
+        }
+        return result;
+    }
+    
+    private Object statementCall(Object target, Method method, Object[] args) throws Throwable {
+        if (enabled && method.getName().startsWith("execute")) {
+            Thread.sleep(latencyMillis);
+        }
+        return invoke(method, target, args);
+    }
+    
+    private static Class<? extends Statement> statementInterface(Statement statement) {
+        if (statement instanceof CallableStatement) {
+            return CallableStatement.class;
+        }
+        if (statement instanceof PreparedStatement) {
+            return PreparedStatement.class;
+        }
+        return Statement.class;
+    }
+    
+    private static Object invoke(Method method, Object target, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, Object target, Handler handler) {
+        InvocationHandler invocationHandler = (proxy, method, args) -> handler.handle(target, method, args);
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, invocationHandler);
+    }
+    
+    @FunctionalInterface
+    private interface Handler {
+        Object handle(Object target, Method method, Object[] args) throws Throwable;
+    }
+}
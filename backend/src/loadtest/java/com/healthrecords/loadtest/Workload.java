@@ -0,0 +1,39 @@
+package com.healthrecords.loadtest;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Request mixes. {@code VISITS} exercises only the visit read and write paths, with the write share
+ * taken from {@code loadtest.writePercent}. {@code MIXED} approximates a clinic day across all APIs.
+ */
+enum Workload {
+    VISITS {
+        @Override
+        Endpoint pick(int writePercent) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            if (random.nextInt(100) < writePercent) {
+                return Endpoint.CREATE_VISIT;
+            }
+            return random.nextInt(100) < 60 ? Endpoint.GET_VISIT : Endpoint.PATIENT_VISITS;
+        }
+    },
+    MIXED {
+        // Percentages in Endpoint declaration order
+        private final int[] weights = {25, 20, 10, 10, 10, 5, 15, 5};
+        
+        @Override
+        Endpoint pick(int writePercent) {
+            int roll = ThreadLocalRandom.current().nextInt(100);
+            Endpoint[] endpoints = Endpoint.values();
+            for (int i = 0; i < endpoints.length; i++) {
+                roll -= weights[i];
+                if (roll < 0) {
+                    return endpoints[i];
+                }
+            }
+            return Endpoint.GET_VISIT;
+        }
+    };
+    
+    abstract Endpoint pick(int writePercent);
+}
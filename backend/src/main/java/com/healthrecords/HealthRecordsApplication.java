@@ -2,8 +2,10 @@ package com.healthrecords;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class HealthRecordsApplication {
     public static void main(String[] args) {
         SpringApplication.run(HealthRecordsApplication.class, args);
@@ -0,0 +1,231 @@
+package com.healthrecords.archive;
+
+import com.healthrecords.cache.UserCache;
+import com.healthrecords.dto.VisitResponseDTO;
+import com.healthrecords.entity.User;
+import com.healthrecords.repository.VisitArchiveSegmentRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.lang.Nullable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Read side of the visit archive. The segments listed in {@code visit_archive_segments} are copied to
+ * {@code dir} once and memory-mapped; every instance refreshes the list periodically, so a new segment
+ * is readable everywhere within one refresh interval. The local files are only a cache of the table
+ * and are fetched again when missing or damaged.
+ */
+public class VisitArchive {
+    
+    private static final Logger log = LoggerFactory.getLogger(VisitArchive.class);
+    private static final String SEGMENT_SUFFIX = ".vseg";
+    private static final Comparator<VisitResponseDTO> BY_DATE_AND_ID = Comparator
+            .comparing(VisitResponseDTO::getVisitDate)
+            .thenComparing(VisitResponseDTO::getId);
+    
+    private final VisitArchiveSegmentRepository segmentRepository;
+    private final UserCache userCache;
+    // Read-write so the segment list is always read from the primary
+    private final TransactionTemplate transactionTemplate;
+    private final Path dir;
+    
+    private volatile Snapshot snapshot = new Snapshot(List.of(), Map.of());
+    
+    public VisitArchive(VisitArchiveSegmentRepository segmentRepository, UserCache userCache,
+                        PlatformTransactionManager transactionManager, Path dir) throws IOException {
+        this.segmentRepository = segmentRepository;
+        this.userCache = userCache;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.dir = dir;
+        Files.createDirectories(dir);
+    }
+    
+    // Synchronized so two refreshes never fetch the same segment at once
+    @Scheduled(fixedDelayString = "${healthrecords.archive.refresh-interval-ms:1000}")
+    public synchronized void refresh() {
+        List<VisitArchiveSegmentRepository.SegmentView> rows = transactionTemplate.execute(
+                status -> segmentRepository.findAllSegments());
+        Map<String, VisitSegment> opened = new HashMap<>();
+        Map<String, Instant> archivedAt = new HashMap<>();
+        for (VisitSegment segment : snapshot.segments) {
+            opened.put(segment.name(), segment);
+        }
+        List<VisitSegment> segments = new ArrayList<>(rows.size());
+        boolean changed = rows.size() != opened.size();
+        for (VisitArchiveSegmentRepository.SegmentView row : rows) {
+            VisitSegment segment = opened.get(row.getName());
+            if (segment == null) {
+                segment = load(row.getName(), row.getChecksum());
+                changed = true;
+            }
+            segments.add(segment);
+            archivedAt.put(row.getName(), row.getCreatedAt());
+        }
+        if (changed) {
+            snapshot = new Snapshot(segments, archivedAt);
+        }
+    }
+    
+    public int segmentCount() {
+        return snapshot.segments.size();
+    }
+    
+    public long count() {
+        return snapshot.visitCount;
+    }
+    
+    public Optional<VisitResponseDTO> findDtoById(long id) {
+        for (VisitSegment segment : snapshot.segments) {
+            Optional<VisitResponseDTO> visit = segment.findById(id);
+            if (visit.isPresent()) {
+                return visit.map(this::withNames);
+            }
+        }
+        return Optional.empty();
+    }
+    
+    /**
+     * The patient's archived visits ordered by date and id, like the hot table's patient pages.
+     */
+    public List<VisitResponseDTO> findDtosByPatientId(long patientId) {
+        List<VisitResponseDTO> visits = new ArrayList<>();
+        for (VisitSegment segment : snapshot.segments) {
+            visits.addAll(segment.findByPatientId(patientId));
+        }
+        visits.sort(BY_DATE_AND_ID);
+        visits.forEach(this::withNames);
+        return visits;
+    }
+    
+    /**
+     * Passes the visits of every segment, or only of those archived at or after {@code archivedSince},
+     * to the consumer, one segment at a time.
+     */
+    public void forEachVisit(@Nullable Instant archivedSince, Consumer<VisitResponseDTO> consumer) {
+        Snapshot current = snapshot;
+        for (VisitSegment segment : current.segments) {
+            if (archivedSince == null || !current.archivedAt.get(segment.name()).isBefore(archivedSince)) {
+                segment.forEachVisit(visit -> consumer.accept(withNames(visit)));
+            }
+        }
+    }
+    
+    public boolean hasVisitsOf(long userId) {
+        Snapshot current = snapshot;
+        return current.dayCountsByDoctor.containsKey(userId)
+                || current.segments.stream().anyMatch(segment -> segment.containsPatient(userId));
+    }
+    
+    // The last day with an archived visit, or null when nothing is archived
+    public LocalDate lastDay() {
+        return snapshot.lastDay;
+    }
+    
+    public Set<Long> doctorIds() {
+        return snapshot.dayCountsByDoctor.keySet();
+    }
+    
+    public Map<Long, Long> countGroupByDoctor() {
+        Map<Long, Long> counts = new HashMap<>();
+        snapshot.dayCountsByDoctor.forEach((doctorId, days) ->
+                counts.put(doctorId, days.values().stream().mapToLong(Long::longValue).sum()));
+        return counts;
+    }
+    
+    public Map<LocalDate, Long> countGroupByDay() {
+        Map<LocalDate, Long> counts = new HashMap<>();
+        snapshot.dayCountsByDoctor.values().forEach(days -> days.forEach((day, count) -> counts.merge(day, count, Long::sum)));
+        return counts;
+    }
+    
+    public Map<LocalDate, Long> countGroupByDayForDoctor(long doctorId) {
+        Map<LocalDate, Long> days = snapshot.dayCountsByDoctor.get(doctorId);
+        return days != null ? days : Map.of();
+    }
+    
+    private VisitResponseDTO withNames(VisitResponseDTO visit) {
+        visit.setPatientName(userCache.findById(visit.getPatientId()).map(User::getFullName).orElse(null));
+        visit.setDoctorName(userCache.findById(visit.getDoctorId()).map(User::getFullName).orElse(null));
+        return visit;
+    }
+    
+    private VisitSegment load(String name, long checksum) {
+        Path file = dir.resolve(name + SEGMENT_SUFFIX);
+        try {
+            if (Files.exists(file) && checksum(file) == checksum) {
+                return VisitSegment.open(name, file);
+            }
+            byte[] content = transactionTemplate.execute(status -> segmentRepository.findContentByName(name))
+                    .orElseThrow(() -> new IllegalStateException("Archive segment " + name + " was removed"));
+            CRC32 crc = new CRC32();
+            crc.update(content);
+            if (crc.getValue() != checksum) {
+                throw new IllegalStateException("Archive segment " + name + " does not match its checksum");
+            }
+            // Instances sharing the directory each write their own temporary file and rename it into place
+            Path temp = Files.createTempFile(dir, name, ".tmp");
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                channel.write(ByteBuffer.wrap(content));
+                channel.force(true);
+            }
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            log.info("Fetched archive segment {} ({} bytes)", name, content.length);
+            return VisitSegment.open(name, file);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open archive segment " + name, e);
+        }
+    }
+    
+    private static long checksum(Path file) throws IOException {
+        CRC32 crc = new CRC32();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            crc.update(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+        return crc.getValue();
+    }
+    
+    private static final class Snapshot {
+        
+        private final List<VisitSegment> segments;
+        private final Map<String, Instant> archivedAt;
+        private final long visitCount;
+        private final Map<Long, TreeMap<LocalDate, Long>> dayCountsByDoctor = new HashMap<>();
+        private final LocalDate lastDay;
+        
+        private Snapshot(List<VisitSegment> segments, Map<String, Instant> archivedAt) {
+            this.segments = List.copyOf(segments);
+            this.archivedAt = Map.copyOf(archivedAt);
+            long visits = 0;
+            for (VisitSegment segment : segments) {
+                visits += segment.visitCount();
+                segment.forEachDayCount((doctorId, day, count) -> dayCountsByDoctor
+                        .computeIfAbsent(doctorId, id -> new TreeMap<>()).merge(day, (long) count, Long::sum));
+            }
+            this.visitCount = visits;
+            this.lastDay = dayCountsByDoctor.values().stream().map(TreeMap::lastKey).max(Comparator.naturalOrder()).orElse(null);
+        }
+    }
+}
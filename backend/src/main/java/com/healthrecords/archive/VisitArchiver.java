@@ -0,0 +1,93 @@
+package com.healthrecords.archive;
+
+import com.healthrecords.entity.Visit;
+import com.healthrecords.entity.VisitArchiveSegment;
+import com.healthrecords.repository.VisitRepository;
+import jakarta.persistence.EntityManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Moves visits older than {@code age} out of the visits table into archive segments. Each segment is
+ * written and its visits deleted in one transaction, so a visit is always in exactly one of the two.
+ * Statistics and rollups are left alone: archived visits still count, and reconciliation includes them.
+ */
+public class VisitArchiver {
+    
+    private static final Logger log = LoggerFactory.getLogger(VisitArchiver.class);
+    private static final int DELETE_CHUNK_SIZE = 1000;
+    
+    private final VisitRepository visitRepository;
+    private final VisitArchive visitArchive;
+    private final EntityManager entityManager;
+    private final TransactionTemplate transactionTemplate;
+    private final Duration age;
+    private final int segmentRows;
+    
+    public VisitArchiver(VisitRepository visitRepository, VisitArchive visitArchive, EntityManager entityManager,
+                         TransactionTemplate transactionTemplate, Duration age, int segmentRows) {
+        this.visitRepository = visitRepository;
+        this.visitArchive = visitArchive;
+        this.entityManager = entityManager;
+        this.transactionTemplate = transactionTemplate;
+        this.age = age;
+        this.segmentRows = segmentRows;
+    }
+    
+    /**
+     * Archives every visit older than the configured age, one segment at a time, and returns how many
+     * were archived. Safe to run on several instances at once; they lock disjoint rows or wait.
+     */
+    @Scheduled(cron = "${healthrecords.archive.cron:0 0 3 * * *}")
+    public int archive() {
+        LocalDateTime before = LocalDateTime.now().minus(age);
+        int archived = 0;
+        int rows;
+        do {
+            Integer segment = transactionTemplate.execute(status -> archiveSegment(before));
+            rows = segment != null ? segment : 0;
+            archived += rows;
+        } while (rows == segmentRows);
+        if (archived > 0) {
+            visitArchive.refresh();
+            log.info("Archived {} visits from before {}", archived, before);
+        }
+        return archived;
+    }
+    
+    private int archiveSegment(LocalDateTime before) {
+        List<Visit> visits = visitRepository.findForArchive(before, Limit.of(segmentRows));
+        if (visits.isEmpty()) {
+            return 0;
+        }
+        byte[] content = VisitSegment.write(visits);
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        Instant now = Instant.now();
+        LocalDateTime minVisitDate = visits.stream().map(Visit::getVisitDate).min(Comparator.naturalOrder()).orElseThrow();
+        LocalDateTime maxVisitDate = visits.stream().map(Visit::getVisitDate).max(Comparator.naturalOrder()).orElseThrow();
+        // Ids are archived once, so the first id keeps names unique; the time keeps them in archive order
+        String name = String.format("%013d-%019d", now.toEpochMilli(), visits.get(0).getId());
+        entityManager.persist(new VisitArchiveSegment(name, visits.size(), minVisitDate, maxVisitDate, crc.getValue(),
+                content, now));
+        entityManager.flush();
+        
+        List<Long> ids = visits.stream().map(Visit::getId).toList();
+        for (int start = 0; start < ids.size(); start += DELETE_CHUNK_SIZE) {
+            visitRepository.deleteByIdIn(ids.subList(start, Math.min(start + DELETE_CHUNK_SIZE, ids.size())));
+        }
+        entityManager.clear();
+        log.info("Wrote archive segment {} with {} visits ({} bytes)", name, visits.size(), content.length);
+        return visits.size();
+    }
+}
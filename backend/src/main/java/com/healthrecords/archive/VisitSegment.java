@@ -0,0 +1,394 @@
+package com.healthrecords.archive;
+
+import com.healthrecords.dto.VisitResponseDTO;
+import com.healthrecords.entity.Visit;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+/**
+ * A memory-mapped file of archived visits. Visits are grouped by patient and each patient's visits are
+ * deflated as one block, so reading a patient's history is a binary search in the index and one inflate.
+ * <pre>
+ * header   magic, format version
+ * blocks   one deflated block per patient, visits ordered by date and id
+ * index    patients: id, block offset, compressed and raw length, visit count; sorted by patient id
+ *          visits: id and the patient it belongs to; sorted by visit id
+ *          counts: visits per doctor and day
+ * trailer  index offset, CRC32 of the index, magic
+ * </pre>
+ * Segments are never modified once written; the index is read into arrays when the file is opened.
+ */
+public final class VisitSegment {
+    
+    private static final int MAGIC = 0x48525653;
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+    private static final int TRAILER_BYTES = 16;
+    
+    // Bits of the optional fields present in a record
+    private static final int REASON = 1;
+    private static final int SYMPTOMS = 1 << 1;
+    private static final int DIAGNOSIS = 1 << 2;
+    private static final int MEDICINES = 1 << 3;
+    private static final int HEIGHT = 1 << 4;
+    private static final int WEIGHT = 1 << 5;
+    private static final int BLOOD_PRESSURE = 1 << 6;
+    private static final int PULSE = 1 << 7;
+    private static final int TEMPERATURE = 1 << 8;
+    private static final int NOTES = 1 << 9;
+    
+    private static final Comparator<Visit> FILE_ORDER = Comparator
+            .comparing((Visit visit) -> visit.getPatient().getId())
+            .thenComparing(Visit::getVisitDate)
+            .thenComparing(Visit::getId);
+    
+    private final String name;
+    private final ByteBuffer buffer;
+    private final long[] patientIds;
+    private final int[] blockOffsets;
+    private final int[] blockLengths;
+    private final int[] rawLengths;
+    private final int[] patientVisitCounts;
+    private final long[] visitIds;
+    private final int[] visitPatients;
+    private final long[] countDoctorIds;
+    private final long[] countDays;
+    private final int[] counts;
+    
+    private VisitSegment(String name, ByteBuffer buffer) throws IOException {
+        this.name = name;
+        this.buffer = buffer;
+        int size = buffer.capacity();
+        if (size < HEADER_BYTES + TRAILER_BYTES || buffer.getInt(0) != MAGIC || buffer.getInt(size - 4) != MAGIC) {
+            throw new IOException("Not a visit archive segment: " + name);
+        }
+        if (buffer.getInt(4) != FORMAT_VERSION) {
+            throw new IOException("Unsupported format version " + buffer.getInt(4) + " in segment " + name);
+        }
+        long indexOffset = buffer.getLong(size - TRAILER_BYTES);
+        long indexLength = size - TRAILER_BYTES - indexOffset;
+        if (indexOffset < HEADER_BYTES || indexLength < 0) {
+            throw new IOException("Corrupt index in segment " + name);
+        }
+        ByteBuffer index = buffer.slice((int) indexOffset, (int) indexLength);
+        CRC32 crc = new CRC32();
+        crc.update(index.duplicate());
+        if ((int) crc.getValue() != buffer.getInt(size - TRAILER_BYTES + 8)) {
+            throw new IOException("Index checksum mismatch in segment " + name);
+        }
+        
+        int patients = index.getInt();
+        patientIds = new long[patients];
+        blockOffsets = new int[patients];
+        blockLengths = new int[patients];
+        rawLengths = new int[patients];
+        patientVisitCounts = new int[patients];
+        for (int i = 0; i < patients; i++) {
+            patientIds[i] = index.getLong();
+            blockOffsets[i] = index.getInt();
+            blockLengths[i] = index.getInt();
+            rawLengths[i] = index.getInt();
+            patientVisitCounts[i] = index.getInt();
+        }
+        int visits = index.getInt();
+        visitIds = new long[visits];
+        visitPatients = new int[visits];
+        for (int i = 0; i < visits; i++) {
+            visitIds[i] = index.getLong();
+            visitPatients[i] = index.getInt();
+        }
+        int countRows = index.getInt();
+        countDoctorIds = new long[countRows];
+        countDays = new long[countRows];
+        counts = new int[countRows];
+        for (int i = 0; i < countRows; i++) {
+            countDoctorIds[i] = index.getLong();
+            countDays[i] = index.getLong();
+            counts[i] = index.getInt();
+        }
+    }
+    
+    /**
+     * Maps a segment file read-only. The mapping stays valid after the channel is closed and is
+     * released with the segment.
+     */
+    public static VisitSegment open(String name, Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new VisitSegment(name, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+    
+    /**
+     * Encodes visits as a segment. Only the ids of the patient and doctor are read from the visits,
+     * so they may be uninitialized proxies.
+     */
+    public static byte[] write(List<Visit> visits) {
+        List<Visit> sorted = new ArrayList<>(visits);
+        sorted.sort(FILE_ORDER);
+        try {
+            ByteArrayOutputStream file = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(file);
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            
+            ByteArrayOutputStream index = new ByteArrayOutputStream();
+            DataOutputStream indexOut = new DataOutputStream(index);
+            long[][] visitEntries = new long[sorted.size()][];
+            Map<DoctorDay, Integer> dayCounts = new TreeMap<>();
+            int patients = 0;
+            ByteArrayOutputStream patientIndex = new ByteArrayOutputStream();
+            DataOutputStream patientIndexOut = new DataOutputStream(patientIndex);
+            Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+            try {
+                int start = 0;
+                while (start < sorted.size()) {
+                    long patientId = sorted.get(start).getPatient().getId();
+                    int end = start;
+                    ByteArrayOutputStream raw = new ByteArrayOutputStream();
+                    DataOutputStream rawOut = new DataOutputStream(raw);
+                    while (end < sorted.size() && sorted.get(end).getPatient().getId() == patientId) {
+                        Visit visit = sorted.get(end);
+                        writeVisit(rawOut, visit);
+                        visitEntries[end] = new long[] {visit.getId(), patients};
+                        dayCounts.merge(new DoctorDay(visit.getDoctor().getId(), visit.getVisitDate().toLocalDate().toEpochDay()),
+                                1, Integer::sum);
+                        end++;
+                    }
+                    int offset = out.size();
+                    deflater.reset();
+                    DeflaterOutputStream block = new DeflaterOutputStream(out, deflater);
+                    raw.writeTo(block);
+                    block.finish();
+                    patientIndexOut.writeLong(patientId);
+                    patientIndexOut.writeInt(offset);
+                    patientIndexOut.writeInt(out.size() - offset);
+                    patientIndexOut.writeInt(raw.size());
+                    patientIndexOut.writeInt(end - start);
+                    patients++;
+                    start = end;
+                }
+            } finally {
+                deflater.end();
+            }
+            
+            indexOut.writeInt(patients);
+            patientIndex.writeTo(indexOut);
+            Arrays.sort(visitEntries, Comparator.comparingLong(entry -> entry[0]));
+            indexOut.writeInt(visitEntries.length);
+            for (long[] entry : visitEntries) {
+                indexOut.writeLong(entry[0]);
+                indexOut.writeInt((int) entry[1]);
+            }
+            indexOut.writeInt(dayCounts.size());
+            for (Map.Entry<DoctorDay, Integer> count : dayCounts.entrySet()) {
+                indexOut.writeLong(count.getKey().doctorId());
+                indexOut.writeLong(count.getKey().epochDay());
+                indexOut.writeInt(count.getValue());
+            }
+            
+            int indexOffset = out.size();
+            byte[] indexBytes = index.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(indexBytes);
+            out.write(indexBytes);
+            out.writeLong(indexOffset);
+            out.writeInt((int) crc.getValue());
+            out.writeInt(MAGIC);
+            return file.toByteArray();
+        } catch (IOException e) {
+            // Only in-memory streams are written
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    public String name() {
+        return name;
+    }
+    
+    public int visitCount() {
+        return visitIds.length;
+    }
+    
+    public boolean containsPatient(long patientId) {
+        return Arrays.binarySearch(patientIds, patientId) >= 0;
+    }
+    
+    public int visitCountOfPatient(long patientId) {
+        int patient = Arrays.binarySearch(patientIds, patientId);
+        return patient >= 0 ? patientVisitCounts[patient] : 0;
+    }
+    
+    /**
+     * The patient's visits ordered by date and id, without user names.
+     */
+    public List<VisitResponseDTO> findByPatientId(long patientId) {
+        int patient = Arrays.binarySearch(patientIds, patientId);
+        return patient >= 0 ? readBlock(patient) : List.of();
+    }
+    
+    /**
+     * Passes every visit to the consumer, patient by patient, without user names. Only one patient's
+     * block is inflated at a time.
+     */
+    public void forEachVisit(Consumer<VisitResponseDTO> consumer) {
+        for (int patient = 0; patient < patientIds.length; patient++) {
+            readBlock(patient).forEach(consumer);
+        }
+    }
+    
+    public Optional<VisitResponseDTO> findById(long id) {
+        int visit = Arrays.binarySearch(visitIds, id);
+        if (visit < 0) {
+            return Optional.empty();
+        }
+        return readBlock(visitPatients[visit]).stream().filter(dto -> dto.getId() == id).findFirst();
+    }
+    
+    /**
+     * Calls {@code counter} with the number of visits of each doctor on each day.
+     */
+    public void forEachDayCount(DayCountConsumer counter) {
+        for (int i = 0; i < counts.length; i++) {
+            counter.accept(countDoctorIds[i], LocalDate.ofEpochDay(countDays[i]), counts[i]);
+        }
+    }
+    
+    private List<VisitResponseDTO> readBlock(int patient) {
+        byte[] raw = new byte[rawLengths[patient]];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(buffer.slice(blockOffsets[patient], blockLengths[patient]));
+            int read = 0;
+            while (read < raw.length) {
+                int inflated = inflater.inflate(raw, read, raw.length - read);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IllegalStateException("Truncated block for patient " + patientIds[patient] + " in segment " + name);
+                }
+                read += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt block for patient " + patientIds[patient] + " in segment " + name, e);
+        } finally {
+            inflater.end();
+        }
+        
+        List<VisitResponseDTO> visits = new ArrayList<>(patientVisitCounts[patient]);
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(raw))) {
+            for (int i = 0; i < patientVisitCounts[patient]; i++) {
+                visits.add(readVisit(in, patientIds[patient]));
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Corrupt block for patient " + patientIds[patient] + " in segment " + name, e);
+        }
+        return visits;
+    }
+    
+    private static void writeVisit(DataOutputStream out, Visit visit) throws IOException {
+        int present = (visit.getReasonForVisit() != null ? REASON : 0)
+                | (visit.getSymptoms() != null ? SYMPTOMS : 0)
+                | (visit.getDiagnosis() != null ? DIAGNOSIS : 0)
+                | (visit.getPrescribedMedicines() != null ? MEDICINES : 0)
+                | (visit.getHeightCm() != null ? HEIGHT : 0)
+                | (visit.getWeightKg() != null ? WEIGHT : 0)
+                | (visit.getBloodPressure() != null ? BLOOD_PRESSURE : 0)
+                | (visit.getPulse() != null ? PULSE : 0)
+                | (visit.getTemperature() != null ? TEMPERATURE : 0)
+                | (visit.getNotes() != null ? NOTES : 0);
+        out.writeLong(visit.getId());
+        out.writeLong(visit.getDoctor().getId());
+        out.writeLong(visit.getVisitDate().toEpochSecond(ZoneOffset.UTC));
+        out.writeInt(visit.getVisitDate().getNano());
+        out.writeShort(present);
+        // Every text column is at most 2000 characters, well within writeUTF's 64 KB
+        if (visit.getReasonForVisit() != null) {
+            out.writeUTF(visit.getReasonForVisit());
+        }
+        if (visit.getSymptoms() != null) {
+            out.writeUTF(visit.getSymptoms());
+        }
+        if (visit.getDiagnosis() != null) {
+            out.writeUTF(visit.getDiagnosis());
+        }
+        if (visit.getPrescribedMedicines() != null) {
+            out.writeUTF(visit.getPrescribedMedicines());
+        }
+        if (visit.getHeightCm() != null) {
+            out.writeDouble(visit.getHeightCm());
+        }
+        if (visit.getWeightKg() != null) {
+            out.writeDouble(visit.getWeightKg());
+        }
+        if (visit.getBloodPressure() != null) {
+            out.writeUTF(visit.getBloodPressure());
+        }
+        if (visit.getPulse() != null) {
+            out.writeInt(visit.getPulse());
+        }
+        if (visit.getTemperature() != null) {
+            out.writeDouble(visit.getTemperature());
+        }
+        if (visit.getNotes() != null) {
+            out.writeUTF(visit.getNotes());
+        }
+    }
+    
+    private static VisitResponseDTO readVisit(DataInputStream in, long patientId) throws IOException {
+        VisitResponseDTO visit = new VisitResponseDTO();
+        visit.setId(in.readLong());
+        visit.setPatientId(patientId);
+        visit.setDoctorId(in.readLong());
+        long epochSecond = in.readLong();
+        visit.setVisitDate(LocalDateTime.ofEpochSecond(epochSecond, in.readInt(), ZoneOffset.UTC));
+        int present = in.readShort();
+        visit.setReasonForVisit((present & REASON) != 0 ? in.readUTF() : null);
+        visit.setSymptoms((present & SYMPTOMS) != 0 ? in.readUTF() : null);
+        visit.setDiagnosis((present & DIAGNOSIS) != 0 ? in.readUTF() : null);
+        visit.setPrescribedMedicines((present & MEDICINES) != 0 ? in.readUTF() : null);
+        visit.setHeightCm((present & HEIGHT) != 0 ? in.readDouble() : null);
+        visit.setWeightKg((present & WEIGHT) != 0 ? in.readDouble() : null);
+        visit.setBloodPressure((present & BLOOD_PRESSURE) != 0 ? in.readUTF() : null);
+        visit.setPulse((present & PULSE) != 0 ? in.readInt() : null);
+        visit.setTemperature((present & TEMPERATURE) != 0 ? in.readDouble() : null);
+        visit.setNotes((present & NOTES) != 0 ? in.readUTF() : null);
+        return visit;
+    }
+    
+    @FunctionalInterface
+    public interface DayCountConsumer {
+        void accept(long doctorId, LocalDate day, int count);
+    }
+    
+    private record DoctorDay(long doctorId, long epochDay) implements Comparable<DoctorDay> {
+        
+        @Override
+        public int compareTo(DoctorDay other) {
+            int byDoctor = Long.compare(doctorId, other.doctorId);
+            return byDoctor != 0 ? byDoctor : Long.compare(epochDay, other.epochDay);
+        }
+    }
+}
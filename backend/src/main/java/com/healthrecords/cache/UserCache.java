@@ -0,0 +1,91 @@
+package com.healthrecords.cache;
+
+import com.healthrecords.entity.User;
+import com.healthrecords.repository.UserRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Read-through cache for users by id and by email. Cached instances are detached copies, so the
+ * persistence context that loaded a user never shares it with other requests. The copies are shared
+ * between threads, so callers must treat them as read-only and load from {@link UserRepository} when
+ * they need to modify a user.
+ */
+@Component
+public class UserCache {
+    
+    private final UserRepository userRepository;
+    private final BoundedTtlCache<Long, User> usersById;
+    private final BoundedTtlCache<String, User> usersByEmail;
+    
+    public UserCache(UserRepository userRepository,
+                     @Value("${healthrecords.cache.users.max-size:10000}") int maxSize,
+                     @Value("${healthrecords.cache.users.ttl-seconds:300}") long ttlSeconds) {
+        this.userRepository = userRepository;
+        this.usersById = new BoundedTtlCache<>(maxSize, ttlSeconds * 1000);
+        this.usersByEmail = new BoundedTtlCache<>(maxSize, ttlSeconds * 1000);
+    }
+    
+    public Optional<User> findById(Long id) {
+        User user = usersById.get(id);
+        if (user == null) {
+            Optional<User> loaded = userRepository.findById(id);
+            loaded.ifPresent(this::put);
+            return loaded;
+        }
+        return Optional.of(user);
+    }
+    
+    public Optional<User> findByEmail(String email) {
+        User user = usersByEmail.get(email);
+        if (user == null) {
+            Optional<User> loaded = userRepository.findByEmail(email);
+            loaded.ifPresent(this::put);
+            return loaded;
+        }
+        return Optional.of(user);
+    }
+    
+    /**
+     * Drops a user from the cache now and, when called inside a transaction, again after commit
+     * so a concurrent reader cannot re-cache the row it read before the change was committed.
+     */
+    public void evict(Long id, String email) {
+        usersById.remove(id);
+        usersByEmail.remove(email);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    usersById.remove(id);
+                    usersByEmail.remove(email);
+                }
+            });
+        }
+    }
+    
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("size", (long) usersById.size());
+        stats.put("hits", usersById.getHits() + usersByEmail.getHits());
+        stats.put("misses", usersById.getMisses() + usersByEmail.getMisses());
+        stats.put("evictions", usersById.getEvictions() + usersByEmail.getEvictions());
+        return stats;
+    }
+    
+    // The loaded user stays managed by the caller's persistence context, which may still change it
+    private void put(User user) {
+        User copy = new User(user.getId(), user.getFullName(), user.getEmail(), user.getPassword(), user.getRole(),
+                user.getPhoneNumber(), user.getGender(), user.getDateOfBirth(), user.getSpecialization(), user.getAddress());
+        copy.setVersion(user.getVersion());
+        copy.setLastModified(user.getLastModified());
+        usersById.put(copy.getId(), copy);
+        usersByEmail.put(copy.getEmail(), copy);
+    }
+}
@@ -1,15 +1,99 @@
 package com.healthrecords.config;
 
+import com.healthrecords.entity.DataMigration;
+import com.healthrecords.entity.Visit;
+import com.healthrecords.repository.DataMigrationRepository;
+import com.healthrecords.repository.VisitRepository;
+import com.healthrecords.service.UserService;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
 
 @Component
 public class DataInitializer implements CommandLineRunner {
     
+    private static final int BACKFILL_BATCH_SIZE = 500;
+    private static final String BLOOD_PRESSURE_BACKFILL = "visits.blood_pressure";
+    
+    private final VisitRepository visitRepository;
+    private final DataMigrationRepository dataMigrationRepository;
+    private final UserService userService;
+    private final TransactionTemplate transactionTemplate;
+    private final String adminEmail;
+    private final String adminPassword;
+    
+    public DataInitializer(VisitRepository visitRepository, DataMigrationRepository dataMigrationRepository,
+                           UserService userService,
+                           PlatformTransactionManager transactionManager,
+                           @Value("${healthrecords.admin.email:}") String adminEmail,
+                           @Value("${healthrecords.admin.password:}") String adminPassword) {
+        this.visitRepository = visitRepository;
+        this.dataMigrationRepository = dataMigrationRepository;
+        this.userService = userService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.adminEmail = adminEmail;
+        this.adminPassword = adminPassword;
+    }
+    
     @Override
     public void run(String... args) {
-        // No default users - all users must register through the API
+        // No default users - patients register through the API, doctors and admins are added by an admin
         System.out.println("Application started. Users can register through /api/users endpoint.");
+        createInitialAdmin();
+        
+        int parsed = backfillBloodPressure();
+        if (parsed > 0) {
+            System.out.println("Parsed systolic/diastolic values for " + parsed + " existing visits.");
+        }
+    }
+    
+    // Only admins can create admins, so the first one comes from configuration
+    private void createInitialAdmin() {
+        if (adminEmail.isBlank() || adminPassword.isBlank()) {
+            return;
+        }
+        try {
+            if (userService.createInitialAdmin(adminEmail, adminPassword)) {
+                System.out.println("Created the initial admin " + adminEmail + ".");
+            }
+        } catch (DataIntegrityViolationException e) {
+            // Another instance created it at the same time
+        }
+    }
+    
+    // Visits saved before blood pressure was split into columns. The last id handled is stored with each
+    // batch, so values that cannot be parsed are only tried once rather than on every start
+    private int backfillBloodPressure() {
+        long afterId = dataMigrationRepository.findById(BLOOD_PRESSURE_BACKFILL).map(DataMigration::getLastId).orElse(0L);
+        int parsed = 0;
+        while (true) {
+            long cursor = afterId;
+            List<Visit> batch;
+            try {
+                batch = transactionTemplate.execute(status -> {
+                    List<Visit> visits = visitRepository.findUnparsedBloodPressure(cursor, Limit.of(BACKFILL_BATCH_SIZE));
+                    visits.forEach(visit -> visit.setBloodPressure(visit.getBloodPressure()));
+                    if (!visits.isEmpty()) {
+                        dataMigrationRepository.save(new DataMigration(BLOOD_PRESSURE_BACKFILL,
+                                visits.get(visits.size() - 1).getId()));
+                    }
+                    return visits;
+                });
+            } catch (DataIntegrityViolationException e) {
+                // Another instance started the backfill at the same time and carries on with it
+                return parsed;
+            }
+            if (batch == null || batch.isEmpty()) {
+                return parsed;
+            }
+            parsed += (int) batch.stream().filter(visit -> visit.getSystolic() != null).count();
+            afterId = batch.get(batch.size() - 1).getId();
+        }
     }
 }
-
@@ -0,0 +1,39 @@
+package com.healthrecords.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.healthrecords.exporter.BulkExporter;
+import com.healthrecords.repository.ExportFileRepository;
+import com.healthrecords.repository.ExportJobRepository;
+import com.healthrecords.service.UserService;
+import com.healthrecords.service.VisitService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * FHIR bulk-data export under /api/admin/fhir. Files are written to {@code healthrecords.export.dir}
+ * and served from there, so downloads must reach the instance that ran the job unless the directory
+ * is a volume shared by all instances.
+ */
+@Configuration
+public class ExportConfig {
+    
+    @Bean(destroyMethod = "shutdown")
+    public BulkExporter bulkExporter(ExportJobRepository jobRepository, ExportFileRepository fileRepository,
+                                     UserService userService, VisitService visitService, ObjectMapper objectMapper,
+                                     PlatformTransactionManager transactionManager,
+                                     @Value("${healthrecords.export.dir:data/exports}") Path dir,
+                                     @Value("${healthrecords.export.max-running-jobs:1}") int maxRunningJobs,
+                                     @Value("${healthrecords.export.writer-threads:5}") int writerThreads,
+                                     @Value("${healthrecords.export.stale-after:5m}") Duration staleAfter,
+                                     @Value("${healthrecords.export.retention:1d}") Duration retention,
+                                     @Value("${healthrecords.auth.required:false}") boolean authRequired) throws IOException {
+        return new BulkExporter(jobRepository, fileRepository, userService, visitService, objectMapper, transactionManager,
+                dir, maxRunningJobs, writerThreads, staleAfter, retention, authRequired);
+    }
+}
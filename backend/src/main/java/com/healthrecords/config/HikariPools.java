@@ -0,0 +1,37 @@
+package com.healthrecords.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.core.env.Environment;
+
+/**
+ * Builds extra connection pools (replicas, shards) with the same driver, credentials and
+ * {@code spring.datasource.hikari.*} settings as the auto-configured one.
+ */
+final class HikariPools {
+    
+    private HikariPools() {
+    }
+    
+    static HikariDataSource create(DataSourceProperties properties, Environment environment, MeterRegistry meterRegistry,
+                                   String url, String username, String password) {
+        HikariDataSource pool = properties.initializeDataSourceBuilder().type(HikariDataSource.class).url(url).build();
+        Binder.get(environment).bind("spring.datasource.hikari", Bindable.ofInstance(pool));
+        if (username != null && !username.isEmpty()) {
+            pool.setUsername(username);
+            pool.setPassword(password);
+        }
+        pool.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(meterRegistry));
+        return pool;
+    }
+    
+    static void name(HikariDataSource pool, String basePoolName, String suffix) {
+        if (basePoolName != null) {
+            pool.setPoolName(basePoolName + "-" + suffix);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.healthrecords.config;
+
+import com.healthrecords.sharding.VisitShards;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Moves the users and visits id sequences past the ids already in use. Those tables used to have
+ * AUTO_INCREMENT ids, and Hibernate creates a new sequence at 1 when it adds one to an existing
+ * database. Runs while the context is created, after Hibernate has updated the schema and before any
+ * request, scheduled job or startup runner can insert a row.
+ */
+@Component
+public class IdSequenceInitializer {
+    
+    private static final Logger log = LoggerFactory.getLogger(IdSequenceInitializer.class);
+    
+    // The allocationSize of the User and Visit id generators
+    private static final int ALLOCATION_SIZE = 50;
+    
+    public IdSequenceInitializer(EntityManagerFactory entityManagerFactory, DataSource dataSource,
+                                 @Nullable VisitShards visitShards) {
+        Dialect dialect = entityManagerFactory.unwrap(SessionFactoryImplementor.class).getJdbcServices().getDialect();
+        JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+        List<JdbcTemplate> visitDatabases = new ArrayList<>();
+        if (visitShards != null) {
+            for (int shard = 0; shard < visitShards.count(); shard++) {
+                visitDatabases.add(visitShards.jdbc(shard));
+            }
+        } else {
+            visitDatabases.add(jdbc);
+        }
+        seed(jdbc, dialect, "users_seq", maxId(List.of(jdbc), "users"));
+        seed(jdbc, dialect, "visits_seq", maxId(visitDatabases, "visits"));
+    }
+    
+    private static long maxId(List<JdbcTemplate> databases, String table) {
+        long maxId = 0;
+        for (JdbcTemplate database : databases) {
+            Long max = database.queryForObject("SELECT MAX(id) FROM " + table, Long.class);
+            if (max != null) {
+                maxId = Math.max(maxId, max);
+            }
+        }
+        return maxId;
+    }
+    
+    // A pooled generator hands out the ALLOCATION_SIZE ids up to the value it reads, so the next value
+    // must be at least MAX(id) + ALLOCATION_SIZE
+    private static void seed(JdbcTemplate jdbc, Dialect dialect, String sequence, long maxId) {
+        if (maxId == 0) {
+            return;
+        }
+        long floor = maxId + ALLOCATION_SIZE;
+        if (dialect.getSequenceSupport().supportsSequences()) {
+            Long next = jdbc.queryForObject(dialect.getSequenceSupport().getSequenceNextValString(sequence), Long.class);
+            if (next != null && next < floor) {
+                jdbc.execute("ALTER SEQUENCE " + sequence + " RESTART WITH " + floor);
+                log.info("Restarted {} at {}, above the highest id in use", sequence, floor);
+            }
+        } else {
+            // MySQL has no sequences; Hibernate keeps the next value in a one-row table
+            int updated = jdbc.update("UPDATE " + sequence + " SET next_val = ? WHERE next_val < ?", floor, floor);
+            if (updated > 0) {
+                log.info("Moved {} to {}, above the highest id in use", sequence, floor);
+            }
+        }
+    }
+}
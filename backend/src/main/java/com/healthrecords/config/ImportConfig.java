@@ -0,0 +1,57 @@
+package com.healthrecords.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.healthrecords.importer.BulkImporter;
+import com.healthrecords.importer.ImportWriter;
+import com.healthrecords.repository.ImportErrorRepository;
+import com.healthrecords.repository.ImportJobRepository;
+import com.healthrecords.repository.UserRepository;
+import com.healthrecords.service.StatsCounterService;
+import com.healthrecords.service.VisitService;
+import jakarta.persistence.EntityManager;
+import jakarta.validation.Validator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Bulk import of users and visits from CSV and FHIR files under /api/admin/imports. Uploaded files are
+ * kept in {@code healthrecords.import.dir} until their job completes; a job can only be resumed
+ * without a new upload on the instance that holds its file.
+ */
+@Configuration
+public class ImportConfig {
+    
+    private static final int MAX_BATCH_SIZE = 5000;
+    
+    @Bean
+    public ImportWriter importWriter(UserRepository userRepository, VisitService visitService,
+                                     StatsCounterService statsCounterService, EntityManager entityManager) {
+        return new ImportWriter(userRepository, visitService, statsCounterService, entityManager);
+    }
+    
+    @Bean(destroyMethod = "shutdown")
+    public BulkImporter bulkImporter(ImportJobRepository jobRepository, ImportErrorRepository errorRepository,
+                                     ImportWriter importWriter, ObjectMapper objectMapper, Validator validator,
+                                     PlatformTransactionManager transactionManager,
+                                     @Value("${healthrecords.import.dir:data/imports}") Path dir,
+                                     @Value("${healthrecords.import.max-file-size:1GB}") DataSize maxFileSize,
+                                     @Value("${healthrecords.import.batch-size:1000}") int batchSize,
+                                     @Value("${healthrecords.import.max-running-jobs:2}") int maxRunningJobs,
+                                     @Value("${healthrecords.import.validation-threads:4}") int validationThreads,
+                                     @Value("${healthrecords.import.stale-after:5m}") Duration staleAfter,
+                                     @Value("${healthrecords.import.retention:30d}") Duration retention) throws IOException {
+        if (batchSize < 1 || batchSize > MAX_BATCH_SIZE) {
+            throw new IllegalStateException("healthrecords.import.batch-size must be between 1 and " + MAX_BATCH_SIZE +
+                    ", the largest batch VisitService accepts");
+        }
+        return new BulkImporter(jobRepository, errorRepository, importWriter, objectMapper, validator, transactionManager,
+                dir, maxFileSize.toBytes(), batchSize, maxRunningJobs, validationThreads, staleAfter, retention);
+    }
+}
@@ -0,0 +1,254 @@
+package com.healthrecords.config;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+import com.healthrecords.dto.UserResponseDTO;
+import com.healthrecords.dto.VisitResponseDTO;
+import com.healthrecords.entity.User;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractGenericHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.lang.Nullable;
+
+import java.io.IOException;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.time.format.DateTimeFormatter;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes visit and user responses, single or as lists, as {@code application/x-protobuf} following
+ * {@code src/main/proto/health_records.proto}, and the {@code Map<String, String>} error bodies of
+ * {@code GlobalExceptionHandler} as its Error message. Messages are encoded straight from the DTOs with
+ * {@link CodedOutputStream}, so a response is not copied into generated message objects first.
+ */
+public class ProtobufDtoHttpMessageConverter extends AbstractGenericHttpMessageConverter<Object> {
+    
+    public static final MediaType APPLICATION_PROTOBUF = new MediaType("application", "x-protobuf");
+    
+    private static final int BUFFER_SIZE = 8192;
+    private static final int LIST_ITEM_FIELD = 1;
+    private static final int ERROR_FIELDS_FIELD = 1;
+    
+    public ProtobufDtoHttpMessageConverter() {
+        super(APPLICATION_PROTOBUF);
+    }
+    
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return clazz == VisitResponseDTO.class || clazz == UserResponseDTO.class;
+    }
+    
+    @Override
+    public boolean canRead(Type type, @Nullable Class<?> contextClass, @Nullable MediaType mediaType) {
+        return false;
+    }
+    
+    @Override
+    public boolean canRead(Class<?> clazz, @Nullable MediaType mediaType) {
+        return false;
+    }
+    
+    // Lists and maps are only writable when their type arguments are known to fit a message
+    @Override
+    public boolean canWrite(@Nullable Type type, Class<?> clazz, @Nullable MediaType mediaType) {
+        if (!canWrite(mediaType)) {
+            return false;
+        }
+        if (type instanceof ParameterizedType parameterized && parameterized.getRawType() instanceof Class<?> raw) {
+            Type[] arguments = parameterized.getActualTypeArguments();
+            if (Collection.class.isAssignableFrom(raw)) {
+                return arguments[0] instanceof Class<?> elementClass && supports(elementClass);
+            }
+            if (Map.class.isAssignableFrom(raw)) {
+                return arguments[0] == String.class && arguments[1] == String.class;
+            }
+        }
+        return supports(clazz);
+    }
+    
+    // Called for the runtime class (e.g. ArrayList) once canWrite has accepted the declared type
+    @Override
+    public List<MediaType> getSupportedMediaTypes(Class<?> clazz) {
+        return getSupportedMediaTypes();
+    }
+    
+    @Override
+    protected void writeInternal(Object body, @Nullable Type type, HttpOutputMessage outputMessage) throws IOException {
+        CodedOutputStream out = CodedOutputStream.newInstance(outputMessage.getBody(), BUFFER_SIZE);
+        if (body instanceof Collection<?> items) {
+            // VisitList and UserList both hold their items in field 1
+            for (Object item : items) {
+                out.writeTag(LIST_ITEM_FIELD, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+                if (item instanceof VisitResponseDTO visit) {
+                    String visitDate = visitDate(visit);
+                    out.writeUInt32NoTag(visitSize(visit, visitDate));
+                    writeVisit(out, visit, visitDate);
+                } else {
+                    UserResponseDTO user = (UserResponseDTO) item;
+                    String dateOfBirth = dateOfBirth(user);
+                    out.writeUInt32NoTag(userSize(user, dateOfBirth));
+                    writeUser(out, user, dateOfBirth);
+                }
+            }
+        } else if (body instanceof Map<?, ?> fields) {
+            // Error: map<string, string> fields = 1, written as repeated key/value entries
+            for (Map.Entry<?, ?> field : fields.entrySet()) {
+                String key = String.valueOf(field.getKey());
+                String value = field.getValue() != null ? String.valueOf(field.getValue()) : null;
+                out.writeTag(ERROR_FIELDS_FIELD, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+                out.writeUInt32NoTag(stringSize(1, key) + stringSize(2, value));
+                writeString(out, 1, key);
+                writeString(out, 2, value);
+            }
+        } else if (body instanceof VisitResponseDTO visit) {
+            writeVisit(out, visit, visitDate(visit));
+        } else {
+            UserResponseDTO user = (UserResponseDTO) body;
+            writeUser(out, user, dateOfBirth(user));
+        }
+        out.flush();
+    }
+    
+    @Override
+    protected Object readInternal(Class<?> clazz, HttpInputMessage inputMessage) {
+        throw new HttpMessageNotReadableException("Protobuf request bodies are not supported", inputMessage);
+    }
+    
+    @Override
+    public Object read(Type type, @Nullable Class<?> contextClass, HttpInputMessage inputMessage) {
+        throw new HttpMessageNotReadableException("Protobuf request bodies are not supported", inputMessage);
+    }
+    
+    // Message Visit; every size method mirrors the write method below it field by field
+    
+    private static int visitSize(VisitResponseDTO visit, String visitDate) {
+        return int64Size(1, visit.getId())
+                + int64Size(2, visit.getPatientId())
+                + stringSize(3, visit.getPatientName())
+                + int64Size(4, visit.getDoctorId())
+                + stringSize(5, visit.getDoctorName())
+                + stringSize(6, visitDate)
+                + stringSize(7, visit.getReasonForVisit())
+                + stringSize(8, visit.getSymptoms())
+                + stringSize(9, visit.getDiagnosis())
+                + stringSize(10, visit.getPrescribedMedicines())
+                + doubleSize(11, visit.getHeightCm())
+                + doubleSize(12, visit.getWeightKg())
+                + stringSize(13, visit.getBloodPressure())
+                + int32Size(14, visit.getPulse())
+                + doubleSize(15, visit.getTemperature())
+                + stringSize(16, visit.getNotes());
+    }
+    
+    private static void writeVisit(CodedOutputStream out, VisitResponseDTO visit, String visitDate) throws IOException {
+        writeInt64(out, 1, visit.getId());
+        writeInt64(out, 2, visit.getPatientId());
+        writeString(out, 3, visit.getPatientName());
+        writeInt64(out, 4, visit.getDoctorId());
+        writeString(out, 5, visit.getDoctorName());
+        writeString(out, 6, visitDate);
+        writeString(out, 7, visit.getReasonForVisit());
+        writeString(out, 8, visit.getSymptoms());
+        writeString(out, 9, visit.getDiagnosis());
+        writeString(out, 10, visit.getPrescribedMedicines());
+        writeDouble(out, 11, visit.getHeightCm());
+        writeDouble(out, 12, visit.getWeightKg());
+        writeString(out, 13, visit.getBloodPressure());
+        writeInt32(out, 14, visit.getPulse());
+        writeDouble(out, 15, visit.getTemperature());
+        writeString(out, 16, visit.getNotes());
+    }
+    
+    // Message User
+    
+    private static int userSize(UserResponseDTO user, String dateOfBirth) {
+        return int64Size(1, user.getId())
+                + stringSize(2, user.getFullName())
+                + stringSize(3, user.getEmail())
+                + int32Size(4, role(user.getRole()))
+                + stringSize(5, user.getPhoneNumber())
+                + stringSize(6, user.getGender())
+                + stringSize(7, dateOfBirth)
+                + stringSize(8, user.getSpecialization())
+                + stringSize(9, user.getAddress());
+    }
+    
+    private static void writeUser(CodedOutputStream out, UserResponseDTO user, String dateOfBirth) throws IOException {
+        writeInt64(out, 1, user.getId());
+        writeString(out, 2, user.getFullName());
+        writeString(out, 3, user.getEmail());
+        writeInt32(out, 4, role(user.getRole()));
+        writeString(out, 5, user.getPhoneNumber());
+        writeString(out, 6, user.getGender());
+        writeString(out, 7, dateOfBirth);
+        writeString(out, 8, user.getSpecialization());
+        writeString(out, 9, user.getAddress());
+    }
+    
+    // Dates are formatted once per message, as the JSON responses format them
+    private static String visitDate(VisitResponseDTO visit) {
+        return visit.getVisitDate() != null ? DateTimeFormatter.ISO_LOCAL_DATE_TIME.format(visit.getVisitDate()) : null;
+    }
+    
+    private static String dateOfBirth(UserResponseDTO user) {
+        return user.getDateOfBirth() != null ? DateTimeFormatter.ISO_LOCAL_DATE.format(user.getDateOfBirth()) : null;
+    }
+    
+    private static Integer role(User.Role role) {
+        if (role == null) {
+            return null;
+        }
+        return switch (role) {
+            case ADMIN -> 1;
+            case DOCTOR -> 2;
+            case PATIENT -> 3;
+        };
+    }
+    
+    // Null fields are left out, which readers see as unset
+    
+    private static int int64Size(int field, Long value) {
+        return value != null ? CodedOutputStream.computeInt64Size(field, value) : 0;
+    }
+    
+    private static int int32Size(int field, Integer value) {
+        return value != null ? CodedOutputStream.computeInt32Size(field, value) : 0;
+    }
+    
+    private static int doubleSize(int field, Double value) {
+        return value != null ? CodedOutputStream.computeDoubleSize(field, value) : 0;
+    }
+    
+    private static int stringSize(int field, String value) {
+        return value != null ? CodedOutputStream.computeStringSize(field, value) : 0;
+    }
+    
+    private static void writeInt64(CodedOutputStream out, int field, Long value) throws IOException {
+        if (value != null) {
+            out.writeInt64(field, value);
+        }
+    }
+    
+    private static void writeInt32(CodedOutputStream out, int field, Integer value) throws IOException {
+        if (value != null) {
+            out.writeInt32(field, value);
+        }
+    }
+    
+    private static void writeDouble(CodedOutputStream out, int field, Double value) throws IOException {
+        if (value != null) {
+            out.writeDouble(field, value);
+        }
+    }
+    
+    private static void writeString(CodedOutputStream out, int field, String value) throws IOException {
+        if (value != null) {
+            out.writeString(field, value);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.healthrecords.config;
+
+import com.healthrecords.datasource.ReadWriteRoutingDataSource;
+import com.healthrecords.datasource.ReplicaRouter;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Replaces the auto-configured pool with a primary pool plus one pool per read replica when
+ * {@code healthrecords.datasource.replica-urls} is set. Every pool takes its settings from
+ * {@code spring.datasource.*}; replicas may override the credentials.
+ */
+@Configuration
+@ConditionalOnExpression("!'${healthrecords.datasource.replica-urls:}'.isBlank()")
+public class ReadReplicaConfig {
+    
+    @Bean
+    public ReplicaRouter replicaRouter(DataSourceProperties properties, Environment environment, MeterRegistry meterRegistry,
+                                       @Value("${healthrecords.datasource.replica-urls}") List<String> replicaUrls,
+                                       @Value("${healthrecords.datasource.replica-username:}") String replicaUsername,
+                                       @Value("${healthrecords.datasource.replica-password:}") String replicaPassword,
+                                       @Value("${healthrecords.datasource.replica-max-lag-ms:3000}") long maxLagMillis) {
+        HikariDataSource primary = HikariPools.create(properties, environment, meterRegistry, properties.determineUrl(),
+                null, null);
+        Map<String, DataSource> replicas = new LinkedHashMap<>();
+        for (int i = 0; i < replicaUrls.size(); i++) {
+            HikariDataSource replica = HikariPools.create(properties, environment, meterRegistry, replicaUrls.get(i),
+                    replicaUsername, replicaPassword);
+            String name = "replica-" + (i + 1);
+            HikariPools.name(replica, primary.getPoolName(), name);
+            replica.setReadOnly(true);
+            replicas.put(name, replica);
+        }
+        return new ReplicaRouter(primary, replicas, maxLagMillis, meterRegistry);
+    }
+    
+    @Bean
+    public DataSource dataSource(ReplicaRouter replicaRouter) {
+        return new LazyConnectionDataSourceProxy(new ReadWriteRoutingDataSource(replicaRouter));
+    }
+}
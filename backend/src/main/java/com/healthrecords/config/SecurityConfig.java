@@ -0,0 +1,25 @@
+package com.healthrecords.config;
+
+import com.healthrecords.security.TokenAuthenticationFilter;
+import com.healthrecords.security.TokenService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+
+@Configuration
+public class SecurityConfig {
+    
+    @Bean
+    public FilterRegistrationBean<TokenAuthenticationFilter> tokenAuthenticationFilter(
+            TokenService tokenService,
+            @Value("${healthrecords.auth.required:false}") boolean required) {
+        FilterRegistrationBean<TokenAuthenticationFilter> registration =
+                new FilterRegistrationBean<>(new TokenAuthenticationFilter(tokenService, required));
+        registration.addUrlPatterns("/api/*");
+        // Runs after the CORS filter so rejected responses still carry CORS headers
+        registration.setOrder(Ordered.LOWEST_PRECEDENCE);
+        return registration;
+    }
+}
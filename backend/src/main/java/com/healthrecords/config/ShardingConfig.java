@@ -0,0 +1,98 @@
+package com.healthrecords.config;
+
+import com.healthrecords.cache.UserCache;
+import com.healthrecords.repository.VisitShardBucketRepository;
+import com.healthrecords.sharding.ShardRebalancer;
+import com.healthrecords.sharding.ShardedVisitStore;
+import com.healthrecords.sharding.VisitShardMap;
+import com.healthrecords.sharding.VisitShards;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Spreads the visits table over the main database (shard 0) and the databases listed in
+ * {@code healthrecords.sharding.shard-urls}. Shard pools take their settings from
+ * {@code spring.datasource.*}; the shards may override the credentials.
+ */
+@Configuration
+@ConditionalOnExpression("!'${healthrecords.sharding.shard-urls:}'.isBlank()")
+public class ShardingConfig {
+    
+    // JPA transactions must not hold a main-database connection while the request waits on other shards
+    @Bean
+    public static BeanPostProcessor lazyMainDataSource() {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if ("dataSource".equals(beanName) && bean instanceof DataSource dataSource
+                        && !(bean instanceof LazyConnectionDataSourceProxy)) {
+                    return new LazyConnectionDataSourceProxy(dataSource);
+                }
+                return bean;
+            }
+        };
+    }
+    
+    @Bean(destroyMethod = "close")
+    public VisitShards visitShards(DataSource dataSource, DataSourceProperties properties, Environment environment,
+                                   MeterRegistry meterRegistry,
+                                   @Value("${healthrecords.sharding.shard-urls}") List<String> shardUrls,
+                                   @Value("${healthrecords.sharding.shard-username:}") String shardUsername,
+                                   @Value("${healthrecords.sharding.shard-password:}") String shardPassword,
+                                   @Value("${spring.datasource.hikari.pool-name:#{null}}") String poolName,
+                                   @Value("${healthrecords.sharding.scatter-threads:32}") int scatterThreads) {
+        List<DataSource> dataSources = new ArrayList<>();
+        dataSources.add(dataSource);
+        for (int i = 0; i < shardUrls.size(); i++) {
+            HikariDataSource shard = HikariPools.create(properties, environment, meterRegistry, shardUrls.get(i),
+                    shardUsername, shardPassword);
+            HikariPools.name(shard, poolName, "shard-" + (i + 1));
+            dataSources.add(shard);
+        }
+        VisitShards shards = new VisitShards(dataSources, scatterThreads);
+        shards.createSchema();
+        return shards;
+    }
+    
+    @Bean
+    public VisitShardMap visitShardMap(VisitShardBucketRepository bucketRepository, PlatformTransactionManager transactionManager,
+                                       VisitShards visitShards) {
+        VisitShardMap shardMap = new VisitShardMap(bucketRepository, transactionManager, visitShards.count());
+        JdbcTemplate main = visitShards.jdbc(0);
+        shardMap.initialize(!main.queryForList("SELECT id FROM visits LIMIT 1", Long.class).isEmpty());
+        return shardMap;
+    }
+    
+    @Bean
+    public ShardedVisitStore shardedVisitStore(VisitShards visitShards, VisitShardMap visitShardMap, UserCache userCache,
+                                               @Value("${healthrecords.sharding.frozen-wait-ms:10000}") long frozenWaitMillis) {
+        return new ShardedVisitStore(visitShards, visitShardMap, userCache, frozenWaitMillis);
+    }
+    
+    @Bean
+    public ShardRebalancer shardRebalancer(VisitShards visitShards, VisitShardMap visitShardMap,
+                                           VisitShardBucketRepository bucketRepository,
+                                           PlatformTransactionManager transactionManager,
+                                           @Value("${healthrecords.sharding.move-grace-ms:3000}") long graceMillis,
+                                           @Value("${healthrecords.sharding.map-refresh-interval-ms:1000}") long refreshMillis) {
+        if (graceMillis < 2 * refreshMillis) {
+            throw new IllegalStateException("healthrecords.sharding.move-grace-ms must be at least twice " +
+                    "healthrecords.sharding.map-refresh-interval-ms, so every instance sees each step of a bucket move");
+        }
+        return new ShardRebalancer(visitShards, visitShardMap, bucketRepository, transactionManager, graceMillis);
+    }
+}
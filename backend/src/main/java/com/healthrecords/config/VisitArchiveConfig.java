@@ -0,0 +1,64 @@
+package com.healthrecords.config;
+
+import com.healthrecords.archive.VisitArchive;
+import com.healthrecords.archive.VisitArchiver;
+import com.healthrecords.cache.UserCache;
+import com.healthrecords.repository.VisitArchiveSegmentRepository;
+import com.healthrecords.repository.VisitRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.persistence.EntityManager;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Visit archive: visits older than {@code healthrecords.archive.age} are moved out of the visits table
+ * into compressed segments that each instance caches in {@code healthrecords.archive.dir}. The cache
+ * can be lost with the container; segments are fetched again from the database.
+ */
+@Configuration
+@ConditionalOnProperty(name = "healthrecords.archive.enabled", havingValue = "true")
+public class VisitArchiveConfig {
+    
+    // Keeps a segment, and the transaction writing it, to a few megabytes
+    private static final int MAX_SEGMENT_ROWS = 100_000;
+    
+    @Bean
+    public VisitArchive visitArchive(VisitArchiveSegmentRepository segmentRepository, UserCache userCache,
+                                     PlatformTransactionManager transactionManager, MeterRegistry meterRegistry,
+                                     @Value("${healthrecords.sharding.shard-urls:}") String shardUrls,
+                                     @Value("${healthrecords.archive.dir:data/visit-archive}") Path dir) throws IOException {
+        if (!shardUrls.isBlank()) {
+            throw new IllegalStateException("healthrecords.archive.enabled cannot be combined with visit sharding");
+        }
+        VisitArchive archive = new VisitArchive(segmentRepository, userCache, transactionManager, dir);
+        archive.refresh();
+        Gauge.builder("healthrecords.archive.visits", archive, VisitArchive::count)
+                .description("Visits moved out of the visits table into archive segments")
+                .register(meterRegistry);
+        Gauge.builder("healthrecords.archive.segments", archive, VisitArchive::segmentCount)
+                .description("Archive segments mapped by this instance")
+                .register(meterRegistry);
+        return archive;
+    }
+    
+    @Bean
+    public VisitArchiver visitArchiver(VisitRepository visitRepository, VisitArchive visitArchive,
+                                       EntityManager entityManager, PlatformTransactionManager transactionManager,
+                                       @Value("${healthrecords.archive.age:730d}") Duration age,
+                                       @Value("${healthrecords.archive.segment-rows:20000}") int segmentRows) {
+        if (segmentRows < 1 || segmentRows > MAX_SEGMENT_ROWS) {
+            throw new IllegalStateException("healthrecords.archive.segment-rows must be between 1 and " + MAX_SEGMENT_ROWS);
+        }
+        return new VisitArchiver(visitRepository, visitArchive, entityManager, new TransactionTemplate(transactionManager),
+                age, segmentRows);
+    }
+}
@@ -0,0 +1,68 @@
+package com.healthrecords.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.healthrecords.cache.UserCache;
+import com.healthrecords.ingest.VisitIngestLog;
+import com.healthrecords.ingest.VisitIngestQueue;
+import com.healthrecords.ingest.VisitIngestWriter;
+import com.healthrecords.repository.VisitIngestReceiptRepository;
+import com.healthrecords.service.VisitService;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.persistence.EntityManager;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Asynchronous visit ingest: POST /api/visits logs the visit to local disk and answers 202, and a
+ * background writer moves the logged visits into the database. Each instance needs its own log
+ * directory on a persistent volume, or accepted visits are lost with the container.
+ */
+@Configuration
+@ConditionalOnProperty(name = "healthrecords.ingest.async.enabled", havingValue = "true")
+public class VisitIngestConfig {
+    
+    private static final int MAX_BATCH_SIZE = 5000;
+    
+    @Bean(destroyMethod = "close")
+    public VisitIngestLog visitIngestLog(@Value("${healthrecords.ingest.log-dir:data/ingest-log}") Path logDir,
+                                         @Value("${healthrecords.ingest.segment-size:64MB}") DataSize segmentSize) throws IOException {
+        return new VisitIngestLog(logDir, segmentSize.toBytes());
+    }
+    
+    @Bean
+    public VisitIngestQueue visitIngestQueue(VisitIngestLog visitIngestLog, VisitIngestReceiptRepository receiptRepository,
+                                             UserCache userCache, ObjectMapper objectMapper, MeterRegistry meterRegistry) throws IOException {
+        VisitIngestQueue queue = new VisitIngestQueue(visitIngestLog, receiptRepository, userCache, objectMapper);
+        queue.recover();
+        Gauge.builder("healthrecords.ingest.pending", queue, VisitIngestQueue::pendingCount)
+                .description("Visits accepted into the ingest log and not yet written to the database")
+                .register(meterRegistry);
+        return queue;
+    }
+    
+    @Bean(initMethod = "start", destroyMethod = "stop")
+    public VisitIngestWriter visitIngestWriter(VisitIngestLog visitIngestLog, VisitIngestQueue visitIngestQueue,
+                                               VisitService visitService, VisitIngestReceiptRepository receiptRepository,
+                                               EntityManager entityManager, PlatformTransactionManager transactionManager,
+                                               @Value("${healthrecords.ingest.batch-size:500}") int batchSize,
+                                               @Value("${healthrecords.ingest.retry-initial-ms:200}") long retryMillis,
+                                               @Value("${healthrecords.ingest.retry-max-ms:30000}") long maxRetryMillis,
+                                               @Value("${healthrecords.ingest.receipt-retention:7d}") Duration receiptRetention) {
+        if (batchSize < 1 || batchSize > MAX_BATCH_SIZE) {
+            throw new IllegalStateException("healthrecords.ingest.batch-size must be between 1 and " + MAX_BATCH_SIZE +
+                    ", the largest batch VisitService accepts");
+        }
+        return new VisitIngestWriter(visitIngestLog, visitIngestQueue, visitService, receiptRepository, entityManager,
+                new TransactionTemplate(transactionManager), batchSize, retryMillis, maxRetryMillis, receiptRetention);
+    }
+}
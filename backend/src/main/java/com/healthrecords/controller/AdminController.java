@@ -1,9 +1,22 @@
 package com.healthrecords.controller;
 
+import com.healthrecords.archive.VisitArchive;
+import com.healthrecords.archive.VisitArchiver;
+import com.healthrecords.dto.DoctorVisitCountDTO;
+import com.healthrecords.dto.VisitRollupDTO;
 import com.healthrecords.service.AdminService;
+import com.healthrecords.sharding.ShardRebalancer;
+import com.healthrecords.service.VisitSearchService;
+import com.healthrecords.service.VisitRollupService;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.lang.Nullable;
 import org.springframework.web.bind.annotation.*;
 
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 @RestController
@@ -11,15 +24,102 @@ import java.util.Map;
 public class AdminController {
     
     private final AdminService adminService;
+    private final VisitRollupService visitRollupService;
+    private final VisitSearchService visitSearchService;
+    // Only present when visits are sharded
+    private final ShardRebalancer shardRebalancer;
+    // Only present when visit archiving is enabled
+    private final VisitArchive visitArchive;
+    private final VisitArchiver visitArchiver;
     
-    public AdminController(AdminService adminService) {
+    public AdminController(AdminService adminService, VisitRollupService visitRollupService,
+                           VisitSearchService visitSearchService, @Nullable ShardRebalancer shardRebalancer,
+                           @Nullable VisitArchive visitArchive, @Nullable VisitArchiver visitArchiver) {
         this.adminService = adminService;
+        this.visitRollupService = visitRollupService;
+        this.visitSearchService = visitSearchService;
+        this.shardRebalancer = shardRebalancer;
+        this.visitArchive = visitArchive;
+        this.visitArchiver = visitArchiver;
     }
     
     @GetMapping("/stats")
-    public ResponseEntity<Map<String, Long>> getStats() {
-        Map<String, Long> stats = adminService.getStats();
+    public ResponseEntity<Map<String, Object>> getStats(@RequestParam(defaultValue = "30") int days) {
+        Map<String, Object> stats = adminService.getStats(days);
         return ResponseEntity.ok(stats);
     }
+    
+    @GetMapping("/cache-stats")
+    public ResponseEntity<Map<String, Long>> getCacheStats() {
+        Map<String, Long> stats = adminService.getUserCacheStats();
+        return ResponseEntity.ok(stats);
+    }
+    
+    @GetMapping("/analytics/visits")
+    public ResponseEntity<List<VisitRollupDTO>> getVisitSeries(
+            @RequestParam(defaultValue = "DAY") String granularity,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @RequestParam(required = false) Long doctorId) {
+        List<VisitRollupDTO> series = visitRollupService.getVisitSeries(granularity, from, to, doctorId);
+        return ResponseEntity.ok(series);
+    }
+    
+    @GetMapping("/analytics/doctors")
+    public ResponseEntity<List<DoctorVisitCountDTO>> getDoctorTotals(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to) {
+        List<DoctorVisitCountDTO> totals = visitRollupService.getDoctorTotals(from, to);
+        return ResponseEntity.ok(totals);
+    }
+    
+    @PostMapping("/analytics/backfill")
+    public ResponseEntity<Map<String, Integer>> backfillAnalytics() {
+        int rowsChanged = visitRollupService.backfill();
+        return ResponseEntity.ok(Map.of("rowsChanged", rowsChanged));
+    }
+    
+    @PostMapping("/search/rebuild")
+    public ResponseEntity<Map<String, Integer>> rebuildSearchIndex() {
+        int indexed = visitSearchService.rebuild();
+        return ResponseEntity.ok(Map.of("indexedVisits", indexed));
+    }
+    
+    @GetMapping("/sharding")
+    public ResponseEntity<Map<String, Object>> getShardingStatus() {
+        if (shardRebalancer == null) {
+            return ResponseEntity.ok(Map.of("enabled", false));
+        }
+        return ResponseEntity.ok(shardRebalancer.getStatus());
+    }
+    
+    // Runs in the background; poll GET /api/admin/sharding for progress
+    @PostMapping("/sharding/rebalance")
+    public ResponseEntity<Map<String, Object>> rebalanceShards() {
+        if (shardRebalancer == null) {
+            throw new IllegalArgumentException("Visit sharding is not enabled");
+        }
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(shardRebalancer.start());
+    }
+    
+    @GetMapping("/archive")
+    public ResponseEntity<Map<String, Object>> getArchiveStatus() {
+        if (visitArchive == null) {
+            return ResponseEntity.ok(Map.of("enabled", false));
+        }
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("enabled", true);
+        status.put("segments", visitArchive.segmentCount());
+        status.put("archivedVisits", visitArchive.count());
+        return ResponseEntity.ok(status);
+    }
+    
+    // Runs the nightly archiving now; returns once every visit past the archive age has been moved
+    @PostMapping("/archive")
+    public ResponseEntity<Map<String, Integer>> archiveVisits() {
+        if (visitArchiver == null) {
+            throw new IllegalArgumentException("Visit archiving is not enabled");
+        }
+        return ResponseEntity.ok(Map.of("archivedVisits", visitArchiver.archive()));
+    }
 }
-
@@ -2,8 +2,11 @@ package com.healthrecords.controller;
 
 import com.healthrecords.dto.LoginRequestDTO;
 import com.healthrecords.dto.LoginResponseDTO;
+import com.healthrecords.dto.StreamTicketDTO;
+import com.healthrecords.security.AuthenticatedUser;
 import com.healthrecords.service.AuthService;
 import jakarta.validation.Valid;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
@@ -22,5 +25,23 @@ public class AuthController {
         LoginResponseDTO response = authService.login(loginRequest);
         return ResponseEntity.ok(response);
     }
+    
+    @PostMapping("/logout")
+    public ResponseEntity<Void> logout(
+            @RequestAttribute(name = AuthenticatedUser.REQUEST_ATTRIBUTE, required = false) AuthenticatedUser user) {
+        if (user != null) {
+            authService.logout(user);
+        }
+        return ResponseEntity.noContent().build();
+    }
+    
+    // For opening /api/visits/stream?ticket=..., since EventSource cannot send the Authorization header
+    @PostMapping("/stream-ticket")
+    public ResponseEntity<StreamTicketDTO> streamTicket(
+            @RequestAttribute(name = AuthenticatedUser.REQUEST_ATTRIBUTE, required = false) AuthenticatedUser user) {
+        if (user == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        return ResponseEntity.ok(authService.streamTicket(user));
+    }
 }
-
@@ -0,0 +1,76 @@
+package com.healthrecords.controller;
+
+import com.healthrecords.config.ProtobufDtoHttpMessageConverter;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.WebRequest;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Conditional GETs for endpoints that serve several formats. Each format gets its own ETag, so a
+ * cached JSON body is never revalidated for a client asking for CBOR, and responses vary by Accept.
+ */
+final class ETags {
+    
+    // In the order Spring MVC tries the message converters
+    private static final List<Map.Entry<MediaType, String>> FORMAT_SUFFIXES = List.of(
+            Map.entry(MediaType.APPLICATION_JSON, ""),
+            Map.entry(new MediaType("application", "*+json"), ""),
+            Map.entry(new MediaType("application", "x-jackson-smile"), "-smile"),
+            Map.entry(MediaType.APPLICATION_CBOR, "-cbor"),
+            Map.entry(ProtobufDtoHttpMessageConverter.APPLICATION_PROTOBUF, "-protobuf"));
+    
+    private ETags() {
+    }
+    
+    /**
+     * Sets the ETag for the format the request will be answered in, and returns true when the client's
+     * copy is current; the caller then returns without a body and a 304 is sent.
+     * <p>
+     * Tomcat never gzips a response with a strong ETag, since compression changes its bytes. Large
+     * responses ({@code compressible}) therefore get a weak ETag when the client accepts gzip, as nginx
+     * does when it compresses; If-None-Match compares weakly, so they still revalidate.
+     */
+    static boolean checkNotModified(WebRequest request, String tag, boolean compressible) {
+        if (request instanceof NativeWebRequest nativeRequest) {
+            HttpServletResponse response = nativeRequest.getNativeResponse(HttpServletResponse.class);
+            if (response != null) {
+                response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+            }
+        }
+        String eTag = "\"" + tag + formatSuffix(request.getHeader(HttpHeaders.ACCEPT)) + "\"";
+        String acceptEncoding = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+        if (compressible && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            eTag = "W/" + eTag;
+        }
+        return request.checkNotModified(eTag);
+    }
+    
+    // Like content negotiation: the most specific, highest-quality accepted type decides the format
+    private static String formatSuffix(String accept) {
+        if (accept == null || accept.isBlank()) {
+            return "";
+        }
+        List<MediaType> accepted;
+        try {
+            accepted = MediaType.parseMediaTypes(accept);
+        } catch (InvalidMediaTypeException e) {
+            return "";
+        }
+        MimeTypeUtils.sortBySpecificity(accepted);
+        for (MediaType type : accepted) {
+            for (Map.Entry<MediaType, String> format : FORMAT_SUFFIXES) {
+                if (type.isCompatibleWith(format.getKey())) {
+                    return format.getValue();
+                }
+            }
+        }
+        return "";
+    }
+}
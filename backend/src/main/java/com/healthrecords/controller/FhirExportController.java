@@ -0,0 +1,117 @@
+package com.healthrecords.controller;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.healthrecords.dto.ExportJobDTO;
+import com.healthrecords.exporter.BulkExporter;
+import com.healthrecords.importer.FhirResources;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * FHIR bulk-data export (system level). Kick off with {@code GET $export}, poll the Content-Location
+ * until it returns the manifest, then download each file. Files are stored gzipped and sent as they
+ * are to clients accepting gzip.
+ */
+@RestController
+@RequestMapping("/api/admin/fhir")
+public class FhirExportController {
+    
+    private static final MediaType FHIR_NDJSON = MediaType.parseMediaType("application/fhir+ndjson");
+    private static final Set<String> OUTPUT_FORMATS = Set.of("application/fhir+ndjson", "application/ndjson", "ndjson");
+    
+    private final BulkExporter bulkExporter;
+    
+    public FhirExportController(BulkExporter bulkExporter) {
+        this.bulkExporter = bulkExporter;
+    }
+    
+    @GetMapping("/$export")
+    public ResponseEntity<Void> startExport(@RequestParam(name = "_since", required = false) String since,
+                                            @RequestParam(name = "_type", required = false) String type,
+                                            @RequestParam(name = "_outputFormat", required = false) String outputFormat,
+                                            HttpServletRequest request) {
+        if (outputFormat != null && !OUTPUT_FORMATS.contains(outputFormat)) {
+            throw new IllegalArgumentException("Unsupported _outputFormat: " + outputFormat + "; only application/fhir+ndjson is supported");
+        }
+        List<String> types = type == null || type.isBlank() ? BulkExporter.RESOURCE_TYPES
+                : Arrays.stream(type.split(",")).map(String::trim).filter(name -> !name.isEmpty()).distinct().toList();
+        String kickOff = request.getRequestURL() + (request.getQueryString() != null ? "?" + request.getQueryString() : "");
+        ExportJobDTO job = bulkExporter.start(since == null ? null : instant(since), types, kickOff);
+        return ResponseEntity.accepted()
+                .header(HttpHeaders.CONTENT_LOCATION, jobUrl(job.getId()))
+                .build();
+    }
+    
+    // 202 while the export runs, the manifest once it completed, an OperationOutcome if it failed
+    @GetMapping("/exports/{id}")
+    public ResponseEntity<?> getExport(@PathVariable String id) {
+        ExportJobDTO job = bulkExporter.getJob(id);
+        return switch (job.getStatus()) {
+            case QUEUED, RUNNING -> ResponseEntity.accepted()
+                    .header("X-Progress", job.getOutput().size() + " of " + job.getTypes().size() + " resource types exported")
+                    .header(HttpHeaders.RETRY_AFTER, "5")
+                    .build();
+            case FAILED -> {
+                JsonNode outcome = FhirResources.operationOutcome(job.getError() != null ? job.getError() : "Export failed");
+                yield ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).contentType(MediaType.APPLICATION_JSON).body(outcome);
+            }
+            case COMPLETED -> ResponseEntity.ok(bulkExporter.getManifest(job, jobUrl(id)));
+        };
+    }
+    
+    // Cancels a running export, or deletes the files of a finished one
+    @DeleteMapping("/exports/{id}")
+    public ResponseEntity<Void> deleteExport(@PathVariable String id) {
+        bulkExporter.delete(id);
+        return ResponseEntity.accepted().build();
+    }
+    
+    @GetMapping("/exports/{id}/{type}.ndjson")
+    public ResponseEntity<StreamingResponseBody> getExportFile(@PathVariable String id, @PathVariable String type,
+                                                               @RequestHeader(name = HttpHeaders.ACCEPT_ENCODING, required = false)
+                                                               String acceptEncoding) throws IOException {
+        Path file = bulkExporter.getFile(id, type);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().contentType(FHIR_NDJSON);
+        if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            // Already compressed, which also keeps the server's response compression off
+            return response.header(HttpHeaders.CONTENT_ENCODING, "gzip")
+                    .contentLength(Files.size(file))
+                    .body(outputStream -> Files.copy(file, outputStream));
+        }
+        return response.body(outputStream -> {
+            try (InputStream in = new GZIPInputStream(Files.newInputStream(file), 64 * 1024)) {
+                in.transferTo(outputStream);
+            }
+        });
+    }
+    
+    private static String jobUrl(String id) {
+        return ServletUriComponentsBuilder.fromCurrentContextPath().path("/api/admin/fhir/exports/{id}").buildAndExpand(id).toUriString();
+    }
+    
+    private static Instant instant(String value) {
+        try {
+            return OffsetDateTime.parse(value).toInstant();
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("_since must be a FHIR instant with a time zone, such as 2024-01-31T00:00:00Z");
+        }
+    }
+}
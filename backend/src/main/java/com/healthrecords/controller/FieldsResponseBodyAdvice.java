@@ -0,0 +1,61 @@
+package com.healthrecords.controller;
+
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
+import com.healthrecords.repository.ProjectedField;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.json.AbstractJackson2HttpMessageConverter;
+import org.springframework.http.converter.json.MappingJacksonValue;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Leaves the properties that were not selected with {@code fields} out of JSON, Smile and CBOR
+ * responses, rather than writing them as nulls. DTOs opt in with {@code @JsonFilter("fields")};
+ * Protobuf omits null fields by itself.
+ */
+@ControllerAdvice
+public class FieldsResponseBodyAdvice implements ResponseBodyAdvice<Object> {
+    
+    static final String FILTER_ID = "fields";
+    private static final String SELECTED_ATTRIBUTE = FieldsResponseBodyAdvice.class.getName() + ".selected";
+    
+    static void select(WebRequest request, Set<? extends ProjectedField> fields) {
+        Set<String> properties = fields.stream().map(ProjectedField::property).collect(Collectors.toSet());
+        request.setAttribute(SELECTED_ATTRIBUTE, properties, RequestAttributes.SCOPE_REQUEST);
+    }
+    
+    @Override
+    public boolean supports(MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType) {
+        return AbstractJackson2HttpMessageConverter.class.isAssignableFrom(converterType);
+    }
+    
+    @Override
+    @SuppressWarnings("unchecked")
+    public Object beforeBodyWrite(Object body, MethodParameter returnType, MediaType contentType,
+                                  Class<? extends HttpMessageConverter<?>> converterType, ServerHttpRequest request,
+                                  ServerHttpResponse response) {
+        if (body == null || !(request instanceof ServletServerHttpRequest servletRequest)) {
+            return body;
+        }
+        HttpServletRequest servlet = servletRequest.getServletRequest();
+        if (!(servlet.getAttribute(SELECTED_ATTRIBUTE) instanceof Set<?> properties)) {
+            return body;
+        }
+        MappingJacksonValue value = body instanceof MappingJacksonValue container ? container : new MappingJacksonValue(body);
+        value.setFilters(new SimpleFilterProvider()
+                .addFilter(FILTER_ID, SimpleBeanPropertyFilter.filterOutAllExcept((Set<String>) properties)));
+        return value;
+    }
+}
@@ -0,0 +1,94 @@
+package com.healthrecords.controller;
+
+import com.healthrecords.dto.ImportJobDTO;
+import com.healthrecords.entity.ImportJob;
+import com.healthrecords.importer.BulkImporter;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.net.URI;
+
+/**
+ * Bulk imports. The request body is the file: CSV of users or visits (with {@code type}), a FHIR
+ * Bundle as JSON, or FHIR resources as NDJSON. The import runs in the background; poll the Location.
+ */
+@RestController
+@RequestMapping("/api/admin/imports")
+public class ImportController {
+    
+    private static final String FHIR_JSON = "application/fhir+json";
+    private static final String FHIR_NDJSON = "application/fhir+ndjson";
+    private static final String NDJSON = "application/x-ndjson";
+    
+    private final BulkImporter bulkImporter;
+    
+    public ImportController(BulkImporter bulkImporter) {
+        this.bulkImporter = bulkImporter;
+    }
+    
+    @PostMapping(consumes = {"text/csv", FHIR_JSON, MediaType.APPLICATION_JSON_VALUE, FHIR_NDJSON, NDJSON,
+            MediaType.APPLICATION_NDJSON_VALUE})
+    public ResponseEntity<ImportJobDTO> startImport(@RequestParam(required = false) String type,
+                                                    HttpServletRequest request) throws IOException {
+        ImportJob.Format format = format(MediaType.parseMediaType(request.getContentType()), type);
+        ImportJobDTO job = bulkImporter.start(format, request.getInputStream());
+        return ResponseEntity.accepted()
+                .location(URI.create("/api/admin/imports/" + job.getId()))
+                .body(job);
+    }
+    
+    @GetMapping("/{id}")
+    public ResponseEntity<ImportJobDTO> getImport(@PathVariable String id) {
+        return ResponseEntity.ok(bulkImporter.getJob(id));
+    }
+    
+    // Records that were not imported, as CSV in file order
+    @GetMapping("/{id}/errors")
+    public ResponseEntity<StreamingResponseBody> getImportErrors(@PathVariable String id) {
+        bulkImporter.getJob(id);
+        StreamingResponseBody body = outputStream -> bulkImporter.writeErrorReport(id, outputStream);
+        return ResponseEntity.ok()
+                .contentType(new MediaType("text", "csv"))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"import-" + id + "-errors.csv\"")
+                .body(body);
+    }
+    
+    // The body, when given, is the job's file uploaded again
+    @PostMapping("/{id}/resume")
+    public ResponseEntity<ImportJobDTO> resumeImport(@PathVariable String id, HttpServletRequest request) throws IOException {
+        PushbackInputStream body = new PushbackInputStream(request.getInputStream());
+        int first = body.read();
+        InputStream content = null;
+        if (first >= 0) {
+            body.unread(first);
+            content = body;
+        }
+        ImportJobDTO job = bulkImporter.resume(id, content);
+        return ResponseEntity.accepted()
+                .location(URI.create("/api/admin/imports/" + job.getId()))
+                .body(job);
+    }
+    
+    private static ImportJob.Format format(MediaType contentType, String type) {
+        if (contentType.isCompatibleWith(MediaType.parseMediaType("text/csv"))) {
+            if ("users".equalsIgnoreCase(type)) {
+                return ImportJob.Format.CSV_USERS;
+            }
+            if ("visits".equalsIgnoreCase(type)) {
+                return ImportJob.Format.CSV_VISITS;
+            }
+            throw new IllegalArgumentException("CSV imports need type=users or type=visits");
+        }
+        if (contentType.isCompatibleWith(MediaType.APPLICATION_JSON) || contentType.isCompatibleWith(MediaType.parseMediaType(FHIR_JSON))) {
+            return ImportJob.Format.FHIR_BUNDLE;
+        }
+        return ImportJob.Format.FHIR_NDJSON;
+    }
+}
@@ -1,14 +1,21 @@
 package com.healthrecords.controller;
 
+import com.healthrecords.dto.CursorPageDTO;
 import com.healthrecords.dto.UserRequestDTO;
 import com.healthrecords.dto.UserResponseDTO;
+import com.healthrecords.exception.PreconditionFailedException;
+import com.healthrecords.repository.UserField;
+import com.healthrecords.security.AuthenticatedUser;
 import com.healthrecords.service.UserService;
 import jakarta.validation.Valid;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
 import java.util.List;
+import java.util.Set;
 
 @RestController
 @RequestMapping("/api/users")
@@ -21,13 +28,33 @@ public class UserController {
     }
     
     @PostMapping
-    public ResponseEntity<UserResponseDTO> createUser(@Valid @RequestBody UserRequestDTO userRequest) {
-        UserResponseDTO createdUser = userService.createUser(userRequest);
+    public ResponseEntity<UserResponseDTO> createUser(@Valid @RequestBody UserRequestDTO userRequest,
+            @RequestAttribute(name = AuthenticatedUser.REQUEST_ATTRIBUTE, required = false) AuthenticatedUser caller) {
+        UserResponseDTO createdUser = userService.createUser(userRequest, caller);
         return ResponseEntity.status(HttpStatus.CREATED).body(createdUser);
     }
     
     @GetMapping
-    public ResponseEntity<List<UserResponseDTO>> getAllUsers(@RequestParam(required = false) String role) {
+    public ResponseEntity<List<UserResponseDTO>> getAllUsers(@RequestParam(required = false) String role,
+                                                             @RequestParam(required = false) String after,
+                                                             @RequestParam(required = false) Integer limit,
+                                                             @RequestParam(required = false) String fields,
+                                                             WebRequest request) {
+        if (fields != null || after != null || limit != null) {
+            CursorPageDTO<UserResponseDTO> page;
+            if (fields != null) {
+                Set<UserField> selected = UserField.parse(fields);
+                FieldsResponseBodyAdvice.select(request, selected);
+                page = userService.getUserFields(selected, role, after, limit);
+            } else {
+                page = userService.getUsersPage(role, after, limit);
+            }
+            ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+            if (page.getNextCursor() != null) {
+                response.header(VisitController.NEXT_CURSOR_HEADER, page.getNextCursor());
+            }
+            return response.body(page.getItems());
+        }
         if (role != null && !role.isEmpty()) {
             return ResponseEntity.ok(userService.getUsersByRole(role));
         }
@@ -35,14 +62,20 @@ public class UserController {
     }
     
     @GetMapping("/{id}")
-    public ResponseEntity<UserResponseDTO> getUserById(@PathVariable Long id) {
+    public ResponseEntity<UserResponseDTO> getUserById(@PathVariable Long id, WebRequest request) {
+        String eTag = userService.getUserETag(id);
+        if (eTag != null && ETags.checkNotModified(request, eTag, false)) {
+            return null;
+        }
         UserResponseDTO user = userService.getUserById(id);
         return ResponseEntity.ok(user);
     }
     
     @PutMapping("/{id}")
-    public ResponseEntity<UserResponseDTO> updateUser(@PathVariable Long id, @Valid @RequestBody UserRequestDTO userRequest) {
-        UserResponseDTO updatedUser = userService.updateUser(id, userRequest);
+    public ResponseEntity<UserResponseDTO> updateUser(@PathVariable Long id, @Valid @RequestBody UserRequestDTO userRequest,
+                                                      @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+            @RequestAttribute(name = AuthenticatedUser.REQUEST_ATTRIBUTE, required = false) AuthenticatedUser caller) {
+        UserResponseDTO updatedUser = userService.updateUser(id, userRequest, expectedVersion(ifMatch), caller);
         return ResponseEntity.ok(updatedUser);
     }
     
@@ -51,5 +84,21 @@ public class UserController {
         userService.deleteUser(id);
         return ResponseEntity.noContent().build();
     }
+    
+    // If-Match takes the ETag of GET /api/users/{id}, which is the quoted version; * matches any version
+    private static Long expectedVersion(String ifMatch) {
+        if (ifMatch == null || ifMatch.trim().equals("*")) {
+            return null;
+        }
+        String tag = ifMatch.trim();
+        if (tag.length() > 2 && tag.startsWith("\"") && tag.endsWith("\"")) {
+            try {
+                return Long.parseLong(tag.substring(1, tag.length() - 1));
+            } catch (NumberFormatException e) {
+                // Falls through: no version of this user can match it
+            }
+        }
+        throw new PreconditionFailedException("If-Match does not match the current version of the user");
+    }
 }
 
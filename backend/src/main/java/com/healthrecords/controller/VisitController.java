@@ -1,53 +1,198 @@
 package com.healthrecords.controller;
 
+import com.healthrecords.dto.CursorPageDTO;
+import com.healthrecords.dto.VisitBatchResponseDTO;
+import com.healthrecords.dto.VisitIngestStatusDTO;
 import com.healthrecords.dto.VisitRequestDTO;
 import com.healthrecords.dto.VisitResponseDTO;
+import com.healthrecords.dto.VitalsTrendDTO;
+import com.healthrecords.exception.ResourceNotFoundException;
+import com.healthrecords.ingest.VisitIngestQueue;
+import com.healthrecords.repository.VisitField;
+import com.healthrecords.service.VisitEventService;
+import com.healthrecords.service.VisitSearchService;
 import com.healthrecords.service.VisitService;
 import jakarta.validation.Valid;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.lang.Nullable;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.net.URI;
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Set;
 
 @RestController
 @RequestMapping("/api/visits")
 public class VisitController {
     
+    static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    
     private final VisitService visitService;
+    private final VisitSearchService visitSearchService;
+    private final VisitEventService visitEventService;
+    // Only present when asynchronous ingest is enabled
+    private final VisitIngestQueue visitIngestQueue;
     
-    public VisitController(VisitService visitService) {
+    public VisitController(VisitService visitService, VisitSearchService visitSearchService,
+                           VisitEventService visitEventService, @Nullable VisitIngestQueue visitIngestQueue) {
         this.visitService = visitService;
+        this.visitSearchService = visitSearchService;
+        this.visitEventService = visitEventService;
+        this.visitIngestQueue = visitIngestQueue;
     }
     
+    // With asynchronous ingest the visit is only logged; poll the Location for its outcome
     @PostMapping
-    public ResponseEntity<VisitResponseDTO> createVisit(@Valid @RequestBody VisitRequestDTO visitRequest) {
+    public ResponseEntity<?> createVisit(@Valid @RequestBody VisitRequestDTO visitRequest) {
+        if (visitIngestQueue != null) {
+            VisitIngestStatusDTO accepted = visitIngestQueue.accept(visitRequest);
+            return ResponseEntity.accepted()
+                    .location(URI.create("/api/visits/ingest/" + accepted.getTrackingId()))
+                    .body(accepted);
+        }
         VisitResponseDTO createdVisit = visitService.createVisit(visitRequest);
         return ResponseEntity.status(HttpStatus.CREATED).body(createdVisit);
     }
     
+    @GetMapping("/ingest/{trackingId}")
+    public ResponseEntity<VisitIngestStatusDTO> getIngestStatus(@PathVariable String trackingId) {
+        if (visitIngestQueue == null) {
+            throw new ResourceNotFoundException("Asynchronous visit ingest is not enabled");
+        }
+        return ResponseEntity.ok(visitIngestQueue.getStatus(trackingId));
+    }
+    
+    // Server-Sent Events for the visits of one doctor or one patient; EventSource resends Last-Event-ID on reconnect
+    @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamVisits(@RequestParam(required = false) Long doctorId,
+                                                   @RequestParam(required = false) Long patientId,
+                                                   @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId,
+                                                   @RequestParam(value = "lastEventId", required = false) Long lastEventIdParam) {
+        SseEmitter emitter = visitEventService.subscribe(doctorId, patientId, lastEventId != null ? lastEventId : lastEventIdParam);
+        return ResponseEntity.ok()
+                .header("X-Accel-Buffering", "no")
+                .cacheControl(CacheControl.noStore())
+                .body(emitter);
+    }
+    
+    @PostMapping("/batch")
+    public ResponseEntity<VisitBatchResponseDTO> createVisitsBatch(@RequestBody List<VisitRequestDTO> visitRequests) {
+        VisitBatchResponseDTO result = visitService.createVisitsBatch(visitRequests);
+        return ResponseEntity.ok(result);
+    }
+    
     @GetMapping("/{id}")
-    public ResponseEntity<VisitResponseDTO> getVisitById(@PathVariable Long id) {
+    public ResponseEntity<VisitResponseDTO> getVisitById(@PathVariable Long id, WebRequest request) {
+        String eTag = visitService.getVisitETag(id);
+        if (eTag != null && ETags.checkNotModified(request, eTag, false)) {
+            return null;
+        }
         VisitResponseDTO visit = visitService.getVisitById(id);
         return ResponseEntity.ok(visit);
     }
     
     @GetMapping("/patient/{patientId}")
-    public ResponseEntity<List<VisitResponseDTO>> getVisitsByPatientId(@PathVariable Long patientId) {
-        List<VisitResponseDTO> visits = visitService.getVisitsByPatientId(patientId);
+    public ResponseEntity<List<VisitResponseDTO>> getVisitsByPatientId(@PathVariable Long patientId,
+                                                                       @RequestParam(required = false) String after,
+                                                                       @RequestParam(required = false) Integer limit,
+                                                                       @RequestParam(required = false) String fields,
+                                                                       WebRequest request) {
+        // Tagged by the state of the whole list; ETags are per URL, so pages need no tags of their own
+        if (ETags.checkNotModified(request, visitService.getVisitsByPatientIdETag(patientId), true)) {
+            return null;
+        }
+        if (fields != null) {
+            Set<VisitField> selected = selectFields(fields, request);
+            return toPageResponse(visitService.getVisitFields(selected, patientId, null, after, limit));
+        }
+        if (after == null && limit == null) {
+            return ResponseEntity.ok(visitService.getVisitsByPatientId(patientId));
+        }
+        return toPageResponse(visitService.getVisitsByPatientIdPage(patientId, after, limit));
+    }
+    
+    @GetMapping("/patient/{patientId}/vitals")
+    public ResponseEntity<VitalsTrendDTO> getVitalsTrend(@PathVariable Long patientId) {
+        VitalsTrendDTO trend = visitService.getVitalsTrend(patientId);
+        return ResponseEntity.ok(trend);
+    }
+    
+    @GetMapping("/vitals")
+    public ResponseEntity<List<VisitResponseDTO>> getVisitsByBloodPressure(
+            @RequestParam(required = false) Integer systolicMin,
+            @RequestParam(required = false) Integer systolicMax,
+            @RequestParam(required = false) Integer diastolicMin,
+            @RequestParam(required = false) Integer diastolicMax,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(required = false) Integer limit) {
+        List<VisitResponseDTO> visits = visitService.getVisitsByBloodPressure(
+                systolicMin, systolicMax, diastolicMin, diastolicMax, from, to, limit);
         return ResponseEntity.ok(visits);
     }
     
-    @GetMapping("/doctor/{doctorId}")
-    public ResponseEntity<List<VisitResponseDTO>> getVisitsByDoctorId(@PathVariable Long doctorId) {
-        List<VisitResponseDTO> visits = visitService.getVisitsByDoctorId(doctorId);
+    @GetMapping("/search")
+    public ResponseEntity<List<VisitResponseDTO>> searchVisits(
+            @RequestParam String q,
+            @RequestParam(required = false) Long doctorId,
+            @RequestParam(required = false) Long patientId,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(required = false) Integer limit) {
+        List<VisitResponseDTO> visits = visitSearchService.search(q, doctorId, patientId, from, to, limit);
         return ResponseEntity.ok(visits);
     }
     
+    @GetMapping("/doctor/{doctorId}")
+    public ResponseEntity<List<VisitResponseDTO>> getVisitsByDoctorId(@PathVariable Long doctorId,
+                                                                      @RequestParam(required = false) String after,
+                                                                      @RequestParam(required = false) Integer limit,
+                                                                      @RequestParam(required = false) String fields,
+                                                                      WebRequest request) {
+        if (ETags.checkNotModified(request, visitService.getVisitsByDoctorIdETag(doctorId), true)) {
+            return null;
+        }
+        if (fields != null) {
+            Set<VisitField> selected = selectFields(fields, request);
+            return toPageResponse(visitService.getVisitFields(selected, null, doctorId, after, limit));
+        }
+        if (after == null && limit == null) {
+            return ResponseEntity.ok(visitService.getVisitsByDoctorId(doctorId));
+        }
+        return toPageResponse(visitService.getVisitsByDoctorIdPage(doctorId, after, limit));
+    }
+    
     @GetMapping
-    public ResponseEntity<List<VisitResponseDTO>> getAllVisits() {
-        List<VisitResponseDTO> visits = visitService.getAllVisits();
-        return ResponseEntity.ok(visits);
+    public ResponseEntity<List<VisitResponseDTO>> getAllVisits(@RequestParam(required = false) String after,
+                                                               @RequestParam(required = false) Integer limit,
+                                                               @RequestParam(required = false) String fields,
+                                                               WebRequest request) {
+        if (fields != null) {
+            Set<VisitField> selected = selectFields(fields, request);
+            return toPageResponse(visitService.getVisitFields(selected, null, null, after, limit));
+        }
+        if (after == null && limit == null) {
+            return ResponseEntity.ok(visitService.getAllVisits());
+        }
+        return toPageResponse(visitService.getAllVisitsPage(after, limit));
+    }
+    
+    @GetMapping(value = "/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> exportVisits(@RequestParam(required = false) Long doctorId) {
+        StreamingResponseBody body = outputStream -> visitService.exportVisits(doctorId, outputStream);
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"visits.ndjson\"")
+                .body(body);
     }
     
     @DeleteMapping("/{id}")
@@ -55,5 +200,19 @@ public class VisitController {
         visitService.deleteVisit(id);
         return ResponseEntity.noContent().build();
     }
+    
+    // fields is a comma-separated list of VisitResponseDTO properties, or summary
+    private static Set<VisitField> selectFields(String fields, WebRequest request) {
+        Set<VisitField> selected = VisitField.parse(fields);
+        FieldsResponseBodyAdvice.select(request, selected);
+        return selected;
+    }
+    
+    private ResponseEntity<List<VisitResponseDTO>> toPageResponse(CursorPageDTO<VisitResponseDTO> page) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (page.getNextCursor() != null) {
+            response.header(NEXT_CURSOR_HEADER, page.getNextCursor());
+        }
+        return response.body(page.getItems());
+    }
 }
-
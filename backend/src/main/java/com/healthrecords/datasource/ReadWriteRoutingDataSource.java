@@ -0,0 +1,27 @@
+package com.healthrecords.datasource;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+/**
+ * Routes each connection request to the primary or a replica as decided by {@link ReplicaRouter}.
+ * Must sit behind a {@link org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy}: JPA
+ * opens the connection before the transaction's read-only flag is set, and the proxy defers that
+ * until the first statement.
+ */
+public class ReadWriteRoutingDataSource extends AbstractRoutingDataSource {
+    
+    private final ReplicaRouter router;
+    
+    public ReadWriteRoutingDataSource(ReplicaRouter router) {
+        this.router = router;
+        setTargetDataSources(router.dataSourcesByKey());
+        setDefaultTargetDataSource(router.primary());
+        setLenientFallback(false);
+        afterPropertiesSet();
+    }
+    
+    @Override
+    protected Object determineCurrentLookupKey() {
+        return router.select();
+    }
+}
@@ -0,0 +1,186 @@
+package com.healthrecords.datasource;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Chooses between the primary and the read replicas for the current transaction.
+ * <p>
+ * Read-only transactions go round-robin to the replicas whose lag is within {@code maxLagMillis};
+ * everything else, and all reads when no replica is usable, goes to the primary. Once a request has
+ * opened a read-write transaction, its later read-only transactions also use the primary, so a
+ * request always sees its own writes.
+ * <p>
+ * Lag is measured with the {@code replication_heartbeat} row: the primary's copy is updated with the
+ * current time every check, and each replica's copy shows how old its data is. The estimate is
+ * accurate to within one check interval and assumes the application clocks are in sync.
+ */
+public class ReplicaRouter implements AutoCloseable {
+    
+    static final String PRIMARY = "primary";
+    
+    private static final Logger log = LoggerFactory.getLogger(ReplicaRouter.class);
+    
+    private static final String PINNED_TO_PRIMARY = ReplicaRouter.class.getName() + ".pinnedToPrimary";
+    private static final int HEARTBEAT_ID = 1;
+    
+    private final DataSource primary;
+    private final JdbcTemplate primaryJdbc;
+    private final List<Replica> replicas = new ArrayList<>();
+    private final long maxLagMillis;
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    
+    // Replicas start unused until their first heartbeat check succeeds
+    private volatile Replica[] usableReplicas = new Replica[0];
+    
+    public ReplicaRouter(DataSource primary, Map<String, DataSource> replicas, long maxLagMillis,
+                         MeterRegistry meterRegistry) {
+        this.primary = primary;
+        this.primaryJdbc = new JdbcTemplate(primary);
+        this.maxLagMillis = maxLagMillis;
+        replicas.forEach((name, dataSource) -> {
+            Replica replica = new Replica(name, dataSource);
+            this.replicas.add(replica);
+            Gauge.builder("healthrecords.datasource.replica.lag", replica, r -> r.lagMillis / 1000.0)
+                    .description("Replication lag seen through the heartbeat row; NaN when unreachable")
+                    .baseUnit("seconds")
+                    .tag("replica", name)
+                    .register(meterRegistry);
+        });
+    }
+    
+    /**
+     * Lookup key of the data source for the transaction on the current thread.
+     */
+    public String select() {
+        if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+            return PRIMARY;
+        }
+        if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            pinToPrimary();
+            return PRIMARY;
+        }
+        Replica[] candidates = usableReplicas;
+        if (candidates.length == 0 || pinnedToPrimary()) {
+            return PRIMARY;
+        }
+        return candidates[Math.floorMod(nextReplica.getAndIncrement(), candidates.length)].name;
+    }
+    
+    public DataSource primary() {
+        return primary;
+    }
+    
+    public Map<Object, Object> dataSourcesByKey() {
+        Map<Object, Object> dataSources = new LinkedHashMap<>();
+        dataSources.put(PRIMARY, primary);
+        replicas.forEach(replica -> dataSources.put(replica.name, replica.dataSource));
+        return dataSources;
+    }
+    
+    @Scheduled(fixedDelayString = "${healthrecords.datasource.heartbeat-interval-ms:1000}")
+    public void checkReplicas() {
+        try {
+            writeHeartbeat(System.currentTimeMillis());
+        } catch (DataAccessException e) {
+            log.warn("Could not write replication heartbeat to the primary", e);
+        }
+        List<Replica> usable = new ArrayList<>();
+        for (Replica replica : replicas) {
+            long lag;
+            try {
+                Long beat = replica.jdbc.queryForObject(
+                        "SELECT beat_millis FROM replication_heartbeat WHERE id = ?", Long.class, HEARTBEAT_ID);
+                lag = Math.max(0, System.currentTimeMillis() - beat);
+            } catch (DataAccessException e) {
+                lag = -1;
+            }
+            boolean wasUsable = replica.usable;
+            boolean firstCheck = !replica.checked;
+            replica.checked = true;
+            replica.usable = lag >= 0 && lag <= maxLagMillis;
+            replica.lagMillis = lag >= 0 ? lag : Double.NaN;
+            if (replica.usable) {
+                usable.add(replica);
+            }
+            if (firstCheck || wasUsable != replica.usable) {
+                if (replica.usable) {
+                    log.info("Replica {} is in sync (lag {} ms), routing reads to it", replica.name, lag);
+                } else {
+                    log.warn("Replica {} is {}, routing its reads to the primary", replica.name,
+                            lag < 0 ? "unreachable" : "lagging by " + lag + " ms");
+                }
+            }
+        }
+        usableReplicas = usable.toArray(new Replica[0]);
+    }
+    
+    /**
+     * Closes the pools; called when the application context shuts down.
+     */
+    @Override
+    public void close() throws Exception {
+        for (Replica replica : replicas) {
+            if (replica.dataSource instanceof AutoCloseable closeable) {
+                closeable.close();
+            }
+        }
+        if (primary instanceof AutoCloseable closeable) {
+            closeable.close();
+        }
+    }
+    
+    private void writeHeartbeat(long now) {
+        if (primaryJdbc.update("UPDATE replication_heartbeat SET beat_millis = ? WHERE id = ?", now, HEARTBEAT_ID) == 0) {
+            try {
+                primaryJdbc.update("INSERT INTO replication_heartbeat (id, beat_millis) VALUES (?, ?)", HEARTBEAT_ID, now);
+            } catch (DuplicateKeyException e) {
+                // Another instance inserted it first
+            }
+        }
+    }
+    
+    private static void pinToPrimary() {
+        RequestAttributes request = RequestContextHolder.getRequestAttributes();
+        if (request != null) {
+            request.setAttribute(PINNED_TO_PRIMARY, Boolean.TRUE, RequestAttributes.SCOPE_REQUEST);
+        }
+    }
+    
+    private static boolean pinnedToPrimary() {
+        RequestAttributes request = RequestContextHolder.getRequestAttributes();
+        return request != null && request.getAttribute(PINNED_TO_PRIMARY, RequestAttributes.SCOPE_REQUEST) != null;
+    }
+    
+    private static final class Replica {
+        
+        private final String name;
+        private final DataSource dataSource;
+        private final JdbcTemplate jdbc;
+        private volatile boolean usable;
+        private boolean checked;
+        private volatile double lagMillis = Double.NaN;
+        
+        private Replica(String name, DataSource dataSource) {
+            this.name = name;
+            this.dataSource = dataSource;
+            this.jdbc = new JdbcTemplate(dataSource);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.healthrecords.dto;
+
+public class DoctorVisitCountDTO {
+    private Long doctorId;
+    private String doctorName;
+    private long visitCount;
+    
+    public DoctorVisitCountDTO() {
+    }
+    
+    public DoctorVisitCountDTO(Long doctorId, String doctorName, long visitCount) {
+        this.doctorId = doctorId;
+        this.doctorName = doctorName;
+        this.visitCount = visitCount;
+    }
+    
+    // Getters
+    public Long getDoctorId() {
+        return doctorId;
+    }
+    
+    public String getDoctorName() {
+        return doctorName;
+    }
+    
+    public long getVisitCount() {
+        return visitCount;
+    }
+    
+    // Setters
+    public void setDoctorId(Long doctorId) {
+        this.doctorId = doctorId;
+    }
+    
+    public void setDoctorName(String doctorName) {
+        this.doctorName = doctorName;
+    }
+    
+    public void setVisitCount(long visitCount) {
+        this.visitCount = visitCount;
+    }
+}
@@ -0,0 +1,159 @@
+package com.healthrecords.dto;
+
+import com.healthrecords.entity.ExportFile;
+import com.healthrecords.entity.ExportJob;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+
+public class ExportJobDTO {
+    private String id;
+    private ExportJob.Status status;
+    private List<String> types;
+    private Instant since;
+    private String request;
+    private Instant transactionTime;
+    private String error;
+    private Instant createdAt;
+    private Instant updatedAt;
+    private Instant finishedAt;
+    // One per resource type written so far
+    private List<Output> output;
+    
+    public ExportJobDTO() {
+    }
+    
+    public ExportJobDTO(ExportJob job, List<ExportFile> files) {
+        this.id = job.getId();
+        this.status = job.getStatus();
+        this.types = Arrays.asList(job.getTypes().split(","));
+        this.since = job.getSince();
+        this.request = job.getRequest();
+        this.transactionTime = job.getTransactionTime();
+        this.error = job.getError();
+        this.createdAt = job.getCreatedAt();
+        this.updatedAt = job.getUpdatedAt();
+        this.finishedAt = job.getFinishedAt();
+        this.output = files.stream().map(file -> new Output(file.getResourceType(), file.getCount())).toList();
+    }
+    
+    public static class Output {
+        private String type;
+        private long count;
+        
+        public Output() {
+        }
+        
+        public Output(String type, long count) {
+            this.type = type;
+            this.count = count;
+        }
+        
+        public String getType() {
+            return type;
+        }
+        
+        public long getCount() {
+            return count;
+        }
+        
+        public void setType(String type) {
+            this.type = type;
+        }
+        
+        public void setCount(long count) {
+            this.count = count;
+        }
+    }
+    
+    // Getters
+    public String getId() {
+        return id;
+    }
+    
+    public ExportJob.Status getStatus() {
+        return status;
+    }
+    
+    public List<String> getTypes() {
+        return types;
+    }
+    
+    public Instant getSince() {
+        return since;
+    }
+    
+    public String getRequest() {
+        return request;
+    }
+    
+    public Instant getTransactionTime() {
+        return transactionTime;
+    }
+    
+    public String getError() {
+        return error;
+    }
+    
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+    
+    public Instant getUpdatedAt() {
+        return updatedAt;
+    }
+    
+    public Instant getFinishedAt() {
+        return finishedAt;
+    }
+    
+    public List<Output> getOutput() {
+        return output;
+    }
+    
+    // Setters
+    public void setId(String id) {
+        this.id = id;
+    }
+    
+    public void setStatus(ExportJob.Status status) {
+        this.status = status;
+    }
+    
+    public void setTypes(List<String> types) {
+        this.types = types;
+    }
+    
+    public void setSince(Instant since) {
+        this.since = since;
+    }
+    
+    public void setRequest(String request) {
+        this.request = request;
+    }
+    
+    public void setTransactionTime(Instant transactionTime) {
+        this.transactionTime = transactionTime;
+    }
+    
+    public void setError(String error) {
+        this.error = error;
+    }
+    
+    public void setCreatedAt(Instant createdAt) {
+        this.createdAt = createdAt;
+    }
+    
+    public void setUpdatedAt(Instant updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+    
+    public void setFinishedAt(Instant finishedAt) {
+        this.finishedAt = finishedAt;
+    }
+    
+    public void setOutput(List<Output> output) {
+        this.output = output;
+    }
+}
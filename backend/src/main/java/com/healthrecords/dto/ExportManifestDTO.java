@@ -0,0 +1,107 @@
+package com.healthrecords.dto;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * The FHIR bulk-data manifest of a completed export: one entry per NDJSON file.
+ */
+public class ExportManifestDTO {
+    private Instant transactionTime;
+    private String request;
+    private boolean requiresAccessToken;
+    private List<File> output;
+    private List<File> error;
+    
+    public ExportManifestDTO() {
+    }
+    
+    public ExportManifestDTO(Instant transactionTime, String request, boolean requiresAccessToken, List<File> output) {
+        this.transactionTime = transactionTime;
+        this.request = request;
+        this.requiresAccessToken = requiresAccessToken;
+        this.output = output;
+        this.error = List.of();
+    }
+    
+    public static class File {
+        private String type;
+        private String url;
+        private long count;
+        
+        public File() {
+        }
+        
+        public File(String type, String url, long count) {
+            this.type = type;
+            this.url = url;
+            this.count = count;
+        }
+        
+        public String getType() {
+            return type;
+        }
+        
+        public String getUrl() {
+            return url;
+        }
+        
+        public long getCount() {
+            return count;
+        }
+        
+        public void setType(String type) {
+            this.type = type;
+        }
+        
+        public void setUrl(String url) {
+            this.url = url;
+        }
+        
+        public void setCount(long count) {
+            this.count = count;
+        }
+    }
+    
+    // Getters
+    public Instant getTransactionTime() {
+        return transactionTime;
+    }
+    
+    public String getRequest() {
+        return request;
+    }
+    
+    public boolean isRequiresAccessToken() {
+        return requiresAccessToken;
+    }
+    
+    public List<File> getOutput() {
+        return output;
+    }
+    
+    public List<File> getError() {
+        return error;
+    }
+    
+    // Setters
+    public void setTransactionTime(Instant transactionTime) {
+        this.transactionTime = transactionTime;
+    }
+    
+    public void setRequest(String request) {
+        this.request = request;
+    }
+    
+    public void setRequiresAccessToken(boolean requiresAccessToken) {
+        this.requiresAccessToken = requiresAccessToken;
+    }
+    
+    public void setOutput(List<File> output) {
+        this.output = output;
+    }
+    
+    public void setError(List<File> error) {
+        this.error = error;
+    }
+}
@@ -0,0 +1,146 @@
+package com.healthrecords.dto;
+
+import com.healthrecords.entity.ImportJob;
+
+import java.time.Instant;
+
+public class ImportJobDTO {
+    private String id;
+    private ImportJob.Format format;
+    private ImportJob.Status status;
+    private ImportJob.Phase phase;
+    private long position;
+    private long created;
+    private long duplicates;
+    private long invalid;
+    private long notFound;
+    private String error;
+    private Instant createdAt;
+    private Instant updatedAt;
+    private Instant finishedAt;
+    
+    public ImportJobDTO() {
+    }
+    
+    public ImportJobDTO(ImportJob job) {
+        this.id = job.getId();
+        this.format = job.getFormat();
+        this.status = job.getStatus();
+        this.phase = job.getPhase();
+        this.position = job.getPosition();
+        this.created = job.getCreated();
+        this.duplicates = job.getDuplicates();
+        this.invalid = job.getInvalid();
+        this.notFound = job.getNotFound();
+        this.error = job.getError();
+        this.createdAt = job.getCreatedAt();
+        this.updatedAt = job.getUpdatedAt();
+        this.finishedAt = job.getFinishedAt();
+    }
+    
+    // Getters
+    public String getId() {
+        return id;
+    }
+    
+    public ImportJob.Format getFormat() {
+        return format;
+    }
+    
+    public ImportJob.Status getStatus() {
+        return status;
+    }
+    
+    public ImportJob.Phase getPhase() {
+        return phase;
+    }
+    
+    public long getPosition() {
+        return position;
+    }
+    
+    public long getCreated() {
+        return created;
+    }
+    
+    public long getDuplicates() {
+        return duplicates;
+    }
+    
+    public long getInvalid() {
+        return invalid;
+    }
+    
+    public long getNotFound() {
+        return notFound;
+    }
+    
+    public String getError() {
+        return error;
+    }
+    
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+    
+    public Instant getUpdatedAt() {
+        return updatedAt;
+    }
+    
+    public Instant getFinishedAt() {
+        return finishedAt;
+    }
+    
+    // Setters
+    public void setId(String id) {
+        this.id = id;
+    }
+    
+    public void setFormat(ImportJob.Format format) {
+        this.format = format;
+    }
+    
+    public void setStatus(ImportJob.Status status) {
+        this.status = status;
+    }
+    
+    public void setPhase(ImportJob.Phase phase) {
+        this.phase = phase;
+    }
+    
+    public void setPosition(long position) {
+        this.position = position;
+    }
+    
+    public void setCreated(long created) {
+        this.created = created;
+    }
+    
+    public void setDuplicates(long duplicates) {
+        this.duplicates = duplicates;
+    }
+    
+    public void setInvalid(long invalid) {
+        this.invalid = invalid;
+    }
+    
+    public void setNotFound(long notFound) {
+        this.notFound = notFound;
+    }
+    
+    public void setError(String error) {
+        this.error = error;
+    }
+    
+    public void setCreatedAt(Instant createdAt) {
+        this.createdAt = createdAt;
+    }
+    
+    public void setUpdatedAt(Instant updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+    
+    public void setFinishedAt(Instant finishedAt) {
+        this.finishedAt = finishedAt;
+    }
+}
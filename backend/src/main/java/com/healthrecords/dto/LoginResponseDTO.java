@@ -7,15 +7,20 @@ public class LoginResponseDTO {
     private String fullName;
     private String email;
     private User.Role role;
+    private String accessToken;
+    private String tokenType = "Bearer";
+    private Long expiresAt;
     
     public LoginResponseDTO() {
     }
     
-    public LoginResponseDTO(Long id, String fullName, String email, User.Role role) {
+    public LoginResponseDTO(Long id, String fullName, String email, User.Role role, String accessToken, Long expiresAt) {
         this.id = id;
         this.fullName = fullName;
         this.email = email;
         this.role = role;
+        this.accessToken = accessToken;
+        this.expiresAt = expiresAt;
     }
     
     // Getters
@@ -35,6 +40,18 @@ public class LoginResponseDTO {
         return role;
     }
     
+    public String getAccessToken() {
+        return accessToken;
+    }
+    
+    public String getTokenType() {
+        return tokenType;
+    }
+    
+    public Long getExpiresAt() {
+        return expiresAt;
+    }
+    
     // Setters
     public void setId(Long id) {
         this.id = id;
@@ -51,5 +68,17 @@ public class LoginResponseDTO {
     public void setRole(User.Role role) {
         this.role = role;
     }
+    
+    public void setAccessToken(String accessToken) {
+        this.accessToken = accessToken;
+    }
+    
+    public void setTokenType(String tokenType) {
+        this.tokenType = tokenType;
+    }
+    
+    public void setExpiresAt(Long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
 }
 
@@ -0,0 +1,32 @@
+package com.healthrecords.dto;
+
+public class StreamTicketDTO {
+    private String ticket;
+    private Long expiresAt;
+    
+    public StreamTicketDTO() {
+    }
+    
+    public StreamTicketDTO(String ticket, Long expiresAt) {
+        this.ticket = ticket;
+        this.expiresAt = expiresAt;
+    }
+    
+    // Getters
+    public String getTicket() {
+        return ticket;
+    }
+    
+    public Long getExpiresAt() {
+        return expiresAt;
+    }
+    
+    // Setters
+    public void setTicket(String ticket) {
+        this.ticket = ticket;
+    }
+    
+    public void setExpiresAt(Long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+}
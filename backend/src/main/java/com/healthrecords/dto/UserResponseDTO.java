@@ -1,9 +1,11 @@
 package com.healthrecords.dto;
 
+import com.fasterxml.jackson.annotation.JsonFilter;
 import com.healthrecords.entity.User;
 
 import java.time.LocalDate;
 
+@JsonFilter("fields")
 public class UserResponseDTO {
     private Long id;
     private String fullName;
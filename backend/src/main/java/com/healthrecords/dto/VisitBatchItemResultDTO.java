@@ -0,0 +1,56 @@
+package com.healthrecords.dto;
+
+public class VisitBatchItemResultDTO {
+    private int index;
+    private Status status;
+    private Long id;
+    private String error;
+    
+    public VisitBatchItemResultDTO() {
+    }
+    
+    public VisitBatchItemResultDTO(int index, Status status, Long id, String error) {
+        this.index = index;
+        this.status = status;
+        this.id = id;
+        this.error = error;
+    }
+    
+    // Getters
+    public int getIndex() {
+        return index;
+    }
+    
+    public Status getStatus() {
+        return status;
+    }
+    
+    public Long getId() {
+        return id;
+    }
+    
+    public String getError() {
+        return error;
+    }
+    
+    // Setters
+    public void setIndex(int index) {
+        this.index = index;
+    }
+    
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+    
+    public void setId(Long id) {
+        this.id = id;
+    }
+    
+    public void setError(String error) {
+        this.error = error;
+    }
+    
+    public enum Status {
+        CREATED, INVALID, NOT_FOUND, DUPLICATE
+    }
+}
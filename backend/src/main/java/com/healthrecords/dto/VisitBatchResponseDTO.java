@@ -0,0 +1,54 @@
+package com.healthrecords.dto;
+
+import java.util.List;
+
+public class VisitBatchResponseDTO {
+    private int received;
+    private int created;
+    private int failed;
+    private List<VisitBatchItemResultDTO> results;
+    
+    public VisitBatchResponseDTO() {
+    }
+    
+    public VisitBatchResponseDTO(int received, int created, int failed, List<VisitBatchItemResultDTO> results) {
+        this.received = received;
+        this.created = created;
+        this.failed = failed;
+        this.results = results;
+    }
+    
+    // Getters
+    public int getReceived() {
+        return received;
+    }
+    
+    public int getCreated() {
+        return created;
+    }
+    
+    public int getFailed() {
+        return failed;
+    }
+    
+    public List<VisitBatchItemResultDTO> getResults() {
+        return results;
+    }
+    
+    // Setters
+    public void setReceived(int received) {
+        this.received = received;
+    }
+    
+    public void setCreated(int created) {
+        this.created = created;
+    }
+    
+    public void setFailed(int failed) {
+        this.failed = failed;
+    }
+    
+    public void setResults(List<VisitBatchItemResultDTO> results) {
+        this.results = results;
+    }
+}
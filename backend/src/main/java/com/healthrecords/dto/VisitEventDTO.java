@@ -0,0 +1,88 @@
+package com.healthrecords.dto;
+
+import java.time.LocalDateTime;
+
+public class VisitEventDTO {
+    private Long id;
+    private Type type;
+    private Long visitId;
+    private Long patientId;
+    private Long doctorId;
+    private LocalDateTime visitDate;
+    // The created visit, so subscribers need not fetch it; null for deletes
+    private VisitResponseDTO visit;
+    
+    public VisitEventDTO() {
+    }
+    
+    public VisitEventDTO(Long id, Type type, Long visitId, Long patientId, Long doctorId, LocalDateTime visitDate) {
+        this.id = id;
+        this.type = type;
+        this.visitId = visitId;
+        this.patientId = patientId;
+        this.doctorId = doctorId;
+        this.visitDate = visitDate;
+    }
+    
+    // Getters
+    public Long getId() {
+        return id;
+    }
+    
+    public Type getType() {
+        return type;
+    }
+    
+    public Long getVisitId() {
+        return visitId;
+    }
+    
+    public Long getPatientId() {
+        return patientId;
+    }
+    
+    public Long getDoctorId() {
+        return doctorId;
+    }
+    
+    public LocalDateTime getVisitDate() {
+        return visitDate;
+    }
+    
+    public VisitResponseDTO getVisit() {
+        return visit;
+    }
+    
+    // Setters
+    public void setId(Long id) {
+        this.id = id;
+    }
+    
+    public void setType(Type type) {
+        this.type = type;
+    }
+    
+    public void setVisitId(Long visitId) {
+        this.visitId = visitId;
+    }
+    
+    public void setPatientId(Long patientId) {
+        this.patientId = patientId;
+    }
+    
+    public void setDoctorId(Long doctorId) {
+        this.doctorId = doctorId;
+    }
+    
+    public void setVisitDate(LocalDateTime visitDate) {
+        this.visitDate = visitDate;
+    }
+    
+    public void setVisit(VisitResponseDTO visit) {
+        this.visit = visit;
+    }
+    
+    public enum Type {
+        CREATED, DELETED
+    }
+}
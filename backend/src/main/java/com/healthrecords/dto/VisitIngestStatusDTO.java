@@ -0,0 +1,80 @@
+package com.healthrecords.dto;
+
+import java.time.Instant;
+
+public class VisitIngestStatusDTO {
+    private String trackingId;
+    private Status status;
+    private Long visitId;
+    private String error;
+    private Instant acceptedAt;
+    private Instant processedAt;
+    
+    public VisitIngestStatusDTO() {
+    }
+    
+    public VisitIngestStatusDTO(String trackingId, Status status, Long visitId, String error, Instant acceptedAt,
+                                Instant processedAt) {
+        this.trackingId = trackingId;
+        this.status = status;
+        this.visitId = visitId;
+        this.error = error;
+        this.acceptedAt = acceptedAt;
+        this.processedAt = processedAt;
+    }
+    
+    // Getters
+    public String getTrackingId() {
+        return trackingId;
+    }
+    
+    public Status getStatus() {
+        return status;
+    }
+    
+    public Long getVisitId() {
+        return visitId;
+    }
+    
+    public String getError() {
+        return error;
+    }
+    
+    public Instant getAcceptedAt() {
+        return acceptedAt;
+    }
+    
+    public Instant getProcessedAt() {
+        return processedAt;
+    }
+    
+    // Setters
+    public void setTrackingId(String trackingId) {
+        this.trackingId = trackingId;
+    }
+    
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+    
+    public void setVisitId(Long visitId) {
+        this.visitId = visitId;
+    }
+    
+    public void setError(String error) {
+        this.error = error;
+    }
+    
+    public void setAcceptedAt(Instant acceptedAt) {
+        this.acceptedAt = acceptedAt;
+    }
+    
+    public void setProcessedAt(Instant processedAt) {
+        this.processedAt = processedAt;
+    }
+    
+    public enum Status {
+        // Durably logged, not yet written to the database
+        PENDING, CREATED, INVALID, NOT_FOUND, DUPLICATE, FAILED
+    }
+}
@@ -1,7 +1,11 @@
 package com.healthrecords.dto;
 
+import com.fasterxml.jackson.annotation.JsonFilter;
+
 import java.time.LocalDateTime;
 
+// Lets list endpoints serialize only the properties selected with the fields parameter
+@JsonFilter("fields")
 public class VisitResponseDTO {
     private Long id;
     private Long patientId;
@@ -0,0 +1,34 @@
+package com.healthrecords.dto;
+
+import java.time.LocalDate;
+
+public class VisitRollupDTO {
+    private LocalDate periodStart;
+    private long visitCount;
+    
+    public VisitRollupDTO() {
+    }
+    
+    public VisitRollupDTO(LocalDate periodStart, long visitCount) {
+        this.periodStart = periodStart;
+        this.visitCount = visitCount;
+    }
+    
+    // Getters
+    public LocalDate getPeriodStart() {
+        return periodStart;
+    }
+    
+    public long getVisitCount() {
+        return visitCount;
+    }
+    
+    // Setters
+    public void setPeriodStart(LocalDate periodStart) {
+        this.periodStart = periodStart;
+    }
+    
+    public void setVisitCount(long visitCount) {
+        this.visitCount = visitCount;
+    }
+}
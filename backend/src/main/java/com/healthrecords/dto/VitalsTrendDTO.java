@@ -0,0 +1,106 @@
+package com.healthrecords.dto;
+
+/**
+ * Column-oriented vitals for charting. All arrays are index-aligned with {@code timestamps}
+ * (visit dates as epoch milliseconds, read as UTC); missing readings are null, which JSON writes as {@code null}.
+ */
+public class VitalsTrendDTO {
+    private Long patientId;
+    private long[] timestamps;
+    private Double[] heightCm;
+    private Double[] weightKg;
+    private Double[] bmi;
+    private Double[] systolic;
+    private Double[] diastolic;
+    private Double[] pulse;
+    private Double[] temperature;
+    
+    public VitalsTrendDTO() {
+    }
+    
+    public VitalsTrendDTO(Long patientId, int size) {
+        this.patientId = patientId;
+        this.timestamps = new long[size];
+        this.heightCm = new Double[size];
+        this.weightKg = new Double[size];
+        this.bmi = new Double[size];
+        this.systolic = new Double[size];
+        this.diastolic = new Double[size];
+        this.pulse = new Double[size];
+        this.temperature = new Double[size];
+    }
+    
+    // Getters
+    public Long getPatientId() {
+        return patientId;
+    }
+    
+    public long[] getTimestamps() {
+        return timestamps;
+    }
+    
+    public Double[] getHeightCm() {
+        return heightCm;
+    }
+    
+    public Double[] getWeightKg() {
+        return weightKg;
+    }
+    
+    public Double[] getBmi() {
+        return bmi;
+    }
+    
+    public Double[] getSystolic() {
+        return systolic;
+    }
+    
+    public Double[] getDiastolic() {
+        return diastolic;
+    }
+    
+    public Double[] getPulse() {
+        return pulse;
+    }
+    
+    public Double[] getTemperature() {
+        return temperature;
+    }
+    
+    // Setters
+    public void setPatientId(Long patientId) {
+        this.patientId = patientId;
+    }
+    
+    public void setTimestamps(long[] timestamps) {
+        this.timestamps = timestamps;
+    }
+    
+    public void setHeightCm(Double[] heightCm) {
+        this.heightCm = heightCm;
+    }
+    
+    public void setWeightKg(Double[] weightKg) {
+        this.weightKg = weightKg;
+    }
+    
+    public void setBmi(Double[] bmi) {
+        this.bmi = bmi;
+    }
+    
+    public void setSystolic(Double[] systolic) {
+        this.systolic = systolic;
+    }
+    
+    public void setDiastolic(Double[] diastolic) {
+        this.diastolic = diastolic;
+    }
+    
+    public void setPulse(Double[] pulse) {
+        this.pulse = pulse;
+    }
+    
+    public void setTemperature(Double[] temperature) {
+        this.temperature = temperature;
+    }
+}
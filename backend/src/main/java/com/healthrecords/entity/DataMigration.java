@@ -0,0 +1,46 @@
+package com.healthrecords.entity;
+
+import jakarta.persistence.*;
+
+/**
+ * How far a one-off data backfill has got, so a restart continues after the rows it already handled
+ * instead of scanning them again.
+ */
+@Entity
+@Table(name = "data_migrations")
+public class DataMigration {
+    
+    @Id
+    @Column(length = 100)
+    private String name;
+    
+    // Highest row id handled so far
+    @Column(name = "last_id", nullable = false)
+    private long lastId;
+    
+    public DataMigration() {
+    }
+    
+    public DataMigration(String name, long lastId) {
+        this.name = name;
+        this.lastId = lastId;
+    }
+    
+    // Getters
+    public String getName() {
+        return name;
+    }
+    
+    public long getLastId() {
+        return lastId;
+    }
+    
+    // Setters
+    public void setName(String name) {
+        this.name = name;
+    }
+    
+    public void setLastId(long lastId) {
+        this.lastId = lastId;
+    }
+}
@@ -0,0 +1,71 @@
+package com.healthrecords.entity;
+
+import jakarta.persistence.*;
+
+/**
+ * The output of one resource type of an export, saved once its file is complete. Types that matched
+ * no resources are saved with a count of 0 and have no file.
+ */
+@Entity
+@Table(name = "export_files", uniqueConstraints = {
+        @UniqueConstraint(name = "uk_export_files_job_type", columnNames = {"job_id", "resource_type"})
+})
+public class ExportFile {
+    
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "export_files_seq")
+    @SequenceGenerator(name = "export_files_seq", sequenceName = "export_files_seq", allocationSize = 50)
+    private Long id;
+    
+    @Column(name = "job_id", nullable = false, length = 36)
+    private String jobId;
+    
+    @Column(name = "resource_type", nullable = false, length = 40)
+    private String resourceType;
+    
+    @Column(nullable = false)
+    private long count;
+    
+    public ExportFile() {
+    }
+    
+    public ExportFile(String jobId, String resourceType, long count) {
+        this.jobId = jobId;
+        this.resourceType = resourceType;
+        this.count = count;
+    }
+    
+    // Getters
+    public Long getId() {
+        return id;
+    }
+    
+    public String getJobId() {
+        return jobId;
+    }
+    
+    public String getResourceType() {
+        return resourceType;
+    }
+    
+    public long getCount() {
+        return count;
+    }
+    
+    // Setters
+    public void setId(Long id) {
+        this.id = id;
+    }
+    
+    public void setJobId(String jobId) {
+        this.jobId = jobId;
+    }
+    
+    public void setResourceType(String resourceType) {
+        this.resourceType = resourceType;
+    }
+    
+    public void setCount(long count) {
+        this.count = count;
+    }
+}
@@ -0,0 +1,151 @@
+package com.healthrecords.entity;
+
+import jakarta.persistence.*;
+
+import java.time.Instant;
+
+/**
+ * A FHIR bulk-data export. The files are written to the disk of the instance that ran the job, while
+ * the job row lets any instance report its status. A running job's {@code updatedAt} is refreshed
+ * periodically by its instance, so jobs left behind by a stopped instance can be told apart.
+ */
+@Entity
+@Table(name = "export_jobs", indexes = {
+        @Index(name = "idx_export_jobs_status_updated", columnList = "status, updated_at")
+})
+public class ExportJob {
+    
+    public enum Status {
+        QUEUED, RUNNING, COMPLETED, FAILED
+    }
+    
+    @Id
+    @Column(length = 36)
+    private String id;
+    
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 20)
+    private Status status;
+    
+    // Resource types to export, comma separated
+    @Column(nullable = false, length = 200)
+    private String types;
+    
+    @Column(name = "since_time")
+    private Instant since;
+    
+    // The kick-off request URL, echoed in the manifest
+    @Column(nullable = false, length = 1000)
+    private String request;
+    
+    // When the job started reading; a later export with this as _since picks up from here
+    @Column(name = "transaction_time")
+    private Instant transactionTime;
+    
+    @Column(length = 1000)
+    private String error;
+    
+    @Column(name = "created_at", nullable = false)
+    private Instant createdAt;
+    
+    @Column(name = "updated_at", nullable = false)
+    private Instant updatedAt;
+    
+    @Column(name = "finished_at")
+    private Instant finishedAt;
+    
+    public ExportJob() {
+    }
+    
+    public ExportJob(String id, String types, Instant since, String request, Instant createdAt) {
+        this.id = id;
+        this.status = Status.QUEUED;
+        this.types = types;
+        this.since = since;
+        this.request = request;
+        this.createdAt = createdAt;
+        this.updatedAt = createdAt;
+    }
+    
+    // Getters
+    public String getId() {
+        return id;
+    }
+    
+    public Status getStatus() {
+        return status;
+    }
+    
+    public String getTypes() {
+        return types;
+    }
+    
+    public Instant getSince() {
+        return since;
+    }
+    
+    public String getRequest() {
+        return request;
+    }
+    
+    public Instant getTransactionTime() {
+        return transactionTime;
+    }
+    
+    public String getError() {
+        return error;
+    }
+    
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+    
+    public Instant getUpdatedAt() {
+        return updatedAt;
+    }
+    
+    public Instant getFinishedAt() {
+        return finishedAt;
+    }
+    
+    // Setters
+    public void setId(String id) {
+        this.id = id;
+    }
+    
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+    
+    public void setTypes(String types) {
+        this.types = types;
+    }
+    
+    public void setSince(Instant since) {
+        this.since = since;
+    }
+    
+    public void setRequest(String request) {
+        this.request = request;
+    }
+    
+    public void setTransactionTime(Instant transactionTime) {
+        this.transactionTime = transactionTime;
+    }
+    
+    public void setError(String error) {
+        this.error = error;
+    }
+    
+    public void setCreatedAt(Instant createdAt) {
+        this.createdAt = createdAt;
+    }
+    
+    public void setUpdatedAt(Instant updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+    
+    public void setFinishedAt(Instant finishedAt) {
+        this.finishedAt = finishedAt;
+    }
+}
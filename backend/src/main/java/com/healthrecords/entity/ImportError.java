@@ -0,0 +1,88 @@
+package com.healthrecords.entity;
+
+import jakarta.persistence.*;
+
+/**
+ * A record of an import file that was not written, with the reason. Records are numbered from 1 in
+ * file order; for CSV that is the row after the header.
+ */
+@Entity
+@Table(name = "import_errors", indexes = {
+        @Index(name = "idx_import_errors_job_record", columnList = "job_id, record_number")
+})
+public class ImportError {
+    
+    public enum Status {
+        INVALID, NOT_FOUND, DUPLICATE
+    }
+    
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "import_errors_seq")
+    @SequenceGenerator(name = "import_errors_seq", sequenceName = "import_errors_seq", allocationSize = 50)
+    private Long id;
+    
+    @Column(name = "job_id", nullable = false, length = 36)
+    private String jobId;
+    
+    @Column(name = "record_number", nullable = false)
+    private long record;
+    
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 20)
+    private Status status;
+    
+    @Column(nullable = false, length = 1000)
+    private String message;
+    
+    public ImportError() {
+    }
+    
+    public ImportError(String jobId, long record, Status status, String message) {
+        this.jobId = jobId;
+        this.record = record;
+        this.status = status;
+        this.message = message.length() > 1000 ? message.substring(0, 1000) : message;
+    }
+    
+    // Getters
+    public Long getId() {
+        return id;
+    }
+    
+    public String getJobId() {
+        return jobId;
+    }
+    
+    public long getRecord() {
+        return record;
+    }
+    
+    public Status getStatus() {
+        return status;
+    }
+    
+    public String getMessage() {
+        return message;
+    }
+    
+    // Setters
+    public void setId(Long id) {
+        this.id = id;
+    }
+    
+    public void setJobId(String jobId) {
+        this.jobId = jobId;
+    }
+    
+    public void setRecord(long record) {
+        this.record = record;
+    }
+    
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+    
+    public void setMessage(String message) {
+        this.message = message;
+    }
+}
@@ -0,0 +1,203 @@
+package com.healthrecords.entity;
+
+import jakarta.persistence.*;
+
+import java.time.Instant;
+
+/**
+ * A bulk import of users or visits from an uploaded file. Progress is the number of records of the
+ * current phase already written, and moves in the same transaction as the batch it covers, so a
+ * resumed job continues exactly where the last committed batch ended.
+ */
+@Entity
+@Table(name = "import_jobs", indexes = {
+        @Index(name = "idx_import_jobs_status_updated", columnList = "status, updated_at")
+})
+public class ImportJob {
+    
+    public enum Format {
+        CSV_USERS, CSV_VISITS, FHIR_BUNDLE, FHIR_NDJSON
+    }
+    
+    public enum Status {
+        QUEUED, RUNNING, COMPLETED, FAILED
+    }
+    
+    // FHIR files are read twice: users first, then the visits referring to them
+    public enum Phase {
+        USERS, VISITS
+    }
+    
+    @Id
+    @Column(length = 36)
+    private String id;
+    
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 20)
+    private Format format;
+    
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 20)
+    private Status status;
+    
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 20)
+    private Phase phase;
+    
+    @Column(nullable = false)
+    private long position;
+    
+    // Raised by every claim; a worker whose lease is no longer current has been replaced and stops
+    @Column(nullable = false)
+    private long lease;
+    
+    @Column(nullable = false)
+    private long created;
+    
+    @Column(nullable = false)
+    private long duplicates;
+    
+    @Column(nullable = false)
+    private long invalid;
+    
+    @Column(name = "not_found", nullable = false)
+    private long notFound;
+    
+    @Column(length = 1000)
+    private String error;
+    
+    @Column(name = "created_at", nullable = false)
+    private Instant createdAt;
+    
+    @Column(name = "updated_at", nullable = false)
+    private Instant updatedAt;
+    
+    @Column(name = "finished_at")
+    private Instant finishedAt;
+    
+    public ImportJob() {
+    }
+    
+    public ImportJob(String id, Format format, Phase phase, Instant createdAt) {
+        this.id = id;
+        this.format = format;
+        this.status = Status.QUEUED;
+        this.phase = phase;
+        this.createdAt = createdAt;
+        this.updatedAt = createdAt;
+    }
+    
+    // Getters
+    public String getId() {
+        return id;
+    }
+    
+    public Format getFormat() {
+        return format;
+    }
+    
+    public Status getStatus() {
+        return status;
+    }
+    
+    public Phase getPhase() {
+        return phase;
+    }
+    
+    public long getPosition() {
+        return position;
+    }
+    
+    public long getLease() {
+        return lease;
+    }
+    
+    public long getCreated() {
+        return created;
+    }
+    
+    public long getDuplicates() {
+        return duplicates;
+    }
+    
+    public long getInvalid() {
+        return invalid;
+    }
+    
+    public long getNotFound() {
+        return notFound;
+    }
+    
+    public String getError() {
+        return error;
+    }
+    
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+    
+    public Instant getUpdatedAt() {
+        return updatedAt;
+    }
+    
+    public Instant getFinishedAt() {
+        return finishedAt;
+    }
+    
+    // Setters
+    public void setId(String id) {
+        this.id = id;
+    }
+    
+    public void setFormat(Format format) {
+        this.format = format;
+    }
+    
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+    
+    public void setPhase(Phase phase) {
+        this.phase = phase;
+    }
+    
+    public void setPosition(long position) {
+        this.position = position;
+    }
+    
+    public void setLease(long lease) {
+        this.lease = lease;
+    }
+    
+    public void setCreated(long created) {
+        this.created = created;
+    }
+    
+    public void setDuplicates(long duplicates) {
+        this.duplicates = duplicates;
+    }
+    
+    public void setInvalid(long invalid) {
+        this.invalid = invalid;
+    }
+    
+    public void setNotFound(long notFound) {
+        this.notFound = notFound;
+    }
+    
+    public void setError(String error) {
+        this.error = error;
+    }
+    
+    public void setCreatedAt(Instant createdAt) {
+        this.createdAt = createdAt;
+    }
+    
+    public void setUpdatedAt(Instant updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+    
+    public void setFinishedAt(Instant finishedAt) {
+        this.finishedAt = finishedAt;
+    }
+}
@@ -0,0 +1,39 @@
+package com.healthrecords.entity;
+
+import jakarta.persistence.*;
+
+/**
+ * Single row written to the primary on a schedule; reading it back from a replica tells how far
+ * behind that replica is. Only used when read replicas are configured.
+ */
+@Entity
+@Table(name = "replication_heartbeat")
+public class ReplicationHeartbeat {
+    
+    @Id
+    private Integer id;
+    
+    @Column(name = "beat_millis", nullable = false)
+    private long beatMillis;
+    
+    public ReplicationHeartbeat() {
+    }
+    
+    // Getters
+    public Integer getId() {
+        return id;
+    }
+    
+    public long getBeatMillis() {
+        return beatMillis;
+    }
+    
+    // Setters
+    public void setId(Integer id) {
+        this.id = id;
+    }
+    
+    public void setBeatMillis(long beatMillis) {
+        this.beatMillis = beatMillis;
+    }
+}
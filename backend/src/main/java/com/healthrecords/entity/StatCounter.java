@@ -0,0 +1,41 @@
+package com.healthrecords.entity;
+
+import jakarta.persistence.*;
+
+@Entity
+@Table(name = "stat_counters")
+public class StatCounter {
+    
+    @Id
+    @Column(length = 100)
+    private String name;
+    
+    @Column(name = "counter_value", nullable = false)
+    private long value;
+    
+    public StatCounter() {
+    }
+    
+    public StatCounter(String name, long value) {
+        this.name = name;
+        this.value = value;
+    }
+    
+    // Getters
+    public String getName() {
+        return name;
+    }
+    
+    public long getValue() {
+        return value;
+    }
+    
+    // Setters
+    public void setName(String name) {
+        this.name = name;
+    }
+    
+    public void setValue(long value) {
+        this.value = value;
+    }
+}
@@ -0,0 +1,58 @@
+package com.healthrecords.entity;
+
+import jakarta.persistence.*;
+
+/**
+ * A pending change to a statistics counter. Writes append these rows in the caller's transaction, so they
+ * commit or roll back with the write, instead of updating the shared counter rows; they are folded into
+ * stat_counters in the background.
+ */
+@Entity
+@Table(name = "stat_counter_deltas")
+public class StatCounterDelta {
+    
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "stat_counter_deltas_seq")
+    @SequenceGenerator(name = "stat_counter_deltas_seq", sequenceName = "stat_counter_deltas_seq", allocationSize = 50)
+    private Long id;
+    
+    @Column(nullable = false, length = 100)
+    private String name;
+    
+    @Column(nullable = false)
+    private long delta;
+    
+    public StatCounterDelta() {
+    }
+    
+    public StatCounterDelta(String name, long delta) {
+        this.name = name;
+        this.delta = delta;
+    }
+    
+    // Getters
+    public Long getId() {
+        return id;
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    public long getDelta() {
+        return delta;
+    }
+    
+    // Setters
+    public void setId(Long id) {
+        this.id = id;
+    }
+    
+    public void setName(String name) {
+        this.name = name;
+    }
+    
+    public void setDelta(long delta) {
+        this.delta = delta;
+    }
+}
@@ -0,0 +1,93 @@
+package com.healthrecords.entity;
+
+import jakarta.persistence.*;
+
+/**
+ * A revoked access token, or with no token id, every token issued to a user before a given second.
+ * Each instance loads these rows periodically, so a logout or role change made through one instance
+ * is honoured by all of them. Rows are deleted once the tokens they cover would have expired anyway.
+ */
+@Entity
+@Table(name = "token_revocations", indexes = {
+        @Index(name = "idx_token_revocations_expires_at", columnList = "expires_at")
+})
+public class TokenRevocation {
+    
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    
+    @Column(name = "token_id", length = 32)
+    private String tokenId;
+    
+    @Column(name = "user_id")
+    private Long userId;
+    
+    // Epoch second; tokens of the user issued before it are rejected
+    @Column(name = "issued_before")
+    private Long issuedBefore;
+    
+    // Epoch second after which the row no longer matters
+    @Column(name = "expires_at", nullable = false)
+    private long expiresAt;
+    
+    public TokenRevocation() {
+    }
+    
+    public static TokenRevocation forToken(String tokenId, long expiresAt) {
+        TokenRevocation revocation = new TokenRevocation();
+        revocation.tokenId = tokenId;
+        revocation.expiresAt = expiresAt;
+        return revocation;
+    }
+    
+    public static TokenRevocation forUser(Long userId, long issuedBefore, long expiresAt) {
+        TokenRevocation revocation = new TokenRevocation();
+        revocation.userId = userId;
+        revocation.issuedBefore = issuedBefore;
+        revocation.expiresAt = expiresAt;
+        return revocation;
+    }
+    
+    // Getters
+    public Long getId() {
+        return id;
+    }
+    
+    public String getTokenId() {
+        return tokenId;
+    }
+    
+    public Long getUserId() {
+        return userId;
+    }
+    
+    public Long getIssuedBefore() {
+        return issuedBefore;
+    }
+    
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+    
+    // Setters
+    public void setId(Long id) {
+        this.id = id;
+    }
+    
+    public void setTokenId(String tokenId) {
+        this.tokenId = tokenId;
+    }
+    
+    public void setUserId(Long userId) {
+        this.userId = userId;
+    }
+    
+    public void setIssuedBefore(Long issuedBefore) {
+        this.issuedBefore = issuedBefore;
+    }
+    
+    public void setExpiresAt(long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+}
@@ -1,15 +1,18 @@
 package com.healthrecords.entity;
 
 import jakarta.persistence.*;
+import org.hibernate.annotations.ColumnDefault;
 
+import java.time.Instant;
 import java.time.LocalDate;
 
 @Entity
-@Table(name = "users")
+@Table(name = "users", indexes = @Index(name = "idx_users_last_modified", columnList = "last_modified"))
 public class User {
     
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "users_seq")
+    @SequenceGenerator(name = "users_seq", sequenceName = "users_seq", allocationSize = 50)
     private Long id;
     
     @Column(nullable = false)
@@ -37,6 +40,16 @@ public class User {
     
     private String address;
     
+    // Bumped on every update; drives optimistic locking and the ETags of user responses
+    @Version
+    @ColumnDefault("0")
+    @Column(nullable = false)
+    private Long version;
+    
+    // Set on every insert and update, for incremental FHIR exports; null for rows written before it existed
+    @Column(name = "last_modified")
+    private Instant lastModified;
+    
     public User() {
     }
     
@@ -94,6 +107,14 @@ public class User {
         return address;
     }
     
+    public Long getVersion() {
+        return version;
+    }
+    
+    public Instant getLastModified() {
+        return lastModified;
+    }
+    
     // Setters
     public void setId(Long id) {
         this.id = id;
@@ -135,6 +156,20 @@ public class User {
         this.address = address;
     }
     
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+    
+    public void setLastModified(Instant lastModified) {
+        this.lastModified = lastModified;
+    }
+    
+    @PrePersist
+    @PreUpdate
+    void touch() {
+        lastModified = Instant.now();
+    }
+    
     public enum Role {
         ADMIN, DOCTOR, PATIENT
     }
@@ -1,22 +1,41 @@
 package com.healthrecords.entity;
 
 import jakarta.persistence.*;
+import org.hibernate.annotations.ColumnDefault;
 
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 @Entity
-@Table(name = "visits")
+@Table(name = "visits",
+       uniqueConstraints = @UniqueConstraint(name = Visit.UNIQUE_PATIENT_DOCTOR_DATE,
+                                             columnNames = {"patient_id", "doctor_id", "visit_date"}),
+       indexes = {
+               @Index(name = "idx_visits_patient_date", columnList = "patient_id, visit_date"),
+               @Index(name = "idx_visits_doctor_date", columnList = "doctor_id, visit_date"),
+               @Index(name = "idx_visits_systolic_date", columnList = "systolic, visit_date"),
+               @Index(name = "idx_visits_diastolic_date", columnList = "diastolic, visit_date"),
+               @Index(name = "idx_visits_last_modified", columnList = "last_modified")
+       })
 public class Visit {
     
+    public static final String UNIQUE_PATIENT_DOCTOR_DATE = "uk_visits_patient_doctor_date";
+    
+    private static final Pattern BLOOD_PRESSURE = Pattern.compile("^\\s*(\\d{2,3})\\s*/\\s*(\\d{2,3})\\s*(mm\\s*hg)?\\s*$",
+            Pattern.CASE_INSENSITIVE);
+    
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "visits_seq")
+    @SequenceGenerator(name = "visits_seq", sequenceName = "visits_seq", allocationSize = 50)
     private Long id;
     
-    @ManyToOne(fetch = FetchType.EAGER)
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "patient_id", nullable = false)
     private User patient;
     
-    @ManyToOne(fetch = FetchType.EAGER)
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "doctor_id", nullable = false)
     private User doctor;
     
@@ -37,6 +56,11 @@ public class Visit {
     
     private String bloodPressure;
     
+    // Parsed from bloodPressure so readings can be range-queried through an index
+    private Integer systolic;
+    
+    private Integer diastolic;
+    
     private Integer pulse;
     
     private Double temperature;
@@ -44,6 +68,15 @@ public class Visit {
     @Column(length = 2000)
     private String notes;
     
+    @Version
+    @ColumnDefault("0")
+    @Column(nullable = false)
+    private Long version;
+    
+    // Set when the row is written, for incremental FHIR exports
+    @Column(name = "last_modified")
+    private Instant lastModified;
+    
     public Visit() {
     }
     
@@ -58,7 +91,7 @@ public class Visit {
         this.prescribedMedicines = prescribedMedicines;
         this.heightCm = heightCm;
         this.weightKg = weightKg;
-        this.bloodPressure = bloodPressure;
+        setBloodPressure(bloodPressure);
         this.pulse = pulse;
         this.temperature = temperature;
         this.notes = notes;
@@ -109,6 +142,14 @@ public class Visit {
         return bloodPressure;
     }
     
+    public Integer getSystolic() {
+        return systolic;
+    }
+    
+    public Integer getDiastolic() {
+        return diastolic;
+    }
+    
     public Integer getPulse() {
         return pulse;
     }
@@ -121,6 +162,14 @@ public class Visit {
         return notes;
     }
     
+    public Long getVersion() {
+        return version;
+    }
+    
+    public Instant getLastModified() {
+        return lastModified;
+    }
+    
     // Setters
     public void setId(Long id) {
         this.id = id;
@@ -164,6 +213,9 @@ public class Visit {
     
     public void setBloodPressure(String bloodPressure) {
         this.bloodPressure = bloodPressure;
+        int[] reading = parseBloodPressure(bloodPressure);
+        this.systolic = reading != null ? reading[0] : null;
+        this.diastolic = reading != null ? reading[1] : null;
     }
     
     public void setPulse(Integer pulse) {
@@ -177,5 +229,31 @@ public class Visit {
     public void setNotes(String notes) {
         this.notes = notes;
     }
+    
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+    
+    public void setLastModified(Instant lastModified) {
+        this.lastModified = lastModified;
+    }
+    
+    @PrePersist
+    @PreUpdate
+    void touch() {
+        lastModified = Instant.now();
+    }
+    
+    /**
+     * Systolic and diastolic pressure of a reading such as "120/80" or "120/80 mmHg", or null when
+     * the text is not one.
+     */
+    public static int[] parseBloodPressure(String bloodPressure) {
+        Matcher matcher = bloodPressure == null ? null : BLOOD_PRESSURE.matcher(bloodPressure);
+        if (matcher == null || !matcher.matches()) {
+            return null;
+        }
+        return new int[]{Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2))};
+    }
 }
 
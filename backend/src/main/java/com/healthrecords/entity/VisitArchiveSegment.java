@@ -0,0 +1,111 @@
+package com.healthrecords.entity;
+
+import jakarta.persistence.*;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+
+/**
+ * One immutable segment of archived visits. The compressed segment file is kept here so it is backed
+ * up with the database; every instance copies it to local disk once and reads it from there.
+ */
+@Entity
+@Table(name = "visit_archive_segments")
+public class VisitArchiveSegment {
+    
+    @Id
+    @Column(length = 64)
+    private String name;
+    
+    @Column(nullable = false)
+    private int visitCount;
+    
+    @Column(nullable = false)
+    private LocalDateTime minVisitDate;
+    
+    @Column(nullable = false)
+    private LocalDateTime maxVisitDate;
+    
+    // CRC32 of content, checked whenever a local copy is opened
+    @Column(nullable = false)
+    private long checksum;
+    
+    @Lob
+    @Column(nullable = false)
+    private byte[] content;
+    
+    @Column(name = "created_at", nullable = false)
+    private Instant createdAt;
+    
+    public VisitArchiveSegment() {
+    }
+    
+    public VisitArchiveSegment(String name, int visitCount, LocalDateTime minVisitDate, LocalDateTime maxVisitDate,
+                               long checksum, byte[] content, Instant createdAt) {
+        this.name = name;
+        this.visitCount = visitCount;
+        this.minVisitDate = minVisitDate;
+        this.maxVisitDate = maxVisitDate;
+        this.checksum = checksum;
+        this.content = content;
+        this.createdAt = createdAt;
+    }
+    
+    // Getters
+    public String getName() {
+        return name;
+    }
+    
+    public int getVisitCount() {
+        return visitCount;
+    }
+    
+    public LocalDateTime getMinVisitDate() {
+        return minVisitDate;
+    }
+    
+    public LocalDateTime getMaxVisitDate() {
+        return maxVisitDate;
+    }
+    
+    public long getChecksum() {
+        return checksum;
+    }
+    
+    public byte[] getContent() {
+        return content;
+    }
+    
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+    
+    // Setters
+    public void setName(String name) {
+        this.name = name;
+    }
+    
+    public void setVisitCount(int visitCount) {
+        this.visitCount = visitCount;
+    }
+    
+    public void setMinVisitDate(LocalDateTime minVisitDate) {
+        this.minVisitDate = minVisitDate;
+    }
+    
+    public void setMaxVisitDate(LocalDateTime maxVisitDate) {
+        this.maxVisitDate = maxVisitDate;
+    }
+    
+    public void setChecksum(long checksum) {
+        this.checksum = checksum;
+    }
+    
+    public void setContent(byte[] content) {
+        this.content = content;
+    }
+    
+    public void setCreatedAt(Instant createdAt) {
+        this.createdAt = createdAt;
+    }
+}
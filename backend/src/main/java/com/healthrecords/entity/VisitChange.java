@@ -0,0 +1,107 @@
+package com.healthrecords.entity;
+
+import jakarta.persistence.*;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+
+/**
+ * A visit created or deleted, written in the same transaction as the change itself. Every instance
+ * polls this table to feed its live event subscribers, so subscribers see changes made through
+ * any instance. Rows are kept for a short while only.
+ */
+@Entity
+@Table(name = "visit_changes", indexes = {
+        @Index(name = "idx_visit_changes_changed_at", columnList = "changed_at")
+})
+public class VisitChange {
+    
+    public enum Type {
+        CREATED, DELETED
+    }
+    
+    // Identity, not a pooled sequence, so ids follow insert order across instances
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 10)
+    private Type type;
+    
+    @Column(name = "visit_id", nullable = false)
+    private Long visitId;
+    
+    @Column(name = "patient_id", nullable = false)
+    private Long patientId;
+    
+    @Column(name = "doctor_id", nullable = false)
+    private Long doctorId;
+    
+    @Column(name = "visit_date", nullable = false)
+    private LocalDateTime visitDate;
+    
+    @Column(name = "changed_at", nullable = false)
+    private Instant changedAt;
+    
+    public VisitChange() {
+    }
+    
+    // Getters
+    public Long getId() {
+        return id;
+    }
+    
+    public Type getType() {
+        return type;
+    }
+    
+    public Long getVisitId() {
+        return visitId;
+    }
+    
+    public Long getPatientId() {
+        return patientId;
+    }
+    
+    public Long getDoctorId() {
+        return doctorId;
+    }
+    
+    public LocalDateTime getVisitDate() {
+        return visitDate;
+    }
+    
+    public Instant getChangedAt() {
+        return changedAt;
+    }
+    
+    // Setters
+    public void setId(Long id) {
+        this.id = id;
+    }
+    
+    public void setType(Type type) {
+        this.type = type;
+    }
+    
+    public void setVisitId(Long visitId) {
+        this.visitId = visitId;
+    }
+    
+    public void setPatientId(Long patientId) {
+        this.patientId = patientId;
+    }
+    
+    public void setDoctorId(Long doctorId) {
+        this.doctorId = doctorId;
+    }
+    
+    public void setVisitDate(LocalDateTime visitDate) {
+        this.visitDate = visitDate;
+    }
+    
+    public void setChangedAt(Instant changedAt) {
+        this.changedAt = changedAt;
+    }
+}
@@ -0,0 +1,103 @@
+package com.healthrecords.entity;
+
+import jakarta.persistence.*;
+
+import java.time.Instant;
+
+/**
+ * Outcome of a visit accepted through the asynchronous ingest log. Written in the same transaction
+ * as the visit itself, so a replayed log record that already has a receipt is skipped.
+ */
+@Entity
+@Table(name = "visit_ingest_receipts", indexes = {
+        @Index(name = "idx_visit_ingest_receipts_processed", columnList = "processed_at")
+})
+public class VisitIngestReceipt {
+    
+    public enum Status {
+        CREATED, INVALID, NOT_FOUND, DUPLICATE, FAILED
+    }
+    
+    @Id
+    @Column(name = "tracking_id", length = 36)
+    private String trackingId;
+    
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 20)
+    private Status status;
+    
+    @Column(name = "visit_id")
+    private Long visitId;
+    
+    @Column(length = 1000)
+    private String error;
+    
+    @Column(name = "accepted_at", nullable = false)
+    private Instant acceptedAt;
+    
+    @Column(name = "processed_at", nullable = false)
+    private Instant processedAt;
+    
+    public VisitIngestReceipt() {
+    }
+    
+    public VisitIngestReceipt(String trackingId, Status status, Long visitId, String error, Instant acceptedAt,
+                              Instant processedAt) {
+        this.trackingId = trackingId;
+        this.status = status;
+        this.visitId = visitId;
+        this.error = error != null && error.length() > 1000 ? error.substring(0, 1000) : error;
+        this.acceptedAt = acceptedAt;
+        this.processedAt = processedAt;
+    }
+    
+    // Getters
+    public String getTrackingId() {
+        return trackingId;
+    }
+    
+    public Status getStatus() {
+        return status;
+    }
+    
+    public Long getVisitId() {
+        return visitId;
+    }
+    
+    public String getError() {
+        return error;
+    }
+    
+    public Instant getAcceptedAt() {
+        return acceptedAt;
+    }
+    
+    public Instant getProcessedAt() {
+        return processedAt;
+    }
+    
+    // Setters
+    public void setTrackingId(String trackingId) {
+        this.trackingId = trackingId;
+    }
+    
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+    
+    public void setVisitId(Long visitId) {
+        this.visitId = visitId;
+    }
+    
+    public void setError(String error) {
+        this.error = error;
+    }
+    
+    public void setAcceptedAt(Instant acceptedAt) {
+        this.acceptedAt = acceptedAt;
+    }
+    
+    public void setProcessedAt(Instant processedAt) {
+        this.processedAt = processedAt;
+    }
+}
@@ -0,0 +1,98 @@
+package com.healthrecords.entity;
+
+import jakarta.persistence.*;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.TemporalAdjusters;
+
+@Entity
+@Table(name = "visit_rollups",
+       uniqueConstraints = @UniqueConstraint(name = "uk_visit_rollups_doctor_period",
+                                             columnNames = {"doctor_id", "granularity", "period_start"}),
+       indexes = @Index(name = "idx_visit_rollups_period", columnList = "granularity, period_start"))
+public class VisitRollup {
+    
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "visit_rollups_seq")
+    @SequenceGenerator(name = "visit_rollups_seq", sequenceName = "visit_rollups_seq", allocationSize = 50)
+    private Long id;
+    
+    @Column(name = "doctor_id", nullable = false)
+    private Long doctorId;
+    
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 10)
+    private Granularity granularity;
+    
+    @Column(name = "period_start", nullable = false)
+    private LocalDate periodStart;
+    
+    @Column(nullable = false)
+    private long visitCount;
+    
+    public VisitRollup() {
+    }
+    
+    public VisitRollup(Long doctorId, Granularity granularity, LocalDate periodStart, long visitCount) {
+        this.doctorId = doctorId;
+        this.granularity = granularity;
+        this.periodStart = periodStart;
+        this.visitCount = visitCount;
+    }
+    
+    // Getters
+    public Long getId() {
+        return id;
+    }
+    
+    public Long getDoctorId() {
+        return doctorId;
+    }
+    
+    public Granularity getGranularity() {
+        return granularity;
+    }
+    
+    public LocalDate getPeriodStart() {
+        return periodStart;
+    }
+    
+    public long getVisitCount() {
+        return visitCount;
+    }
+    
+    // Setters
+    public void setId(Long id) {
+        this.id = id;
+    }
+    
+    public void setDoctorId(Long doctorId) {
+        this.doctorId = doctorId;
+    }
+    
+    public void setGranularity(Granularity granularity) {
+        this.granularity = granularity;
+    }
+    
+    public void setPeriodStart(LocalDate periodStart) {
+        this.periodStart = periodStart;
+    }
+    
+    public void setVisitCount(long visitCount) {
+        this.visitCount = visitCount;
+    }
+    
+    public enum Granularity {
+        DAY, WEEK, MONTH;
+        
+        // Weeks start on Monday (ISO-8601)
+        public LocalDate periodStart(LocalDate date) {
+            return switch (this) {
+                case DAY -> date;
+                case WEEK -> date.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+                case MONTH -> date.withDayOfMonth(1);
+            };
+        }
+    }
+}
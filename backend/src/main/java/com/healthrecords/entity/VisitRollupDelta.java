@@ -0,0 +1,86 @@
+package com.healthrecords.entity;
+
+import jakarta.persistence.*;
+
+import java.time.LocalDate;
+
+/**
+ * A pending change to one visit rollup, appended by visit writes and folded into visit_rollups in the
+ * background, like the statistics counter deltas.
+ */
+@Entity
+@Table(name = "visit_rollup_deltas", indexes = {
+        @Index(name = "idx_visit_rollup_deltas_doctor", columnList = "doctor_id")
+})
+public class VisitRollupDelta {
+    
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "visit_rollup_deltas_seq")
+    @SequenceGenerator(name = "visit_rollup_deltas_seq", sequenceName = "visit_rollup_deltas_seq", allocationSize = 50)
+    private Long id;
+    
+    @Column(name = "doctor_id", nullable = false)
+    private Long doctorId;
+    
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 10)
+    private VisitRollup.Granularity granularity;
+    
+    @Column(name = "period_start", nullable = false)
+    private LocalDate periodStart;
+    
+    @Column(nullable = false)
+    private long delta;
+    
+    public VisitRollupDelta() {
+    }
+    
+    public VisitRollupDelta(Long doctorId, VisitRollup.Granularity granularity, LocalDate periodStart, long delta) {
+        this.doctorId = doctorId;
+        this.granularity = granularity;
+        this.periodStart = periodStart;
+        this.delta = delta;
+    }
+    
+    // Getters
+    public Long getId() {
+        return id;
+    }
+    
+    public Long getDoctorId() {
+        return doctorId;
+    }
+    
+    public VisitRollup.Granularity getGranularity() {
+        return granularity;
+    }
+    
+    public LocalDate getPeriodStart() {
+        return periodStart;
+    }
+    
+    public long getDelta() {
+        return delta;
+    }
+    
+    // Setters
+    public void setId(Long id) {
+        this.id = id;
+    }
+    
+    public void setDoctorId(Long doctorId) {
+        this.doctorId = doctorId;
+    }
+    
+    public void setGranularity(VisitRollup.Granularity granularity) {
+        this.granularity = granularity;
+    }
+    
+    public void setPeriodStart(LocalDate periodStart) {
+        this.periodStart = periodStart;
+    }
+    
+    public void setDelta(long delta) {
+        this.delta = delta;
+    }
+}
@@ -0,0 +1,87 @@
+package com.healthrecords.entity;
+
+import jakarta.persistence.*;
+
+/**
+ * Which shard holds the visits of one patient bucket ({@code patient_id mod 256}), and the state of
+ * any move of that bucket to another shard.
+ */
+@Entity
+@Table(name = "visit_shard_buckets")
+public class VisitShardBucket {
+    
+    public enum State {
+        // Reads and writes go to shard
+        STABLE,
+        // Rows are being copied to targetShard; shard still serves reads and writes
+        COPYING,
+        // Final sync to targetShard; writes wait, reads still go to shard
+        FROZEN
+    }
+    
+    @Id
+    private Integer bucket;
+    
+    @Column(nullable = false)
+    private int shard;
+    
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 20)
+    private State state;
+    
+    private Integer targetShard;
+    
+    // Shard still holding an old copy of the bucket's rows, to be deleted
+    private Integer cleanupShard;
+    
+    public VisitShardBucket() {
+    }
+    
+    public VisitShardBucket(Integer bucket, int shard) {
+        this.bucket = bucket;
+        this.shard = shard;
+        this.state = State.STABLE;
+    }
+    
+    // Getters
+    public Integer getBucket() {
+        return bucket;
+    }
+    
+    public int getShard() {
+        return shard;
+    }
+    
+    public State getState() {
+        return state;
+    }
+    
+    public Integer getTargetShard() {
+        return targetShard;
+    }
+    
+    public Integer getCleanupShard() {
+        return cleanupShard;
+    }
+    
+    // Setters
+    public void setBucket(Integer bucket) {
+        this.bucket = bucket;
+    }
+    
+    public void setShard(int shard) {
+        this.shard = shard;
+    }
+    
+    public void setState(State state) {
+        this.state = state;
+    }
+    
+    public void setTargetShard(Integer targetShard) {
+        this.targetShard = targetShard;
+    }
+    
+    public void setCleanupShard(Integer cleanupShard) {
+        this.cleanupShard = cleanupShard;
+    }
+}
@@ -0,0 +1,221 @@
+package com.healthrecords.events;
+
+import com.healthrecords.dto.VisitEventDTO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Delivers visit events to Server-Sent Events subscribers, each watching one doctor or one patient.
+ * Publishing only queues the event in the buffer of each matching subscriber; a small pool of sender
+ * threads writes the buffers out. A subscriber that falls {@code bufferSize} events behind is
+ * disconnected rather than slowing down the others, and its EventSource reconnects with
+ * {@code Last-Event-ID} to catch up.
+ */
+public class VisitEventBus implements AutoCloseable {
+    
+    private static final Logger log = LoggerFactory.getLogger(VisitEventBus.class);
+    
+    // Tells a client to reload its list because the events it missed are no longer kept
+    public static final String RESET_EVENT = "reset";
+    
+    private final Map<Long, Set<Subscriber>> byDoctor = new ConcurrentHashMap<>();
+    private final Map<Long, Set<Subscriber>> byPatient = new ConcurrentHashMap<>();
+    private final AtomicInteger subscriberCount = new AtomicInteger();
+    private final ExecutorService sender;
+    private final int bufferSize;
+    private final long timeoutMillis;
+    
+    public VisitEventBus(int senderThreads, int bufferSize, long timeoutMillis) {
+        this.bufferSize = bufferSize;
+        this.timeoutMillis = timeoutMillis;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.sender = Executors.newFixedThreadPool(senderThreads, runnable -> {
+            Thread thread = new Thread(runnable, "visit-events-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    /**
+     * Subscribes to the events of a doctor or a patient. {@code missed} is called once before any live
+     * event is sent and returns the events the client missed since its last event id, or null when
+     * they are no longer available; it is null when the client starts afresh.
+     */
+    public SseEmitter subscribe(Long doctorId, Long patientId, Supplier<List<VisitEventDTO>> missed) {
+        SseEmitter emitter = new SseEmitter(timeoutMillis);
+        Subscriber subscriber = new Subscriber(emitter, doctorId, patientId, missed);
+        emitter.onCompletion(subscriber::remove);
+        emitter.onTimeout(subscriber::close);
+        emitter.onError(error -> subscriber.close());
+        Map<Long, Set<Subscriber>> topics = doctorId != null ? byDoctor : byPatient;
+        topics.compute(doctorId != null ? doctorId : patientId, (id, subscribers) -> {
+            Set<Subscriber> updated = subscribers != null ? subscribers : ConcurrentHashMap.newKeySet();
+            updated.add(subscriber);
+            return updated;
+        });
+        subscriberCount.incrementAndGet();
+        subscriber.schedule();
+        return emitter;
+    }
+    
+    public void publish(List<VisitEventDTO> events) {
+        for (VisitEventDTO event : events) {
+            offer(byDoctor.get(event.getDoctorId()), event);
+            offer(byPatient.get(event.getPatientId()), event);
+        }
+    }
+    
+    // Comments keep idle connections from being closed by proxies
+    public void heartbeat() {
+        byDoctor.values().forEach(subscribers -> subscribers.forEach(Subscriber::heartbeat));
+        byPatient.values().forEach(subscribers -> subscribers.forEach(Subscriber::heartbeat));
+    }
+    
+    public int subscriberCount() {
+        return subscriberCount.get();
+    }
+    
+    @Override
+    public void close() {
+        sender.shutdownNow();
+        List.copyOf(byDoctor.values()).forEach(subscribers -> List.copyOf(subscribers).forEach(Subscriber::close));
+        List.copyOf(byPatient.values()).forEach(subscribers -> List.copyOf(subscribers).forEach(Subscriber::close));
+    }
+    
+    private static void offer(Set<Subscriber> subscribers, VisitEventDTO event) {
+        if (subscribers != null) {
+            subscribers.forEach(subscriber -> subscriber.offer(event));
+        }
+    }
+    
+    private final class Subscriber {
+        
+        private final SseEmitter emitter;
+        private final Long doctorId;
+        private final Long patientId;
+        private final BlockingQueue<VisitEventDTO> buffer = new ArrayBlockingQueue<>(bufferSize);
+        // Set while a sender thread owns this subscriber, so its events go out one at a time and in order
+        private final AtomicBoolean sending = new AtomicBoolean();
+        private final AtomicBoolean removed = new AtomicBoolean();
+        private Supplier<List<VisitEventDTO>> missed;
+        // Ids sent while catching up, so live events queued meanwhile are not sent twice
+        private Set<Long> caughtUp = Set.of();
+        // The first write commits the response headers, so the client sees the stream open at once
+        private volatile boolean heartbeatDue = true;
+        
+        Subscriber(SseEmitter emitter, Long doctorId, Long patientId, Supplier<List<VisitEventDTO>> missed) {
+            this.emitter = emitter;
+            this.doctorId = doctorId;
+            this.patientId = patientId;
+            this.missed = missed;
+        }
+        
+        void offer(VisitEventDTO event) {
+            if (removed.get()) {
+                return;
+            }
+            if (!buffer.offer(event)) {
+                log.debug("Visit event subscriber fell {} events behind, disconnecting it", bufferSize);
+                close();
+                return;
+            }
+            schedule();
+        }
+        
+        void heartbeat() {
+            heartbeatDue = true;
+            schedule();
+        }
+        
+        void schedule() {
+            if (!removed.get() && sending.compareAndSet(false, true)) {
+                try {
+                    sender.execute(this::send);
+                } catch (RuntimeException e) {
+                    // Shutting down
+                    sending.set(false);
+                }
+            }
+        }
+        
+        private void send() {
+            try {
+                do {
+                    if (missed != null) {
+                        catchUp();
+                    }
+                    VisitEventDTO event;
+                    while ((event = buffer.poll()) != null) {
+                        if (!caughtUp.contains(event.getId())) {
+                            emitter.send(toSse(event));
+                        }
+                    }
+                    if (heartbeatDue) {
+                        heartbeatDue = false;
+                        emitter.send(SseEmitter.event().comment("heartbeat"));
+                    }
+                    sending.set(false);
+                    // Anything offered after the buffer was emptied and before the flag was cleared
+                } while ((!buffer.isEmpty() || heartbeatDue) && !removed.get() && sending.compareAndSet(false, true));
+            } catch (IOException | RuntimeException e) {
+                sending.set(false);
+                close();
+            }
+        }
+        
+        private void catchUp() throws IOException {
+            List<VisitEventDTO> events = missed.get();
+            missed = null;
+            if (events == null) {
+                emitter.send(SseEmitter.event().name(RESET_EVENT).data("{}", MediaType.APPLICATION_JSON));
+                return;
+            }
+            Set<Long> ids = new HashSet<>();
+            for (VisitEventDTO event : events) {
+                emitter.send(toSse(event));
+                ids.add(event.getId());
+            }
+            caughtUp = ids;
+        }
+        
+        void close() {
+            if (!removed.get()) {
+                remove();
+                emitter.complete();
+            }
+        }
+        
+        void remove() {
+            if (removed.compareAndSet(false, true)) {
+                Map<Long, Set<Subscriber>> topics = doctorId != null ? byDoctor : byPatient;
+                topics.computeIfPresent(doctorId != null ? doctorId : patientId, (id, subscribers) -> {
+                    subscribers.remove(this);
+                    return subscribers.isEmpty() ? null : subscribers;
+                });
+                subscriberCount.decrementAndGet();
+                buffer.clear();
+            }
+        }
+    }
+    
+    private static SseEmitter.SseEventBuilder toSse(VisitEventDTO event) {
+        String name = event.getType() == VisitEventDTO.Type.CREATED ? "visit-created" : "visit-deleted";
+        return SseEmitter.event().id(String.valueOf(event.getId())).name(name).data(event, MediaType.APPLICATION_JSON);
+    }
+}
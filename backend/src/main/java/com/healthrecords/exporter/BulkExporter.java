@@ -0,0 +1,411 @@
+package com.healthrecords.exporter;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.healthrecords.dto.ExportJobDTO;
+import com.healthrecords.dto.ExportManifestDTO;
+import com.healthrecords.entity.ExportFile;
+import com.healthrecords.entity.ExportJob;
+import com.healthrecords.entity.User;
+import com.healthrecords.exception.ResourceNotFoundException;
+import com.healthrecords.importer.FhirResources;
+import com.healthrecords.repository.ExportFileRepository;
+import com.healthrecords.repository.ExportJobRepository;
+import com.healthrecords.service.UserService;
+import com.healthrecords.service.VisitService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.lang.Nullable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * FHIR bulk-data export of users and visits. A job writes one gzipped NDJSON file per resource type to
+ * {@code dir/<job id>}; the types are written in parallel, each streaming its rows from the database,
+ * so memory use does not grow with the tables. Any instance can report a job's status, but its files
+ * can only be downloaded from the instance that wrote them.
+ */
+public class BulkExporter {
+    
+    public static final List<String> RESOURCE_TYPES = List.of("Patient", "Practitioner", "Encounter", "Condition", "Observation");
+    public static final String FILE_SUFFIX = ".ndjson.gz";
+    
+    private static final Logger log = LoggerFactory.getLogger(BulkExporter.class);
+    private static final List<ExportJob.Status> UNFINISHED = List.of(ExportJob.Status.QUEUED, ExportJob.Status.RUNNING);
+    private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+    // Rows are stamped before their transaction commits; an export taking transactionTime as _since
+    // repeats the rows of this window rather than missing ones that committed late
+    private static final Duration COMMIT_MARGIN = Duration.ofMinutes(1);
+    
+    private final ExportJobRepository jobRepository;
+    private final ExportFileRepository fileRepository;
+    private final UserService userService;
+    private final VisitService visitService;
+    private final ObjectMapper objectMapper;
+    // Read-write so job state and exported rows are read from the primary
+    private final TransactionTemplate transactionTemplate;
+    private final Path dir;
+    private final Duration staleAfter;
+    private final Duration retention;
+    private final boolean requiresAccessToken;
+    private final ExecutorService jobPool;
+    private final ExecutorService writerPool;
+    // Jobs queued or running on this instance, with the flag that cancels them
+    private final Map<String, AtomicBoolean> activeJobs = new ConcurrentHashMap<>();
+    
+    public BulkExporter(ExportJobRepository jobRepository, ExportFileRepository fileRepository, UserService userService,
+                        VisitService visitService, ObjectMapper objectMapper, PlatformTransactionManager transactionManager,
+                        Path dir, int jobThreads, int writerThreads, Duration staleAfter, Duration retention,
+                        boolean requiresAccessToken) throws IOException {
+        this.jobRepository = jobRepository;
+        this.fileRepository = fileRepository;
+        this.userService = userService;
+        this.visitService = visitService;
+        this.objectMapper = objectMapper;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.dir = dir;
+        this.staleAfter = staleAfter;
+        this.retention = retention;
+        this.requiresAccessToken = requiresAccessToken;
+        this.jobPool = Executors.newFixedThreadPool(jobThreads, daemonThreads("export-job-"));
+        this.writerPool = Executors.newFixedThreadPool(writerThreads, daemonThreads("export-write-"));
+        Files.createDirectories(dir);
+    }
+    
+    /**
+     * Queues an export of the given resource types, of everything or only what changed since {@code since}.
+     */
+    public ExportJobDTO start(@Nullable Instant since, List<String> types, String request) {
+        for (String type : types) {
+            if (!RESOURCE_TYPES.contains(type)) {
+                throw new IllegalArgumentException("Unsupported resource type: " + type + "; supported types are " +
+                        String.join(", ", RESOURCE_TYPES));
+            }
+        }
+        Instant now = Instant.now();
+        if (since != null && since.isAfter(now)) {
+            throw new IllegalArgumentException("_since must not be in the future");
+        }
+        String id = UUID.randomUUID().toString();
+        ExportJob job = transactionTemplate.execute(status ->
+                jobRepository.save(new ExportJob(id, String.join(",", types), since, request, now)));
+        submit(job);
+        return new ExportJobDTO(job, List.of());
+    }
+    
+    public ExportJobDTO getJob(String id) {
+        return transactionTemplate.execute(status -> {
+            ExportJob job = jobRepository.findById(id)
+                    .orElseThrow(() -> new ResourceNotFoundException("Export job not found with id: " + id));
+            return new ExportJobDTO(job, fileRepository.findByJobIdOrderById(id));
+        });
+    }
+    
+    /**
+     * The manifest of a completed export, listing the types that matched any resources. File URLs are
+     * {@code baseUrl/<type>.ndjson}.
+     */
+    public ExportManifestDTO getManifest(ExportJobDTO job, String baseUrl) {
+        List<ExportManifestDTO.File> output = job.getOutput().stream()
+                .filter(file -> file.getCount() > 0)
+                .map(file -> new ExportManifestDTO.File(file.getType(), baseUrl + "/" + file.getType() + ".ndjson", file.getCount()))
+                .toList();
+        return new ExportManifestDTO(job.getTransactionTime(), job.getRequest(), requiresAccessToken, output);
+    }
+    
+    // The file of one resource type of a completed export
+    public Path getFile(String id, String type) {
+        ExportJobDTO job = getJob(id);
+        boolean written = job.getOutput().stream().anyMatch(output -> output.getType().equals(type) && output.getCount() > 0);
+        if (job.getStatus() != ExportJob.Status.COMPLETED || !written) {
+            throw new ResourceNotFoundException("Export job " + id + " has no " + type + " file");
+        }
+        Path file = file(id, type);
+        if (!Files.exists(file)) {
+            throw new ResourceNotFoundException("The files of export job " + id + " are not on this instance");
+        }
+        return file;
+    }
+    
+    /**
+     * Cancels a queued or running export, or deletes a finished one, together with its files. Files on
+     * another instance are deleted by that instance when it next checks on its jobs.
+     */
+    public void delete(String id) {
+        Boolean deleted = transactionTemplate.execute(status -> {
+            // The job row first: it is locked by a writer saving its file, which must not be left behind
+            if (jobRepository.deleteByIdIn(List.of(id)) == 0) {
+                return false;
+            }
+            fileRepository.deleteByJobIdIn(List.of(id));
+            return true;
+        });
+        if (!Boolean.TRUE.equals(deleted)) {
+            throw new ResourceNotFoundException("Export job not found with id: " + id);
+        }
+        AtomicBoolean cancelled = activeJobs.get(id);
+        if (cancelled != null) {
+            // The job deletes its files as it stops
+            cancelled.set(true);
+        } else {
+            deleteFiles(id);
+        }
+    }
+    
+    /**
+     * Marks this instance's jobs as alive, cancels those that were deleted elsewhere, and fails the jobs
+     * of instances that stopped, which can no longer complete.
+     */
+    @Scheduled(fixedDelayString = "${healthrecords.export.heartbeat-interval-ms:60000}")
+    public void heartbeat() {
+        Instant now = Instant.now();
+        activeJobs.forEach((id, cancelled) -> {
+            Integer touched = transactionTemplate.execute(status -> jobRepository.touch(id, now, UNFINISHED));
+            if (touched != null && touched == 0) {
+                cancelled.set(true);
+            }
+        });
+        List<String> stale = transactionTemplate.execute(status ->
+                jobRepository.findIdsByStatusInAndUpdatedAtBefore(UNFINISHED, now.minus(staleAfter)));
+        for (String id : stale) {
+            if (!activeJobs.containsKey(id)) {
+                log.warn("Export job {} stopped making progress; marking it failed", id);
+                finish(id, ExportJob.Status.FAILED, "The instance running this export stopped; start a new export");
+            }
+        }
+    }
+    
+    @Scheduled(fixedDelayString = "${healthrecords.export.purge-interval-ms:3600000}")
+    public void purge() {
+        List<String> ids = transactionTemplate.execute(status -> {
+            List<String> finished = jobRepository.findIdsFinishedBefore(Instant.now().minus(retention));
+            if (!finished.isEmpty()) {
+                jobRepository.deleteByIdIn(finished);
+                fileRepository.deleteByJobIdIn(finished);
+            }
+            return finished;
+        });
+        ids.forEach(this::deleteFiles);
+        if (!ids.isEmpty()) {
+            log.info("Purged {} finished export jobs", ids.size());
+        }
+        // Directories whose job was deleted through another instance
+        List<String> local;
+        try (Stream<Path> entries = Files.list(dir)) {
+            local = entries.filter(Files::isDirectory)
+                    .map(path -> path.getFileName().toString())
+                    .filter(id -> !activeJobs.containsKey(id))
+                    .toList();
+        } catch (IOException e) {
+            log.warn("Could not list the export directory {}", dir, e);
+            return;
+        }
+        if (!local.isEmpty()) {
+            List<String> existing = transactionTemplate.execute(status -> jobRepository.findExistingIds(local));
+            local.stream().filter(id -> !existing.contains(id)).forEach(this::deleteFiles);
+        }
+    }
+    
+    // Running jobs stop where they are and are marked failed once they are stale
+    public void shutdown() {
+        jobPool.shutdownNow();
+        writerPool.shutdownNow();
+    }
+    
+    private void submit(ExportJob job) {
+        AtomicBoolean cancelled = new AtomicBoolean();
+        if (activeJobs.putIfAbsent(job.getId(), cancelled) != null) {
+            return;
+        }
+        try {
+            jobPool.execute(() -> {
+                try {
+                    run(job, cancelled);
+                } finally {
+                    activeJobs.remove(job.getId());
+                }
+            });
+        } catch (RuntimeException e) {
+            activeJobs.remove(job.getId());
+            throw e;
+        }
+    }
+    
+    private void run(ExportJob job, AtomicBoolean cancelled) {
+        String id = job.getId();
+        try {
+            Instant now = Instant.now();
+            Instant transactionTime = job.getSince() != null && job.getSince().isAfter(now.minus(COMMIT_MARGIN))
+                    ? job.getSince() : now.minus(COMMIT_MARGIN);
+            Integer started = transactionTemplate.execute(status -> jobRepository.start(id, transactionTime, now,
+                    ExportJob.Status.QUEUED, ExportJob.Status.RUNNING));
+            if (started == null || started == 0) {
+                log.info("Export job {} was deleted before it started", id);
+                return;
+            }
+            Files.createDirectories(dir.resolve(id));
+            List<Future<?>> writers = new ArrayList<>();
+            for (String type : job.getTypes().split(",")) {
+                writers.add(writerPool.submit(() -> {
+                    write(job, type, cancelled);
+                    return null;
+                }));
+            }
+            // Waits for every writer, so none is still writing when the files are deleted
+            Exception failure = null;
+            for (Future<?> writer : writers) {
+                try {
+                    writer.get();
+                } catch (ExecutionException e) {
+                    cancelled.set(true);
+                    if (failure == null && !(e.getCause() instanceof CancellationException)) {
+                        failure = e.getCause() instanceof Exception cause ? cause : new IllegalStateException(e.getCause());
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            if (cancelled.get() || !finish(id, ExportJob.Status.COMPLETED, null)) {
+                throw new CancellationException();
+            }
+            log.info("Export job {} completed", id);
+        } catch (CancellationException e) {
+            log.info("Export job {} was cancelled", id);
+            deleteFiles(id);
+        } catch (Exception e) {
+            log.error("Export job {} failed", id, e);
+            cancelled.set(true);
+            deleteFiles(id);
+            String error = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+            try {
+                finish(id, ExportJob.Status.FAILED, error.length() > 1000 ? error.substring(0, 1000) : error);
+            } catch (RuntimeException failed) {
+                // Left running, the job is failed by the heartbeat of any instance once it is stale
+                log.error("Could not record the failure of export job {}", id, failed);
+            }
+        }
+    }
+    
+    // Writes one resource type to a temporary file, moved into place once complete
+    private void write(ExportJob job, String type, AtomicBoolean cancelled) throws IOException {
+        Path temp = dir.resolve(job.getId()).resolve(type + FILE_SUFFIX + ".tmp");
+        long[] count = {0};
+        try {
+            try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(temp), GZIP_BUFFER_SIZE);
+                 SequenceWriter writer = objectMapper.writer()
+                         .withRootValueSeparator("\n")
+                         .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                         .writeValues(out)) {
+                Consumer<JsonNode> sink = resource -> {
+                    if (cancelled.get() || Thread.currentThread().isInterrupted()) {
+                        throw new CancellationException();
+                    }
+                    try {
+                        writer.write(resource);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    count[0]++;
+                };
+                transactionTemplate.executeWithoutResult(status -> read(type, job.getSince(), sink));
+                if (count[0] > 0) {
+                    writer.flush();
+                    out.write('\n');
+                }
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            if (count[0] > 0) {
+                Files.move(temp, file(job.getId(), type), StandardCopyOption.ATOMIC_MOVE);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        transactionTemplate.executeWithoutResult(status -> {
+            if (jobRepository.touch(job.getId(), Instant.now(), UNFINISHED) == 0) {
+                throw new CancellationException();
+            }
+            fileRepository.save(new ExportFile(job.getId(), type, count[0]));
+        });
+        log.info("Export job {} wrote {} {} resources", job.getId(), count[0], type);
+    }
+    
+    private void read(String type, Instant since, Consumer<JsonNode> sink) {
+        switch (type) {
+            case "Patient" -> userService.forEachUser(User.Role.PATIENT, since, user -> sink.accept(FhirResources.toPatient(user)));
+            case "Practitioner" -> userService.forEachUser(User.Role.DOCTOR, since,
+                    user -> sink.accept(FhirResources.toPractitioner(user)));
+            case "Encounter" -> visitService.forEachVisit(since, visit -> sink.accept(FhirResources.toEncounter(visit)));
+            case "Condition" -> visitService.forEachVisit(since, visit -> {
+                JsonNode condition = FhirResources.toCondition(visit);
+                if (condition != null) {
+                    sink.accept(condition);
+                }
+            });
+            case "Observation" -> visitService.forEachVisit(since, visit -> FhirResources.toObservations(visit).forEach(sink));
+            default -> throw new IllegalArgumentException("Unsupported resource type: " + type);
+        }
+    }
+    
+    private boolean finish(String id, ExportJob.Status status, String error) {
+        Integer finished = transactionTemplate.execute(tx -> jobRepository.finish(id, status, error, Instant.now(), UNFINISHED));
+        return finished != null && finished > 0;
+    }
+    
+    private void deleteFiles(String id) {
+        Path jobDir = dir.resolve(id);
+        if (!Files.isDirectory(jobDir)) {
+            return;
+        }
+        try (Stream<Path> files = Files.list(jobDir)) {
+            for (Path file : files.toList()) {
+                Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(jobDir);
+        } catch (IOException e) {
+            log.warn("Could not delete the files of export job {}", id, e);
+        }
+    }
+    
+    private Path file(String id, String type) {
+        return dir.resolve(id).resolve(type + FILE_SUFFIX);
+    }
+    
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
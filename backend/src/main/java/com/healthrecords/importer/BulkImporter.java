@@ -0,0 +1,305 @@
+package com.healthrecords.importer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.healthrecords.dto.ImportJobDTO;
+import com.healthrecords.entity.ImportError;
+import com.healthrecords.entity.ImportJob;
+import com.healthrecords.exception.ResourceNotFoundException;
+import com.healthrecords.repository.ImportErrorRepository;
+import com.healthrecords.repository.ImportJobRepository;
+import jakarta.validation.Validator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.lang.Nullable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Bulk import of users and visits. An uploaded file is saved to {@code dir} and imported in the
+ * background; the job row records how far it got, so a job stopped by a failure or a restart is
+ * resumed from its last committed batch, by request or by the periodic recovery of jobs that stopped
+ * making progress. Only the instance holding the file can resume a job without a new upload.
+ */
+public class BulkImporter {
+    
+    private static final Logger log = LoggerFactory.getLogger(BulkImporter.class);
+    private static final String FILE_SUFFIX = ".import";
+    
+    private final ImportJobRepository jobRepository;
+    private final ImportErrorRepository errorRepository;
+    private final ImportWriter writer;
+    private final ObjectMapper objectMapper;
+    private final Validator validator;
+    // Read-write so job state is always read from the primary
+    private final TransactionTemplate transactionTemplate;
+    private final Path dir;
+    private final long maxFileBytes;
+    private final int batchSize;
+    private final Duration staleAfter;
+    private final Duration retention;
+    private final ExecutorService jobPool;
+    private final ExecutorService validationPool;
+    // Jobs queued or running on this instance
+    private final Set<String> activeJobs = ConcurrentHashMap.newKeySet();
+    
+    public BulkImporter(ImportJobRepository jobRepository, ImportErrorRepository errorRepository, ImportWriter writer,
+                        ObjectMapper objectMapper, Validator validator, PlatformTransactionManager transactionManager,
+                        Path dir, long maxFileBytes, int batchSize, int jobThreads, int validationThreads,
+                        Duration staleAfter, Duration retention) throws IOException {
+        this.jobRepository = jobRepository;
+        this.errorRepository = errorRepository;
+        this.writer = writer;
+        this.objectMapper = objectMapper;
+        this.validator = validator;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.dir = dir;
+        this.maxFileBytes = maxFileBytes;
+        this.batchSize = batchSize;
+        this.staleAfter = staleAfter;
+        this.retention = retention;
+        this.jobPool = Executors.newFixedThreadPool(jobThreads, daemonThreads("import-job-"));
+        this.validationPool = Executors.newFixedThreadPool(validationThreads, daemonThreads("import-validate-"));
+        Files.createDirectories(dir);
+    }
+    
+    /**
+     * Saves the file and queues its import. The file is read to the end before this returns, so a
+     * client that gets the job back can disconnect.
+     */
+    public ImportJobDTO start(ImportJob.Format format, InputStream content) throws IOException {
+        String id = UUID.randomUUID().toString();
+        save(id, content);
+        ImportJob.Phase phase = format == ImportJob.Format.CSV_VISITS ? ImportJob.Phase.VISITS : ImportJob.Phase.USERS;
+        ImportJob job = transactionTemplate.execute(status -> jobRepository.save(new ImportJob(id, format, phase, Instant.now())));
+        submit(job);
+        return new ImportJobDTO(job);
+    }
+    
+    public ImportJobDTO getJob(String id) {
+        return new ImportJobDTO(findJob(id));
+    }
+    
+    /**
+     * Resumes a failed job, or one whose instance stopped, from its last committed batch. The file
+     * must be uploaded again, unchanged, when this instance does not hold it.
+     */
+    public ImportJobDTO resume(String id, @Nullable InputStream content) throws IOException {
+        ImportJob job = findJob(id);
+        if (job.getStatus() == ImportJob.Status.COMPLETED) {
+            throw new IllegalArgumentException("Import job " + id + " has already completed");
+        }
+        if (activeJobs.contains(id) || (job.getStatus() != ImportJob.Status.FAILED && !isStale(job))) {
+            throw new IllegalArgumentException("Import job " + id + " is still running");
+        }
+        if (content != null) {
+            save(id, content);
+        } else if (!Files.exists(file(id))) {
+            throw new IllegalArgumentException("The file of import job " + id + " is not on this instance; upload it again to resume");
+        }
+        submit(job);
+        return new ImportJobDTO(job);
+    }
+    
+    /**
+     * Writes the records that were not imported as CSV: record number, status and reason, in file order.
+     */
+    public void writeErrorReport(String id, OutputStream outputStream) throws IOException {
+        findJob(id);
+        Writer out = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+        out.write("record,status,error\n");
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                try (Stream<ImportError> errors = errorRepository.streamByJobId(id)) {
+                    Iterator<ImportError> iterator = errors.iterator();
+                    while (iterator.hasNext()) {
+                        ImportError error = iterator.next();
+                        out.write(error.getRecord() + "," + error.getStatus() + "," + csvField(error.getMessage()) + "\n");
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        out.flush();
+    }
+    
+    /**
+     * Resumes jobs whose file is here and that have made no progress for {@code staleAfter}, such as
+     * jobs that were running when their instance stopped.
+     */
+    @Scheduled(fixedDelayString = "${healthrecords.import.recovery-interval-ms:60000}")
+    public void recover() {
+        List<ImportJob> stale = transactionTemplate.execute(status -> jobRepository.findByStatusInAndUpdatedAtBefore(
+                List.of(ImportJob.Status.QUEUED, ImportJob.Status.RUNNING), Instant.now().minus(staleAfter)));
+        for (ImportJob job : stale) {
+            if (!activeJobs.contains(job.getId()) && Files.exists(file(job.getId()))) {
+                log.info("Resuming stalled import job {}", job.getId());
+                submit(job);
+            }
+        }
+    }
+    
+    @Scheduled(fixedDelayString = "${healthrecords.import.purge-interval-ms:3600000}")
+    public void purge() {
+        List<String> ids = transactionTemplate.execute(status -> {
+            List<String> finished = jobRepository.findIdsFinishedBefore(Instant.now().minus(retention));
+            if (!finished.isEmpty()) {
+                errorRepository.deleteByJobIdIn(finished);
+                jobRepository.deleteByIdIn(finished);
+            }
+            return finished;
+        });
+        for (String id : ids) {
+            deleteFile(id);
+        }
+        if (!ids.isEmpty()) {
+            log.info("Purged {} finished import jobs", ids.size());
+        }
+    }
+    
+    // Running jobs stop where they are and are recovered after the restart
+    public void shutdown() {
+        jobPool.shutdownNow();
+        validationPool.shutdownNow();
+    }
+    
+    private void submit(ImportJob job) {
+        if (!activeJobs.add(job.getId())) {
+            return;
+        }
+        try {
+            jobPool.execute(() -> {
+                try {
+                    run(job);
+                } finally {
+                    activeJobs.remove(job.getId());
+                }
+            });
+        } catch (RuntimeException e) {
+            activeJobs.remove(job.getId());
+            throw e;
+        }
+    }
+    
+    private void run(ImportJob job) {
+        ImportRun run = new ImportRun(job, file(job.getId()), writer, jobRepository, transactionTemplate, validationPool,
+                objectMapper, validator, batchSize);
+        try {
+            if (!run.run()) {
+                log.info("Import job {} was already claimed elsewhere", job.getId());
+                return;
+            }
+            finish(job.getId(), run.lease(), ImportJob.Status.COMPLETED, null);
+            deleteFile(job.getId());
+            log.info("Import job {} completed", job.getId());
+        } catch (ImportRun.LeaseLostException e) {
+            log.warn(e.getMessage());
+        } catch (Exception e) {
+            log.error("Import job {} failed", job.getId(), e);
+            String error = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+            try {
+                finish(job.getId(), run.lease(), ImportJob.Status.FAILED, error.length() > 1000 ? error.substring(0, 1000) : error);
+            } catch (RuntimeException failed) {
+                // Left RUNNING, the job is recovered once it is stale
+                log.error("Could not record the failure of import job {}", job.getId(), failed);
+            }
+        }
+    }
+    
+    private void finish(String id, long lease, ImportJob.Status status, String error) {
+        transactionTemplate.executeWithoutResult(tx -> {
+            if (jobRepository.finish(id, lease, status, error, Instant.now()) == 0) {
+                throw new ImportRun.LeaseLostException(id);
+            }
+        });
+    }
+    
+    private ImportJob findJob(String id) {
+        return transactionTemplate.execute(status -> jobRepository.findById(id))
+                .orElseThrow(() -> new ResourceNotFoundException("Import job not found with id: " + id));
+    }
+    
+    private boolean isStale(ImportJob job) {
+        return job.getUpdatedAt().isBefore(Instant.now().minus(staleAfter));
+    }
+    
+    // Written to a temporary file first, so a failed upload never replaces a file a job is reading
+    private void save(String id, InputStream content) throws IOException {
+        Path temp = Files.createTempFile(dir, id, ".tmp");
+        try {
+            long size = 0;
+            byte[] buffer = new byte[64 * 1024];
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                int read;
+                while ((read = content.read(buffer)) > 0) {
+                    size += read;
+                    if (size > maxFileBytes) {
+                        throw new IllegalArgumentException("Import file is larger than " + maxFileBytes + " bytes");
+                    }
+                    out.write(buffer, 0, read);
+                }
+            }
+            if (size == 0) {
+                throw new IllegalArgumentException("Import file is empty");
+            }
+            Files.move(temp, file(id), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+    
+    private void deleteFile(String id) {
+        try {
+            Files.deleteIfExists(file(id));
+        } catch (IOException e) {
+            log.warn("Could not delete the file of import job {}", id, e);
+        }
+    }
+    
+    private Path file(String id) {
+        return dir.resolve(id + FILE_SUFFIX);
+    }
+    
+    private static String csvField(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+    
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
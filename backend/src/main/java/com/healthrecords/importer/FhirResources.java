@@ -0,0 +1,456 @@
+package com.healthrecords.importer;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.healthrecords.dto.UserRequestDTO;
+import com.healthrecords.dto.UserResponseDTO;
+import com.healthrecords.dto.VisitRequestDTO;
+import com.healthrecords.dto.VisitResponseDTO;
+import com.healthrecords.entity.Visit;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Mapping between FHIR R4 resources and the application's users and visits. Patients and
+ * Practitioners are users; an Encounter is a visit, its vital signs are Observations coded with
+ * LOINC and its diagnosis is a Condition. Times without an offset are taken as local time, the way
+ * visit dates are stored. Exported resources use the same codes, so an export imports back unchanged.
+ */
+public final class FhirResources {
+    
+    public static final String LOINC = "http://loinc.org";
+    public static final String HEIGHT = "8302-2";
+    public static final String WEIGHT = "29463-7";
+    public static final String BLOOD_PRESSURE = "85354-9";
+    public static final String SYSTOLIC = "8480-6";
+    public static final String DIASTOLIC = "8462-4";
+    public static final String PULSE = "8867-4";
+    public static final String TEMPERATURE = "8310-5";
+    
+    private static final String VITAL_SIGNS = "http://terminology.hl7.org/CodeSystem/observation-category";
+    private static final String ACT_CODE = "http://terminology.hl7.org/CodeSystem/v3-ActCode";
+    private static final String UCUM = "http://unitsofmeasure.org";
+    private static final List<String> GENDERS = List.of("male", "female", "other", "unknown");
+    private static final JsonNodeFactory NODES = JsonNodeFactory.instance;
+    
+    private static final Map<String, String> ROLES = Map.of("Patient", "PATIENT", "Practitioner", "DOCTOR");
+    
+    private FhirResources() {
+    }
+    
+    public static String type(JsonNode resource) {
+        return resource.path("resourceType").asText("");
+    }
+    
+    // "Patient/123" for a resource with an id, or null
+    public static String key(JsonNode resource) {
+        String id = resource.path("id").asText(null);
+        return id != null && !id.isEmpty() ? type(resource) + "/" + id : null;
+    }
+    
+    /**
+     * The key of the resource a Reference points to. Absolute URLs are cut down to their last
+     * {@code Type/id}; references to Bundle entries by fullUrl (such as {@code urn:uuid:...}) are kept.
+     */
+    public static String referenceKey(JsonNode reference) {
+        String value = reference.path("reference").asText(null);
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        if (value.startsWith("urn:")) {
+            return value;
+        }
+        int history = value.indexOf("/_history/");
+        if (history >= 0) {
+            value = value.substring(0, history);
+        }
+        int slash = value.lastIndexOf('/');
+        int typeSlash = slash > 0 ? value.lastIndexOf('/', slash - 1) : -1;
+        return typeSlash >= 0 ? value.substring(typeSlash + 1) : value;
+    }
+    
+    // PATIENT or DOCTOR for the resources that map to users, otherwise null
+    public static String userRole(JsonNode resource) {
+        return ROLES.get(type(resource));
+    }
+    
+    /**
+     * A user request for a Patient or Practitioner. The password is left for the caller, as FHIR
+     * carries none; dates it cannot read are reported as {@link IllegalArgumentException}.
+     */
+    public static UserRequestDTO toUser(JsonNode resource) {
+        UserRequestDTO user = new UserRequestDTO();
+        user.setRole(userRole(resource));
+        user.setFullName(name(resource.path("name")));
+        user.setEmail(email(resource));
+        user.setPhoneNumber(telecom(resource, "phone"));
+        user.setGender(gender(resource.path("gender").asText(null)));
+        String birthDate = resource.path("birthDate").asText(null);
+        if (birthDate != null) {
+            try {
+                user.setDateOfBirth(LocalDate.parse(birthDate));
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException("birthDate must be a full date: " + birthDate);
+            }
+        }
+        user.setAddress(address(resource.path("address")));
+        JsonNode qualification = resource.path("qualification").path(0).path("code");
+        user.setSpecialization(text(qualification));
+        return user;
+    }
+    
+    /**
+     * A visit request for an Encounter, without the patient and doctor, which the caller resolves
+     * from {@code subject} and {@code participant}.
+     */
+    public static VisitRequestDTO toVisit(JsonNode encounter) {
+        VisitRequestDTO visit = new VisitRequestDTO();
+        String start = encounter.path("period").path("start").asText(null);
+        if (start != null) {
+            visit.setVisitDate(dateTime(start));
+        }
+        List<String> reasons = new ArrayList<>();
+        for (JsonNode reason : encounter.path("reasonCode")) {
+            String text = text(reason);
+            if (text != null) {
+                reasons.add(text);
+            }
+        }
+        visit.setReasonForVisit(reasons.isEmpty() ? null : String.join("; ", reasons));
+        return visit;
+    }
+    
+    public static String email(JsonNode resource) {
+        return telecom(resource, "email");
+    }
+    
+    public static String patientKey(JsonNode encounter) {
+        return referenceKey(encounter.path("subject"));
+    }
+    
+    // The first participant that is a Practitioner
+    public static String doctorKey(JsonNode encounter) {
+        for (JsonNode participant : encounter.path("participant")) {
+            String key = referenceKey(participant.path("individual"));
+            if (key != null && (key.startsWith("Practitioner/") || key.startsWith("urn:"))) {
+                return key;
+            }
+        }
+        return null;
+    }
+    
+    // The Encounter an Observation or Condition belongs to; R3 called it context
+    public static String encounterKey(JsonNode resource) {
+        String key = referenceKey(resource.path("encounter"));
+        return key != null ? key : referenceKey(resource.path("context"));
+    }
+    
+    /**
+     * Copies a vital-sign Observation into the visit. Observations with other codes are ignored.
+     */
+    public static void applyObservation(VisitRequestDTO visit, JsonNode observation) {
+        String code = loincCode(observation.path("code"));
+        if (code == null) {
+            return;
+        }
+        JsonNode value = observation.path("valueQuantity").path("value");
+        switch (code) {
+            case HEIGHT -> visit.setHeightCm(value.isNumber() ? value.asDouble() : null);
+            case WEIGHT -> visit.setWeightKg(value.isNumber() ? value.asDouble() : null);
+            case PULSE -> visit.setPulse(value.isNumber() ? value.asInt() : null);
+            case TEMPERATURE -> visit.setTemperature(value.isNumber() ? value.asDouble() : null);
+            case BLOOD_PRESSURE -> {
+                Integer systolic = null;
+                Integer diastolic = null;
+                for (JsonNode component : observation.path("component")) {
+                    JsonNode componentValue = component.path("valueQuantity").path("value");
+                    String componentCode = loincCode(component.path("code"));
+                    if (SYSTOLIC.equals(componentCode) && componentValue.isNumber()) {
+                        systolic = componentValue.asInt();
+                    } else if (DIASTOLIC.equals(componentCode) && componentValue.isNumber()) {
+                        diastolic = componentValue.asInt();
+                    }
+                }
+                if (systolic != null && diastolic != null) {
+                    visit.setBloodPressure(systolic + "/" + diastolic);
+                }
+            }
+            default -> {
+            }
+        }
+    }
+    
+    // The text of a Condition, used as the diagnosis of its encounter
+    public static String diagnosis(JsonNode condition) {
+        return text(condition.path("code"));
+    }
+    
+    /**
+     * Parses a FHIR date or dateTime. Times with an offset are converted to this server's zone; a
+     * plain date is the start of that day.
+     */
+    public static LocalDateTime dateTime(String value) {
+        try {
+            if (value.indexOf('T') < 0) {
+                return LocalDate.parse(value).atStartOfDay();
+            }
+            if (value.endsWith("Z") || value.matches(".*[+-]\\d{2}:\\d{2}$")) {
+                return OffsetDateTime.parse(value).atZoneSameInstant(ZoneId.systemDefault()).toLocalDateTime();
+            }
+            return LocalDateTime.parse(value);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Not a FHIR dateTime: " + value);
+        }
+    }
+    
+    // Export
+    
+    public static ObjectNode toPatient(UserResponseDTO user) {
+        return person("Patient", user);
+    }
+    
+    public static ObjectNode toPractitioner(UserResponseDTO user) {
+        ObjectNode practitioner = person("Practitioner", user);
+        if (user.getSpecialization() != null) {
+            practitioner.putArray("qualification").addObject().putObject("code").put("text", user.getSpecialization());
+        }
+        return practitioner;
+    }
+    
+    public static ObjectNode toEncounter(VisitResponseDTO visit) {
+        ObjectNode encounter = resource("Encounter", visit.getId().toString());
+        encounter.put("status", "finished");
+        encounter.putObject("class").put("system", ACT_CODE).put("code", "AMB").put("display", "ambulatory");
+        encounter.set("subject", reference("Patient", visit.getPatientId(), visit.getPatientName()));
+        encounter.putArray("participant").addObject()
+                .set("individual", reference("Practitioner", visit.getDoctorId(), visit.getDoctorName()));
+        encounter.putObject("period").put("start", format(visit.getVisitDate()));
+        if (visit.getReasonForVisit() != null) {
+            encounter.putArray("reasonCode").addObject().put("text", visit.getReasonForVisit());
+        }
+        return encounter;
+    }
+    
+    // The visit's diagnosis, or null when it has none
+    public static ObjectNode toCondition(VisitResponseDTO visit) {
+        if (visit.getDiagnosis() == null || visit.getDiagnosis().isBlank()) {
+            return null;
+        }
+        ObjectNode condition = resource("Condition", visit.getId().toString());
+        condition.putObject("code").put("text", visit.getDiagnosis());
+        condition.set("subject", reference("Patient", visit.getPatientId(), visit.getPatientName()));
+        condition.set("encounter", reference("Encounter", visit.getId(), null));
+        condition.put("recordedDate", format(visit.getVisitDate()));
+        return condition;
+    }
+    
+    /**
+     * One vital-sign Observation per reading the visit has. Ids are the visit id and the reading, so
+     * exporting the same visit again gives the same resources.
+     */
+    public static List<ObjectNode> toObservations(VisitResponseDTO visit) {
+        List<ObjectNode> observations = new ArrayList<>();
+        if (visit.getHeightCm() != null) {
+            observations.add(observation(visit, "height", HEIGHT, "Body height", visit.getHeightCm(), "cm"));
+        }
+        if (visit.getWeightKg() != null) {
+            observations.add(observation(visit, "weight", WEIGHT, "Body weight", visit.getWeightKg(), "kg"));
+        }
+        int[] bloodPressure = Visit.parseBloodPressure(visit.getBloodPressure());
+        if (bloodPressure != null) {
+            ObjectNode observation = observation(visit, "blood-pressure", BLOOD_PRESSURE,
+                    "Blood pressure panel with all children optional", null, null);
+            ArrayNode components = observation.putArray("component");
+            components.add(component(SYSTOLIC, "Systolic blood pressure", bloodPressure[0]));
+            components.add(component(DIASTOLIC, "Diastolic blood pressure", bloodPressure[1]));
+            observations.add(observation);
+        }
+        if (visit.getPulse() != null) {
+            observations.add(observation(visit, "pulse", PULSE, "Heart rate", visit.getPulse(), "/min"));
+        }
+        if (visit.getTemperature() != null) {
+            observations.add(observation(visit, "temperature", TEMPERATURE, "Body temperature", visit.getTemperature(), "Cel"));
+        }
+        return observations;
+    }
+    
+    public static ObjectNode operationOutcome(String diagnostics) {
+        ObjectNode outcome = NODES.objectNode().put("resourceType", "OperationOutcome");
+        outcome.putArray("issue").addObject().put("severity", "error").put("code", "exception").put("diagnostics", diagnostics);
+        return outcome;
+    }
+    
+    // Visit dates are local time; exported with this server's offset, as dateTime requires one
+    public static String format(LocalDateTime dateTime) {
+        return dateTime.atZone(ZoneId.systemDefault()).format(DateTimeFormatter.ISO_OFFSET_DATE_TIME);
+    }
+    
+    private static ObjectNode resource(String type, String id) {
+        return NODES.objectNode().put("resourceType", type).put("id", id);
+    }
+    
+    private static ObjectNode reference(String type, Long id, String display) {
+        ObjectNode reference = NODES.objectNode().put("reference", type + "/" + id);
+        if (display != null) {
+            reference.put("display", display);
+        }
+        return reference;
+    }
+    
+    private static ObjectNode person(String type, UserResponseDTO user) {
+        ObjectNode person = resource(type, user.getId().toString());
+        ObjectNode name = person.putArray("name").addObject().put("use", "official").put("text", user.getFullName());
+        int space = user.getFullName().lastIndexOf(' ');
+        if (space > 0) {
+            name.put("family", user.getFullName().substring(space + 1));
+            name.putArray("given").add(user.getFullName().substring(0, space));
+        }
+        ArrayNode telecom = person.putArray("telecom");
+        telecom.addObject().put("system", "email").put("value", user.getEmail());
+        if (user.getPhoneNumber() != null && !user.getPhoneNumber().isEmpty()) {
+            telecom.addObject().put("system", "phone").put("value", user.getPhoneNumber());
+        }
+        if (user.getGender() != null && !user.getGender().isBlank()) {
+            String gender = user.getGender().trim().toLowerCase(Locale.ROOT);
+            person.put("gender", GENDERS.contains(gender) ? gender : "other");
+        }
+        if (user.getDateOfBirth() != null) {
+            person.put("birthDate", user.getDateOfBirth().toString());
+        }
+        if (user.getAddress() != null && !user.getAddress().isBlank()) {
+            person.putArray("address").addObject().put("text", user.getAddress());
+        }
+        return person;
+    }
+    
+    private static ObjectNode observation(VisitResponseDTO visit, String reading, String code, String display,
+                                          Number value, String unit) {
+        ObjectNode observation = resource("Observation", visit.getId() + "-" + reading);
+        observation.put("status", "final");
+        observation.putArray("category").addObject().putArray("coding").addObject()
+                .put("system", VITAL_SIGNS).put("code", "vital-signs");
+        observation.set("code", loinc(code, display));
+        observation.set("subject", reference("Patient", visit.getPatientId(), visit.getPatientName()));
+        observation.set("encounter", reference("Encounter", visit.getId(), null));
+        observation.put("effectiveDateTime", format(visit.getVisitDate()));
+        if (value != null) {
+            observation.set("valueQuantity", quantity(value, unit));
+        }
+        return observation;
+    }
+    
+    private static ObjectNode component(String code, String display, int value) {
+        ObjectNode component = NODES.objectNode();
+        component.set("code", loinc(code, display));
+        component.set("valueQuantity", quantity(value, "mm[Hg]"));
+        return component;
+    }
+    
+    private static ObjectNode loinc(String code, String display) {
+        ObjectNode concept = NODES.objectNode();
+        concept.putArray("coding").addObject().put("system", LOINC).put("code", code).put("display", display);
+        return concept.put("text", display);
+    }
+    
+    private static ObjectNode quantity(Number value, String unit) {
+        ObjectNode quantity = NODES.objectNode();
+        if (value instanceof Double number) {
+            quantity.put("value", number);
+        } else {
+            quantity.put("value", value.intValue());
+        }
+        return quantity.put("unit", unit).put("system", UCUM).put("code", unit);
+    }
+    
+    // CodeableConcept text, else the display of its first coding that has one
+    private static String text(JsonNode concept) {
+        String text = concept.path("text").asText(null);
+        if (text != null && !text.isBlank()) {
+            return text;
+        }
+        for (JsonNode coding : concept.path("coding")) {
+            String display = coding.path("display").asText(null);
+            if (display != null && !display.isBlank()) {
+                return display;
+            }
+        }
+        return null;
+    }
+    
+    private static String loincCode(JsonNode concept) {
+        for (JsonNode coding : concept.path("coding")) {
+            if (LOINC.equals(coding.path("system").asText(null))) {
+                return coding.path("code").asText(null);
+            }
+        }
+        return null;
+    }
+    
+    // The official name, else the first; its text, else given names and family name
+    private static String name(JsonNode names) {
+        JsonNode chosen = names.path(0);
+        for (JsonNode name : names) {
+            if ("official".equals(name.path("use").asText(null))) {
+                chosen = name;
+                break;
+            }
+        }
+        String text = chosen.path("text").asText(null);
+        if (text != null && !text.isBlank()) {
+            return text;
+        }
+        List<String> parts = new ArrayList<>();
+        for (JsonNode given : chosen.path("given")) {
+            parts.add(given.asText());
+        }
+        if (chosen.hasNonNull("family")) {
+            parts.add(chosen.get("family").asText());
+        }
+        return parts.isEmpty() ? null : String.join(" ", parts);
+    }
+    
+    private static String telecom(JsonNode resource, String system) {
+        for (JsonNode contact : resource.path("telecom")) {
+            if (system.equals(contact.path("system").asText(null)) && contact.hasNonNull("value")) {
+                return contact.get("value").asText();
+            }
+        }
+        return null;
+    }
+    
+    private static String gender(String code) {
+        if (code == null || code.isEmpty() || code.equals("unknown")) {
+            return null;
+        }
+        return code.substring(0, 1).toUpperCase(Locale.ROOT) + code.substring(1);
+    }
+    
+    private static String address(JsonNode addresses) {
+        JsonNode address = addresses.path(0);
+        String text = address.path("text").asText(null);
+        if (text != null && !text.isBlank()) {
+            return text;
+        }
+        List<String> parts = new ArrayList<>();
+        for (JsonNode line : address.path("line")) {
+            parts.add(line.asText());
+        }
+        for (String field : List.of("city", "state", "postalCode", "country")) {
+            if (address.hasNonNull(field)) {
+                parts.add(address.get(field).asText());
+            }
+        }
+        return parts.isEmpty() ? null : String.join(", ", parts);
+    }
+}
@@ -0,0 +1,363 @@
+package com.healthrecords.importer;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.healthrecords.dto.UserRequestDTO;
+import com.healthrecords.dto.VisitRequestDTO;
+import com.healthrecords.entity.ImportError;
+import com.healthrecords.entity.ImportJob;
+import com.healthrecords.entity.User;
+import com.healthrecords.repository.ImportJobRepository;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * One run of an import job, from its saved position to the end of the file. Records are read in
+ * batches; each batch is converted and validated on the validation pool, then written together with
+ * its errors and the new position in one transaction. FHIR files are read in a users phase and a
+ * visits phase, and the references between resources are collected on the way through the file.
+ */
+class ImportRun {
+
+    private static final Logger log = LoggerFactory.getLogger(ImportRun.class);
+
+    private static final int MAX_ATTEMPTS = 3;
+    private static final Consumer<ImportSource.Record> NO_COLLECTION = record -> {
+    };
+
+    // The job was claimed by another run; this one stops without touching it again
+    static final class LeaseLostException extends RuntimeException {
+        
+        LeaseLostException(String jobId) {
+            super("Import job " + jobId + " was taken over by another run");
+        }
+    }
+    
+    private final ImportJob job;
+    private final Path file;
+    private final ImportWriter writer;
+    private final ImportJobRepository jobRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final ExecutorService validationPool;
+    private final ObjectMapper objectMapper;
+    private final Validator validator;
+    private final int batchSize;
+    private final long lease;
+    
+    // FHIR only: user emails by resource key and fullUrl, and the vitals and diagnosis of each encounter
+    private final Map<String, String> emailsByReference = new HashMap<>();
+    private final Map<String, VisitRequestDTO> encounterDetails = new HashMap<>();
+    
+    ImportRun(ImportJob job, Path file, ImportWriter writer, ImportJobRepository jobRepository,
+              TransactionTemplate transactionTemplate, ExecutorService validationPool, ObjectMapper objectMapper,
+              Validator validator, int batchSize) {
+        this.job = job;
+        this.file = file;
+        this.writer = writer;
+        this.jobRepository = jobRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.validationPool = validationPool;
+        this.objectMapper = objectMapper;
+        this.validator = validator;
+        this.batchSize = batchSize;
+        // The claim raises the lease by one
+        this.lease = job.getLease() + 1;
+    }
+    
+    /**
+     * Claims the job and imports the rest of the file. Returns false when another run claimed it first.
+     */
+    boolean run() throws IOException {
+        Integer claimed = transactionTemplate.execute(status -> jobRepository.claim(job.getId(), job.getLease(), job.getPhase(),
+                job.getPosition(), Instant.now(), ImportJob.Status.RUNNING, ImportJob.Status.COMPLETED));
+        if (claimed == null || claimed == 0) {
+            return false;
+        }
+        log.info("Import job {} ({}) running from {} record {}", job.getId(), job.getFormat(), job.getPhase(), job.getPosition());
+        switch (job.getFormat()) {
+            case CSV_USERS -> runPhase(ImportJob.Phase.USERS, job.getPosition(), this::csvUser, NO_COLLECTION);
+            case CSV_VISITS -> runPhase(ImportJob.Phase.VISITS, job.getPosition(), this::csvVisit, NO_COLLECTION);
+            case FHIR_BUNDLE, FHIR_NDJSON -> {
+                if (job.getPhase() == ImportJob.Phase.USERS) {
+                    runPhase(ImportJob.Phase.USERS, job.getPosition(), this::fhirUser, this::collect);
+                    advance(ImportJob.Phase.VISITS, 0, new ImportWriter.Counts(0, 0, 0, 0));
+                    runPhase(ImportJob.Phase.VISITS, 0, this::fhirVisit, NO_COLLECTION);
+                } else {
+                    // Resuming in the visits phase: the references are collected again without writing users
+                    try (ImportSource source = ImportSource.open(job.getFormat(), file, objectMapper)) {
+                        ImportSource.Record record;
+                        while ((record = source.next()) != null) {
+                            collect(record);
+                        }
+                    }
+                    runPhase(ImportJob.Phase.VISITS, job.getPosition(), this::fhirVisit, NO_COLLECTION);
+                }
+            }
+        }
+        return true;
+    }
+    
+    long lease() {
+        return lease;
+    }
+    
+    private void runPhase(ImportJob.Phase phase, long start, Function<ImportSource.Record, Object> convert,
+                          Consumer<ImportSource.Record> collector) throws IOException {
+        try (ImportSource source = ImportSource.open(job.getFormat(), file, objectMapper)) {
+            List<ImportSource.Record> batch = new ArrayList<>(batchSize);
+            ImportSource.Record record;
+            while ((record = source.next()) != null) {
+                collector.accept(record);
+                if (record.number() <= start) {
+                    continue;
+                }
+                batch.add(record);
+                if (batch.size() == batchSize) {
+                    writeBatch(phase, batch, convert);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                writeBatch(phase, batch, convert);
+            }
+        }
+    }
+    
+    private void writeBatch(ImportJob.Phase phase, List<ImportSource.Record> batch, Function<ImportSource.Record, Object> convert) {
+        List<CompletableFuture<Object>> conversions = batch.stream()
+                .map(record -> CompletableFuture.supplyAsync(() -> convert.apply(record), validationPool))
+                .toList();
+        List<Object> rows = new ArrayList<>(batch.size());
+        for (CompletableFuture<Object> conversion : conversions) {
+            Object row = conversion.join();
+            // Records that are neither users nor visits, such as other FHIR resources, are passed over
+            if (row != null) {
+                rows.add(row);
+            }
+        }
+        long position = batch.get(batch.size() - 1).number();
+        for (int attempt = 1; ; attempt++) {
+            try {
+                transactionTemplate.executeWithoutResult(status -> {
+                    ImportWriter.Counts counts = phase == ImportJob.Phase.USERS
+                            ? writer.writeUsers(job.getId(), rows.stream().map(ImportWriter.UserRow.class::cast).toList())
+                            : writer.writeVisits(job.getId(), rows.stream().map(ImportWriter.VisitRow.class::cast).toList());
+                    advance(phase, position, counts);
+                });
+                return;
+            } catch (DataIntegrityViolationException | TransientDataAccessException e) {
+                // A user or visit committed by someone else since the batch looked for duplicates; the next look finds it
+                if (attempt == MAX_ATTEMPTS) {
+                    throw e;
+                }
+                log.warn("Import job {} batch ending at record {} failed, retrying", job.getId(), position, e);
+            }
+        }
+    }
+    
+    private void advance(ImportJob.Phase phase, long position, ImportWriter.Counts counts) {
+        int updated = transactionTemplate.execute(status -> jobRepository.advance(job.getId(), lease, phase, position,
+                counts.created(), counts.duplicates(), counts.invalid(), counts.notFound(), Instant.now()));
+        if (updated == 0) {
+            throw new LeaseLostException(job.getId());
+        }
+    }
+    
+    private Object csvUser(ImportSource.Record record) {
+        UserRequestDTO user;
+        try {
+            user = objectMapper.convertValue(record.row(), UserRequestDTO.class);
+        } catch (IllegalArgumentException e) {
+            return ImportWriter.UserRow.rejected(record.number(), ImportError.Status.INVALID, firstLine(e));
+        }
+        return validateUser(record.number(), user);
+    }
+    
+    private Object csvVisit(ImportSource.Record record) {
+        Map<String, String> row = new HashMap<>(record.row());
+        String patientEmail = row.remove("patientEmail");
+        String doctorEmail = row.remove("doctorEmail");
+        VisitRequestDTO visit;
+        try {
+            visit = objectMapper.convertValue(row, VisitRequestDTO.class);
+        } catch (IllegalArgumentException e) {
+            return ImportWriter.VisitRow.rejected(record.number(), ImportError.Status.INVALID, firstLine(e));
+        }
+        return validateVisit(record.number(), visit, patientEmail, doctorEmail);
+    }
+    
+    private Object fhirUser(ImportSource.Record record) {
+        if (record.resource() == null || FhirResources.userRole(record.resource()) == null) {
+            return null;
+        }
+        UserRequestDTO user;
+        try {
+            user = FhirResources.toUser(record.resource());
+        } catch (IllegalArgumentException e) {
+            return ImportWriter.UserRow.rejected(record.number(), ImportError.Status.INVALID, e.getMessage());
+        }
+        // FHIR carries no password; the user sets one through an administrator before signing in
+        user.setPassword(UUID.randomUUID().toString());
+        return validateUser(record.number(), user);
+    }
+    
+    private Object fhirVisit(ImportSource.Record record) {
+        JsonNode encounter = record.resource();
+        if (encounter == null || !"Encounter".equals(FhirResources.type(encounter))) {
+            return null;
+        }
+        VisitRequestDTO visit;
+        try {
+            visit = FhirResources.toVisit(encounter);
+        } catch (IllegalArgumentException e) {
+            return ImportWriter.VisitRow.rejected(record.number(), ImportError.Status.INVALID, e.getMessage());
+        }
+        // Observations and Conditions may point to the encounter by id or by its Bundle fullUrl
+        addDetails(visit, encounterDetails.get(FhirResources.key(encounter)));
+        if (record.fullUrl() != null) {
+            addDetails(visit, encounterDetails.get(record.fullUrl()));
+        }
+        String patientKey = FhirResources.patientKey(encounter);
+        String doctorKey = FhirResources.doctorKey(encounter);
+        if (patientKey == null || doctorKey == null) {
+            return ImportWriter.VisitRow.rejected(record.number(), ImportError.Status.INVALID,
+                    patientKey == null ? "Encounter has no subject" : "Encounter has no Practitioner participant");
+        }
+        String patientEmail = emailsByReference.get(patientKey);
+        String doctorEmail = emailsByReference.get(doctorKey);
+        if (patientEmail == null || doctorEmail == null) {
+            return ImportWriter.VisitRow.rejected(record.number(), ImportError.Status.NOT_FOUND,
+                    "No user with an email in the file for " + (patientEmail == null ? patientKey : doctorKey));
+        }
+        return validateVisit(record.number(), visit, patientEmail, doctorEmail);
+    }
+    
+    // Runs on the reading thread, in file order, before the record's batch is converted
+    private void collect(ImportSource.Record record) {
+        JsonNode resource = record.resource();
+        if (resource == null) {
+            return;
+        }
+        String type = FhirResources.type(resource);
+        if (FhirResources.userRole(resource) != null) {
+            String email = FhirResources.email(resource);
+            if (email != null) {
+                String key = FhirResources.key(resource);
+                if (key != null) {
+                    emailsByReference.put(key, email);
+                }
+                if (record.fullUrl() != null) {
+                    emailsByReference.put(record.fullUrl(), email);
+                }
+            }
+        } else if (type.equals("Observation") || type.equals("Condition")) {
+            String encounterKey = FhirResources.encounterKey(resource);
+            if (encounterKey == null) {
+                return;
+            }
+            VisitRequestDTO details = encounterDetails.computeIfAbsent(encounterKey, key -> new VisitRequestDTO());
+            if (type.equals("Observation")) {
+                FhirResources.applyObservation(details, resource);
+            } else {
+                String diagnosis = FhirResources.diagnosis(resource);
+                if (diagnosis != null) {
+                    details.setDiagnosis(details.getDiagnosis() == null ? diagnosis : details.getDiagnosis() + "; " + diagnosis);
+                }
+            }
+        }
+    }
+    
+    private static void addDetails(VisitRequestDTO visit, VisitRequestDTO details) {
+        if (details == null) {
+            return;
+        }
+        if (details.getHeightCm() != null) {
+            visit.setHeightCm(details.getHeightCm());
+        }
+        if (details.getWeightKg() != null) {
+            visit.setWeightKg(details.getWeightKg());
+        }
+        if (details.getBloodPressure() != null) {
+            visit.setBloodPressure(details.getBloodPressure());
+        }
+        if (details.getPulse() != null) {
+            visit.setPulse(details.getPulse());
+        }
+        if (details.getTemperature() != null) {
+            visit.setTemperature(details.getTemperature());
+        }
+        if (details.getDiagnosis() != null) {
+            visit.setDiagnosis(visit.getDiagnosis() == null ? details.getDiagnosis() : visit.getDiagnosis() + "; " + details.getDiagnosis());
+        }
+    }
+    
+    private ImportWriter.UserRow validateUser(long record, UserRequestDTO user) {
+        String error = violations(validator.validate(user), Set.of());
+        if (error == null && !isRole(user.getRole())) {
+            error = "Unknown role: " + user.getRole();
+        }
+        return error != null ? ImportWriter.UserRow.rejected(record, ImportError.Status.INVALID, error)
+                : ImportWriter.UserRow.of(record, user);
+    }
+    
+    // Ids given by email are filled in when the batch is written, so their violations do not count yet
+    private ImportWriter.VisitRow validateVisit(long record, VisitRequestDTO visit, String patientEmail, String doctorEmail) {
+        Set<String> ignored = new HashSet<>();
+        if (patientEmail != null) {
+            ignored.add("patientId");
+        }
+        if (doctorEmail != null) {
+            ignored.add("doctorId");
+        }
+        String error = violations(validator.validate(visit), ignored);
+        return error != null ? ImportWriter.VisitRow.rejected(record, ImportError.Status.INVALID, error)
+                : ImportWriter.VisitRow.of(record, visit, patientEmail, doctorEmail);
+    }
+    
+    private static <T> String violations(Set<ConstraintViolation<T>> violations, Set<String> ignoredPaths) {
+        String error = violations.stream()
+                .filter(violation -> !ignoredPaths.contains(violation.getPropertyPath().toString()))
+                .map(ConstraintViolation::getMessage)
+                .sorted()
+                .collect(Collectors.joining("; "));
+        return error.isEmpty() ? null : error;
+    }
+    
+    private static boolean isRole(String role) {
+        try {
+            User.Role.valueOf(role.toUpperCase(Locale.ROOT));
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+    
+    // Jackson appends the source location on further lines
+    private static String firstLine(Exception e) {
+        String message = String.valueOf(e.getMessage());
+        int newline = message.indexOf('\n');
+        return newline >= 0 ? message.substring(0, newline) : message;
+    }
+}
@@ -0,0 +1,162 @@
+package com.healthrecords.importer;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvParser;
+import com.fasterxml.jackson.dataformat.csv.CsvSchema;
+import com.healthrecords.entity.ImportJob;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads the records of an import file one at a time, so files of any size are imported in constant
+ * memory. CSV rows come back as column name to value, with empty cells left out; FHIR resources come
+ * back as JSON trees.
+ */
+public abstract class ImportSource implements Closeable {
+    
+    private static final CsvMapper CSV_MAPPER = new CsvMapper();
+    
+    /**
+     * One record of the file. {@code number} counts from 1. A FHIR record carries its resource and,
+     * in a Bundle, the entry's fullUrl; entries without a resource have neither.
+     */
+    public record Record(long number, Map<String, String> row, JsonNode resource, String fullUrl) {
+    }
+    
+    private final InputStream in;
+    private long number;
+    
+    private ImportSource(InputStream in) {
+        this.in = in;
+    }
+    
+    public static ImportSource open(ImportJob.Format format, Path file, ObjectMapper objectMapper) throws IOException {
+        InputStream in = new BufferedInputStream(Files.newInputStream(file));
+        try {
+            return switch (format) {
+                case CSV_USERS, CSV_VISITS -> new Csv(in);
+                case FHIR_NDJSON -> new Ndjson(in, objectMapper);
+                case FHIR_BUNDLE -> new Bundle(in, objectMapper);
+            };
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+    
+    // The next record, or null at the end of the file
+    public final Record next() throws IOException {
+        Record record = read(number + 1);
+        if (record != null) {
+            number++;
+        }
+        return record;
+    }
+    
+    protected abstract Record read(long number) throws IOException;
+    
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+    
+    private static final class Csv extends ImportSource {
+        
+        private final MappingIterator<Map<String, String>> rows;
+        
+        private Csv(InputStream in) throws IOException {
+            super(in);
+            this.rows = CSV_MAPPER.readerFor(Map.class)
+                    .with(CsvSchema.emptySchema().withHeader())
+                    .with(CsvParser.Feature.TRIM_SPACES)
+                    .readValues(in);
+        }
+        
+        @Override
+        protected Record read(long number) throws IOException {
+            if (!rows.hasNextValue()) {
+                return null;
+            }
+            Map<String, String> row = new LinkedHashMap<>();
+            rows.nextValue().forEach((column, value) -> {
+                if (value != null && !value.isEmpty()) {
+                    row.put(column.trim(), value);
+                }
+            });
+            return new Record(number, row, null, null);
+        }
+    }
+    
+    private static final class Ndjson extends ImportSource {
+        
+        private final MappingIterator<JsonNode> resources;
+        
+        private Ndjson(InputStream in, ObjectMapper objectMapper) throws IOException {
+            super(in);
+            this.resources = objectMapper.readerFor(JsonNode.class).readValues(in);
+        }
+        
+        @Override
+        protected Record read(long number) throws IOException {
+            if (!resources.hasNextValue()) {
+                return null;
+            }
+            return new Record(number, null, resources.nextValue(), null);
+        }
+    }
+    
+    // Reads Bundle.entry one entry at a time and skips every other field of the bundle
+    private static final class Bundle extends ImportSource {
+        
+        private final JsonParser parser;
+        private boolean inEntries;
+        
+        private Bundle(InputStream in, ObjectMapper objectMapper) throws IOException {
+            super(in);
+            this.parser = objectMapper.createParser(in);
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Expected a FHIR Bundle object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if ("entry".equals(field) && value == JsonToken.START_ARRAY) {
+                    inEntries = true;
+                    return;
+                }
+                parser.skipChildren();
+            }
+        }
+        
+        @Override
+        protected Record read(long number) throws IOException {
+            if (!inEntries) {
+                return null;
+            }
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.END_ARRAY || token == null) {
+                inEntries = false;
+                return null;
+            }
+            if (token != JsonToken.START_OBJECT) {
+                throw new IOException("Bundle entry " + number + " is not an object");
+            }
+            JsonNode entry = parser.readValueAsTree();
+            JsonNode resource = entry.get("resource");
+            return new Record(number, null, resource != null && resource.isObject() ? resource : null,
+                    entry.path("fullUrl").asText(null));
+        }
+    }
+}
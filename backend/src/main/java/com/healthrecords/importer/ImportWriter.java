@@ -0,0 +1,244 @@
+package com.healthrecords.importer;
+
+import com.healthrecords.dto.UserRequestDTO;
+import com.healthrecords.dto.VisitBatchItemResultDTO;
+import com.healthrecords.dto.VisitBatchResponseDTO;
+import com.healthrecords.dto.VisitRequestDTO;
+import com.healthrecords.entity.ImportError;
+import com.healthrecords.entity.User;
+import com.healthrecords.repository.UserRepository;
+import com.healthrecords.service.StatsCounterService;
+import com.healthrecords.service.VisitService;
+import jakarta.persistence.EntityManager;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes one batch of converted import records, inside the caller's transaction. Existing emails,
+ * phone numbers and referenced users are looked up with one query each for the whole batch, and the
+ * records that are not written are saved as {@link ImportError}s.
+ */
+public class ImportWriter {
+    
+    // Matches hibernate.jdbc.batch_size so each flush sends full JDBC batches
+    private static final int FLUSH_SIZE = 50;
+    
+    /**
+     * A user record: the request when it converted and validated, otherwise the reason it did not.
+     */
+    public record UserRow(long record, UserRequestDTO user, ImportError.Status status, String error) {
+        
+        static UserRow of(long record, UserRequestDTO user) {
+            return new UserRow(record, user, null, null);
+        }
+        
+        static UserRow rejected(long record, ImportError.Status status, String error) {
+            return new UserRow(record, null, status, error);
+        }
+    }
+    
+    /**
+     * A visit record. Patient and doctor may be given by email instead of id; the emails are
+     * resolved when the batch is written.
+     */
+    public record VisitRow(long record, VisitRequestDTO visit, String patientEmail, String doctorEmail,
+                           ImportError.Status status, String error) {
+        
+        static VisitRow of(long record, VisitRequestDTO visit, String patientEmail, String doctorEmail) {
+            return new VisitRow(record, visit, patientEmail, doctorEmail, null, null);
+        }
+        
+        static VisitRow rejected(long record, ImportError.Status status, String error) {
+            return new VisitRow(record, null, null, null, status, error);
+        }
+    }
+    
+    public record Counts(long created, long duplicates, long invalid, long notFound) {
+    }
+    
+    private final UserRepository userRepository;
+    private final VisitService visitService;
+    private final StatsCounterService statsCounterService;
+    private final EntityManager entityManager;
+    
+    public ImportWriter(UserRepository userRepository, VisitService visitService, StatsCounterService statsCounterService,
+                        EntityManager entityManager) {
+        this.userRepository = userRepository;
+        this.visitService = visitService;
+        this.statsCounterService = statsCounterService;
+        this.entityManager = entityManager;
+    }
+    
+    public Counts writeUsers(String jobId, List<UserRow> rows) {
+        List<String> emails = new ArrayList<>();
+        List<String> phoneNumbers = new ArrayList<>();
+        for (UserRow row : rows) {
+            if (row.user() != null) {
+                emails.add(row.user().getEmail());
+                if (hasPhoneNumber(row.user())) {
+                    phoneNumbers.add(row.user().getPhoneNumber());
+                }
+            }
+        }
+        // MySQL compares emails without case, so duplicates are found the same way here
+        Set<String> takenEmails = new HashSet<>();
+        if (!emails.isEmpty()) {
+            userRepository.findExistingEmails(emails).forEach(email -> takenEmails.add(normalize(email)));
+        }
+        Set<String> takenPhoneNumbers = phoneNumbers.isEmpty() ? new HashSet<>()
+                : new HashSet<>(userRepository.findExistingPhoneNumbers(phoneNumbers));
+        
+        Tally tally = new Tally(jobId);
+        Map<User.Role, Long> createdByRole = new EnumMap<>(User.Role.class);
+        int persisted = 0;
+        for (UserRow row : rows) {
+            UserRequestDTO request = row.user();
+            if (request == null) {
+                tally.reject(row.record(), row.status(), row.error());
+                continue;
+            }
+            String email = normalize(request.getEmail());
+            if (takenEmails.contains(email)) {
+                tally.reject(row.record(), ImportError.Status.DUPLICATE, "Email already registered: " + request.getEmail());
+                continue;
+            }
+            if (hasPhoneNumber(request) && takenPhoneNumbers.contains(request.getPhoneNumber())) {
+                tally.reject(row.record(), ImportError.Status.DUPLICATE,
+                        "Phone number already registered: " + request.getPhoneNumber());
+                continue;
+            }
+            // Later rows of the same file count as duplicates of this one
+            takenEmails.add(email);
+            if (hasPhoneNumber(request)) {
+                takenPhoneNumbers.add(request.getPhoneNumber());
+            }
+            User user = toEntity(request);
+            entityManager.persist(user);
+            createdByRole.merge(user.getRole(), 1L, Long::sum);
+            tally.created++;
+            if (++persisted % FLUSH_SIZE == 0) {
+                entityManager.flush();
+                entityManager.clear();
+            }
+        }
+        statsCounterService.usersCreated(createdByRole);
+        return tally.finish();
+    }
+    
+    public Counts writeVisits(String jobId, List<VisitRow> rows) {
+        Set<String> emails = new HashSet<>();
+        for (VisitRow row : rows) {
+            if (row.visit() != null) {
+                if (row.patientEmail() != null) {
+                    emails.add(row.patientEmail());
+                }
+                if (row.doctorEmail() != null) {
+                    emails.add(row.doctorEmail());
+                }
+            }
+        }
+        Map<String, Long> idsByEmail = new HashMap<>();
+        if (!emails.isEmpty()) {
+            for (UserRepository.UserEmailView user : userRepository.findIdsByEmails(emails)) {
+                idsByEmail.put(normalize(user.getEmail()), user.getId());
+            }
+        }
+        
+        Tally tally = new Tally(jobId);
+        List<VisitRow> accepted = new ArrayList<>();
+        for (VisitRow row : rows) {
+            VisitRequestDTO visit = row.visit();
+            if (visit == null) {
+                tally.reject(row.record(), row.status(), row.error());
+                continue;
+            }
+            if (row.patientEmail() != null) {
+                visit.setPatientId(idsByEmail.get(normalize(row.patientEmail())));
+                if (visit.getPatientId() == null) {
+                    tally.reject(row.record(), ImportError.Status.NOT_FOUND, "Patient not found with email: " + row.patientEmail());
+                    continue;
+                }
+            }
+            if (row.doctorEmail() != null) {
+                visit.setDoctorId(idsByEmail.get(normalize(row.doctorEmail())));
+                if (visit.getDoctorId() == null) {
+                    tally.reject(row.record(), ImportError.Status.NOT_FOUND, "Doctor not found with email: " + row.doctorEmail());
+                    continue;
+                }
+            }
+            accepted.add(row);
+        }
+        if (!accepted.isEmpty()) {
+            VisitBatchResponseDTO result = visitService.createVisitsBatch(accepted.stream().map(VisitRow::visit).toList());
+            for (int i = 0; i < accepted.size(); i++) {
+                VisitBatchItemResultDTO item = result.getResults().get(i);
+                if (item.getStatus() == VisitBatchItemResultDTO.Status.CREATED) {
+                    tally.created++;
+                } else {
+                    tally.reject(accepted.get(i).record(), ImportError.Status.valueOf(item.getStatus().name()), item.getError());
+                }
+            }
+        }
+        return tally.finish();
+    }
+    
+    private static boolean hasPhoneNumber(UserRequestDTO user) {
+        return user.getPhoneNumber() != null && !user.getPhoneNumber().isEmpty();
+    }
+    
+    private static String normalize(String email) {
+        return email.toLowerCase(Locale.ROOT);
+    }
+    
+    private static User toEntity(UserRequestDTO request) {
+        User user = new User();
+        user.setFullName(request.getFullName());
+        user.setEmail(request.getEmail());
+        user.setPassword(request.getPassword());
+        user.setRole(User.Role.valueOf(request.getRole().toUpperCase(Locale.ROOT)));
+        user.setPhoneNumber(hasPhoneNumber(request) ? request.getPhoneNumber() : null);
+        user.setGender(request.getGender());
+        user.setDateOfBirth(request.getDateOfBirth());
+        user.setSpecialization(request.getSpecialization());
+        user.setAddress(request.getAddress());
+        return user;
+    }
+    
+    // Counts a batch and holds its errors until the batch's own rows have been written
+    private final class Tally {
+        
+        private final String jobId;
+        private final List<ImportError> errors = new ArrayList<>();
+        private long created;
+        private long duplicates;
+        private long invalid;
+        private long notFound;
+        
+        private Tally(String jobId) {
+            this.jobId = jobId;
+        }
+        
+        private void reject(long record, ImportError.Status status, String error) {
+            switch (status) {
+                case DUPLICATE -> duplicates++;
+                case NOT_FOUND -> notFound++;
+                case INVALID -> invalid++;
+            }
+            errors.add(new ImportError(jobId, record, status, error));
+        }
+        
+        private Counts finish() {
+            errors.forEach(entityManager::persist);
+            entityManager.flush();
+            entityManager.clear();
+            return new Counts(created, duplicates, invalid, notFound);
+        }
+    }
+}
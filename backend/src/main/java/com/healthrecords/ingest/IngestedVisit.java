@@ -0,0 +1,11 @@
+package com.healthrecords.ingest;
+
+import com.healthrecords.dto.VisitRequestDTO;
+
+import java.time.Instant;
+
+/**
+ * One record of the visit ingest log, stored as JSON.
+ */
+public record IngestedVisit(String trackingId, Instant acceptedAt, VisitRequestDTO visit) {
+}
@@ -0,0 +1,465 @@
+package com.healthrecords.ingest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of accepted visits on local disk. Records are length-prefixed and CRC-checked and
+ * go into numbered segment files that roll over at {@code segmentBytes}. {@link #append} returns once
+ * the record is on disk; a single syncer thread forces the file for every append that arrived while
+ * the previous force was running, so concurrent requests share their fsyncs. Appenders write and wait
+ * under {@link ReentrantLock}s, not monitors, so request threads blocked on disk I/O can unmount when
+ * they are virtual threads.
+ * <p>
+ * The reader keeps a checkpoint of how far it has applied; segments before it are deleted. A record
+ * torn by a crash at the end of the last segment is cut off when the log is opened.
+ */
+public class VisitIngestLog implements AutoCloseable {
+    
+    private static final Logger log = LoggerFactory.getLogger(VisitIngestLog.class);
+    
+    private static final Pattern SEGMENT_NAME = Pattern.compile("(\\d{20})\\.log");
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    // Payload length and CRC32 of the payload
+    private static final int HEADER_BYTES = 8;
+    private static final int MAX_RECORD_BYTES = 1 << 20;
+    
+    /** A place in the log: segment number and byte offset within the segment. */
+    public record Position(long segment, long offset) implements Comparable<Position> {
+        
+        @Override
+        public int compareTo(Position other) {
+            int bySegment = Long.compare(segment, other.segment);
+            return bySegment != 0 ? bySegment : Long.compare(offset, other.offset);
+        }
+    }
+    
+    /** Records read from the log, and where the next read continues. */
+    public record Batch(List<byte[]> records, Position next) {
+    }
+    
+    private final Path dir;
+    private final long segmentBytes;
+    
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private FileChannel channel;
+    private long segment;
+    private long size;
+    private long appendedCount;
+    private Position appendedEnd;
+    private boolean closed;
+    
+    // Guards the durable state. Appenders and readers wait for durable records, the syncer for pending ones
+    private final ReentrantLock syncLock = new ReentrantLock();
+    private final Condition durable = syncLock.newCondition();
+    private final Condition pending = syncLock.newCondition();
+    private long durableCount;
+    private Position durableEnd;
+    private IOException syncFailure;
+    private boolean closing;
+    private final Thread syncer;
+    
+    private Position checkpoint;
+    
+    public VisitIngestLog(Path dir, long segmentBytes) throws IOException {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        Files.createDirectories(dir);
+        TreeMap<Long, Path> segments = segments();
+        checkpoint = readCheckpoint(segments);
+        if (segments.isEmpty() || segments.lastKey() < checkpoint.segment()) {
+            // A fresh log, or one whose segments were removed by hand: start past the checkpoint
+            segment = segments.isEmpty() && checkpoint.offset() == 0 ? checkpoint.segment() : checkpoint.segment() + 1;
+            channel = FileChannel.open(segmentPath(segment), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            forceDirectory();
+        } else {
+            segment = segments.lastKey();
+            channel = FileChannel.open(segmentPath(segment), StandardOpenOption.WRITE);
+            size = recover(channel);
+        }
+        appendedEnd = new Position(segment, size);
+        durableEnd = appendedEnd;
+        syncer = new Thread(this::sync, "visit-ingest-sync");
+        syncer.setDaemon(true);
+        syncer.start();
+    }
+    
+    public Position checkpoint() {
+        syncLock.lock();
+        try {
+            return checkpoint;
+        } finally {
+            syncLock.unlock();
+        }
+    }
+    
+    /**
+     * Appends the record and waits until it has been forced to disk.
+     */
+    public void append(byte[] payload) throws IOException {
+        if (payload.length == 0 || payload.length > MAX_RECORD_BYTES) {
+            throw new IllegalArgumentException("Ingest log records must be between 1 and " + MAX_RECORD_BYTES + " bytes");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(payload.length).putInt((int) crc.getValue()).flip();
+        ByteBuffer[] record = {header, ByteBuffer.wrap(payload)};
+        long number;
+        appendLock.lock();
+        try {
+            if (closed) {
+                throw new IOException("The visit ingest log is closed");
+            }
+            if (size > 0 && size + HEADER_BYTES + payload.length > segmentBytes) {
+                roll();
+            }
+            long remaining = HEADER_BYTES + payload.length;
+            while (remaining > 0) {
+                remaining -= channel.write(record);
+            }
+            size += HEADER_BYTES + payload.length;
+            number = ++appendedCount;
+            appendedEnd = new Position(segment, size);
+        } finally {
+            appendLock.unlock();
+        }
+        syncLock.lock();
+        try {
+            pending.signal();
+            while (durableCount < number) {
+                if (syncFailure != null) {
+                    throw new IOException("Could not sync the visit ingest log", syncFailure);
+                }
+                try {
+                    durable.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the visit ingest log to sync");
+                }
+            }
+        } finally {
+            syncLock.unlock();
+        }
+    }
+    
+    /**
+     * Reads up to {@code maxRecords} durable records starting at {@code from}.
+     */
+    public Batch read(Position from, int maxRecords) throws IOException {
+        Position end;
+        syncLock.lock();
+        try {
+            end = durableEnd;
+        } finally {
+            syncLock.unlock();
+        }
+        List<byte[]> records = new ArrayList<>();
+        Position position = from;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        while (records.size() < maxRecords && position.compareTo(end) < 0) {
+            Path path = segmentPath(position.segment());
+            long limit;
+            try {
+                // Earlier segments were forced completely before the log rolled over
+                limit = position.segment() == end.segment() ? end.offset() : Files.size(path);
+            } catch (NoSuchFileException e) {
+                limit = 0;
+            }
+            if (position.offset() >= limit) {
+                position = new Position(position.segment() + 1, 0);
+                continue;
+            }
+            long offset = position.offset();
+            try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+                while (records.size() < maxRecords && offset < limit) {
+                    byte[] payload = readRecord(in, offset, limit, header);
+                    if (payload == null) {
+                        log.error("Corrupt record at offset {} of visit ingest segment {}, skipping the rest of the segment",
+                                offset, path);
+                        offset = limit;
+                        break;
+                    }
+                    records.add(payload);
+                    offset += HEADER_BYTES + payload.length;
+                }
+            }
+            position = new Position(position.segment(), offset);
+        }
+        return new Batch(records, position);
+    }
+    
+    /**
+     * Waits up to {@code timeoutMillis} for records past {@code position}; may return early.
+     */
+    public void awaitRecords(Position position, long timeoutMillis) throws InterruptedException {
+        syncLock.lock();
+        try {
+            if (position.compareTo(durableEnd) >= 0 && !closing) {
+                durable.await(timeoutMillis, TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            syncLock.unlock();
+        }
+    }
+    
+    public void wakeReaders() {
+        syncLock.lock();
+        try {
+            durable.signalAll();
+        } finally {
+            syncLock.unlock();
+        }
+    }
+    
+    /**
+     * Records that everything before {@code position} has been applied, and deletes the segments that
+     * only hold applied records.
+     */
+    public void commit(Position position) throws IOException {
+        Path file = dir.resolve(CHECKPOINT_FILE);
+        Path temp = dir.resolve(CHECKPOINT_FILE + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            out.write(ByteBuffer.wrap((position.segment() + " " + position.offset() + "\n").getBytes(StandardCharsets.US_ASCII)));
+            out.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        forceDirectory();
+        syncLock.lock();
+        try {
+            checkpoint = position;
+        } finally {
+            syncLock.unlock();
+        }
+        for (Long number : segments().headMap(position.segment()).keySet()) {
+            Files.deleteIfExists(segmentPath(number));
+        }
+    }
+    
+    @Override
+    public void close() throws IOException {
+        appendLock.lock();
+        try {
+            closed = true;
+        } finally {
+            appendLock.unlock();
+        }
+        syncLock.lock();
+        try {
+            closing = true;
+            pending.signal();
+            durable.signalAll();
+        } finally {
+            syncLock.unlock();
+        }
+        // The syncer forces whatever was appended before it stops
+        try {
+            syncer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        appendLock.lock();
+        try {
+            channel.close();
+        } finally {
+            appendLock.unlock();
+        }
+    }
+    
+    private void sync() {
+        while (true) {
+            syncLock.lock();
+            try {
+                while (durableCount == appendedCount()) {
+                    if (closing) {
+                        return;
+                    }
+                    try {
+                        pending.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            } finally {
+                syncLock.unlock();
+            }
+            long target;
+            Position end;
+            FileChannel current;
+            appendLock.lock();
+            try {
+                target = appendedCount;
+                end = appendedEnd;
+                current = channel;
+            } finally {
+                appendLock.unlock();
+            }
+            try {
+                current.force(false);
+            } catch (ClosedChannelException e) {
+                // Rolled over meanwhile, and the segment was forced before it was closed. Closed for any
+                // other reason, nothing says the records reached the disk
+                if (!rolledOver(current)) {
+                    fail(e);
+                    return;
+                }
+            } catch (IOException e) {
+                fail(e);
+                return;
+            }
+            syncLock.lock();
+            try {
+                durableCount = target;
+                durableEnd = end;
+                durable.signalAll();
+            } finally {
+                syncLock.unlock();
+            }
+        }
+    }
+    
+    private boolean rolledOver(FileChannel synced) {
+        appendLock.lock();
+        try {
+            return channel != synced;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+    
+    private void fail(IOException e) {
+        log.error("Could not sync the visit ingest log, rejecting further visits", e);
+        syncLock.lock();
+        try {
+            syncFailure = e;
+            durable.signalAll();
+        } finally {
+            syncLock.unlock();
+        }
+    }
+    
+    private long appendedCount() {
+        appendLock.lock();
+        try {
+            return appendedCount;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+    
+    private void roll() throws IOException {
+        channel.force(false);
+        channel.close();
+        segment++;
+        size = 0;
+        channel = FileChannel.open(segmentPath(segment), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        forceDirectory();
+    }
+    
+    // Scans the last segment and cuts off a record left incomplete by a crash
+    private long recover(FileChannel segmentChannel) throws IOException {
+        long limit = segmentChannel.size();
+        long offset = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        try (FileChannel in = FileChannel.open(segmentPath(segment), StandardOpenOption.READ)) {
+            byte[] payload;
+            while (offset < limit && (payload = readRecord(in, offset, limit, header)) != null) {
+                offset += HEADER_BYTES + payload.length;
+            }
+        }
+        if (offset < limit) {
+            log.warn("Truncating {} bytes of incomplete records from visit ingest segment {}", limit - offset, segment);
+            segmentChannel.truncate(offset);
+            segmentChannel.force(true);
+        }
+        segmentChannel.position(offset);
+        return offset;
+    }
+    
+    // The record at offset, or null when it is incomplete or fails its CRC check
+    private static byte[] readRecord(FileChannel in, long offset, long limit, ByteBuffer header) throws IOException {
+        if (limit - offset < HEADER_BYTES) {
+            return null;
+        }
+        header.clear();
+        readFully(in, header, offset);
+        header.flip();
+        int length = header.getInt();
+        int checksum = header.getInt();
+        if (length <= 0 || length > MAX_RECORD_BYTES || limit - offset - HEADER_BYTES < length) {
+            return null;
+        }
+        byte[] payload = new byte[length];
+        readFully(in, ByteBuffer.wrap(payload), offset + HEADER_BYTES);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue() == checksum ? payload : null;
+    }
+    
+    private static void readFully(FileChannel in, ByteBuffer buffer, long offset) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = in.read(buffer, offset);
+            if (read < 0) {
+                throw new IOException("Unexpected end of visit ingest segment");
+            }
+            offset += read;
+        }
+    }
+    
+    private Position readCheckpoint(TreeMap<Long, Path> segments) throws IOException {
+        Path file = dir.resolve(CHECKPOINT_FILE);
+        if (Files.exists(file)) {
+            String[] parts = Files.readString(file, StandardCharsets.US_ASCII).trim().split(" ");
+            return new Position(Long.parseLong(parts[0]), Long.parseLong(parts[1]));
+        }
+        return new Position(segments.isEmpty() ? 1 : segments.firstKey(), 0);
+    }
+    
+    private TreeMap<Long, Path> segments() throws IOException {
+        TreeMap<Long, Path> segments = new TreeMap<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.forEach(file -> {
+                Matcher matcher = SEGMENT_NAME.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    segments.put(Long.parseLong(matcher.group(1)), file);
+                }
+            });
+        }
+        return segments;
+    }
+    
+    private Path segmentPath(long number) {
+        return dir.resolve(String.format("%020d.log", number));
+    }
+    
+    // New and renamed files only survive a crash once their directory entry is on disk
+    private void forceDirectory() {
+        try (FileChannel directory = FileChannel.open(dir, StandardOpenOption.READ)) {
+            directory.force(true);
+        } catch (IOException e) {
+            // Not supported on every platform
+        }
+    }
+}
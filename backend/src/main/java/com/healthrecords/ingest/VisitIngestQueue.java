@@ -0,0 +1,127 @@
+package com.healthrecords.ingest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.healthrecords.cache.UserCache;
+import com.healthrecords.dto.VisitIngestStatusDTO;
+import com.healthrecords.dto.VisitRequestDTO;
+import com.healthrecords.entity.VisitIngestReceipt;
+import com.healthrecords.exception.ResourceNotFoundException;
+import com.healthrecords.repository.VisitIngestReceiptRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Accepts visits into the ingest log for {@link VisitIngestWriter} to write to the database later,
+ * and reports what became of them by tracking id.
+ */
+public class VisitIngestQueue {
+    
+    private static final Logger log = LoggerFactory.getLogger(VisitIngestQueue.class);
+    
+    private static final int RECOVERY_BATCH_SIZE = 1000;
+    
+    private final VisitIngestLog ingestLog;
+    private final VisitIngestReceiptRepository receiptRepository;
+    private final UserCache userCache;
+    private final ObjectMapper objectMapper;
+    // Visits in the log that have no receipt yet, with the time they were accepted
+    private final Map<String, Instant> pending = new ConcurrentHashMap<>();
+    
+    public VisitIngestQueue(VisitIngestLog ingestLog, VisitIngestReceiptRepository receiptRepository, UserCache userCache,
+                            ObjectMapper objectMapper) {
+        this.ingestLog = ingestLog;
+        this.receiptRepository = receiptRepository;
+        this.userCache = userCache;
+        this.objectMapper = objectMapper;
+    }
+    
+    /**
+     * Marks the visits left in the log by the previous run as pending again; the writer replays them.
+     */
+    public void recover() throws IOException {
+        VisitIngestLog.Position position = ingestLog.checkpoint();
+        while (true) {
+            VisitIngestLog.Batch batch = ingestLog.read(position, RECOVERY_BATCH_SIZE);
+            if (batch.records().isEmpty()) {
+                break;
+            }
+            for (IngestedVisit visit : decode(batch.records())) {
+                pending.put(visit.trackingId(), visit.acceptedAt());
+            }
+            position = batch.next();
+        }
+        if (!pending.isEmpty()) {
+            log.info("Replaying {} visits from the ingest log", pending.size());
+        }
+    }
+    
+    /**
+     * Checks the referenced users and logs the visit durably. The writer reports the visit as a
+     * duplicate later if one already exists.
+     */
+    public VisitIngestStatusDTO accept(VisitRequestDTO visitRequest) {
+        userCache.findById(visitRequest.getPatientId())
+                .orElseThrow(() -> new ResourceNotFoundException("Patient not found with id: " + visitRequest.getPatientId()));
+        userCache.findById(visitRequest.getDoctorId())
+                .orElseThrow(() -> new ResourceNotFoundException("Doctor not found with id: " + visitRequest.getDoctorId()));
+        
+        IngestedVisit visit = new IngestedVisit(UUID.randomUUID().toString(), Instant.now(), visitRequest);
+        // Pending before it is in the log, so the writer cannot finish it before it is tracked
+        pending.put(visit.trackingId(), visit.acceptedAt());
+        try {
+            ingestLog.append(objectMapper.writeValueAsBytes(visit));
+        } catch (IOException e) {
+            pending.remove(visit.trackingId());
+            throw new UncheckedIOException("Could not log the visit for ingest", e);
+        }
+        return new VisitIngestStatusDTO(visit.trackingId(), VisitIngestStatusDTO.Status.PENDING, null, null,
+                visit.acceptedAt(), null);
+    }
+    
+    public VisitIngestStatusDTO getStatus(String trackingId) {
+        Instant acceptedAt = pending.get(trackingId);
+        if (acceptedAt != null) {
+            return new VisitIngestStatusDTO(trackingId, VisitIngestStatusDTO.Status.PENDING, null, null, acceptedAt, null);
+        }
+        Optional<VisitIngestReceipt> receipt = receiptRepository.findById(trackingId);
+        return receipt.map(VisitIngestQueue::toDTO)
+                .orElseThrow(() -> new ResourceNotFoundException("No ingested visit with tracking id: " + trackingId));
+    }
+    
+    public int pendingCount() {
+        return pending.size();
+    }
+    
+    List<IngestedVisit> decode(List<byte[]> records) {
+        List<IngestedVisit> visits = new ArrayList<>(records.size());
+        for (byte[] record : records) {
+            try {
+                visits.add(objectMapper.readValue(record, IngestedVisit.class));
+            } catch (IOException e) {
+                log.error("Skipping an unreadable record in the visit ingest log", e);
+            }
+        }
+        return visits;
+    }
+    
+    void written(List<IngestedVisit> visits) {
+        for (IngestedVisit visit : visits) {
+            pending.remove(visit.trackingId());
+        }
+    }
+    
+    private static VisitIngestStatusDTO toDTO(VisitIngestReceipt receipt) {
+        return new VisitIngestStatusDTO(receipt.getTrackingId(), VisitIngestStatusDTO.Status.valueOf(receipt.getStatus().name()),
+                receipt.getVisitId(), receipt.getError(), receipt.getAcceptedAt(), receipt.getProcessedAt());
+    }
+}
@@ -0,0 +1,190 @@
+package com.healthrecords.ingest;
+
+import com.healthrecords.dto.VisitBatchItemResultDTO;
+import com.healthrecords.dto.VisitBatchResponseDTO;
+import com.healthrecords.entity.VisitIngestReceipt;
+import com.healthrecords.repository.VisitIngestReceiptRepository;
+import com.healthrecords.service.VisitService;
+import jakarta.persistence.EntityManager;
+import jakarta.validation.ValidationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background thread writing the visits of the ingest log to the database in batches through
+ * {@link VisitService#createVisitsBatch}. Each visit gets a receipt in the same transaction, and the
+ * log checkpoint only moves once the transaction has committed, so after a crash or restart the
+ * writer replays the uncommitted tail and skips the visits that already have receipts.
+ * <p>
+ * Failures that may pass (lost connections, deadlocks, timeouts) are retried with backoff. A batch
+ * the database rejects is retried one visit at a time, and a visit rejected on its own gets a FAILED
+ * receipt rather than holding up the log.
+ */
+public class VisitIngestWriter {
+    
+    private static final Logger log = LoggerFactory.getLogger(VisitIngestWriter.class);
+    
+    private static final long IDLE_WAIT_MILLIS = 1000;
+    
+    private final VisitIngestLog ingestLog;
+    private final VisitIngestQueue queue;
+    private final VisitService visitService;
+    private final VisitIngestReceiptRepository receiptRepository;
+    private final EntityManager entityManager;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+    private final long retryMillis;
+    private final long maxRetryMillis;
+    private final Duration receiptRetention;
+    private final CountDownLatch stopping = new CountDownLatch(1);
+    private final Thread thread;
+    
+    public VisitIngestWriter(VisitIngestLog ingestLog, VisitIngestQueue queue, VisitService visitService,
+                             VisitIngestReceiptRepository receiptRepository, EntityManager entityManager,
+                             TransactionTemplate transactionTemplate, int batchSize, long retryMillis,
+                             long maxRetryMillis, Duration receiptRetention) {
+        this.ingestLog = ingestLog;
+        this.queue = queue;
+        this.visitService = visitService;
+        this.receiptRepository = receiptRepository;
+        this.entityManager = entityManager;
+        this.transactionTemplate = transactionTemplate;
+        this.batchSize = batchSize;
+        this.retryMillis = retryMillis;
+        this.maxRetryMillis = maxRetryMillis;
+        this.receiptRetention = receiptRetention;
+        this.thread = new Thread(this::run, "visit-ingest-writer");
+    }
+    
+    public void start() {
+        thread.start();
+    }
+    
+    // Visits not written yet stay in the log for the next start
+    public void stop() throws InterruptedException {
+        stopping.countDown();
+        ingestLog.wakeReaders();
+        thread.join();
+    }
+    
+    @Scheduled(fixedDelayString = "${healthrecords.ingest.receipt-purge-interval-ms:3600000}")
+    public void purgeReceipts() {
+        int purged = transactionTemplate.execute(status -> receiptRepository.deleteProcessedBefore(Instant.now().minus(receiptRetention)));
+        if (purged > 0) {
+            log.info("Purged {} visit ingest receipts", purged);
+        }
+    }
+    
+    private void run() {
+        VisitIngestLog.Position position = ingestLog.checkpoint();
+        while (stopping.getCount() > 0) {
+            try {
+                VisitIngestLog.Batch batch = ingestLog.read(position, batchSize);
+                if (batch.records().isEmpty()) {
+                    ingestLog.awaitRecords(batch.next(), IDLE_WAIT_MILLIS);
+                    continue;
+                }
+                List<IngestedVisit> visits = queue.decode(batch.records());
+                if (!visits.isEmpty()) {
+                    write(visits);
+                }
+                ingestLog.commit(batch.next());
+                position = batch.next();
+                queue.written(visits);
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                log.error("Visit ingest writer failed, retrying in {} ms", maxRetryMillis, e);
+                try {
+                    pause(maxRetryMillis);
+                } catch (InterruptedException stopped) {
+                    return;
+                }
+            }
+        }
+    }
+    
+    private void write(List<IngestedVisit> visits) throws InterruptedException {
+        try {
+            retrying(visits.size() + " ingested visits", () -> transactionTemplate.executeWithoutResult(status -> apply(visits)));
+        } catch (RuntimeException e) {
+            if (visits.size() > 1) {
+                log.warn("Database rejected a batch of {} ingested visits, writing them one at a time", visits.size(), e);
+                for (IngestedVisit visit : visits) {
+                    write(List.of(visit));
+                }
+                return;
+            }
+            IngestedVisit visit = visits.get(0);
+            log.error("Database rejected ingested visit {}, recording it as failed", visit.trackingId(), e);
+            retrying("failure receipt of ingested visit " + visit.trackingId(),
+                    () -> transactionTemplate.executeWithoutResult(status -> fail(visit, e)));
+        }
+    }
+    
+    private void apply(List<IngestedVisit> visits) {
+        Set<String> written = new HashSet<>(receiptRepository.findExistingIds(visits.stream().map(IngestedVisit::trackingId).toList()));
+        List<IngestedVisit> remaining = visits.stream().filter(visit -> !written.contains(visit.trackingId())).toList();
+        if (remaining.isEmpty()) {
+            return;
+        }
+        // Visits whose shard insert committed before a failed receipt transaction come back as duplicates
+        VisitBatchResponseDTO result = visitService.createVisitsBatch(remaining.stream().map(IngestedVisit::visit).toList());
+        Instant processedAt = Instant.now();
+        for (int i = 0; i < remaining.size(); i++) {
+            IngestedVisit visit = remaining.get(i);
+            VisitBatchItemResultDTO item = result.getResults().get(i);
+            entityManager.persist(new VisitIngestReceipt(visit.trackingId(), VisitIngestReceipt.Status.valueOf(item.getStatus().name()),
+                    item.getId(), item.getError(), visit.acceptedAt(), processedAt));
+        }
+    }
+    
+    private void fail(IngestedVisit visit, RuntimeException cause) {
+        if (!receiptRepository.existsById(visit.trackingId())) {
+            entityManager.persist(new VisitIngestReceipt(visit.trackingId(), VisitIngestReceipt.Status.FAILED, null,
+                    cause.getMessage(), visit.acceptedAt(), Instant.now()));
+        }
+    }
+    
+    // Retries until the action succeeds or fails in a way retrying cannot fix, which is rethrown
+    private void retrying(String what, Runnable action) throws InterruptedException {
+        long delay = retryMillis;
+        while (true) {
+            try {
+                action.run();
+                return;
+            } catch (RuntimeException e) {
+                if (isPermanent(e)) {
+                    throw e;
+                }
+                log.warn("Could not write {}, retrying in {} ms: {}", what, delay, e.toString());
+                pause(delay);
+                delay = Math.min(delay * 2, maxRetryMillis);
+            }
+        }
+    }
+    
+    private static boolean isPermanent(RuntimeException e) {
+        return e instanceof DataIntegrityViolationException || e instanceof InvalidDataAccessApiUsageException
+                || e instanceof IllegalArgumentException || e instanceof ValidationException;
+    }
+    
+    // Waits without interrupting the thread, which could close a JDBC connection in use
+    private void pause(long millis) throws InterruptedException {
+        if (stopping.await(millis, TimeUnit.MILLISECONDS)) {
+            throw new InterruptedException("Visit ingest writer stopped");
+        }
+    }
+}
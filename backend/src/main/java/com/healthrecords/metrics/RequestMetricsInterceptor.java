@@ -0,0 +1,43 @@
+package com.healthrecords.metrics;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+/**
+ * Records how many SQL statements each controller method issues, as the
+ * {@code healthrecords.sql.statements} summary tagged with the handler name.
+ */
+public class RequestMetricsInterceptor implements HandlerInterceptor {
+    
+    private final MeterRegistry meterRegistry;
+    
+    public RequestMetricsInterceptor(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+    
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        SqlStatementCounter.reset();
+        return true;
+    }
+    
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        if (handler instanceof HandlerMethod handlerMethod) {
+            DistributionSummary.builder("healthrecords.sql.statements")
+                    .description("SQL statements issued per request")
+                    .tag("handler", handlerName(handlerMethod))
+                    .serviceLevelObjectives(1, 2, 5, 10, 20, 50, 100)
+                    .register(meterRegistry)
+                    .record(SqlStatementCounter.current());
+        }
+    }
+    
+    public static String handlerName(HandlerMethod handlerMethod) {
+        return handlerMethod.getBeanType().getSimpleName() + "." + handlerMethod.getMethod().getName();
+    }
+}
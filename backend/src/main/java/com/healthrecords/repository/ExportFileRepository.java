@@ -0,0 +1,21 @@
+package com.healthrecords.repository;
+
+import com.healthrecords.entity.ExportFile;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface ExportFileRepository extends JpaRepository<ExportFile, Long> {
+    
+    List<ExportFile> findByJobIdOrderById(String jobId);
+    
+    @Modifying
+    @Query("DELETE FROM ExportFile f WHERE f.jobId IN :jobIds")
+    int deleteByJobIdIn(@Param("jobIds") Collection<String> jobIds);
+}
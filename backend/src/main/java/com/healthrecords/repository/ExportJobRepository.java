@@ -0,0 +1,48 @@
+package com.healthrecords.repository;
+
+import com.healthrecords.entity.ExportJob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface ExportJobRepository extends JpaRepository<ExportJob, String> {
+    
+    @Query("SELECT j.id FROM ExportJob j WHERE j.status IN :statuses AND j.updatedAt < :before")
+    List<String> findIdsByStatusInAndUpdatedAtBefore(@Param("statuses") Collection<ExportJob.Status> statuses,
+                                                     @Param("before") Instant before);
+    
+    @Query("SELECT j.id FROM ExportJob j WHERE j.finishedAt < :before")
+    List<String> findIdsFinishedBefore(@Param("before") Instant before);
+    
+    @Query("SELECT j.id FROM ExportJob j WHERE j.id IN :ids")
+    List<String> findExistingIds(@Param("ids") Collection<String> ids);
+    
+    // 0 when the job is no longer queued, such as when it was cancelled
+    @Modifying
+    @Query("UPDATE ExportJob j SET j.status = :running, j.transactionTime = :transactionTime, j.updatedAt = :now " +
+           "WHERE j.id = :id AND j.status = :queued")
+    int start(@Param("id") String id, @Param("transactionTime") Instant transactionTime, @Param("now") Instant now,
+              @Param("queued") ExportJob.Status queued, @Param("running") ExportJob.Status running);
+    
+    // 0 when the job has finished or was deleted
+    @Modifying
+    @Query("UPDATE ExportJob j SET j.updatedAt = :now WHERE j.id = :id AND j.status IN :unfinished")
+    int touch(@Param("id") String id, @Param("now") Instant now, @Param("unfinished") Collection<ExportJob.Status> unfinished);
+    
+    @Modifying
+    @Query("UPDATE ExportJob j SET j.status = :status, j.error = :error, j.updatedAt = :now, j.finishedAt = :now " +
+           "WHERE j.id = :id AND j.status IN :unfinished")
+    int finish(@Param("id") String id, @Param("status") ExportJob.Status status, @Param("error") String error,
+               @Param("now") Instant now, @Param("unfinished") Collection<ExportJob.Status> unfinished);
+    
+    @Modifying
+    @Query("DELETE FROM ExportJob j WHERE j.id IN :ids")
+    int deleteByIdIn(@Param("ids") Collection<String> ids);
+}
@@ -0,0 +1,30 @@
+package com.healthrecords.repository;
+
+import com.healthrecords.entity.ImportError;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.stream.Stream;
+
+@Repository
+public interface ImportErrorRepository extends JpaRepository<ImportError, Long> {
+    
+    // Streamed for the error report; callers must consume it inside a transaction
+    @Query("SELECT e FROM ImportError e WHERE e.jobId = :jobId ORDER BY e.record, e.id")
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    Stream<ImportError> streamByJobId(@Param("jobId") String jobId);
+    
+    @Modifying
+    @Query("DELETE FROM ImportError e WHERE e.jobId IN :jobIds")
+    int deleteByJobIdIn(@Param("jobIds") Collection<String> jobIds);
+}
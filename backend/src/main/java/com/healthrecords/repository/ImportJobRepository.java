@@ -0,0 +1,48 @@
+package com.healthrecords.repository;
+
+import com.healthrecords.entity.ImportJob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface ImportJobRepository extends JpaRepository<ImportJob, String> {
+    
+    List<ImportJob> findByStatusInAndUpdatedAtBefore(Collection<ImportJob.Status> statuses, Instant before);
+    
+    @Query("SELECT j.id FROM ImportJob j WHERE j.finishedAt < :before")
+    List<String> findIdsFinishedBefore(@Param("before") Instant before);
+    
+    // Takes the job over from the given lease and progress; 0 when either has moved on since they were read
+    @Modifying
+    @Query("UPDATE ImportJob j SET j.status = :running, j.lease = j.lease + 1, j.error = NULL, j.finishedAt = NULL, " +
+           "j.updatedAt = :now WHERE j.id = :id AND j.lease = :lease AND j.phase = :phase AND j.position = :position " +
+           "AND j.status <> :completed")
+    int claim(@Param("id") String id, @Param("lease") long lease, @Param("phase") ImportJob.Phase phase,
+              @Param("position") long position, @Param("now") Instant now, @Param("running") ImportJob.Status running,
+              @Param("completed") ImportJob.Status completed);
+    
+    @Modifying
+    @Query("UPDATE ImportJob j SET j.phase = :phase, j.position = :position, j.created = j.created + :created, " +
+           "j.duplicates = j.duplicates + :duplicates, j.invalid = j.invalid + :invalid, " +
+           "j.notFound = j.notFound + :notFound, j.updatedAt = :now WHERE j.id = :id AND j.lease = :lease")
+    int advance(@Param("id") String id, @Param("lease") long lease, @Param("phase") ImportJob.Phase phase,
+                @Param("position") long position, @Param("created") long created, @Param("duplicates") long duplicates,
+                @Param("invalid") long invalid, @Param("notFound") long notFound, @Param("now") Instant now);
+    
+    @Modifying
+    @Query("UPDATE ImportJob j SET j.status = :status, j.error = :error, j.updatedAt = :now, j.finishedAt = :now " +
+           "WHERE j.id = :id AND j.lease = :lease")
+    int finish(@Param("id") String id, @Param("lease") long lease, @Param("status") ImportJob.Status status,
+               @Param("error") String error, @Param("now") Instant now);
+    
+    @Modifying
+    @Query("DELETE FROM ImportJob j WHERE j.id IN :ids")
+    int deleteByIdIn(@Param("ids") Collection<String> ids);
+}
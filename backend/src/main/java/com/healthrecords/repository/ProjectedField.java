@@ -0,0 +1,54 @@
+package com.healthrecords.repository;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * A response property that list queries can read on its own, selected with the {@code fields}
+ * request parameter. Properties that are not selected are neither read nor serialized.
+ */
+public interface ProjectedField {
+    
+    // Selects the properties list views show
+    String SUMMARY = "summary";
+    
+    String property();
+    
+    // The same property named as a path into the related resource, such as patient.fullName for patientName
+    default String path() {
+        return null;
+    }
+    
+    /**
+     * Parses a comma-separated list of property names or paths; {@code summary} stands for
+     * {@code summaryFields}.
+     */
+    static <F extends Enum<F> & ProjectedField> EnumSet<F> parse(String fields, Class<F> type, Set<F> summaryFields) {
+        EnumSet<F> selected = EnumSet.noneOf(type);
+        for (String name : fields.split(",")) {
+            String property = name.trim();
+            if (property.isEmpty()) {
+                continue;
+            }
+            if (property.equals(SUMMARY)) {
+                selected.addAll(summaryFields);
+                continue;
+            }
+            F field = null;
+            for (F candidate : type.getEnumConstants()) {
+                if (candidate.property().equals(property) || property.equals(candidate.path())) {
+                    field = candidate;
+                    break;
+                }
+            }
+            if (field == null) {
+                throw new IllegalArgumentException("Unknown field: " + property);
+            }
+            selected.add(field);
+        }
+        if (selected.isEmpty()) {
+            throw new IllegalArgumentException("fields must name at least one field, or summary");
+        }
+        return selected;
+    }
+}
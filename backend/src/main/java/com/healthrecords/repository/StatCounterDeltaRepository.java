@@ -0,0 +1,27 @@
+package com.healthrecords.repository;
+
+import com.healthrecords.entity.StatCounterDelta;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface StatCounterDeltaRepository extends JpaRepository<StatCounterDelta, Long> {
+    
+    // Locked so that two instances folding at the same time never apply the same rows twice
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    List<StatCounterDelta> findByOrderByIdAsc(Limit limit);
+    
+    @Query("SELECT d.name AS name, SUM(d.delta) AS delta FROM StatCounterDelta d GROUP BY d.name")
+    List<PendingView> sumGroupByName();
+    
+    interface PendingView {
+        String getName();
+        Long getDelta();
+    }
+}
@@ -0,0 +1,24 @@
+package com.healthrecords.repository;
+
+import com.healthrecords.entity.StatCounter;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface StatCounterRepository extends JpaRepository<StatCounter, String> {
+    List<StatCounter> findByNameIn(Collection<String> names);
+    
+    // Spelled out because the derived StartingWith query adds an ESCAPE clause that H2 rejects in MySQL mode
+    @Query("SELECT c FROM StatCounter c WHERE c.name LIKE CONCAT(:prefix, '%')")
+    List<StatCounter> findByNamePrefix(@Param("prefix") String prefix);
+    
+    @Modifying
+    @Query("UPDATE StatCounter c SET c.value = c.value + :delta WHERE c.name = :name")
+    int increment(@Param("name") String name, @Param("delta") long delta);
+}
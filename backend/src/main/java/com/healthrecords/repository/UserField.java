@@ -0,0 +1,53 @@
+package com.healthrecords.repository;
+
+import com.healthrecords.dto.UserResponseDTO;
+import com.healthrecords.entity.User;
+
+import java.time.LocalDate;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * The properties of {@link UserResponseDTO} with the JPQL expression each is read from.
+ */
+public enum UserField implements ProjectedField {
+    ID("id", "u.id", (user, value) -> user.setId((Long) value)),
+    FULL_NAME("fullName", "u.fullName", (user, value) -> user.setFullName((String) value)),
+    EMAIL("email", "u.email", (user, value) -> user.setEmail((String) value)),
+    ROLE("role", "u.role", (user, value) -> user.setRole((User.Role) value)),
+    PHONE_NUMBER("phoneNumber", "u.phoneNumber", (user, value) -> user.setPhoneNumber((String) value)),
+    GENDER("gender", "u.gender", (user, value) -> user.setGender((String) value)),
+    DATE_OF_BIRTH("dateOfBirth", "u.dateOfBirth", (user, value) -> user.setDateOfBirth((LocalDate) value)),
+    SPECIALIZATION("specialization", "u.specialization", (user, value) -> user.setSpecialization((String) value)),
+    ADDRESS("address", "u.address", (user, value) -> user.setAddress((String) value));
+    
+    public static final Set<UserField> SUMMARY_FIELDS = EnumSet.of(ID, FULL_NAME, EMAIL, ROLE);
+    
+    private final String property;
+    private final String expression;
+    private final BiConsumer<UserResponseDTO, Object> setter;
+    
+    UserField(String property, String expression, BiConsumer<UserResponseDTO, Object> setter) {
+        this.property = property;
+        this.expression = expression;
+        this.setter = setter;
+    }
+    
+    public static EnumSet<UserField> parse(String fields) {
+        return ProjectedField.parse(fields, UserField.class, SUMMARY_FIELDS);
+    }
+    
+    @Override
+    public String property() {
+        return property;
+    }
+    
+    public String expression() {
+        return expression;
+    }
+    
+    public void set(UserResponseDTO user, Object value) {
+        setter.accept(user, value);
+    }
+}
@@ -1,17 +1,74 @@
 package com.healthrecords.repository;
 
+import com.healthrecords.dto.UserResponseDTO;
 import com.healthrecords.entity.User;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 @Repository
-public interface UserRepository extends JpaRepository<User, Long> {
+public interface UserRepository extends JpaRepository<User, Long>, UserRepositoryCustom {
+    
+    String DTO_SELECT = "SELECT new com.healthrecords.dto.UserResponseDTO(u.id, u.fullName, u.email, u.role, " +
+            "u.phoneNumber, u.gender, u.dateOfBirth, u.specialization, u.address) FROM User u ";
+    
     Optional<User> findByEmail(String email);
     Optional<User> findByPhoneNumber(String phoneNumber);
     List<User> findByRole(User.Role role);
     long countByRole(User.Role role);
+    
+    @Query("SELECT u.id FROM User u WHERE u.id IN :ids")
+    List<Long> findExistingIds(@Param("ids") Collection<Long> ids);
+    
+    @Query("SELECT u.email FROM User u WHERE u.email IN :emails")
+    List<String> findExistingEmails(@Param("emails") Collection<String> emails);
+    
+    @Query("SELECT u.phoneNumber FROM User u WHERE u.phoneNumber IN :phoneNumbers")
+    List<String> findExistingPhoneNumbers(@Param("phoneNumbers") Collection<String> phoneNumbers);
+    
+    @Query("SELECT u.id AS id, u.email AS email FROM User u WHERE u.email IN :emails")
+    List<UserEmailView> findIdsByEmails(@Param("emails") Collection<String> emails);
+    
+    @Query("SELECT u.role AS role, COUNT(u) AS count FROM User u GROUP BY u.role")
+    List<RoleCountView> countGroupByRole();
+    
+    // Keyset pagination on id
+    List<User> findByIdGreaterThanOrderByIdAsc(Long afterId, Limit limit);
+    List<User> findByRoleAndIdGreaterThanOrderByIdAsc(User.Role role, Long afterId, Limit limit);
+    
+    // Streaming queries for exports; callers must consume them inside a transaction
+    @Query(DTO_SELECT + "WHERE u.role = :role ORDER BY u.id")
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"),
+            @QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "false")
+    })
+    Stream<UserResponseDTO> streamDtosByRole(@Param("role") User.Role role);
+    
+    @Query(DTO_SELECT + "WHERE u.role = :role AND u.lastModified >= :since ORDER BY u.id")
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"),
+            @QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "false")
+    })
+    Stream<UserResponseDTO> streamDtosByRoleModifiedSince(@Param("role") User.Role role, @Param("since") Instant since);
+    
+    interface UserEmailView {
+        Long getId();
+        String getEmail();
+    }
+    
+    interface RoleCountView {
+        User.Role getRole();
+        Long getCount();
+    }
 }
-
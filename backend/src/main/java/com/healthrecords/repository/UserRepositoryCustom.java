@@ -0,0 +1,18 @@
+package com.healthrecords.repository;
+
+import com.healthrecords.dto.UserResponseDTO;
+import com.healthrecords.entity.User;
+import org.springframework.data.domain.Limit;
+import org.springframework.lang.Nullable;
+
+import java.util.List;
+import java.util.Set;
+
+public interface UserRepositoryCustom {
+    
+    /**
+     * Users with ids above {@code afterId} in id order, reading only the given fields plus {@code id},
+     * which keyset pagination needs. The other DTO properties are left null.
+     */
+    List<UserResponseDTO> findFields(Set<UserField> fields, @Nullable User.Role role, Long afterId, Limit limit);
+}
@@ -0,0 +1,52 @@
+package com.healthrecords.repository;
+
+import com.healthrecords.dto.UserResponseDTO;
+import com.healthrecords.entity.User;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.TypedQuery;
+import org.springframework.data.domain.Limit;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+// Builds the select list from the requested fields; the password is never among them
+class UserRepositoryImpl implements UserRepositoryCustom {
+    
+    private final EntityManager entityManager;
+    
+    UserRepositoryImpl(EntityManager entityManager) {
+        this.entityManager = entityManager;
+    }
+    
+    @Override
+    public List<UserResponseDTO> findFields(Set<UserField> fields, User.Role role, Long afterId, Limit limit) {
+        EnumSet<UserField> selected = EnumSet.of(UserField.ID);
+        selected.addAll(fields);
+        List<UserField> columns = new ArrayList<>(selected);
+        
+        String jpql = "SELECT " + columns.stream().map(UserField::expression).collect(Collectors.joining(", ")) +
+                " FROM User u WHERE u.id > :afterId" + (role != null ? " AND u.role = :role" : "") + " ORDER BY u.id ASC";
+        TypedQuery<Object[]> query = entityManager.createQuery(jpql, Object[].class);
+        query.setParameter("afterId", afterId);
+        if (role != null) {
+            query.setParameter("role", role);
+        }
+        if (limit.isLimited()) {
+            query.setMaxResults(limit.max());
+        }
+        
+        List<Object[]> rows = query.getResultList();
+        List<UserResponseDTO> users = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            UserResponseDTO user = new UserResponseDTO();
+            for (int i = 0; i < columns.size(); i++) {
+                columns.get(i).set(user, row[i]);
+            }
+            users.add(user);
+        }
+        return users;
+    }
+}
@@ -0,0 +1,28 @@
+package com.healthrecords.repository;
+
+import com.healthrecords.entity.VisitArchiveSegment;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+// Segment content can be tens of megabytes, so listings never select it
+@Repository
+public interface VisitArchiveSegmentRepository extends JpaRepository<VisitArchiveSegment, String> {
+    
+    @Query("SELECT s.name AS name, s.checksum AS checksum, s.createdAt AS createdAt FROM VisitArchiveSegment s ORDER BY s.name")
+    List<SegmentView> findAllSegments();
+    
+    @Query("SELECT s.content FROM VisitArchiveSegment s WHERE s.name = :name")
+    Optional<byte[]> findContentByName(@Param("name") String name);
+    
+    interface SegmentView {
+        String getName();
+        Long getChecksum();
+        Instant getCreatedAt();
+    }
+}
@@ -0,0 +1,36 @@
+package com.healthrecords.repository;
+
+import com.healthrecords.entity.VisitChange;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.List;
+
+@Repository
+public interface VisitChangeRepository extends JpaRepository<VisitChange, Long> {
+    
+    @Query("SELECT MIN(c.id) FROM VisitChange c")
+    Long findMinId();
+    
+    @Query("SELECT MAX(c.id) FROM VisitChange c")
+    Long findMaxId();
+    
+    List<VisitChange> findByIdGreaterThanOrderByIdAsc(Long id, Limit limit);
+    
+    List<VisitChange> findByIdBetweenOrderByIdAsc(Long from, Long to);
+    
+    long countByIdBetween(Long from, Long to);
+    
+    List<VisitChange> findByDoctorIdAndIdGreaterThanOrderByIdAsc(Long doctorId, Long id, Limit limit);
+    
+    List<VisitChange> findByPatientIdAndIdGreaterThanOrderByIdAsc(Long patientId, Long id, Limit limit);
+    
+    @Modifying
+    @Query("DELETE FROM VisitChange c WHERE c.changedAt < :before")
+    int deleteChangedBefore(@Param("before") Instant before);
+}
@@ -0,0 +1,90 @@
+package com.healthrecords.repository;
+
+import com.healthrecords.dto.VisitResponseDTO;
+
+import java.time.LocalDateTime;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * The properties of {@link VisitResponseDTO}, with the JPQL expression and the column of the sharded
+ * visits table each is read from. The user names come from a join, or from the user cache on shards.
+ */
+public enum VisitField implements ProjectedField {
+    ID("id", "v.id", "id", Long.class, (visit, value) -> visit.setId((Long) value)),
+    PATIENT_ID("patientId", "v.patient.id", "patient_id", Long.class, (visit, value) -> visit.setPatientId((Long) value)),
+    PATIENT_NAME("patientName", "p.fullName", null, String.class, (visit, value) -> visit.setPatientName((String) value)),
+    DOCTOR_ID("doctorId", "v.doctor.id", "doctor_id", Long.class, (visit, value) -> visit.setDoctorId((Long) value)),
+    DOCTOR_NAME("doctorName", "d.fullName", null, String.class, (visit, value) -> visit.setDoctorName((String) value)),
+    VISIT_DATE("visitDate", "v.visitDate", "visit_date", LocalDateTime.class,
+            (visit, value) -> visit.setVisitDate((LocalDateTime) value)),
+    REASON_FOR_VISIT("reasonForVisit", "v.reasonForVisit", "reason_for_visit", String.class,
+            (visit, value) -> visit.setReasonForVisit((String) value)),
+    SYMPTOMS("symptoms", "v.symptoms", "symptoms", String.class, (visit, value) -> visit.setSymptoms((String) value)),
+    DIAGNOSIS("diagnosis", "v.diagnosis", "diagnosis", String.class, (visit, value) -> visit.setDiagnosis((String) value)),
+    PRESCRIBED_MEDICINES("prescribedMedicines", "v.prescribedMedicines", "prescribed_medicines", String.class,
+            (visit, value) -> visit.setPrescribedMedicines((String) value)),
+    HEIGHT_CM("heightCm", "v.heightCm", "height_cm", Double.class, (visit, value) -> visit.setHeightCm((Double) value)),
+    WEIGHT_KG("weightKg", "v.weightKg", "weight_kg", Double.class, (visit, value) -> visit.setWeightKg((Double) value)),
+    BLOOD_PRESSURE("bloodPressure", "v.bloodPressure", "blood_pressure", String.class,
+            (visit, value) -> visit.setBloodPressure((String) value)),
+    PULSE("pulse", "v.pulse", "pulse", Integer.class, (visit, value) -> visit.setPulse((Integer) value)),
+    TEMPERATURE("temperature", "v.temperature", "temperature", Double.class, (visit, value) -> visit.setTemperature((Double) value)),
+    NOTES("notes", "v.notes", "notes", String.class, (visit, value) -> visit.setNotes((String) value));
+    
+    // What the visit lists show: no free-text notes, symptoms or prescriptions, and no vitals
+    public static final Set<VisitField> SUMMARY_FIELDS = EnumSet.of(
+            ID, PATIENT_ID, PATIENT_NAME, DOCTOR_ID, DOCTOR_NAME, VISIT_DATE, REASON_FOR_VISIT, DIAGNOSIS);
+    
+    private final String property;
+    private final String expression;
+    private final String column;
+    private final Class<?> type;
+    private final BiConsumer<VisitResponseDTO, Object> setter;
+    
+    VisitField(String property, String expression, String column, Class<?> type, BiConsumer<VisitResponseDTO, Object> setter) {
+        this.property = property;
+        this.expression = expression;
+        this.column = column;
+        this.type = type;
+        this.setter = setter;
+    }
+    
+    public static EnumSet<VisitField> parse(String fields) {
+        return ProjectedField.parse(fields, VisitField.class, SUMMARY_FIELDS);
+    }
+    
+    @Override
+    public String property() {
+        return property;
+    }
+    
+    @Override
+    public String path() {
+        return switch (this) {
+            case PATIENT_ID -> "patient.id";
+            case PATIENT_NAME -> "patient.fullName";
+            case DOCTOR_ID -> "doctor.id";
+            case DOCTOR_NAME -> "doctor.fullName";
+            default -> null;
+        };
+    }
+    
+    public String expression() {
+        return expression;
+    }
+    
+    // Null for the names, which are not stored with the visit
+    public String column() {
+        return column;
+    }
+    
+    public Class<?> type() {
+        return type;
+    }
+    
+    public void set(VisitResponseDTO visit, Object value) {
+        setter.accept(visit, value);
+    }
+}
@@ -0,0 +1,23 @@
+package com.healthrecords.repository;
+
+import com.healthrecords.entity.VisitIngestReceipt;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface VisitIngestReceiptRepository extends JpaRepository<VisitIngestReceipt, String> {
+    
+    @Query("SELECT r.trackingId FROM VisitIngestReceipt r WHERE r.trackingId IN :trackingIds")
+    List<String> findExistingIds(@Param("trackingIds") Collection<String> trackingIds);
+    
+    @Modifying
+    @Query("DELETE FROM VisitIngestReceipt r WHERE r.processedAt < :before")
+    int deleteProcessedBefore(@Param("before") Instant before);
+}
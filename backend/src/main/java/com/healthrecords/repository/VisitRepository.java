@@ -1,17 +1,250 @@
 package com.healthrecords.repository;
 
+import com.healthrecords.dto.VisitResponseDTO;
 import com.healthrecords.entity.Visit;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.Instant;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 @Repository
-public interface VisitRepository extends JpaRepository<Visit, Long> {
-    List<Visit> findByPatientId(Long patientId);
-    List<Visit> findByDoctorId(Long doctorId);
-    Optional<Visit> findByPatientIdAndDoctorIdAndVisitDate(Long patientId, Long doctorId, LocalDateTime visitDate);
+public interface VisitRepository extends JpaRepository<Visit, Long>, VisitRepositoryCustom {
+    
+    // Builds the response DTO in a single statement, reading only the names of the joined users
+    String DTO_SELECT = "SELECT new com.healthrecords.dto.VisitResponseDTO(" +
+            "v.id, p.id, p.fullName, d.id, d.fullName, v.visitDate, v.reasonForVisit, v.symptoms, v.diagnosis, " +
+            "v.prescribedMedicines, v.heightCm, v.weightKg, v.bloodPressure, v.pulse, v.temperature, v.notes) " +
+            "FROM Visit v JOIN v.patient p JOIN v.doctor d ";
+    
+    // Existing (patient, doctor, date) keys for bulk duplicate detection
+    @Query("SELECT v.patient.id AS patientId, v.doctor.id AS doctorId, v.visitDate AS visitDate FROM Visit v " +
+           "WHERE v.patient.id IN :patientIds AND v.visitDate BETWEEN :from AND :to")
+    List<VisitKeyView> findKeysByPatientIdsAndVisitDateBetween(@Param("patientIds") Collection<Long> patientIds,
+                                                               @Param("from") LocalDateTime from,
+                                                               @Param("to") LocalDateTime to);
+    
+    @Query(DTO_SELECT + "WHERE v.id = :id")
+    Optional<VisitResponseDTO> findDtoById(@Param("id") Long id);
+    
+    @Query(DTO_SELECT)
+    List<VisitResponseDTO> findAllDtos();
+    
+    @Query(DTO_SELECT + "WHERE v.id IN :ids")
+    List<VisitResponseDTO> findDtosByIdIn(@Param("ids") Collection<Long> ids);
+    
+    @Query(DTO_SELECT + "WHERE p.id = :patientId")
+    List<VisitResponseDTO> findDtosByPatientId(@Param("patientId") Long patientId);
+    
+    @Query(DTO_SELECT + "WHERE d.id = :doctorId")
+    List<VisitResponseDTO> findDtosByDoctorId(@Param("doctorId") Long doctorId);
+    
+    // Keyset pagination on (visitDate, id)
+    @Query(DTO_SELECT + "ORDER BY v.visitDate ASC, v.id ASC")
+    List<VisitResponseDTO> findDtoPage(Limit limit);
+    
+    @Query(DTO_SELECT + "WHERE v.visitDate > :afterDate OR (v.visitDate = :afterDate AND v.id > :afterId) " +
+           "ORDER BY v.visitDate ASC, v.id ASC")
+    List<VisitResponseDTO> findDtoPageAfter(@Param("afterDate") LocalDateTime afterDate, @Param("afterId") Long afterId,
+                                            Limit limit);
+    
+    @Query(DTO_SELECT + "WHERE p.id = :patientId ORDER BY v.visitDate ASC, v.id ASC")
+    List<VisitResponseDTO> findDtoPageByPatientId(@Param("patientId") Long patientId, Limit limit);
+    
+    @Query(DTO_SELECT + "WHERE p.id = :patientId " +
+           "AND (v.visitDate > :afterDate OR (v.visitDate = :afterDate AND v.id > :afterId)) " +
+           "ORDER BY v.visitDate ASC, v.id ASC")
+    List<VisitResponseDTO> findDtoPageByPatientIdAfter(@Param("patientId") Long patientId,
+                                                       @Param("afterDate") LocalDateTime afterDate,
+                                                       @Param("afterId") Long afterId, Limit limit);
+    
+    @Query(DTO_SELECT + "WHERE d.id = :doctorId ORDER BY v.visitDate ASC, v.id ASC")
+    List<VisitResponseDTO> findDtoPageByDoctorId(@Param("doctorId") Long doctorId, Limit limit);
+    
+    @Query(DTO_SELECT + "WHERE d.id = :doctorId " +
+           "AND (v.visitDate > :afterDate OR (v.visitDate = :afterDate AND v.id > :afterId)) " +
+           "ORDER BY v.visitDate ASC, v.id ASC")
+    List<VisitResponseDTO> findDtoPageByDoctorIdAfter(@Param("doctorId") Long doctorId,
+                                                      @Param("afterDate") LocalDateTime afterDate,
+                                                      @Param("afterId") Long afterId, Limit limit);
+    
+    // Vitals range query served by idx_visits_systolic_date / idx_visits_diastolic_date
+    @Query(DTO_SELECT + "WHERE v.systolic BETWEEN :systolicMin AND :systolicMax " +
+           "AND v.diastolic BETWEEN :diastolicMin AND :diastolicMax " +
+           "AND v.visitDate BETWEEN :from AND :to ORDER BY v.visitDate DESC, v.id DESC")
+    List<VisitResponseDTO> findDtosByBloodPressureRange(@Param("systolicMin") int systolicMin,
+                                                        @Param("systolicMax") int systolicMax,
+                                                        @Param("diastolicMin") int diastolicMin,
+                                                        @Param("diastolicMax") int diastolicMax,
+                                                        @Param("from") LocalDateTime from,
+                                                        @Param("to") LocalDateTime to, Limit limit);
+    
+    @Query("SELECT v.visitDate AS visitDate, v.heightCm AS heightCm, v.weightKg AS weightKg, v.systolic AS systolic, " +
+           "v.diastolic AS diastolic, v.pulse AS pulse, v.temperature AS temperature " +
+           "FROM Visit v WHERE v.patient.id = :patientId ORDER BY v.visitDate, v.id")
+    List<VitalsView> findVitalsByPatientId(@Param("patientId") Long patientId);
+    
+    // Rows whose blood pressure was stored before systolic/diastolic columns existed
+    @Query("SELECT v FROM Visit v WHERE v.id > :afterId AND v.bloodPressure IS NOT NULL AND v.systolic IS NULL ORDER BY v.id")
+    List<Visit> findUnparsedBloodPressure(@Param("afterId") Long afterId, Limit limit);
+    
+    // Oldest rows first; locked so two instances never archive the same visits
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT v FROM Visit v WHERE v.visitDate < :before ORDER BY v.id")
+    List<Visit> findForArchive(@Param("before") LocalDateTime before, Limit limit);
+    
+    @Modifying
+    @Query("DELETE FROM Visit v WHERE v.id IN :ids")
+    int deleteByIdIn(@Param("ids") Collection<Long> ids);
+    
+    // Aggregates used to reconcile the incrementally maintained statistics
+    @Query("SELECT v.doctor.id AS doctorId, COUNT(v) AS count FROM Visit v GROUP BY v.doctor.id")
+    List<DoctorCountView> countGroupByDoctor();
+    
+    @Query("SELECT cast(v.visitDate as LocalDate) AS day, COUNT(v) AS count FROM Visit v GROUP BY cast(v.visitDate as LocalDate)")
+    List<DayCountView> countGroupByDay();
+    
+    @Query("SELECT DISTINCT v.doctor.id FROM Visit v")
+    List<Long> findDistinctDoctorIds();
+    
+    @Query("SELECT cast(v.visitDate as LocalDate) AS day, COUNT(v) AS count FROM Visit v " +
+           "WHERE v.doctor.id = :doctorId GROUP BY cast(v.visitDate as LocalDate)")
+    List<DayCountView> countGroupByDayForDoctor(@Param("doctorId") Long doctorId);
+    
+    // Read-only streaming queries for exports; callers must consume them inside a transaction
+    @Query("SELECT v FROM Visit v JOIN FETCH v.patient JOIN FETCH v.doctor ORDER BY v.id")
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"),
+            @QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "false")
+    })
+    Stream<Visit> streamAll();
+    
+    @Query("SELECT v FROM Visit v JOIN FETCH v.patient JOIN FETCH v.doctor WHERE v.doctor.id = :doctorId ORDER BY v.id")
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"),
+            @QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "false")
+    })
+    Stream<Visit> streamByDoctorId(@Param("doctorId") Long doctorId);
+    
+    // DTO streams hold nothing in the persistence context, for exports that read the whole table
+    @Query(DTO_SELECT + "ORDER BY v.id")
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"),
+            @QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "false")
+    })
+    Stream<VisitResponseDTO> streamDtos();
+    
+    @Query(DTO_SELECT + "WHERE v.lastModified >= :since ORDER BY v.id")
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"),
+            @QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "false")
+    })
+    Stream<VisitResponseDTO> streamDtosModifiedSince(@Param("since") Instant since);
+    
+    // Text columns feeding the full-text search index
+    String SEARCH_TEXT_SELECT = "SELECT v.id AS id, v.patient.id AS patientId, v.doctor.id AS doctorId, " +
+            "v.visitDate AS visitDate, v.reasonForVisit AS reasonForVisit, v.symptoms AS symptoms, " +
+            "v.diagnosis AS diagnosis, v.prescribedMedicines AS prescribedMedicines, v.notes AS notes FROM Visit v ";
+    
+    @Query(SEARCH_TEXT_SELECT + "ORDER BY v.id")
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    Stream<SearchTextView> streamSearchText();
+    
+    @Query(SEARCH_TEXT_SELECT + "WHERE v.id IN :ids")
+    List<SearchTextView> findSearchTextByIdIn(@Param("ids") Collection<Long> ids);
+    
+    @Query("SELECT v.id FROM Visit v ORDER BY v.id")
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "10000"))
+    Stream<Long> streamIds();
+    
+    @Query("SELECT v.id FROM Visit v WHERE v.id IN :ids")
+    List<Long> findExistingIds(@Param("ids") Collection<Long> ids);
+    
+    // Conditional GETs: the versions a response depends on, read without building it. A visit's
+    // response also carries the names of its patient and doctor, so their versions count too.
+    @Query("SELECT v.version AS version, p.version AS patientVersion, d.version AS doctorVersion " +
+           "FROM Visit v JOIN v.patient p JOIN v.doctor d WHERE v.id = :id")
+    Optional<VersionView> findVersionsById(@Param("id") Long id);
+    
+    // New visits raise the max id and deletions lower the count, so together with the version sums
+    // any change to a list changes at least one of these values
+    @Query("SELECT COUNT(v) AS count, MAX(v.id) AS maxId, SUM(v.version) AS versionSum, " +
+           "SUM(p.version + d.version) AS userVersionSum FROM Visit v JOIN v.patient p JOIN v.doctor d " +
+           "WHERE p.id = :patientId")
+    ListVersionView findListVersionByPatientId(@Param("patientId") Long patientId);
+    
+    @Query("SELECT COUNT(v) AS count, MAX(v.id) AS maxId, SUM(v.version) AS versionSum, " +
+           "SUM(p.version + d.version) AS userVersionSum FROM Visit v JOIN v.patient p JOIN v.doctor d " +
+           "WHERE d.id = :doctorId")
+    ListVersionView findListVersionByDoctorId(@Param("doctorId") Long doctorId);
+    
+    interface VisitKeyView {
+        Long getPatientId();
+        Long getDoctorId();
+        LocalDateTime getVisitDate();
+    }
+    
+    interface DoctorCountView {
+        Long getDoctorId();
+        Long getCount();
+    }
+    
+    interface DayCountView {
+        LocalDate getDay();
+        Long getCount();
+    }
+    
+    interface VitalsView {
+        LocalDateTime getVisitDate();
+        Double getHeightCm();
+        Double getWeightKg();
+        Integer getSystolic();
+        Integer getDiastolic();
+        Integer getPulse();
+        Double getTemperature();
+    }
+    
+    interface VersionView {
+        Long getVersion();
+        Long getPatientVersion();
+        Long getDoctorVersion();
+    }
+    
+    interface ListVersionView {
+        Long getCount();
+        Long getMaxId();
+        Long getVersionSum();
+        Long getUserVersionSum();
+    }
+    
+    interface SearchTextView {
+        Long getId();
+        Long getPatientId();
+        Long getDoctorId();
+        LocalDateTime getVisitDate();
+        String getReasonForVisit();
+        String getSymptoms();
+        String getDiagnosis();
+        String getPrescribedMedicines();
+        String getNotes();
+    }
 }
-
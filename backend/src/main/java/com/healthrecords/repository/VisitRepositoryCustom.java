@@ -0,0 +1,19 @@
+package com.healthrecords.repository;
+
+import com.healthrecords.dto.VisitResponseDTO;
+import org.springframework.data.domain.Limit;
+import org.springframework.lang.Nullable;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+
+public interface VisitRepositoryCustom {
+    
+    /**
+     * Visits ordered by {@code visitDate, id}, reading only the given fields plus {@code id} and
+     * {@code visitDate}, which keyset pagination needs. The other DTO properties are left null.
+     */
+    List<VisitResponseDTO> findFields(Set<VisitField> fields, @Nullable Long patientId, @Nullable Long doctorId,
+                                      @Nullable LocalDateTime afterDate, @Nullable Long afterId, Limit limit);
+}
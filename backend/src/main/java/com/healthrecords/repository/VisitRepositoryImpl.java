@@ -0,0 +1,81 @@
+package com.healthrecords.repository;
+
+import com.healthrecords.dto.VisitResponseDTO;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.TypedQuery;
+import org.springframework.data.domain.Limit;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+// Builds the select list from the requested fields, so unrequested columns are never read
+class VisitRepositoryImpl implements VisitRepositoryCustom {
+    
+    private final EntityManager entityManager;
+    
+    VisitRepositoryImpl(EntityManager entityManager) {
+        this.entityManager = entityManager;
+    }
+    
+    @Override
+    public List<VisitResponseDTO> findFields(Set<VisitField> fields, Long patientId, Long doctorId,
+                                             LocalDateTime afterDate, Long afterId, Limit limit) {
+        EnumSet<VisitField> selected = EnumSet.of(VisitField.ID, VisitField.VISIT_DATE);
+        selected.addAll(fields);
+        List<VisitField> columns = new ArrayList<>(selected);
+        
+        StringBuilder jpql = new StringBuilder("SELECT ")
+                .append(columns.stream().map(VisitField::expression).collect(Collectors.joining(", ")))
+                .append(" FROM Visit v");
+        if (selected.contains(VisitField.PATIENT_NAME)) {
+            jpql.append(" JOIN v.patient p");
+        }
+        if (selected.contains(VisitField.DOCTOR_NAME)) {
+            jpql.append(" JOIN v.doctor d");
+        }
+        List<String> conditions = new ArrayList<>();
+        if (patientId != null) {
+            conditions.add("v.patient.id = :patientId");
+        }
+        if (doctorId != null) {
+            conditions.add("v.doctor.id = :doctorId");
+        }
+        if (afterDate != null) {
+            conditions.add("(v.visitDate > :afterDate OR (v.visitDate = :afterDate AND v.id > :afterId))");
+        }
+        if (!conditions.isEmpty()) {
+            jpql.append(" WHERE ").append(String.join(" AND ", conditions));
+        }
+        jpql.append(" ORDER BY v.visitDate ASC, v.id ASC");
+        
+        TypedQuery<Object[]> query = entityManager.createQuery(jpql.toString(), Object[].class);
+        if (patientId != null) {
+            query.setParameter("patientId", patientId);
+        }
+        if (doctorId != null) {
+            query.setParameter("doctorId", doctorId);
+        }
+        if (afterDate != null) {
+            query.setParameter("afterDate", afterDate);
+            query.setParameter("afterId", afterId);
+        }
+        if (limit.isLimited()) {
+            query.setMaxResults(limit.max());
+        }
+        
+        List<Object[]> rows = query.getResultList();
+        List<VisitResponseDTO> visits = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            VisitResponseDTO visit = new VisitResponseDTO();
+            for (int i = 0; i < columns.size(); i++) {
+                columns.get(i).set(visit, row[i]);
+            }
+            visits.add(visit);
+        }
+        return visits;
+    }
+}
@@ -0,0 +1,24 @@
+package com.healthrecords.repository;
+
+import com.healthrecords.entity.VisitRollupDelta;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface VisitRollupDeltaRepository extends JpaRepository<VisitRollupDelta, Long> {
+    
+    // Locked so that two instances folding at the same time never apply the same rows twice
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    List<VisitRollupDelta> findByOrderByIdAsc(Limit limit);
+    
+    List<VisitRollupDelta> findByDoctorId(Long doctorId);
+    
+    @Query("SELECT DISTINCT d.doctorId FROM VisitRollupDelta d")
+    List<Long> findDistinctDoctorIds();
+}
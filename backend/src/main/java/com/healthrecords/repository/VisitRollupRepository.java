@@ -0,0 +1,49 @@
+package com.healthrecords.repository;
+
+import com.healthrecords.dto.DoctorVisitCountDTO;
+import com.healthrecords.dto.VisitRollupDTO;
+import com.healthrecords.entity.VisitRollup;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+import java.util.List;
+
+@Repository
+public interface VisitRollupRepository extends JpaRepository<VisitRollup, Long> {
+    boolean existsByDoctorIdAndGranularityAndPeriodStart(Long doctorId, VisitRollup.Granularity granularity, LocalDate periodStart);
+    
+    List<VisitRollup> findByDoctorId(Long doctorId);
+    
+    @Query("SELECT DISTINCT r.doctorId FROM VisitRollup r")
+    List<Long> findDistinctDoctorIds();
+    
+    @Modifying
+    @Query("UPDATE VisitRollup r SET r.visitCount = r.visitCount + :delta " +
+           "WHERE r.doctorId = :doctorId AND r.granularity = :granularity AND r.periodStart = :periodStart")
+    int increment(@Param("doctorId") Long doctorId, @Param("granularity") VisitRollup.Granularity granularity,
+                  @Param("periodStart") LocalDate periodStart, @Param("delta") long delta);
+    
+    @Query("SELECT new com.healthrecords.dto.VisitRollupDTO(r.periodStart, r.visitCount) FROM VisitRollup r " +
+           "WHERE r.doctorId = :doctorId AND r.granularity = :granularity AND r.periodStart BETWEEN :from AND :to " +
+           "ORDER BY r.periodStart")
+    List<VisitRollupDTO> findSeriesByDoctor(@Param("doctorId") Long doctorId,
+                                            @Param("granularity") VisitRollup.Granularity granularity,
+                                            @Param("from") LocalDate from, @Param("to") LocalDate to);
+    
+    @Query("SELECT new com.healthrecords.dto.VisitRollupDTO(r.periodStart, SUM(r.visitCount)) FROM VisitRollup r " +
+           "WHERE r.granularity = :granularity AND r.periodStart BETWEEN :from AND :to " +
+           "GROUP BY r.periodStart ORDER BY r.periodStart")
+    List<VisitRollupDTO> findSeries(@Param("granularity") VisitRollup.Granularity granularity,
+                                    @Param("from") LocalDate from, @Param("to") LocalDate to);
+    
+    @Query("SELECT new com.healthrecords.dto.DoctorVisitCountDTO(r.doctorId, u.fullName, SUM(r.visitCount)) " +
+           "FROM VisitRollup r, User u WHERE u.id = r.doctorId " +
+           "AND r.granularity = :granularity AND r.periodStart BETWEEN :from AND :to " +
+           "GROUP BY r.doctorId, u.fullName ORDER BY SUM(r.visitCount) DESC")
+    List<DoctorVisitCountDTO> findDoctorTotals(@Param("granularity") VisitRollup.Granularity granularity,
+                                               @Param("from") LocalDate from, @Param("to") LocalDate to);
+}
@@ -0,0 +1,38 @@
+package com.healthrecords.repository;
+
+import com.healthrecords.entity.VisitShardBucket;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface VisitShardBucketRepository extends JpaRepository<VisitShardBucket, Integer> {
+    
+    // Compare-and-set on the move state, so two instances cannot move the same bucket at once
+    @Modifying
+    @Query("UPDATE VisitShardBucket b SET b.state = :state, b.targetShard = :targetShard " +
+           "WHERE b.bucket = :bucket AND b.shard = :shard AND b.state = :expectedState")
+    int transition(@Param("bucket") Integer bucket, @Param("shard") int shard,
+                   @Param("expectedState") VisitShardBucket.State expectedState,
+                   @Param("state") VisitShardBucket.State state, @Param("targetShard") Integer targetShard);
+    
+    // The old shard keeps its copy until cleanupDone, in case a reader is still using it
+    @Modifying
+    @Query("UPDATE VisitShardBucket b SET b.shard = :targetShard, b.state = :stable, b.targetShard = null, " +
+           "b.cleanupShard = :shard WHERE b.bucket = :bucket AND b.shard = :shard AND b.targetShard = :targetShard " +
+           "AND b.state = :frozen")
+    int completeMove(@Param("bucket") Integer bucket, @Param("shard") int shard, @Param("targetShard") int targetShard,
+                     @Param("frozen") VisitShardBucket.State frozen, @Param("stable") VisitShardBucket.State stable);
+    
+    // Gives up an interrupted move; whatever was copied to the target is cleaned up like an old copy
+    @Modifying
+    @Query("UPDATE VisitShardBucket b SET b.state = :stable, b.cleanupShard = b.targetShard, b.targetShard = null " +
+           "WHERE b.bucket = :bucket AND b.state <> :stable")
+    int abandonMove(@Param("bucket") Integer bucket, @Param("stable") VisitShardBucket.State stable);
+    
+    @Modifying
+    @Query("UPDATE VisitShardBucket b SET b.cleanupShard = null WHERE b.bucket = :bucket AND b.cleanupShard = :shard")
+    int cleanupDone(@Param("bucket") Integer bucket, @Param("shard") int shard);
+}
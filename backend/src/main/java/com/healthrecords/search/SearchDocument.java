@@ -0,0 +1,19 @@
+package com.healthrecords.search;
+
+import java.time.LocalDateTime;
+
+/**
+ * The searchable text of a visit together with the fields search results can be filtered on.
+ */
+public record SearchDocument(long visitId, long patientId, long doctorId, LocalDateTime visitDate, String text) {
+    
+    public static SearchDocument of(long visitId, long patientId, long doctorId, LocalDateTime visitDate, String... fields) {
+        StringBuilder text = new StringBuilder();
+        for (String field : fields) {
+            if (field != null && !field.isEmpty()) {
+                text.append(field).append('\n');
+            }
+        }
+        return new SearchDocument(visitId, patientId, doctorId, visitDate, text.toString());
+    }
+}
@@ -0,0 +1,9 @@
+package com.healthrecords.search;
+
+import java.time.LocalDateTime;
+
+/**
+ * Optional restrictions applied to search hits; null fields are ignored.
+ */
+public record SearchFilter(Long patientId, Long doctorId, LocalDateTime from, LocalDateTime to) {
+}
@@ -0,0 +1,357 @@
+package com.healthrecords.search;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory inverted index over visit text, ranked with BM25. Documents get a dense internal number;
+ * postings store that number and a saturated term frequency. Deleted documents are tombstoned and
+ * physically dropped by {@link #compact()} once they make up a large share of the index.
+ */
+public class VisitSearchIndex {
+    
+    private static final int FORMAT_VERSION = 1;
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+    private static final int MIN_TOKEN_LENGTH = 2;
+    private static final Set<String> STOP_WORDS = Set.of(
+            "a", "an", "and", "are", "as", "at", "be", "by", "for", "from", "has", "in", "is", "it",
+            "of", "on", "or", "the", "to", "was", "were", "with");
+    
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Postings> postings = new HashMap<>();
+    private final Map<Long, Integer> docByVisitId = new HashMap<>();
+    private final BitSet deleted = new BitSet();
+    
+    private long[] visitIds = new long[1024];
+    private long[] patientIds = new long[1024];
+    private long[] doctorIds = new long[1024];
+    private long[] visitTimes = new long[1024];
+    private int[] lengths = new int[1024];
+    private int docCount;
+    private int liveCount;
+    private long liveLength;
+    
+    /**
+     * Adds a document, replacing any earlier version of the same visit.
+     */
+    public void add(SearchDocument document) {
+        Map<String, Integer> termFrequencies = new HashMap<>();
+        int length = 0;
+        for (String token : tokenize(document.text())) {
+            termFrequencies.merge(token, 1, Integer::sum);
+            length++;
+        }
+        
+        lock.writeLock().lock();
+        try {
+            removeLocked(document.visitId());
+            int doc = docCount++;
+            ensureCapacity(docCount);
+            visitIds[doc] = document.visitId();
+            patientIds[doc] = document.patientId();
+            doctorIds[doc] = document.doctorId();
+            visitTimes[doc] = document.visitDate().toEpochSecond(ZoneOffset.UTC);
+            lengths[doc] = length;
+            docByVisitId.put(document.visitId(), doc);
+            liveCount++;
+            liveLength += length;
+            termFrequencies.forEach((term, frequency) ->
+                    postings.computeIfAbsent(term, t -> new Postings()).add(doc, frequency));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    public void remove(long visitId) {
+        lock.writeLock().lock();
+        try {
+            removeLocked(visitId);
+            if (deleted.cardinality() > 1024 && deleted.cardinality() > docCount / 5) {
+                compactLocked();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return liveCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Ids of all indexed visits in ascending order.
+     */
+    public long[] sortedVisitIds() {
+        lock.readLock().lock();
+        try {
+            long[] ids = new long[liveCount];
+            int i = 0;
+            for (int doc = 0; doc < docCount; doc++) {
+                if (!deleted.get(doc)) {
+                    ids[i++] = visitIds[doc];
+                }
+            }
+            Arrays.sort(ids);
+            return ids;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Returns up to {@code limit} visits matching any query term, best BM25 score first.
+     */
+    public List<Hit> search(String query, SearchFilter filter, int limit) {
+        List<String> terms = tokenize(query).stream().distinct().toList();
+        if (terms.isEmpty()) {
+            return List.of();
+        }
+        
+        lock.readLock().lock();
+        try {
+            if (liveCount == 0) {
+                return List.of();
+            }
+            float averageLength = Math.max(1f, (float) liveLength / liveCount);
+            long from = filter.from() == null ? Long.MIN_VALUE : filter.from().toEpochSecond(ZoneOffset.UTC);
+            long to = filter.to() == null ? Long.MAX_VALUE : filter.to().toEpochSecond(ZoneOffset.UTC);
+            float[] scores = new float[docCount];
+            BitSet matched = new BitSet(docCount);
+            for (String term : terms) {
+                Postings termPostings = postings.get(term);
+                if (termPostings == null) {
+                    continue;
+                }
+                float idf = (float) Math.log(1 + (liveCount - termPostings.size + 0.5) / (termPostings.size + 0.5));
+                for (int i = 0; i < termPostings.size; i++) {
+                    int doc = termPostings.docs[i];
+                    if (deleted.get(doc) || !matches(doc, filter, from, to)) {
+                        continue;
+                    }
+                    int frequency = termPostings.frequencies[i];
+                    float norm = K1 * (1 - B + B * lengths[doc] / averageLength);
+                    scores[doc] += idf * frequency * (K1 + 1) / (frequency + norm);
+                    matched.set(doc);
+                }
+            }
+            
+            PriorityQueue<Hit> top = new PriorityQueue<>(limit + 1, Comparator.comparingDouble(Hit::score));
+            for (int doc = matched.nextSetBit(0); doc >= 0; doc = matched.nextSetBit(doc + 1)) {
+                top.add(new Hit(visitIds[doc], scores[doc]));
+                if (top.size() > limit) {
+                    top.poll();
+                }
+            }
+            List<Hit> hits = new ArrayList<>(top);
+            hits.sort(Comparator.comparingDouble(Hit::score).reversed());
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    public void compact() {
+        lock.writeLock().lock();
+        try {
+            compactLocked();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    public void writeTo(DataOutputStream out) throws IOException {
+        lock.writeLock().lock();
+        try {
+            compactLocked();
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(docCount);
+            for (int doc = 0; doc < docCount; doc++) {
+                out.writeLong(visitIds[doc]);
+                out.writeLong(patientIds[doc]);
+                out.writeLong(doctorIds[doc]);
+                out.writeLong(visitTimes[doc]);
+                out.writeInt(lengths[doc]);
+            }
+            out.writeInt(postings.size());
+            for (Map.Entry<String, Postings> entry : postings.entrySet()) {
+                Postings termPostings = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeInt(termPostings.size);
+                for (int i = 0; i < termPostings.size; i++) {
+                    out.writeInt(termPostings.docs[i]);
+                    out.writeByte(termPostings.frequencies[i]);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    public static VisitSearchIndex readFrom(DataInputStream in) throws IOException {
+        int version = in.readInt();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported search index format version " + version);
+        }
+        VisitSearchIndex index = new VisitSearchIndex();
+        int docCount = in.readInt();
+        index.ensureCapacity(docCount);
+        for (int doc = 0; doc < docCount; doc++) {
+            index.visitIds[doc] = in.readLong();
+            index.patientIds[doc] = in.readLong();
+            index.doctorIds[doc] = in.readLong();
+            index.visitTimes[doc] = in.readLong();
+            index.lengths[doc] = in.readInt();
+            index.docByVisitId.put(index.visitIds[doc], doc);
+            index.liveLength += index.lengths[doc];
+        }
+        index.docCount = docCount;
+        index.liveCount = docCount;
+        int termCount = in.readInt();
+        for (int t = 0; t < termCount; t++) {
+            String term = in.readUTF();
+            int size = in.readInt();
+            Postings termPostings = new Postings(size);
+            for (int i = 0; i < size; i++) {
+                termPostings.add(in.readInt(), in.readByte());
+            }
+            index.postings.put(term, termPostings);
+        }
+        return index;
+    }
+    
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                String token = text.substring(start, i).toLowerCase();
+                if (token.length() >= MIN_TOKEN_LENGTH && !STOP_WORDS.contains(token)) {
+                    tokens.add(token);
+                }
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+    
+    private boolean matches(int doc, SearchFilter filter, long from, long to) {
+        return (filter.patientId() == null || patientIds[doc] == filter.patientId())
+                && (filter.doctorId() == null || doctorIds[doc] == filter.doctorId())
+                && visitTimes[doc] >= from
+                && visitTimes[doc] <= to;
+    }
+    
+    private void removeLocked(long visitId) {
+        Integer doc = docByVisitId.remove(visitId);
+        if (doc != null) {
+            deleted.set(doc);
+            liveCount--;
+            liveLength -= lengths[doc];
+        }
+    }
+    
+    // Drops tombstoned documents and renumbers the rest so postings stay dense
+    private void compactLocked() {
+        if (deleted.isEmpty()) {
+            return;
+        }
+        int[] renumbered = new int[docCount];
+        int next = 0;
+        for (int doc = 0; doc < docCount; doc++) {
+            if (deleted.get(doc)) {
+                renumbered[doc] = -1;
+                continue;
+            }
+            renumbered[doc] = next;
+            visitIds[next] = visitIds[doc];
+            patientIds[next] = patientIds[doc];
+            doctorIds[next] = doctorIds[doc];
+            visitTimes[next] = visitTimes[doc];
+            lengths[next] = lengths[doc];
+            docByVisitId.put(visitIds[next], next);
+            next++;
+        }
+        docCount = next;
+        deleted.clear();
+        postings.values().removeIf(termPostings -> termPostings.renumber(renumbered) == 0);
+    }
+    
+    private void ensureCapacity(int capacity) {
+        if (capacity <= visitIds.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, visitIds.length * 2);
+        visitIds = Arrays.copyOf(visitIds, newCapacity);
+        patientIds = Arrays.copyOf(patientIds, newCapacity);
+        doctorIds = Arrays.copyOf(doctorIds, newCapacity);
+        visitTimes = Arrays.copyOf(visitTimes, newCapacity);
+        lengths = Arrays.copyOf(lengths, newCapacity);
+    }
+    
+    public record Hit(long visitId, float score) {
+    }
+    
+    private static final class Postings {
+        private int[] docs;
+        private byte[] frequencies;
+        private int size;
+        
+        Postings() {
+            this(4);
+        }
+        
+        Postings(int capacity) {
+            docs = new int[Math.max(capacity, 1)];
+            frequencies = new byte[Math.max(capacity, 1)];
+        }
+        
+        void add(int doc, int frequency) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                frequencies = Arrays.copyOf(frequencies, size * 2);
+            }
+            docs[size] = doc;
+            // Term frequency saturates quickly in BM25, so a byte is plenty
+            frequencies[size] = (byte) Math.min(frequency, Byte.MAX_VALUE);
+            size++;
+        }
+        
+        int renumber(int[] renumbered) {
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                int doc = renumbered[docs[i]];
+                if (doc >= 0) {
+                    docs[kept] = doc;
+                    frequencies[kept] = frequencies[i];
+                    kept++;
+                }
+            }
+            size = kept;
+            return kept;
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.healthrecords.security;
+
+import com.healthrecords.entity.User;
+
+/**
+ * Identity carried by a verified access token. Filters store it as a request attribute under
+ * {@link #REQUEST_ATTRIBUTE}.
+ */
+public record AuthenticatedUser(Long userId, User.Role role, String tokenId, long issuedAt, long expiresAt) {
+    
+    public static final String REQUEST_ATTRIBUTE = "com.healthrecords.security.AuthenticatedUser";
+}
@@ -0,0 +1,102 @@
+package com.healthrecords.security;
+
+import com.healthrecords.entity.User;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.Optional;
+
+/**
+ * Authenticates requests carrying an {@code Authorization: Bearer} token using only the token itself.
+ * Unless {@code healthrecords.auth.required} is set, requests without a valid token are let through as
+ * anonymous, so existing clients keep working until they send tokens and an expired token left in a
+ * client does not lock it out.
+ */
+public class TokenAuthenticationFilter extends OncePerRequestFilter {
+    
+    private static final String BEARER_PREFIX = "Bearer ";
+    // EventSource cannot set headers, so the visit stream takes a short-lived stream ticket as a query parameter
+    private static final String STREAM_PATH = "/api/visits/stream";
+    private static final String TICKET_PARAMETER = "ticket";
+    
+    private final TokenService tokenService;
+    private final boolean required;
+    
+    public TokenAuthenticationFilter(TokenService tokenService, boolean required) {
+        this.tokenService = tokenService;
+        this.required = required;
+    }
+    
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return HttpMethod.OPTIONS.matches(request.getMethod()) || !request.getRequestURI().startsWith("/api/");
+    }
+    
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        String token = bearerToken(request);
+        String ticket = token == null ? streamTicket(request) : null;
+        if (token == null && ticket == null) {
+            if (required && !isPublic(request)) {
+                reject(response, HttpStatus.UNAUTHORIZED, "Authentication required");
+                return;
+            }
+            filterChain.doFilter(request, response);
+            return;
+        }
+        
+        Optional<AuthenticatedUser> user = token != null ? tokenService.verify(token) : tokenService.verifyStreamTicket(ticket);
+        if (user.isEmpty()) {
+            if (required) {
+                reject(response, HttpStatus.UNAUTHORIZED, "Invalid or expired token");
+                return;
+            }
+            filterChain.doFilter(request, response);
+            return;
+        }
+        if (required && request.getRequestURI().startsWith("/api/admin/") && user.get().role() != User.Role.ADMIN) {
+            reject(response, HttpStatus.FORBIDDEN, "Admin role required");
+            return;
+        }
+        request.setAttribute(AuthenticatedUser.REQUEST_ATTRIBUTE, user.get());
+        filterChain.doFilter(request, response);
+    }
+    
+    private static String bearerToken(HttpServletRequest request) {
+        String header = request.getHeader(HttpHeaders.AUTHORIZATION);
+        if (header != null && header.startsWith(BEARER_PREFIX)) {
+            return header.substring(BEARER_PREFIX.length()).trim();
+        }
+        return null;
+    }
+    
+    private static String streamTicket(HttpServletRequest request) {
+        if (!request.getRequestURI().equals(STREAM_PATH)) {
+            return null;
+        }
+        String ticket = request.getParameter(TICKET_PARAMETER);
+        return ticket == null || ticket.isBlank() ? null : ticket.trim();
+    }
+    
+    // Login and self-registration have to work without a token
+    private boolean isPublic(HttpServletRequest request) {
+        String path = request.getRequestURI();
+        return HttpMethod.POST.matches(request.getMethod())
+                && (path.equals("/api/auth/login") || path.equals("/api/users"));
+    }
+    
+    private void reject(HttpServletResponse response, HttpStatus status, String message) throws IOException {
+        response.setStatus(status.value());
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.getWriter().write("{\"error\":\"" + message + "\"}");
+    }
+}
@@ -0,0 +1,200 @@
+package com.healthrecords.security;
+
+import com.healthrecords.entity.TokenRevocation;
+import com.healthrecords.entity.User;
+import com.healthrecords.repository.TokenRevocationRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Issues and verifies self-contained access tokens of the form {@code payload.signature}, where the
+ * payload carries the user id, role and validity window and the signature is an HMAC-SHA256 over it.
+ * Verification needs no database access. Every replica must share the same secret for tokens to be
+ * accepted across instances. Revocations are stored in a shared table and mirrored in memory: the
+ * revoking instance applies them at once, the others when they next load the table. They only need to
+ * be held until the revoked token would have expired anyway.
+ */
+@Service
+public class TokenService {
+    
+    private static final Logger log = LoggerFactory.getLogger(TokenService.class);
+    
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final String ACCESS_TOKEN = "v1";
+    // Lets EventSource, which cannot send headers, open the visit stream without the access token in the URL
+    private static final String STREAM_TICKET = "s1";
+    private static final long STREAM_TICKET_TTL_SECONDS = 30;
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+    
+    private final TokenRevocationRepository revocationRepository;
+    private final Mac prototype;
+    private final long ttlSeconds;
+    private final SecureRandom random = new SecureRandom();
+    // token id -> expiry of the revoked token
+    private final Map<String, Long> revokedTokens = new ConcurrentHashMap<>();
+    // user id -> tokens issued before this second are rejected
+    private final Map<Long, Long> revokedUsers = new ConcurrentHashMap<>();
+    
+    public TokenService(TokenRevocationRepository revocationRepository,
+                        @Value("${healthrecords.auth.token-secret:}") String secret,
+                        @Value("${healthrecords.auth.token-ttl-seconds:3600}") long ttlSeconds) {
+        this.revocationRepository = revocationRepository;
+        byte[] key;
+        if (secret == null || secret.isBlank()) {
+            key = new byte[32];
+            random.nextBytes(key);
+            log.warn("healthrecords.auth.token-secret is not set; using a random key, so tokens are only valid on this instance until restart");
+        } else {
+            key = secret.getBytes(StandardCharsets.UTF_8);
+        }
+        try {
+            this.prototype = Mac.getInstance(ALGORITHM);
+            this.prototype.init(new SecretKeySpec(key, ALGORITHM));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Cannot initialise token signing", e);
+        }
+        this.ttlSeconds = ttlSeconds;
+    }
+    
+    public IssuedToken issue(User user) {
+        long now = nowSeconds();
+        byte[] id = new byte[12];
+        random.nextBytes(id);
+        return issue(ACCESS_TOKEN, new AuthenticatedUser(user.getId(), user.getRole(), ENCODER.encodeToString(id), now,
+                now + ttlSeconds));
+    }
+    
+    /**
+     * Issues a ticket that only opens the visit event stream and expires within seconds. It carries the
+     * id of the access token it was issued for, so revoking that token also invalidates the ticket.
+     */
+    public IssuedToken issueStreamTicket(AuthenticatedUser user) {
+        return issue(STREAM_TICKET, new AuthenticatedUser(user.userId(), user.role(), user.tokenId(), user.issuedAt(),
+                Math.min(user.expiresAt(), nowSeconds() + STREAM_TICKET_TTL_SECONDS)));
+    }
+    
+    /**
+     * Returns the identity in the token if its signature is valid and it is neither expired nor revoked.
+     */
+    public Optional<AuthenticatedUser> verify(String token) {
+        return verify(ACCESS_TOKEN, token);
+    }
+    
+    public Optional<AuthenticatedUser> verifyStreamTicket(String ticket) {
+        return verify(STREAM_TICKET, ticket);
+    }
+    
+    private IssuedToken issue(String kind, AuthenticatedUser user) {
+        String payload = ENCODER.encodeToString(String.join("|", kind, String.valueOf(user.userId()), user.role().name(),
+                String.valueOf(user.issuedAt()), String.valueOf(user.expiresAt()), user.tokenId())
+                .getBytes(StandardCharsets.UTF_8));
+        return new IssuedToken(payload + "." + sign(payload), user.expiresAt());
+    }
+    
+    private Optional<AuthenticatedUser> verify(String kind, String token) {
+        int dot = token.indexOf('.');
+        if (dot <= 0 || dot == token.length() - 1) {
+            return Optional.empty();
+        }
+        String payload = token.substring(0, dot);
+        byte[] expected = sign(payload).getBytes(StandardCharsets.US_ASCII);
+        if (!MessageDigest.isEqual(expected, token.substring(dot + 1).getBytes(StandardCharsets.US_ASCII))) {
+            return Optional.empty();
+        }
+        
+        AuthenticatedUser user;
+        try {
+            String[] claims = new String(DECODER.decode(payload), StandardCharsets.UTF_8).split("\\|");
+            if (claims.length != 6 || !kind.equals(claims[0])) {
+                return Optional.empty();
+            }
+            user = new AuthenticatedUser(Long.parseLong(claims[1]), User.Role.valueOf(claims[2]), claims[5],
+                    Long.parseLong(claims[3]), Long.parseLong(claims[4]));
+        } catch (IllegalArgumentException e) {
+            return Optional.empty();
+        }
+        
+        if (user.expiresAt() <= nowSeconds() || revokedTokens.containsKey(user.tokenId())) {
+            return Optional.empty();
+        }
+        Long notBefore = revokedUsers.get(user.userId());
+        if (notBefore != null && user.issuedAt() < notBefore) {
+            return Optional.empty();
+        }
+        return Optional.of(user);
+    }
+    
+    public void revoke(AuthenticatedUser user) {
+        revocationRepository.save(TokenRevocation.forToken(user.tokenId(), user.expiresAt()));
+        revokedTokens.put(user.tokenId(), user.expiresAt());
+    }
+    
+    /**
+     * Invalidates every token issued to the user so far, e.g. after a role change or deletion.
+     */
+    public void revokeAllForUser(Long userId) {
+        // Tokens carry whole seconds, so also reject ones issued earlier in the current second
+        long notBefore = nowSeconds() + 1;
+        revocationRepository.save(TokenRevocation.forUser(userId, notBefore, notBefore + ttlSeconds));
+        revokedUsers.merge(userId, notBefore, Math::max);
+    }
+    
+    /**
+     * Picks up revocations made through other instances. Entries are only added here and removed by
+     * the purge, so a revocation made locally while the table is being read is not lost.
+     */
+    @Scheduled(fixedDelayString = "${healthrecords.auth.revocation-refresh-interval-ms:5000}")
+    public void refreshRevocations() {
+        for (TokenRevocation revocation : revocationRepository.findByExpiresAtGreaterThan(nowSeconds())) {
+            if (revocation.getTokenId() != null) {
+                revokedTokens.put(revocation.getTokenId(), revocation.getExpiresAt());
+            } else {
+                revokedUsers.merge(revocation.getUserId(), revocation.getIssuedBefore(), Math::max);
+            }
+        }
+    }
+    
+    @Scheduled(fixedDelayString = "${healthrecords.auth.revocation-purge-interval-ms:60000}")
+    @Transactional
+    public void purgeExpiredRevocations() {
+        long now = nowSeconds();
+        revokedTokens.values().removeIf(expiresAt -> expiresAt <= now);
+        revokedUsers.values().removeIf(notBefore -> notBefore + ttlSeconds <= now);
+        int purged = revocationRepository.deleteExpired(now);
+        if (purged > 0) {
+            log.debug("Purged {} expired token revocations", purged);
+        }
+    }
+    
+    private String sign(String payload) {
+        try {
+            Mac mac = (Mac) prototype.clone();
+            return ENCODER.encodeToString(mac.doFinal(payload.getBytes(StandardCharsets.US_ASCII)));
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException("HMAC implementation cannot be cloned", e);
+        }
+    }
+    
+    private long nowSeconds() {
+        return System.currentTimeMillis() / 1000;
+    }
+    
+    public record IssuedToken(String token, long expiresAt) {
+    }
+}
@@ -1,31 +1,29 @@
 package com.healthrecords.service;
 
-import com.healthrecords.entity.User;
-import com.healthrecords.repository.UserRepository;
-import com.healthrecords.repository.VisitRepository;
+import com.healthrecords.cache.UserCache;
 import org.springframework.stereotype.Service;
 
-import java.util.HashMap;
 import java.util.Map;
 
 @Service
 public class AdminService {
     
-    private final UserRepository userRepository;
-    private final VisitRepository visitRepository;
+    private final StatsCounterService statsCounterService;
+    private final UserCache userCache;
     
-    public AdminService(UserRepository userRepository, VisitRepository visitRepository) {
-        this.userRepository = userRepository;
-        this.visitRepository = visitRepository;
+    public AdminService(StatsCounterService statsCounterService, UserCache userCache) {
+        this.statsCounterService = statsCounterService;
+        this.userCache = userCache;
     }
     
-    public Map<String, Long> getStats() {
-        Map<String, Long> stats = new HashMap<>();
-        stats.put("totalUsers", userRepository.count());
-        stats.put("totalDoctors", userRepository.countByRole(User.Role.DOCTOR));
-        stats.put("totalPatients", userRepository.countByRole(User.Role.PATIENT));
-        stats.put("totalVisits", visitRepository.count());
-        return stats;
+    public Map<String, Object> getStats(int days) {
+        if (days < 1 || days > 366) {
+            throw new IllegalArgumentException("days must be between 1 and 366");
+        }
+        return statsCounterService.getStats(days);
+    }
+    
+    public Map<String, Long> getUserCacheStats() {
+        return userCache.getStats();
     }
 }
-
@@ -2,20 +2,29 @@ package com.healthrecords.service;
 
 import com.healthrecords.dto.LoginRequestDTO;
 import com.healthrecords.dto.LoginResponseDTO;
+import com.healthrecords.dto.StreamTicketDTO;
 import com.healthrecords.entity.User;
 import com.healthrecords.exception.ResourceNotFoundException;
 import com.healthrecords.repository.UserRepository;
+import com.healthrecords.security.AuthenticatedUser;
+import com.healthrecords.security.TokenService;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 @Service
 public class AuthService {
     
     private final UserRepository userRepository;
+    private final TokenService tokenService;
     
-    public AuthService(UserRepository userRepository) {
+    public AuthService(UserRepository userRepository, TokenService tokenService) {
         this.userRepository = userRepository;
+        this.tokenService = tokenService;
     }
     
+    // Not read-only, so the credentials come from the primary: a cached or replicated copy could still
+    // hold a password that was just changed, or a user that was just deleted
+    @Transactional
     public LoginResponseDTO login(LoginRequestDTO loginRequest) {
         User user = userRepository.findByEmail(loginRequest.getEmail())
                 .orElseThrow(() -> new ResourceNotFoundException("Invalid email or password"));
@@ -26,12 +35,24 @@ public class AuthService {
             throw new ResourceNotFoundException("Invalid email or password");
         }
         
+        TokenService.IssuedToken token = tokenService.issue(user);
         return new LoginResponseDTO(
                 user.getId(),
                 user.getFullName(),
                 user.getEmail(),
-                user.getRole()
+                user.getRole(),
+                token.token(),
+                token.expiresAt()
         );
     }
+    
+    public void logout(AuthenticatedUser user) {
+        tokenService.revoke(user);
+    }
+    
+    public StreamTicketDTO streamTicket(AuthenticatedUser user) {
+        TokenService.IssuedToken ticket = tokenService.issueStreamTicket(user);
+        return new StreamTicketDTO(ticket.token(), ticket.expiresAt());
+    }
 }
 
@@ -0,0 +1,313 @@
+package com.healthrecords.service;
+
+import com.healthrecords.archive.VisitArchive;
+import com.healthrecords.entity.StatCounter;
+import com.healthrecords.entity.StatCounterDelta;
+import com.healthrecords.entity.User;
+import com.healthrecords.repository.StatCounterDeltaRepository;
+import com.healthrecords.repository.StatCounterRepository;
+import com.healthrecords.repository.UserRepository;
+import com.healthrecords.repository.VisitRepository;
+import com.healthrecords.sharding.ShardedVisitStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Limit;
+import org.springframework.lang.Nullable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maintains user and visit counts in the stat_counters table. A write appends its counter changes to
+ * stat_counter_deltas in the caller's transaction, so they commit or roll back with the write and take
+ * no locks on the shared counter rows; the deltas are folded into the counters every second. Counters
+ * are also periodically reconciled against the real tables to repair any drift (for example from rows
+ * changed outside the application).
+ */
+@Service
+public class StatsCounterService {
+    
+    private static final Logger log = LoggerFactory.getLogger(StatsCounterService.class);
+    
+    private static final String TOTAL_USERS = "users.total";
+    private static final String USERS_BY_ROLE_PREFIX = "users.role.";
+    private static final String TOTAL_VISITS = "visits.total";
+    private static final String VISITS_BY_DOCTOR_PREFIX = "visits.doctor.";
+    private static final String VISITS_BY_DAY_PREFIX = "visits.day.";
+    private static final int FLUSH_BATCH_SIZE = 1000;
+    
+    private final StatCounterRepository counterRepository;
+    private final StatCounterDeltaRepository deltaRepository;
+    private final UserRepository userRepository;
+    private final VisitRepository visitRepository;
+    // Set when visits are sharded; counts then come from every shard
+    private final ShardedVisitStore shardedVisits;
+    // Set when old visits are archived; they still count
+    private final VisitArchive visitArchive;
+    private final TransactionTemplate newTransaction;
+    // Read-write so the snapshot is taken on the primary
+    private final TransactionTemplate snapshotTransaction;
+    // Counters are never deleted, so once seen a counter can be updated without checking for it
+    private final Set<String> knownCounters = ConcurrentHashMap.newKeySet();
+    
+    public StatsCounterService(StatCounterRepository counterRepository, StatCounterDeltaRepository deltaRepository,
+                               UserRepository userRepository, VisitRepository visitRepository,
+                               @Nullable ShardedVisitStore shardedVisits, @Nullable VisitArchive visitArchive,
+                               PlatformTransactionManager transactionManager) {
+        this.counterRepository = counterRepository;
+        this.deltaRepository = deltaRepository;
+        this.userRepository = userRepository;
+        this.visitRepository = visitRepository;
+        this.shardedVisits = shardedVisits;
+        this.visitArchive = visitArchive;
+        this.newTransaction = new TransactionTemplate(transactionManager);
+        this.newTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.snapshotTransaction = new TransactionTemplate(transactionManager);
+        this.snapshotTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.snapshotTransaction.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+    }
+    
+    @Transactional
+    public void userCreated(User.Role role) {
+        record(Map.of(TOTAL_USERS, 1L, USERS_BY_ROLE_PREFIX + role, 1L));
+    }
+    
+    /**
+     * Records one counter change per role for a set of new users.
+     */
+    @Transactional
+    public void usersCreated(Map<User.Role, Long> countsByRole) {
+        long total = countsByRole.values().stream().mapToLong(Long::longValue).sum();
+        if (total == 0) {
+            return;
+        }
+        Map<String, Long> deltas = new HashMap<>();
+        deltas.put(TOTAL_USERS, total);
+        countsByRole.forEach((role, count) -> deltas.put(USERS_BY_ROLE_PREFIX + role, count));
+        record(deltas);
+    }
+    
+    @Transactional
+    public void userDeleted(User.Role role) {
+        record(Map.of(TOTAL_USERS, -1L, USERS_BY_ROLE_PREFIX + role, -1L));
+    }
+    
+    @Transactional
+    public void userRoleChanged(User.Role oldRole, User.Role newRole) {
+        if (oldRole != newRole) {
+            record(Map.of(USERS_BY_ROLE_PREFIX + oldRole, -1L, USERS_BY_ROLE_PREFIX + newRole, 1L));
+        }
+    }
+    
+    @Transactional
+    public void visitCreated(Long doctorId, LocalDateTime visitDate) {
+        visitsChanged(Map.of(doctorId, List.of(visitDate)), 1);
+    }
+    
+    @Transactional
+    public void visitDeleted(Long doctorId, LocalDateTime visitDate) {
+        visitsChanged(Map.of(doctorId, List.of(visitDate)), -1);
+    }
+    
+    /**
+     * Records one counter change per distinct key for a set of new visits, grouped by doctor id.
+     */
+    @Transactional
+    public void visitsCreated(Map<Long, List<LocalDateTime>> visitDatesByDoctor) {
+        visitsChanged(visitDatesByDoctor, 1);
+    }
+    
+    @Transactional(readOnly = true)
+    public Map<String, Object> getStats(int days) {
+        LocalDate today = LocalDate.now();
+        List<String> names = new ArrayList<>();
+        names.add(TOTAL_USERS);
+        names.add(USERS_BY_ROLE_PREFIX + User.Role.DOCTOR);
+        names.add(USERS_BY_ROLE_PREFIX + User.Role.PATIENT);
+        names.add(TOTAL_VISITS);
+        for (int i = days - 1; i >= 0; i--) {
+            names.add(VISITS_BY_DAY_PREFIX + today.minusDays(i));
+        }
+        Map<String, Long> values = new HashMap<>();
+        for (StatCounter counter : counterRepository.findByNameIn(names)) {
+            values.put(counter.getName(), counter.getValue());
+        }
+        
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("totalUsers", values.getOrDefault(TOTAL_USERS, 0L));
+        stats.put("totalDoctors", values.getOrDefault(USERS_BY_ROLE_PREFIX + User.Role.DOCTOR, 0L));
+        stats.put("totalPatients", values.getOrDefault(USERS_BY_ROLE_PREFIX + User.Role.PATIENT, 0L));
+        stats.put("totalVisits", values.getOrDefault(TOTAL_VISITS, 0L));
+        
+        Map<Long, Long> visitsPerDoctor = new TreeMap<>();
+        for (StatCounter counter : counterRepository.findByNamePrefix(VISITS_BY_DOCTOR_PREFIX)) {
+            if (counter.getValue() > 0) {
+                visitsPerDoctor.put(Long.parseLong(counter.getName().substring(VISITS_BY_DOCTOR_PREFIX.length())), counter.getValue());
+            }
+        }
+        stats.put("visitsPerDoctor", visitsPerDoctor);
+        
+        Map<String, Long> visitsPerDay = new LinkedHashMap<>();
+        for (int i = days - 1; i >= 0; i--) {
+            String day = today.minusDays(i).toString();
+            visitsPerDay.put(day, values.getOrDefault(VISITS_BY_DAY_PREFIX + day, 0L));
+        }
+        stats.put("visitsPerDay", visitsPerDay);
+        return stats;
+    }
+    
+    /**
+     * Folds pending deltas into the counters, in batches that each take the counter row locks only
+     * briefly. Deltas are locked while they are folded, so any number of instances can run this.
+     */
+    @Scheduled(fixedDelayString = "${healthrecords.stats.flush-interval-ms:1000}")
+    public void flush() {
+        Integer folded;
+        do {
+            folded = newTransaction.execute(status -> flushBatch());
+        } while (folded != null && folded == FLUSH_BATCH_SIZE);
+    }
+    
+    /**
+     * Recomputes every counter from the source tables and records the difference from the counter plus
+     * its pending deltas as a new delta. The source counts, counters and deltas are read in one snapshot,
+     * so writes committed meanwhile are neither lost nor counted twice; counts read from shards and the
+     * archive are outside that snapshot and may still be off by the writes of that moment, which the
+     * next run corrects.
+     */
+    @Scheduled(initialDelayString = "${healthrecords.stats.reconcile-initial-delay-ms:10000}",
+               fixedDelayString = "${healthrecords.stats.reconcile-interval-ms:3600000}")
+    public void reconcile() {
+        Map<String, Long> drift = snapshotTransaction.execute(status -> computeDrift());
+        // Each difference is appended in its own short transaction and folded like any other delta
+        drift.forEach((name, delta) -> newTransaction.executeWithoutResult(status ->
+                deltaRepository.save(new StatCounterDelta(name, delta))));
+        log.info("Reconciled statistics counters, {} had drifted", drift.size());
+    }
+    
+    private Map<String, Long> computeDrift() {
+        Map<String, Long> actual = new HashMap<>();
+        actual.put(TOTAL_USERS, userRepository.count());
+        for (User.Role role : User.Role.values()) {
+            actual.put(USERS_BY_ROLE_PREFIX + role, 0L);
+        }
+        for (UserRepository.RoleCountView count : userRepository.countGroupByRole()) {
+            actual.put(USERS_BY_ROLE_PREFIX + count.getRole(), count.getCount());
+        }
+        actual.put(TOTAL_VISITS, shardedVisits != null ? shardedVisits.count() : visitRepository.count());
+        List<VisitRepository.DoctorCountView> doctorCounts = shardedVisits != null
+                ? shardedVisits.countGroupByDoctor() : visitRepository.countGroupByDoctor();
+        for (VisitRepository.DoctorCountView count : doctorCounts) {
+            actual.put(VISITS_BY_DOCTOR_PREFIX + count.getDoctorId(), count.getCount());
+        }
+        List<VisitRepository.DayCountView> dayCounts = shardedVisits != null
+                ? shardedVisits.countGroupByDay() : visitRepository.countGroupByDay();
+        for (VisitRepository.DayCountView count : dayCounts) {
+            actual.put(VISITS_BY_DAY_PREFIX + count.getDay(), count.getCount());
+        }
+        if (visitArchive != null) {
+            actual.merge(TOTAL_VISITS, visitArchive.count(), Long::sum);
+            visitArchive.countGroupByDoctor().forEach((doctorId, count) ->
+                    actual.merge(VISITS_BY_DOCTOR_PREFIX + doctorId, count, Long::sum));
+            visitArchive.countGroupByDay().forEach((day, count) -> actual.merge(VISITS_BY_DAY_PREFIX + day, count, Long::sum));
+        }
+        
+        // Counters with no remaining rows (deleted doctors, emptied days) drop to zero
+        Map<String, Long> recorded = new HashMap<>();
+        for (StatCounter counter : counterRepository.findAll()) {
+            recorded.put(counter.getName(), counter.getValue());
+        }
+        for (StatCounterDeltaRepository.PendingView pending : deltaRepository.sumGroupByName()) {
+            recorded.merge(pending.getName(), pending.getDelta(), Long::sum);
+        }
+        Map<String, Long> drift = new TreeMap<>();
+        recorded.forEach((name, value) -> actual.putIfAbsent(name, 0L));
+        actual.forEach((name, value) -> {
+            long difference = value - recorded.getOrDefault(name, 0L);
+            if (difference != 0) {
+                drift.put(name, difference);
+            }
+        });
+        return drift;
+    }
+    
+    private int flushBatch() {
+        List<StatCounterDelta> pending = deltaRepository.findByOrderByIdAsc(Limit.of(FLUSH_BATCH_SIZE));
+        if (pending.isEmpty()) {
+            return 0;
+        }
+        // Sorted so that concurrent folds update the counters in the same order
+        Map<String, Long> totals = new TreeMap<>();
+        for (StatCounterDelta delta : pending) {
+            totals.merge(delta.getName(), delta.getDelta(), Long::sum);
+        }
+        totals.forEach((name, delta) -> {
+            if (delta != 0) {
+                increment(name, delta);
+            }
+        });
+        deltaRepository.deleteAllInBatch(pending);
+        return pending.size();
+    }
+    
+    private void visitsChanged(Map<Long, List<LocalDateTime>> visitDatesByDoctor, long sign) {
+        Map<String, Long> deltas = new HashMap<>();
+        visitDatesByDoctor.forEach((doctorId, visitDates) -> {
+            deltas.merge(TOTAL_VISITS, sign * visitDates.size(), Long::sum);
+            deltas.merge(VISITS_BY_DOCTOR_PREFIX + doctorId, sign * visitDates.size(), Long::sum);
+            for (LocalDateTime visitDate : visitDates) {
+                deltas.merge(VISITS_BY_DAY_PREFIX + visitDate.toLocalDate(), sign, Long::sum);
+            }
+        });
+        record(deltas);
+    }
+    
+    private void record(Map<String, Long> deltas) {
+        List<StatCounterDelta> rows = new ArrayList<>(deltas.size());
+        deltas.forEach((name, delta) -> rows.add(new StatCounterDelta(name, delta)));
+        deltaRepository.saveAll(rows);
+    }
+    
+    private void increment(String name, long delta) {
+        ensureExists(name);
+        counterRepository.increment(name, delta);
+    }
+    
+    /**
+     * Creates a missing counter row in its own transaction before the caller updates it. Updating a
+     * missing row first would take a gap lock that blocks the insert, and a duplicate-key failure
+     * from a concurrent insert must not roll back the caller's transaction.
+     */
+    private void ensureExists(String name) {
+        if (knownCounters.contains(name)) {
+            return;
+        }
+        if (!counterRepository.existsById(name)) {
+            try {
+                newTransaction.executeWithoutResult(status -> {
+                    if (!counterRepository.existsById(name)) {
+                        counterRepository.saveAndFlush(new StatCounter(name, 0));
+                    }
+                });
+            } catch (DataIntegrityViolationException e) {
+                log.debug("Counter {} was created concurrently", name);
+            }
+        }
+        knownCounters.add(name);
+    }
+}
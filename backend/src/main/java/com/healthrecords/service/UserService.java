@@ -1,26 +1,67 @@
 package com.healthrecords.service;
 
+import com.healthrecords.archive.VisitArchive;
+import com.healthrecords.cache.UserCache;
+import com.healthrecords.dto.CursorPageDTO;
 import com.healthrecords.dto.UserRequestDTO;
 import com.healthrecords.dto.UserResponseDTO;
 import com.healthrecords.entity.User;
+import com.healthrecords.exception.ForbiddenException;
+import com.healthrecords.exception.PreconditionFailedException;
 import com.healthrecords.exception.ResourceNotFoundException;
+import com.healthrecords.repository.UserField;
 import com.healthrecords.repository.UserRepository;
+import com.healthrecords.security.AuthenticatedUser;
+import com.healthrecords.security.TokenService;
+import com.healthrecords.sharding.ShardedVisitStore;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Limit;
+import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Instant;
 import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 public class UserService {
     
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 500;
+    
     private final UserRepository userRepository;
+    private final UserCache userCache;
+    private final StatsCounterService statsCounterService;
+    private final TokenService tokenService;
+    private final VisitArchive visitArchive;
+    private final ShardedVisitStore shardedVisits;
     
-    public UserService(UserRepository userRepository) {
+    public UserService(UserRepository userRepository, UserCache userCache, StatsCounterService statsCounterService,
+                       TokenService tokenService, @Nullable VisitArchive visitArchive,
+                       @Nullable ShardedVisitStore shardedVisits) {
         this.userRepository = userRepository;
+        this.userCache = userCache;
+        this.statsCounterService = statsCounterService;
+        this.tokenService = tokenService;
+        this.visitArchive = visitArchive;
+        this.shardedVisits = shardedVisits;
     }
     
-    public UserResponseDTO createUser(UserRequestDTO userRequest) {
+    /**
+     * Creates a user. Anyone may register as a patient; doctors and admins can only be created by a
+     * caller holding an admin token.
+     */
+    @Transactional
+    public UserResponseDTO createUser(UserRequestDTO userRequest, @Nullable AuthenticatedUser caller) {
+        User.Role role = User.Role.valueOf(userRequest.getRole().toUpperCase());
+        if (role != User.Role.PATIENT && !isAdmin(caller)) {
+            throw new ForbiddenException("Only an admin can create " + role + " users");
+        }
+        
         // Check if email already exists
         if (userRepository.findByEmail(userRequest.getEmail()).isPresent()) {
             throw new com.healthrecords.exception.DuplicateResourceException("Email already registered. Please use a different email.");
@@ -37,7 +78,7 @@ public class UserService {
         user.setFullName(userRequest.getFullName());
         user.setEmail(userRequest.getEmail());
         user.setPassword(userRequest.getPassword()); // Plain password for simplicity
-        user.setRole(User.Role.valueOf(userRequest.getRole().toUpperCase()));
+        user.setRole(role);
         user.setPhoneNumber(userRequest.getPhoneNumber());
         user.setGender(userRequest.getGender());
         user.setDateOfBirth(userRequest.getDateOfBirth());
@@ -45,32 +86,133 @@ public class UserService {
         user.setAddress(userRequest.getAddress());
         
         User savedUser = userRepository.save(user);
+        statsCounterService.userCreated(savedUser.getRole());
         return convertToDTO(savedUser);
     }
     
+    /**
+     * Creates the first admin account, since further admins can only be created by an admin. Does
+     * nothing once any admin exists.
+     */
+    @Transactional
+    public boolean createInitialAdmin(String email, String password) {
+        if (userRepository.countByRole(User.Role.ADMIN) > 0) {
+            return false;
+        }
+        User admin = new User();
+        admin.setFullName("Administrator");
+        admin.setEmail(email);
+        admin.setPassword(password);
+        admin.setRole(User.Role.ADMIN);
+        userRepository.save(admin);
+        statsCounterService.userCreated(User.Role.ADMIN);
+        return true;
+    }
+    
+    @Transactional(readOnly = true)
     public List<UserResponseDTO> getAllUsers() {
         return userRepository.findAll().stream()
-                .map(this::convertToDTO)
+                .map(UserService::convertToDTO)
                 .collect(Collectors.toList());
     }
     
+    @Transactional(readOnly = true)
     public List<UserResponseDTO> getUsersByRole(String role) {
         User.Role userRole = User.Role.valueOf(role.toUpperCase());
         return userRepository.findByRole(userRole).stream()
-                .map(this::convertToDTO)
+                .map(UserService::convertToDTO)
                 .collect(Collectors.toList());
     }
     
+    @Transactional(readOnly = true)
+    public CursorPageDTO<UserResponseDTO> getUsersPage(String role, String after, Integer limit) {
+        int pageSize = resolvePageSize(limit);
+        Long afterId = decodeCursor(after);
+        List<User> users;
+        if (role != null && !role.isEmpty()) {
+            User.Role userRole = User.Role.valueOf(role.toUpperCase());
+            users = userRepository.findByRoleAndIdGreaterThanOrderByIdAsc(userRole, afterId, Limit.of(pageSize + 1));
+        } else {
+            users = userRepository.findByIdGreaterThanOrderByIdAsc(afterId, Limit.of(pageSize + 1));
+        }
+        
+        // Pages are fetched with one extra row so we know whether a next page exists
+        String nextCursor = null;
+        if (users.size() > pageSize) {
+            users = users.subList(0, pageSize);
+            nextCursor = String.valueOf(users.get(pageSize - 1).getId());
+        }
+        List<UserResponseDTO> items = users.stream()
+                .map(UserService::convertToDTO)
+                .collect(Collectors.toList());
+        return new CursorPageDTO<>(items, nextCursor);
+    }
+    
+    /**
+     * Users with only the given fields read and set. Without {@code after} and {@code limit} all users
+     * (of the role) are returned, otherwise a page of them.
+     */
+    @Transactional(readOnly = true)
+    public CursorPageDTO<UserResponseDTO> getUserFields(Set<UserField> fields, String role, String after, Integer limit) {
+        boolean paged = after != null || limit != null;
+        int pageSize = paged ? resolvePageSize(limit) : -1;
+        User.Role userRole = role != null && !role.isEmpty() ? User.Role.valueOf(role.toUpperCase()) : null;
+        List<UserResponseDTO> users = userRepository.findFields(fields, userRole, decodeCursor(after),
+                paged ? Limit.of(pageSize + 1) : Limit.unlimited());
+        String nextCursor = null;
+        if (paged && users.size() > pageSize) {
+            users = users.subList(0, pageSize);
+            nextCursor = String.valueOf(users.get(pageSize - 1).getId());
+        }
+        // The id is read for the cursor even when it was not asked for
+        if (!fields.contains(UserField.ID)) {
+            users.forEach(user -> user.setId(null));
+        }
+        return new CursorPageDTO<>(users, nextCursor);
+    }
+    
+    /**
+     * Passes the users with the role, or only those changed since {@code since}, to the consumer in id
+     * order, streamed as DTOs so memory use does not grow with the table.
+     */
+    @Transactional(readOnly = true)
+    public void forEachUser(User.Role role, @Nullable Instant since, Consumer<UserResponseDTO> consumer) {
+        try (Stream<UserResponseDTO> users = since == null
+                ? userRepository.streamDtosByRole(role) : userRepository.streamDtosByRoleModifiedSince(role, since)) {
+            users.forEach(consumer);
+        }
+    }
+    
     public UserResponseDTO getUserById(Long id) {
-        User user = userRepository.findById(id)
+        User user = userCache.findById(id)
                 .orElseThrow(() -> new ResourceNotFoundException("User not found with id: " + id));
         return convertToDTO(user);
     }
     
+    /**
+     * Tag identifying the current response for a user, or null when the user does not exist. Taken
+     * from the same cache that serves {@link #getUserById}, so tag and body always match.
+     */
+    public String getUserETag(Long id) {
+        return userCache.findById(id).map(user -> String.valueOf(user.getVersion())).orElse(null);
+    }
+    
+    /**
+     * Updates a user. When {@code expectedVersion} is given the update only applies to that version;
+     * a concurrent update committed after the user was read fails the flush with an optimistic lock error.
+     */
     @Transactional
-    public UserResponseDTO updateUser(Long id, UserRequestDTO userRequest) {
+    public UserResponseDTO updateUser(Long id, UserRequestDTO userRequest, @Nullable Long expectedVersion,
+                                      @Nullable AuthenticatedUser caller) {
         User user = userRepository.findById(id)
                 .orElseThrow(() -> new ResourceNotFoundException("User not found with id: " + id));
+        if (expectedVersion != null && !expectedVersion.equals(user.getVersion())) {
+            throw new PreconditionFailedException("User " + id + " has changed since it was read. Please reload it and try again.");
+        }
+        User.Role role = User.Role.valueOf(userRequest.getRole().toUpperCase());
+        if (role != user.getRole() && !isAdmin(caller)) {
+            throw new ForbiddenException("Only an admin can change a user's role");
+        }
         
         // Check if email is being changed and if it already exists
         if (!user.getEmail().equals(userRequest.getEmail()) &&
@@ -85,12 +227,16 @@ public class UserService {
             throw new com.healthrecords.exception.DuplicateResourceException("Phone number already registered. Please use a different phone number.");
         }
         
+        userCache.evict(user.getId(), user.getEmail());
+        User.Role oldRole = user.getRole();
+        boolean passwordChanged = false;
         user.setFullName(userRequest.getFullName());
         user.setEmail(userRequest.getEmail());
         if (userRequest.getPassword() != null && !userRequest.getPassword().isEmpty()) {
+            passwordChanged = !userRequest.getPassword().equals(user.getPassword());
             user.setPassword(userRequest.getPassword());
         }
-        user.setRole(User.Role.valueOf(userRequest.getRole().toUpperCase()));
+        user.setRole(role);
         user.setPhoneNumber(userRequest.getPhoneNumber());
         user.setGender(userRequest.getGender());
         user.setDateOfBirth(userRequest.getDateOfBirth());
@@ -98,17 +244,33 @@ public class UserService {
         user.setAddress(userRequest.getAddress());
         
         User updatedUser = userRepository.save(user);
+        statsCounterService.userRoleChanged(oldRole, updatedUser.getRole());
+        // Tokens carry the role, so outstanding ones must not outlive a role or password change
+        if (passwordChanged || oldRole != updatedUser.getRole()) {
+            tokenService.revokeAllForUser(updatedUser.getId());
+        }
         return convertToDTO(updatedUser);
     }
     
+    @Transactional
     public void deleteUser(Long id) {
-        if (!userRepository.existsById(id)) {
-            throw new ResourceNotFoundException("User not found with id: " + id);
+        User user = userRepository.findById(id)
+                .orElseThrow(() -> new ResourceNotFoundException("User not found with id: " + id));
+        // Archived visits have no foreign key to stop the delete, as visits in the table do
+        if (visitArchive != null && visitArchive.hasVisitsOf(id)) {
+            throw new DataIntegrityViolationException("User " + id + " has archived visits");
         }
-        userRepository.deleteById(id);
+        // Nor do visits on shards other than the main database
+        if (shardedVisits != null && shardedVisits.existsByPatientIdOrDoctorId(id)) {
+            throw new DataIntegrityViolationException("User " + id + " has visits");
+        }
+        userCache.evict(user.getId(), user.getEmail());
+        userRepository.delete(user);
+        statsCounterService.userDeleted(user.getRole());
+        tokenService.revokeAllForUser(user.getId());
     }
     
-    private UserResponseDTO convertToDTO(User user) {
+    static UserResponseDTO convertToDTO(User user) {
         return new UserResponseDTO(
                 user.getId(),
                 user.getFullName(),
@@ -121,5 +283,29 @@ public class UserService {
                 user.getAddress()
         );
     }
+    
+    private static boolean isAdmin(@Nullable AuthenticatedUser caller) {
+        return caller != null && caller.role() == User.Role.ADMIN;
+    }
+    
+    private int resolvePageSize(Integer limit) {
+        if (limit == null) {
+            return DEFAULT_PAGE_SIZE;
+        }
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("limit must be between 1 and " + MAX_PAGE_SIZE);
+        }
+        return limit;
+    }
+    
+    private Long decodeCursor(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return 0L;
+        }
+        try {
+            return Long.parseLong(cursor);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+    }
 }
-
@@ -0,0 +1,285 @@
+package com.healthrecords.service;
+
+import com.healthrecords.dto.VisitEventDTO;
+import com.healthrecords.dto.VisitResponseDTO;
+import com.healthrecords.entity.Visit;
+import com.healthrecords.entity.VisitChange;
+import com.healthrecords.events.VisitEventBus;
+import com.healthrecords.repository.VisitChangeRepository;
+import com.healthrecords.repository.VisitRepository;
+import com.healthrecords.sharding.ShardedVisitStore;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.lang.Nullable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Live visit events. Creates and deletes are recorded in the visit_changes table within their own
+ * transaction; each instance polls the table and hands new rows to its {@link VisitEventBus}, so a
+ * subscriber sees changes made through any instance. A commit on this instance wakes the poller at
+ * once, and other instances pick the change up within the poll interval. Created events carry the
+ * visit itself, read once per poll for all subscribers.
+ */
+@Service
+public class VisitEventService {
+    
+    private static final Logger log = LoggerFactory.getLogger(VisitEventService.class);
+    
+    private static final int POLL_LIMIT = 1000;
+    private static final int MAX_MISSED_EVENTS = 1000;
+    private static final String INSERT_CHANGE = "INSERT INTO visit_changes " +
+            "(type, visit_id, patient_id, doctor_id, visit_date, changed_at) VALUES (?, ?, ?, ?, ?, ?)";
+    
+    private final VisitChangeRepository changeRepository;
+    private final VisitRepository visitRepository;
+    // Only present when visits are sharded
+    private final ShardedVisitStore shardedVisits;
+    private final JdbcTemplate jdbcTemplate;
+    private final VisitEventBus eventBus;
+    private final long pollIntervalMillis;
+    private final long gapWindowMillis;
+    private final Duration retention;
+    private final Object pollSignal = new Object();
+    private final Thread poller;
+    private boolean pollRequested;
+    private volatile boolean running = true;
+    
+    // Poller state. Identity ids are handed out at insert time but become visible at commit, so a
+    // change can appear behind ids already published; ids above floor are remembered for a while
+    // to catch those without publishing anything twice
+    private Long floor;
+    private long newest;
+    private final TreeMap<Long, Long> recent = new TreeMap<>();
+    
+    public VisitEventService(VisitChangeRepository changeRepository, VisitRepository visitRepository,
+                             @Nullable ShardedVisitStore shardedVisits, DataSource dataSource, MeterRegistry meterRegistry,
+                             @Value("${healthrecords.events.poll-interval-ms:500}") long pollIntervalMillis,
+                             @Value("${healthrecords.events.gap-window-ms:10000}") long gapWindowMillis,
+                             @Value("${healthrecords.events.retention:1h}") Duration retention,
+                             @Value("${healthrecords.events.sender-threads:4}") int senderThreads,
+                             @Value("${healthrecords.events.buffer-size:256}") int bufferSize,
+                             @Value("${healthrecords.events.timeout-ms:1800000}") long timeoutMillis) {
+        this.changeRepository = changeRepository;
+        this.visitRepository = visitRepository;
+        this.shardedVisits = shardedVisits;
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.eventBus = new VisitEventBus(senderThreads, bufferSize, timeoutMillis);
+        this.pollIntervalMillis = pollIntervalMillis;
+        this.gapWindowMillis = gapWindowMillis;
+        this.retention = retention;
+        Gauge.builder("healthrecords.visit.events.subscribers", eventBus, VisitEventBus::subscriberCount)
+                .description("Open visit event streams on this instance")
+                .register(meterRegistry);
+        this.poller = new Thread(this::pollLoop, "visit-change-poller");
+        this.poller.setDaemon(true);
+        this.poller.start();
+    }
+    
+    /**
+     * Opens an event stream for one doctor or one patient. With {@code lastEventId}, the changes since
+     * that event are sent first, or a reset event when they have already been purged.
+     */
+    public SseEmitter subscribe(Long doctorId, Long patientId, Long lastEventId) {
+        if ((doctorId == null) == (patientId == null)) {
+            throw new IllegalArgumentException("Subscribe to either a doctorId or a patientId");
+        }
+        if (lastEventId == null) {
+            return eventBus.subscribe(doctorId, patientId, null);
+        }
+        return eventBus.subscribe(doctorId, patientId, () -> findMissed(doctorId, patientId, lastEventId));
+    }
+    
+    // Called within the creating transaction; the rows commit or roll back with the visits
+    public void visitsCreated(Collection<Visit> visits) {
+        List<Object[]> rows = new ArrayList<>(visits.size());
+        Timestamp changedAt = Timestamp.from(Instant.now());
+        for (Visit visit : visits) {
+            rows.add(row(VisitChange.Type.CREATED, visit.getId(), visit.getPatient().getId(), visit.getDoctor().getId(),
+                    visit.getVisitDate(), changedAt));
+        }
+        record(rows);
+    }
+    
+    public void visitDeleted(Long visitId, Long patientId, Long doctorId, LocalDateTime visitDate) {
+        List<Object[]> rows = new ArrayList<>(1);
+        rows.add(row(VisitChange.Type.DELETED, visitId, patientId, doctorId, visitDate, Timestamp.from(Instant.now())));
+        record(rows);
+    }
+    
+    @Scheduled(fixedDelayString = "${healthrecords.events.heartbeat-interval-ms:15000}")
+    public void heartbeat() {
+        eventBus.heartbeat();
+    }
+    
+    @Scheduled(fixedDelayString = "${healthrecords.events.purge-interval-ms:300000}")
+    @Transactional
+    public void purge() {
+        int purged = changeRepository.deleteChangedBefore(Instant.now().minus(retention));
+        if (purged > 0) {
+            log.debug("Purged {} visit changes", purged);
+        }
+    }
+    
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        running = false;
+        synchronized (pollSignal) {
+            pollSignal.notifyAll();
+        }
+        poller.join();
+        eventBus.close();
+    }
+    
+    private void record(List<Object[]> rows) {
+        jdbcTemplate.batchUpdate(INSERT_CHANGE, rows);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    pollNow();
+                }
+            });
+        } else {
+            pollNow();
+        }
+    }
+    
+    private static Object[] row(VisitChange.Type type, Long visitId, Long patientId, Long doctorId, LocalDateTime visitDate,
+                                Timestamp changedAt) {
+        return new Object[]{type.name(), visitId, patientId, doctorId, Timestamp.valueOf(visitDate), changedAt};
+    }
+    
+    private void pollNow() {
+        synchronized (pollSignal) {
+            pollRequested = true;
+            pollSignal.notifyAll();
+        }
+    }
+    
+    private void pollLoop() {
+        while (running) {
+            try {
+                poll();
+            } catch (RuntimeException e) {
+                log.warn("Could not poll visit changes: {}", e.toString());
+            }
+            synchronized (pollSignal) {
+                if (!pollRequested && running) {
+                    try {
+                        pollSignal.wait(pollIntervalMillis);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                pollRequested = false;
+            }
+        }
+    }
+    
+    private void poll() {
+        if (eventBus.subscriberCount() == 0) {
+            // Nobody is listening; start from the latest change when somebody subscribes
+            floor = null;
+            recent.clear();
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (floor == null) {
+            Long maxId = changeRepository.findMaxId();
+            floor = maxId != null ? maxId : 0L;
+            newest = floor;
+        }
+        List<VisitChange> changes = new ArrayList<>();
+        // Changes that committed after higher ids were published
+        if (newest > floor && changeRepository.countByIdBetween(floor + 1, newest) > recent.size()) {
+            for (VisitChange change : changeRepository.findByIdBetweenOrderByIdAsc(floor + 1, newest)) {
+                if (!recent.containsKey(change.getId())) {
+                    changes.add(change);
+                }
+            }
+        }
+        List<VisitChange> fresh;
+        do {
+            fresh = changeRepository.findByIdGreaterThanOrderByIdAsc(newest, Limit.of(POLL_LIMIT));
+            changes.addAll(fresh);
+            if (!fresh.isEmpty()) {
+                newest = fresh.get(fresh.size() - 1).getId();
+            }
+        } while (fresh.size() == POLL_LIMIT);
+        
+        for (VisitChange change : changes) {
+            recent.put(change.getId(), now);
+        }
+        if (!changes.isEmpty()) {
+            eventBus.publish(toEvents(changes));
+        }
+        // Give up waiting on ids below changes published longer than the gap window ago
+        while (!recent.isEmpty() && recent.firstEntry().getValue() < now - gapWindowMillis) {
+            floor = recent.pollFirstEntry().getKey();
+        }
+    }
+    
+    private List<VisitEventDTO> findMissed(Long doctorId, Long patientId, long lastEventId) {
+        Long minId = changeRepository.findMinId();
+        if (minId == null || lastEventId + 1 < minId) {
+            return null;
+        }
+        List<VisitChange> changes = doctorId != null
+                ? changeRepository.findByDoctorIdAndIdGreaterThanOrderByIdAsc(doctorId, lastEventId, Limit.of(MAX_MISSED_EVENTS + 1))
+                : changeRepository.findByPatientIdAndIdGreaterThanOrderByIdAsc(patientId, lastEventId, Limit.of(MAX_MISSED_EVENTS + 1));
+        // Reloading the list is cheaper than replaying this many events
+        if (changes.size() > MAX_MISSED_EVENTS) {
+            return null;
+        }
+        return toEvents(changes);
+    }
+    
+    private List<VisitEventDTO> toEvents(List<VisitChange> changes) {
+        List<Long> created = changes.stream()
+                .filter(change -> change.getType() == VisitChange.Type.CREATED)
+                .map(VisitChange::getVisitId)
+                .toList();
+        Map<Long, VisitResponseDTO> visits = new HashMap<>();
+        for (int from = 0; from < created.size(); from += POLL_LIMIT) {
+            List<Long> ids = created.subList(from, Math.min(from + POLL_LIMIT, created.size()));
+            (shardedVisits != null ? shardedVisits.findDtosByIdIn(ids) : visitRepository.findDtosByIdIn(ids))
+                    .forEach(visit -> visits.put(visit.getId(), visit));
+        }
+        // A visit deleted again before it was read goes out without its body; its delete event follows
+        return changes.stream().map(change -> {
+            VisitEventDTO event = toDTO(change);
+            if (change.getType() == VisitChange.Type.CREATED) {
+                event.setVisit(visits.get(change.getVisitId()));
+            }
+            return event;
+        }).toList();
+    }
+    
+    private static VisitEventDTO toDTO(VisitChange change) {
+        return new VisitEventDTO(change.getId(), VisitEventDTO.Type.valueOf(change.getType().name()), change.getVisitId(),
+                change.getPatientId(), change.getDoctorId(), change.getVisitDate());
+    }
+}
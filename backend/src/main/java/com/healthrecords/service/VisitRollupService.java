@@ -0,0 +1,256 @@
+package com.healthrecords.service;
+
+import com.healthrecords.archive.VisitArchive;
+import com.healthrecords.cache.BoundedTtlCache;
+import com.healthrecords.dto.DoctorVisitCountDTO;
+import com.healthrecords.dto.VisitRollupDTO;
+import com.healthrecords.entity.VisitRollup;
+import com.healthrecords.entity.VisitRollupDelta;
+import com.healthrecords.repository.VisitRepository;
+import com.healthrecords.repository.VisitRollupDeltaRepository;
+import com.healthrecords.repository.VisitRollupRepository;
+import com.healthrecords.sharding.ShardedVisitStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Limit;
+import org.springframework.lang.Nullable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Keeps per-doctor visit counts for each day, week and month in visit_rollups so analytics
+ * queries read a few pre-aggregated rows instead of scanning the visits table. Visit writes append
+ * their changes to visit_rollup_deltas, which are folded into the rollups every second.
+ */
+@Service
+public class VisitRollupService {
+    
+    private static final Logger log = LoggerFactory.getLogger(VisitRollupService.class);
+    private static final long MAX_RANGE_DAYS = 3660;
+    private static final int FLUSH_BATCH_SIZE = 1000;
+    // Sorted so that concurrent folds update the rollups in the same order
+    private static final Comparator<RollupKey> KEY_ORDER = Comparator.comparing(RollupKey::doctorId)
+            .thenComparing(RollupKey::granularity).thenComparing(RollupKey::periodStart);
+    
+    private final VisitRollupRepository rollupRepository;
+    private final VisitRollupDeltaRepository deltaRepository;
+    private final VisitRepository visitRepository;
+    private final ShardedVisitStore shardedVisits;
+    private final VisitArchive visitArchive;
+    private final TransactionTemplate newTransaction;
+    // Read-write so the snapshot is taken on the primary
+    private final TransactionTemplate snapshotTransaction;
+    // Rollup rows are never deleted, so once seen a row can be updated without checking for it
+    private final BoundedTtlCache<RollupKey, Boolean> knownRollups = new BoundedTtlCache<>(100_000, 24 * 60 * 60 * 1000L);
+    
+    public VisitRollupService(VisitRollupRepository rollupRepository, VisitRollupDeltaRepository deltaRepository,
+                              VisitRepository visitRepository, @Nullable ShardedVisitStore shardedVisits,
+                              @Nullable VisitArchive visitArchive, PlatformTransactionManager transactionManager) {
+        this.rollupRepository = rollupRepository;
+        this.deltaRepository = deltaRepository;
+        this.visitRepository = visitRepository;
+        this.shardedVisits = shardedVisits;
+        this.visitArchive = visitArchive;
+        this.newTransaction = new TransactionTemplate(transactionManager);
+        this.newTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.snapshotTransaction = new TransactionTemplate(transactionManager);
+        this.snapshotTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.snapshotTransaction.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+    }
+    
+    @Transactional
+    public void visitCreated(Long doctorId, LocalDateTime visitDate) {
+        visitsChanged(Map.of(doctorId, List.of(visitDate)), 1);
+    }
+    
+    @Transactional
+    public void visitDeleted(Long doctorId, LocalDateTime visitDate) {
+        visitsChanged(Map.of(doctorId, List.of(visitDate)), -1);
+    }
+    
+    @Transactional
+    public void visitsCreated(Map<Long, List<LocalDateTime>> visitDatesByDoctor) {
+        visitsChanged(visitDatesByDoctor, 1);
+    }
+    
+    /**
+     * Visit counts per period, for one doctor or summed over all doctors when doctorId is null.
+     */
+    @Transactional(readOnly = true)
+    public List<VisitRollupDTO> getVisitSeries(String granularityName, LocalDate from, LocalDate to, Long doctorId) {
+        VisitRollup.Granularity granularity = VisitRollup.Granularity.valueOf(granularityName.toUpperCase());
+        validateRange(from, to);
+        LocalDate start = granularity.periodStart(from);
+        if (doctorId != null) {
+            return rollupRepository.findSeriesByDoctor(doctorId, granularity, start, to);
+        }
+        return rollupRepository.findSeries(granularity, start, to);
+    }
+    
+    @Transactional(readOnly = true)
+    public List<DoctorVisitCountDTO> getDoctorTotals(LocalDate from, LocalDate to) {
+        validateRange(from, to);
+        // Day rows are used so the totals match the requested range exactly
+        return rollupRepository.findDoctorTotals(VisitRollup.Granularity.DAY, from, to);
+    }
+    
+    /**
+     * Folds pending deltas into the rollups in short batches; see {@link StatsCounterService#flush()}.
+     */
+    @Scheduled(fixedDelayString = "${healthrecords.analytics.flush-interval-ms:1000}")
+    public void flush() {
+        Integer folded;
+        do {
+            folded = newTransaction.execute(status -> flushBatch());
+        } while (folded != null && folded == FLUSH_BATCH_SIZE);
+    }
+    
+    /**
+     * Checks the rollups against the visits table and the archive one doctor at a time, and appends the
+     * difference of each rollup that is off as a delta. A doctor's visit counts, rollups and pending
+     * deltas are read in one snapshot, so visits written meanwhile are neither lost nor counted twice.
+     */
+    @Scheduled(cron = "${healthrecords.analytics.backfill-cron:0 30 2 * * *}")
+    public int backfill() {
+        Set<Long> doctorIds = new TreeSet<>(shardedVisits != null
+                ? shardedVisits.findDistinctDoctorIds() : visitRepository.findDistinctDoctorIds());
+        doctorIds.addAll(rollupRepository.findDistinctDoctorIds());
+        doctorIds.addAll(deltaRepository.findDistinctDoctorIds());
+        if (visitArchive != null) {
+            doctorIds.addAll(visitArchive.doctorIds());
+        }
+        int drifted = 0;
+        for (Long doctorId : doctorIds) {
+            Map<RollupKey, Long> drift = snapshotTransaction.execute(status -> computeDrift(doctorId));
+            // Each difference is appended in its own short transaction and folded like any other delta
+            drift.forEach((key, delta) -> newTransaction.executeWithoutResult(status -> record(Map.of(key, delta))));
+            drifted += drift.size();
+        }
+        log.info("Backfilled visit rollups for {} doctors ({} rows corrected)", doctorIds.size(), drifted);
+        return drifted;
+    }
+    
+    private Map<RollupKey, Long> computeDrift(Long doctorId) {
+        Map<RollupKey, Long> actual = new HashMap<>();
+        List<VisitRepository.DayCountView> dayCounts = shardedVisits != null
+                ? shardedVisits.countGroupByDayForDoctor(doctorId) : visitRepository.countGroupByDayForDoctor(doctorId);
+        for (VisitRepository.DayCountView count : dayCounts) {
+            for (VisitRollup.Granularity granularity : VisitRollup.Granularity.values()) {
+                actual.merge(new RollupKey(doctorId, granularity, granularity.periodStart(count.getDay())),
+                        count.getCount(), Long::sum);
+            }
+        }
+        // Archived visits keep their place in the rollups
+        if (visitArchive != null) {
+            visitArchive.countGroupByDayForDoctor(doctorId).forEach((day, count) -> {
+                for (VisitRollup.Granularity granularity : VisitRollup.Granularity.values()) {
+                    actual.merge(new RollupKey(doctorId, granularity, granularity.periodStart(day)), count, Long::sum);
+                }
+            });
+        }
+        
+        Map<RollupKey, Long> recorded = new HashMap<>();
+        for (VisitRollup rollup : rollupRepository.findByDoctorId(doctorId)) {
+            recorded.put(new RollupKey(doctorId, rollup.getGranularity(), rollup.getPeriodStart()), rollup.getVisitCount());
+        }
+        for (VisitRollupDelta delta : deltaRepository.findByDoctorId(doctorId)) {
+            recorded.merge(new RollupKey(doctorId, delta.getGranularity(), delta.getPeriodStart()), delta.getDelta(), Long::sum);
+        }
+        Map<RollupKey, Long> drift = new TreeMap<>(KEY_ORDER);
+        recorded.forEach((key, value) -> actual.putIfAbsent(key, 0L));
+        actual.forEach((key, value) -> {
+            long difference = value - recorded.getOrDefault(key, 0L);
+            if (difference != 0) {
+                drift.put(key, difference);
+            }
+        });
+        return drift;
+    }
+    
+    private int flushBatch() {
+        List<VisitRollupDelta> pending = deltaRepository.findByOrderByIdAsc(Limit.of(FLUSH_BATCH_SIZE));
+        if (pending.isEmpty()) {
+            return 0;
+        }
+        Map<RollupKey, Long> totals = new TreeMap<>(KEY_ORDER);
+        for (VisitRollupDelta delta : pending) {
+            totals.merge(new RollupKey(delta.getDoctorId(), delta.getGranularity(), delta.getPeriodStart()),
+                    delta.getDelta(), Long::sum);
+        }
+        totals.forEach((key, delta) -> {
+            if (delta != 0) {
+                ensureExists(key);
+                rollupRepository.increment(key.doctorId(), key.granularity(), key.periodStart(), delta);
+            }
+        });
+        deltaRepository.deleteAllInBatch(pending);
+        return pending.size();
+    }
+    
+    private void visitsChanged(Map<Long, List<LocalDateTime>> visitDatesByDoctor, long sign) {
+        Map<RollupKey, Long> deltas = new HashMap<>();
+        visitDatesByDoctor.forEach((doctorId, visitDates) -> {
+            for (LocalDateTime visitDate : visitDates) {
+                for (VisitRollup.Granularity granularity : VisitRollup.Granularity.values()) {
+                    deltas.merge(new RollupKey(doctorId, granularity, granularity.periodStart(visitDate.toLocalDate())),
+                            sign, Long::sum);
+                }
+            }
+        });
+        record(deltas);
+    }
+    
+    private void record(Map<RollupKey, Long> deltas) {
+        List<VisitRollupDelta> rows = new ArrayList<>(deltas.size());
+        deltas.forEach((key, delta) -> rows.add(new VisitRollupDelta(key.doctorId(), key.granularity(), key.periodStart(), delta)));
+        deltaRepository.saveAll(rows);
+    }
+    
+    // Same approach as the statistics counters: create missing rows in a separate transaction before the fold updates them
+    private void ensureExists(RollupKey key) {
+        if (knownRollups.get(key) != null) {
+            return;
+        }
+        if (!rollupRepository.existsByDoctorIdAndGranularityAndPeriodStart(key.doctorId(), key.granularity(), key.periodStart())) {
+            try {
+                newTransaction.executeWithoutResult(status -> {
+                    if (!rollupRepository.existsByDoctorIdAndGranularityAndPeriodStart(key.doctorId(), key.granularity(), key.periodStart())) {
+                        rollupRepository.saveAndFlush(new VisitRollup(key.doctorId(), key.granularity(), key.periodStart(), 0));
+                    }
+                });
+            } catch (DataIntegrityViolationException e) {
+                log.debug("Rollup {} was created concurrently", key);
+            }
+        }
+        knownRollups.put(key, Boolean.TRUE);
+    }
+    
+    private void validateRange(LocalDate from, LocalDate to) {
+        if (from.isAfter(to)) {
+            throw new IllegalArgumentException("from must not be after to");
+        }
+        if (ChronoUnit.DAYS.between(from, to) > MAX_RANGE_DAYS) {
+            throw new IllegalArgumentException("Date range must not exceed " + MAX_RANGE_DAYS + " days");
+        }
+    }
+    
+    private record RollupKey(Long doctorId, VisitRollup.Granularity granularity, LocalDate periodStart) {
+    }
+}
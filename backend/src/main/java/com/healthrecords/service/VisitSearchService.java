@@ -0,0 +1,302 @@
+package com.healthrecords.service;
+
+import com.healthrecords.dto.VisitResponseDTO;
+import com.healthrecords.entity.Visit;
+import com.healthrecords.repository.VisitRepository;
+import com.healthrecords.search.SearchDocument;
+import com.healthrecords.search.SearchFilter;
+import com.healthrecords.search.VisitSearchIndex;
+import com.healthrecords.sharding.ShardedVisitStore;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.Nullable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Full-text search over visit text. The index lives in memory, is updated after each committed
+ * visit write, and is snapshotted to local disk so a restart only has to catch up on the visits
+ * that changed since the last snapshot. Each instance keeps its own index; the periodic sync picks
+ * up visits written through other instances.
+ */
+@Service
+public class VisitSearchService {
+    
+    private static final Logger log = LoggerFactory.getLogger(VisitSearchService.class);
+    
+    private static final int DEFAULT_LIMIT = 20;
+    private static final int MAX_LIMIT = 200;
+    private static final int SYNC_FETCH_SIZE = 500;
+    private static final String SNAPSHOT_FILE = "visits.idx";
+    
+    private final VisitRepository visitRepository;
+    private final ShardedVisitStore shardedVisits;
+    private final TransactionTemplate readOnlyTransaction;
+    private final Path indexDir;
+    private final ReentrantLock syncLock = new ReentrantLock();
+    
+    private volatile VisitSearchIndex index = new VisitSearchIndex();
+    private volatile boolean loaded;
+    private volatile boolean dirty;
+    
+    public VisitSearchService(VisitRepository visitRepository, @Nullable ShardedVisitStore shardedVisits,
+                              PlatformTransactionManager transactionManager,
+                              @Value("${healthrecords.search.index-dir:data/search-index}") String indexDir) {
+        this.visitRepository = visitRepository;
+        this.shardedVisits = shardedVisits;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.indexDir = Paths.get(indexDir);
+    }
+    
+    public List<VisitResponseDTO> search(String query, Long doctorId, Long patientId,
+                                         LocalDateTime from, LocalDateTime to, Integer limit) {
+        if (query == null || query.isBlank()) {
+            throw new IllegalArgumentException("Search query must not be empty");
+        }
+        int maxResults = limit == null ? DEFAULT_LIMIT : limit;
+        if (maxResults < 1 || maxResults > MAX_LIMIT) {
+            throw new IllegalArgumentException("limit must be between 1 and " + MAX_LIMIT);
+        }
+        
+        List<VisitSearchIndex.Hit> hits = index.search(query, new SearchFilter(patientId, doctorId, from, to), maxResults);
+        if (hits.isEmpty()) {
+            return List.of();
+        }
+        List<Long> ids = hits.stream().map(VisitSearchIndex.Hit::visitId).toList();
+        List<VisitResponseDTO> visits = shardedVisits != null ? shardedVisits.findDtosByIdIn(ids) : visitRepository.findDtosByIdIn(ids);
+        Map<Long, VisitResponseDTO> visitsById = visits.stream()
+                .collect(Collectors.toMap(VisitResponseDTO::getId, Function.identity()));
+        // Keep the ranking; ids deleted since they were indexed are simply skipped
+        List<VisitResponseDTO> results = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            VisitResponseDTO visit = visitsById.get(id);
+            if (visit != null) {
+                results.add(visit);
+            }
+        }
+        return results;
+    }
+    
+    /**
+     * Indexes the visits once the surrounding transaction commits, so rolled back inserts never
+     * become searchable.
+     */
+    public void indexAfterCommit(Collection<Visit> visits) {
+        List<SearchDocument> documents = visits.stream().map(this::toDocument).toList();
+        runAfterCommit(() -> {
+            VisitSearchIndex current = index;
+            documents.forEach(current::add);
+            dirty = true;
+        });
+    }
+    
+    public void removeAfterCommit(Long visitId) {
+        runAfterCommit(() -> {
+            index.remove(visitId);
+            dirty = true;
+        });
+    }
+    
+    public int size() {
+        return index.size();
+    }
+    
+    /**
+     * Brings the index in line with the visits table: loads the disk snapshot on the first run,
+     * then adds visits missing from the index and drops ones that no longer exist.
+     */
+    @Scheduled(initialDelayString = "${healthrecords.search.sync-initial-delay-ms:0}",
+               fixedDelayString = "${healthrecords.search.sync-interval-ms:300000}")
+    public void synchronize() {
+        syncLock.lock();
+        try {
+            if (!loaded) {
+                loadSnapshot();
+                loaded = true;
+            }
+            VisitSearchIndex current = index;
+            long[] indexedIds = current.sortedVisitIds();
+            List<Long> missing = new ArrayList<>();
+            List<Long> stale = new ArrayList<>();
+            readOnlyTransaction.executeWithoutResult(status -> {
+                try (Stream<Long> ids = shardedVisits != null ? shardedVisits.streamIds() : visitRepository.streamIds()) {
+                    int i = 0;
+                    Iterator<Long> iterator = ids.iterator();
+                    while (iterator.hasNext()) {
+                        long id = iterator.next();
+                        while (i < indexedIds.length && indexedIds[i] < id) {
+                            stale.add(indexedIds[i++]);
+                        }
+                        if (i < indexedIds.length && indexedIds[i] == id) {
+                            i++;
+                        } else {
+                            missing.add(id);
+                        }
+                    }
+                    while (i < indexedIds.length) {
+                        stale.add(indexedIds[i++]);
+                    }
+                }
+                // Fetched after the id stream is closed so only one result set is open on the connection
+                for (int start = 0; start < missing.size(); start += SYNC_FETCH_SIZE) {
+                    addVisits(current, missing.subList(start, Math.min(start + SYNC_FETCH_SIZE, missing.size())));
+                }
+            });
+            int removed = removeStale(current, stale);
+            if (!missing.isEmpty() || removed > 0) {
+                dirty = true;
+            }
+            if (dirty) {
+                saveSnapshot();
+            }
+        } finally {
+            syncLock.unlock();
+        }
+    }
+    
+    /**
+     * Rebuilds the index from scratch by streaming every visit, then swaps it in.
+     */
+    public int rebuild() {
+        syncLock.lock();
+        try {
+            VisitSearchIndex rebuilt = new VisitSearchIndex();
+            readOnlyTransaction.executeWithoutResult(status -> {
+                try (Stream<VisitRepository.SearchTextView> rows = shardedVisits != null
+                        ? shardedVisits.streamSearchText() : visitRepository.streamSearchText()) {
+                    rows.forEach(row -> rebuilt.add(toDocument(row)));
+                }
+            });
+            index = rebuilt;
+            loaded = true;
+            dirty = true;
+            log.info("Rebuilt search index with {} visits", rebuilt.size());
+        } finally {
+            syncLock.unlock();
+        }
+        // Catch writes that landed in the old index while the rebuild was streaming
+        synchronize();
+        return index.size();
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        syncLock.lock();
+        try {
+            if (loaded && dirty) {
+                saveSnapshot();
+            }
+        } finally {
+            syncLock.unlock();
+        }
+    }
+    
+    private void addVisits(VisitSearchIndex target, List<Long> ids) {
+        List<VisitRepository.SearchTextView> rows = shardedVisits != null
+                ? shardedVisits.findSearchTextByIdIn(ids) : visitRepository.findSearchTextByIdIn(ids);
+        for (VisitRepository.SearchTextView row : rows) {
+            target.add(toDocument(row));
+        }
+    }
+    
+    // Ids that vanished from the stream may just have been inserted after it started, so re-check first
+    private int removeStale(VisitSearchIndex target, List<Long> stale) {
+        int removed = 0;
+        for (int start = 0; start < stale.size(); start += SYNC_FETCH_SIZE) {
+            List<Long> chunk = stale.subList(start, Math.min(start + SYNC_FETCH_SIZE, stale.size()));
+            List<Long> existing = shardedVisits != null ? shardedVisits.findExistingIds(chunk) : visitRepository.findExistingIds(chunk);
+            for (Long id : chunk) {
+                if (!existing.contains(id)) {
+                    target.remove(id);
+                    removed++;
+                }
+            }
+        }
+        return removed;
+    }
+    
+    private void loadSnapshot() {
+        Path file = indexDir.resolve(SNAPSHOT_FILE);
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file))))) {
+            index = VisitSearchIndex.readFrom(in);
+            log.info("Loaded search index snapshot with {} visits", index.size());
+        } catch (IOException e) {
+            // A corrupt or outdated snapshot is not fatal; the sync rebuilds the index from the table
+            log.warn("Could not load search index snapshot {}, rebuilding from the database", file, e);
+            index = new VisitSearchIndex();
+        }
+    }
+    
+    private void saveSnapshot() {
+        Path file = indexDir.resolve(SNAPSHOT_FILE);
+        try {
+            Files.createDirectories(indexDir);
+            Path temp = indexDir.resolve(SNAPSHOT_FILE + ".tmp");
+            dirty = false;
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(temp))))) {
+                index.writeTo(out);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            dirty = true;
+            log.warn("Could not write search index snapshot {}", file, e);
+        }
+    }
+    
+    private void runAfterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+    
+    private SearchDocument toDocument(Visit visit) {
+        return SearchDocument.of(visit.getId(), visit.getPatient().getId(), visit.getDoctor().getId(), visit.getVisitDate(),
+                visit.getReasonForVisit(), visit.getSymptoms(), visit.getDiagnosis(), visit.getPrescribedMedicines(),
+                visit.getNotes());
+    }
+    
+    private SearchDocument toDocument(VisitRepository.SearchTextView row) {
+        return SearchDocument.of(row.getId(), row.getPatientId(), row.getDoctorId(), row.getVisitDate(),
+                row.getReasonForVisit(), row.getSymptoms(), row.getDiagnosis(), row.getPrescribedMedicines(),
+                row.getNotes());
+    }
+}
@@ -1,96 +1,626 @@
 package com.healthrecords.service;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.healthrecords.archive.VisitArchive;
+import com.healthrecords.cache.UserCache;
+import com.healthrecords.dto.CursorPageDTO;
+import com.healthrecords.dto.VisitBatchItemResultDTO;
+import com.healthrecords.dto.VisitBatchResponseDTO;
 import com.healthrecords.dto.VisitRequestDTO;
 import com.healthrecords.dto.VisitResponseDTO;
+import com.healthrecords.dto.VitalsTrendDTO;
 import com.healthrecords.entity.User;
 import com.healthrecords.entity.Visit;
 import com.healthrecords.exception.ResourceNotFoundException;
 import com.healthrecords.repository.UserRepository;
+import com.healthrecords.repository.VisitField;
 import com.healthrecords.repository.VisitRepository;
+import com.healthrecords.sharding.ShardedVisitStore;
+import jakarta.persistence.EntityManager;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.exception.ConstraintViolationException;
+import org.hibernate.id.IdentifierGenerator;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Limit;
+import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 public class VisitService {
     
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 500;
+    private static final int EXPORT_CLEAR_INTERVAL = 1000;
+    private static final int MAX_BATCH_SIZE = 5000;
+    // Matches hibernate.jdbc.batch_size so each flush sends full JDBC batches
+    private static final int BATCH_FLUSH_SIZE = 50;
+    
     private final VisitRepository visitRepository;
     private final UserRepository userRepository;
+    private final UserCache userCache;
+    private final StatsCounterService statsCounterService;
+    private final VisitRollupService visitRollupService;
+    private final VisitSearchService visitSearchService;
+    private final VisitEventService visitEventService;
+    // Set when visits are sharded across databases; visits are then read and written through it
+    private final ShardedVisitStore shardedVisits;
+    // Set when old visits are archived; visits missing from the table may be found there
+    private final VisitArchive visitArchive;
+    private final EntityManager entityManager;
+    private final ObjectMapper objectMapper;
+    private final Validator validator;
     
-    public VisitService(VisitRepository visitRepository, UserRepository userRepository) {
+    public VisitService(VisitRepository visitRepository, UserRepository userRepository, UserCache userCache,
+                        StatsCounterService statsCounterService, VisitRollupService visitRollupService,
+                        VisitSearchService visitSearchService, VisitEventService visitEventService,
+                        @Nullable ShardedVisitStore shardedVisits, @Nullable VisitArchive visitArchive,
+                        EntityManager entityManager, ObjectMapper objectMapper, Validator validator) {
         this.visitRepository = visitRepository;
         this.userRepository = userRepository;
+        this.userCache = userCache;
+        this.statsCounterService = statsCounterService;
+        this.visitRollupService = visitRollupService;
+        this.visitSearchService = visitSearchService;
+        this.visitEventService = visitEventService;
+        this.shardedVisits = shardedVisits;
+        this.visitArchive = visitArchive;
+        this.entityManager = entityManager;
+        this.objectMapper = objectMapper;
+        this.validator = validator;
     }
     
+    @Transactional
     public VisitResponseDTO createVisit(VisitRequestDTO visitRequest) {
-        User patient = userRepository.findById(visitRequest.getPatientId())
+        User patient = userCache.findById(visitRequest.getPatientId())
                 .orElseThrow(() -> new ResourceNotFoundException("Patient not found with id: " + visitRequest.getPatientId()));
         
-        User doctor = userRepository.findById(visitRequest.getDoctorId())
+        User doctor = userCache.findById(visitRequest.getDoctorId())
                 .orElseThrow(() -> new ResourceNotFoundException("Doctor not found with id: " + visitRequest.getDoctorId()));
         
-        // Check if a visit with the same patient, doctor, and date already exists
-        if (visitRepository.findByPatientIdAndDoctorIdAndVisitDate(
-                visitRequest.getPatientId(), 
-                visitRequest.getDoctorId(), 
-                visitRequest.getVisitDate()).isPresent()) {
+        // The unique key only covers the visits table
+        if (isArchivedVisit(new VisitKey(patient.getId(), doctor.getId(), visitRequest.getVisitDate()))) {
             throw new com.healthrecords.exception.DuplicateResourceException(
                 "A visit already exists for this patient with this doctor at the same date and time.");
         }
+        Visit visit = toEntity(visitRequest, patient, doctor);
+        Visit savedVisit;
+        try {
+            if (shardedVisits != null) {
+                visit.setId(nextVisitId(visit));
+                shardedVisits.insertAll(List.of(visit));
+                savedVisit = visit;
+            } else {
+                savedVisit = visitRepository.saveAndFlush(visit);
+            }
+        } catch (DataIntegrityViolationException e) {
+            // The unique key on (patient, doctor, date) replaces a racy check-then-insert lookup
+            if (isDuplicateVisit(e)) {
+                throw new com.healthrecords.exception.DuplicateResourceException(
+                    "A visit already exists for this patient with this doctor at the same date and time.");
+            }
+            throw e;
+        }
+        statsCounterService.visitCreated(doctor.getId(), savedVisit.getVisitDate());
+        visitRollupService.visitCreated(doctor.getId(), savedVisit.getVisitDate());
+        visitSearchService.indexAfterCommit(List.of(savedVisit));
+        visitEventService.visitsCreated(List.of(savedVisit));
+        return convertToDTO(savedVisit);
+    }
+    
+    /**
+     * Creates many visits in one transaction. Referenced users and duplicates are resolved with one query each,
+     * and inserts go out as JDBC batches. Items that fail validation are reported and skipped, not rejected as a whole.
+     */
+    @Transactional
+    public VisitBatchResponseDTO createVisitsBatch(List<VisitRequestDTO> visitRequests) {
+        if (visitRequests.isEmpty() || visitRequests.size() > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("Batch must contain between 1 and " + MAX_BATCH_SIZE + " visits");
+        }
         
-        Visit visit = new Visit();
-        visit.setPatient(patient);
-        visit.setDoctor(doctor);
-        visit.setVisitDate(visitRequest.getVisitDate());
-        visit.setReasonForVisit(visitRequest.getReasonForVisit());
-        visit.setSymptoms(visitRequest.getSymptoms());
-        visit.setDiagnosis(visitRequest.getDiagnosis());
-        visit.setPrescribedMedicines(visitRequest.getPrescribedMedicines());
-        visit.setHeightCm(visitRequest.getHeightCm());
-        visit.setWeightKg(visitRequest.getWeightKg());
-        visit.setBloodPressure(visitRequest.getBloodPressure());
-        visit.setPulse(visitRequest.getPulse());
-        visit.setTemperature(visitRequest.getTemperature());
-        visit.setNotes(visitRequest.getNotes());
+        VisitBatchItemResultDTO[] results = new VisitBatchItemResultDTO[visitRequests.size()];
+        Set<Long> userIds = new HashSet<>();
+        for (int i = 0; i < visitRequests.size(); i++) {
+            VisitRequestDTO visitRequest = visitRequests.get(i);
+            if (visitRequest == null) {
+                results[i] = new VisitBatchItemResultDTO(i, VisitBatchItemResultDTO.Status.INVALID, null, "Visit is required");
+                continue;
+            }
+            Set<ConstraintViolation<VisitRequestDTO>> violations = validator.validate(visitRequest);
+            if (!violations.isEmpty()) {
+                String error = violations.stream()
+                        .map(ConstraintViolation::getMessage)
+                        .sorted()
+                        .collect(Collectors.joining("; "));
+                results[i] = new VisitBatchItemResultDTO(i, VisitBatchItemResultDTO.Status.INVALID, null, error);
+                continue;
+            }
+            userIds.add(visitRequest.getPatientId());
+            userIds.add(visitRequest.getDoctorId());
+        }
         
-        Visit savedVisit = visitRepository.save(visit);
-        return convertToDTO(savedVisit);
+        Set<Long> existingUserIds = userIds.isEmpty() ? Set.of() : new HashSet<>(userRepository.findExistingIds(userIds));
+        Set<Long> patientIds = new HashSet<>();
+        LocalDateTime from = null;
+        LocalDateTime to = null;
+        for (int i = 0; i < visitRequests.size(); i++) {
+            if (results[i] != null) {
+                continue;
+            }
+            VisitRequestDTO visitRequest = visitRequests.get(i);
+            if (!existingUserIds.contains(visitRequest.getPatientId())) {
+                results[i] = new VisitBatchItemResultDTO(i, VisitBatchItemResultDTO.Status.NOT_FOUND, null,
+                        "Patient not found with id: " + visitRequest.getPatientId());
+            } else if (!existingUserIds.contains(visitRequest.getDoctorId())) {
+                results[i] = new VisitBatchItemResultDTO(i, VisitBatchItemResultDTO.Status.NOT_FOUND, null,
+                        "Doctor not found with id: " + visitRequest.getDoctorId());
+            } else {
+                patientIds.add(visitRequest.getPatientId());
+                LocalDateTime visitDate = visitRequest.getVisitDate();
+                from = from == null || visitDate.isBefore(from) ? visitDate : from;
+                to = to == null || visitDate.isAfter(to) ? visitDate : to;
+            }
+        }
+        
+        Set<VisitKey> existingKeys = new HashSet<>();
+        if (!patientIds.isEmpty()) {
+            List<VisitRepository.VisitKeyView> keys = shardedVisits != null
+                    ? shardedVisits.findKeysByPatientIdsAndVisitDateBetween(patientIds, from, to)
+                    : visitRepository.findKeysByPatientIdsAndVisitDateBetween(patientIds, from, to);
+            for (VisitRepository.VisitKeyView key : keys) {
+                existingKeys.add(new VisitKey(key.getPatientId(), key.getDoctorId(), key.getVisitDate()));
+            }
+            if (mayBeArchived(from)) {
+                for (Long patientId : patientIds) {
+                    for (VisitResponseDTO archived : visitArchive.findDtosByPatientId(patientId)) {
+                        existingKeys.add(new VisitKey(patientId, archived.getDoctorId(), archived.getVisitDate()));
+                    }
+                }
+            }
+        }
+        
+        List<Visit> createdVisits = new ArrayList<>();
+        Map<Long, List<LocalDateTime>> createdDatesByDoctor = new HashMap<>();
+        for (int i = 0; i < visitRequests.size(); i++) {
+            if (results[i] != null) {
+                continue;
+            }
+            VisitRequestDTO visitRequest = visitRequests.get(i);
+            // Adding to the set also catches duplicates within the batch itself
+            if (!existingKeys.add(new VisitKey(visitRequest.getPatientId(), visitRequest.getDoctorId(), visitRequest.getVisitDate()))) {
+                results[i] = new VisitBatchItemResultDTO(i, VisitBatchItemResultDTO.Status.DUPLICATE, null,
+                        "A visit already exists for this patient with this doctor at the same date and time.");
+                continue;
+            }
+            Visit visit = toEntity(visitRequest,
+                    entityManager.getReference(User.class, visitRequest.getPatientId()),
+                    entityManager.getReference(User.class, visitRequest.getDoctorId()));
+            if (shardedVisits != null) {
+                visit.setId(nextVisitId(visit));
+            } else {
+                entityManager.persist(visit);
+            }
+            results[i] = new VisitBatchItemResultDTO(i, VisitBatchItemResultDTO.Status.CREATED, visit.getId(), null);
+            createdDatesByDoctor.computeIfAbsent(visitRequest.getDoctorId(), doctorId -> new ArrayList<>())
+                    .add(visitRequest.getVisitDate());
+            createdVisits.add(visit);
+            if (shardedVisits == null && createdVisits.size() % BATCH_FLUSH_SIZE == 0) {
+                entityManager.flush();
+                entityManager.clear();
+            }
+        }
+        if (shardedVisits != null) {
+            shardedVisits.insertAll(createdVisits);
+        } else {
+            entityManager.flush();
+            entityManager.clear();
+        }
+        int created = createdVisits.size();
+        if (created > 0) {
+            statsCounterService.visitsCreated(createdDatesByDoctor);
+            visitRollupService.visitsCreated(createdDatesByDoctor);
+            visitSearchService.indexAfterCommit(createdVisits);
+            visitEventService.visitsCreated(createdVisits);
+        }
+        
+        return new VisitBatchResponseDTO(visitRequests.size(), created, visitRequests.size() - created, Arrays.asList(results));
     }
     
+    @Transactional(readOnly = true)
     public VisitResponseDTO getVisitById(Long id) {
-        Visit visit = visitRepository.findById(id)
-                .orElseThrow(() -> new ResourceNotFoundException("Visit not found with id: " + id));
-        return convertToDTO(visit);
+        Optional<VisitResponseDTO> visit = shardedVisits != null ? shardedVisits.findDtoById(id) : visitRepository.findDtoById(id);
+        if (visit.isEmpty() && visitArchive != null) {
+            visit = visitArchive.findDtoById(id);
+        }
+        return visit.orElseThrow(() -> new ResourceNotFoundException("Visit not found with id: " + id));
+    }
+    
+    /**
+     * Tag identifying the current response for a visit, or null when the visit does not exist or is
+     * archived. Read from version columns only, so unchanged visits can be answered without building the DTO.
+     */
+    @Transactional(readOnly = true)
+    public String getVisitETag(Long id) {
+        Optional<VisitRepository.VersionView> versions = shardedVisits != null
+                ? shardedVisits.findVersionsById(id) : visitRepository.findVersionsById(id);
+        return versions.map(view -> eTag(view.getVersion(), view.getPatientVersion(), view.getDoctorVersion()))
+                .orElse(null);
+    }
+    
+    @Transactional(readOnly = true)
+    public String getVisitsByPatientIdETag(Long patientId) {
+        return eTag(shardedVisits != null
+                ? shardedVisits.findListVersionByPatientId(patientId) : visitRepository.findListVersionByPatientId(patientId));
+    }
+    
+    @Transactional(readOnly = true)
+    public String getVisitsByDoctorIdETag(Long doctorId) {
+        return eTag(shardedVisits != null
+                ? shardedVisits.findListVersionByDoctorId(doctorId) : visitRepository.findListVersionByDoctorId(doctorId));
     }
     
+    @Transactional(readOnly = true)
     public List<VisitResponseDTO> getVisitsByPatientId(Long patientId) {
-        return visitRepository.findByPatientId(patientId).stream()
-                .map(this::convertToDTO)
-                .collect(Collectors.toList());
+        List<VisitResponseDTO> visits = shardedVisits != null
+                ? shardedVisits.findDtosByPatientId(patientId) : visitRepository.findDtosByPatientId(patientId);
+        if (visitArchive == null) {
+            return visits;
+        }
+        List<VisitResponseDTO> all = new ArrayList<>(visitArchive.findDtosByPatientId(patientId));
+        all.addAll(visits);
+        return all;
     }
     
+    @Transactional(readOnly = true)
     public List<VisitResponseDTO> getVisitsByDoctorId(Long doctorId) {
-        return visitRepository.findByDoctorId(doctorId).stream()
-                .map(this::convertToDTO)
-                .collect(Collectors.toList());
+        return shardedVisits != null ? shardedVisits.findDtosByDoctorId(doctorId) : visitRepository.findDtosByDoctorId(doctorId);
     }
     
+    @Transactional(readOnly = true)
     public List<VisitResponseDTO> getAllVisits() {
-        return visitRepository.findAll().stream()
-                .map(this::convertToDTO)
-                .collect(Collectors.toList());
+        return shardedVisits != null ? shardedVisits.findAllDtos() : visitRepository.findAllDtos();
+    }
+    
+    @Transactional(readOnly = true)
+    public CursorPageDTO<VisitResponseDTO> getAllVisitsPage(String after, Integer limit) {
+        int pageSize = resolvePageSize(limit);
+        if (shardedVisits != null) {
+            if (after == null || after.isEmpty()) {
+                return toPage(shardedVisits.findDtoPage(pageSize + 1), pageSize);
+            }
+            VisitCursor cursor = decodeCursor(after);
+            return toPage(shardedVisits.findDtoPageAfter(cursor.visitDate(), cursor.id(), pageSize + 1), pageSize);
+        }
+        if (after == null || after.isEmpty()) {
+            return toPage(visitRepository.findDtoPage(Limit.of(pageSize + 1)), pageSize);
+        }
+        VisitCursor cursor = decodeCursor(after);
+        return toPage(visitRepository.findDtoPageAfter(cursor.visitDate(), cursor.id(), Limit.of(pageSize + 1)), pageSize);
+    }
+    
+    @Transactional(readOnly = true)
+    public CursorPageDTO<VisitResponseDTO> getVisitsByPatientIdPage(Long patientId, String after, Integer limit) {
+        int pageSize = resolvePageSize(limit);
+        if (shardedVisits != null) {
+            if (after == null || after.isEmpty()) {
+                return toPage(shardedVisits.findDtoPageByPatientId(patientId, pageSize + 1), pageSize);
+            }
+            VisitCursor cursor = decodeCursor(after);
+            return toPage(shardedVisits.findDtoPageByPatientIdAfter(patientId, cursor.visitDate(), cursor.id(), pageSize + 1), pageSize);
+        }
+        if (after == null || after.isEmpty()) {
+            return toPage(withArchived(patientId, null, null,
+                    visitRepository.findDtoPageByPatientId(patientId, Limit.of(pageSize + 1)), pageSize + 1), pageSize);
+        }
+        VisitCursor cursor = decodeCursor(after);
+        return toPage(withArchived(patientId, cursor.visitDate(), cursor.id(),
+                visitRepository.findDtoPageByPatientIdAfter(patientId, cursor.visitDate(), cursor.id(), Limit.of(pageSize + 1)),
+                pageSize + 1), pageSize);
+    }
+    
+    @Transactional(readOnly = true)
+    public CursorPageDTO<VisitResponseDTO> getVisitsByDoctorIdPage(Long doctorId, String after, Integer limit) {
+        int pageSize = resolvePageSize(limit);
+        if (shardedVisits != null) {
+            if (after == null || after.isEmpty()) {
+                return toPage(shardedVisits.findDtoPageByDoctorId(doctorId, pageSize + 1), pageSize);
+            }
+            VisitCursor cursor = decodeCursor(after);
+            return toPage(shardedVisits.findDtoPageByDoctorIdAfter(doctorId, cursor.visitDate(), cursor.id(), pageSize + 1), pageSize);
+        }
+        if (after == null || after.isEmpty()) {
+            return toPage(visitRepository.findDtoPageByDoctorId(doctorId, Limit.of(pageSize + 1)), pageSize);
+        }
+        VisitCursor cursor = decodeCursor(after);
+        return toPage(visitRepository.findDtoPageByDoctorIdAfter(doctorId, cursor.visitDate(), cursor.id(), Limit.of(pageSize + 1)), pageSize);
+    }
+    
+    /**
+     * Visits of a patient, of a doctor or all visits with only the given fields read and set. Without
+     * {@code after} and {@code limit} the whole list is returned, otherwise a page of it.
+     */
+    @Transactional(readOnly = true)
+    public CursorPageDTO<VisitResponseDTO> getVisitFields(Set<VisitField> fields, Long patientId, Long doctorId,
+                                                          String after, Integer limit) {
+        boolean paged = after != null || limit != null;
+        int pageSize = paged ? resolvePageSize(limit) : -1;
+        VisitCursor cursor = after != null && !after.isEmpty() ? decodeCursor(after) : null;
+        LocalDateTime afterDate = cursor != null ? cursor.visitDate() : null;
+        Long afterId = cursor != null ? cursor.id() : null;
+        List<VisitResponseDTO> visits = shardedVisits != null
+                ? shardedVisits.findFields(fields, patientId, doctorId, afterDate, afterId, paged ? pageSize + 1 : -1)
+                : visitRepository.findFields(fields, patientId, doctorId, afterDate, afterId,
+                        paged ? Limit.of(pageSize + 1) : Limit.unlimited());
+        if (patientId != null) {
+            visits = withArchived(patientId, afterDate, afterId, visits, paged ? pageSize + 1 : -1);
+        }
+        CursorPageDTO<VisitResponseDTO> page = paged ? toPage(visits, pageSize) : new CursorPageDTO<>(visits, null);
+        // The cursor and the user names need a few fields that were not asked for
+        Set<VisitField> unselected = EnumSet.complementOf(EnumSet.copyOf(fields));
+        for (VisitResponseDTO visit : page.getItems()) {
+            unselected.forEach(field -> field.set(visit, null));
+        }
+        return page;
+    }
+    
+    /**
+     * Visits whose parsed blood pressure falls in the given ranges, newest first. The date range
+     * defaults to the last 30 days.
+     */
+    @Transactional(readOnly = true)
+    public List<VisitResponseDTO> getVisitsByBloodPressure(Integer systolicMin, Integer systolicMax,
+                                                           Integer diastolicMin, Integer diastolicMax,
+                                                           LocalDateTime from, LocalDateTime to, Integer limit) {
+        int pageSize = resolvePageSize(limit);
+        LocalDateTime end = to != null ? to : LocalDateTime.now();
+        LocalDateTime start = from != null ? from : end.minusDays(30);
+        int systolicLow = systolicMin != null ? systolicMin : 0;
+        int systolicHigh = systolicMax != null ? systolicMax : Integer.MAX_VALUE;
+        int diastolicLow = diastolicMin != null ? diastolicMin : 0;
+        int diastolicHigh = diastolicMax != null ? diastolicMax : Integer.MAX_VALUE;
+        if (shardedVisits != null) {
+            return shardedVisits.findDtosByBloodPressureRange(systolicLow, systolicHigh, diastolicLow, diastolicHigh,
+                    start, end, pageSize);
+        }
+        return visitRepository.findDtosByBloodPressureRange(systolicLow, systolicHigh, diastolicLow, diastolicHigh,
+                start, end, Limit.of(pageSize));
+    }
+    
+    @Transactional(readOnly = true)
+    public VitalsTrendDTO getVitalsTrend(Long patientId) {
+        List<VisitRepository.VitalsView> rows = shardedVisits != null
+                ? shardedVisits.findVitalsByPatientId(patientId) : visitRepository.findVitalsByPatientId(patientId);
+        VitalsTrendDTO trend = new VitalsTrendDTO(patientId, rows.size());
+        // Height is often only measured occasionally, so BMI uses the latest known height
+        Double lastHeightCm = null;
+        for (int i = 0; i < rows.size(); i++) {
+            VisitRepository.VitalsView row = rows.get(i);
+            Double heightCm = toDouble(row.getHeightCm());
+            Double weightKg = toDouble(row.getWeightKg());
+            if (heightCm != null && heightCm > 0) {
+                lastHeightCm = heightCm;
+            }
+            trend.getTimestamps()[i] = row.getVisitDate().toInstant(ZoneOffset.UTC).toEpochMilli();
+            trend.getHeightCm()[i] = heightCm;
+            trend.getWeightKg()[i] = weightKg;
+            trend.getBmi()[i] = weightKg == null || lastHeightCm == null
+                    ? null
+                    : Math.round(weightKg / Math.pow(lastHeightCm / 100, 2) * 10) / 10.0;
+            trend.getSystolic()[i] = toDouble(row.getSystolic());
+            trend.getDiastolic()[i] = toDouble(row.getDiastolic());
+            trend.getPulse()[i] = toDouble(row.getPulse());
+            trend.getTemperature()[i] = toDouble(row.getTemperature());
+        }
+        return trend;
+    }
+    
+    /**
+     * Writes visits as newline-delimited JSON, one row at a time, so memory use does not grow with table size.
+     */
+    @Transactional(readOnly = true)
+    public void exportVisits(Long doctorId, OutputStream outputStream) throws IOException {
+        if (shardedVisits != null) {
+            exportShardedVisits(doctorId, outputStream);
+            return;
+        }
+        try (Stream<Visit> visits = doctorId == null ? visitRepository.streamAll() : visitRepository.streamByDoctorId(doctorId);
+             SequenceWriter writer = exportWriter(outputStream)) {
+            Iterator<Visit> iterator = visits.iterator();
+            int written = 0;
+            while (iterator.hasNext()) {
+                Visit visit = iterator.next();
+                writer.write(convertToDTO(visit));
+                entityManager.detach(visit);
+                // Referenced users stay managed after the visit is detached, so clear them periodically too
+                if (++written % EXPORT_CLEAR_INTERVAL == 0) {
+                    writer.flush();
+                    entityManager.clear();
+                }
+            }
+            if (written > 0) {
+                outputStream.write('\n');
+            }
+        }
     }
     
+    /**
+     * Passes every visit, or only those written since {@code since}, to the consumer: the visits table in
+     * id order, then the archive. Rows are streamed as DTOs, so memory use does not grow with the table.
+     * Archived visits cannot change, but one written shortly before it was archived is no longer in the
+     * table, so an incremental pass also includes the segments archived since {@code since}.
+     */
+    @Transactional(readOnly = true)
+    public void forEachVisit(@Nullable Instant since, Consumer<VisitResponseDTO> consumer) {
+        Stream<VisitResponseDTO> visits;
+        if (shardedVisits != null) {
+            visits = since == null ? shardedVisits.streamAll() : shardedVisits.streamModifiedSince(since);
+        } else {
+            visits = since == null ? visitRepository.streamDtos() : visitRepository.streamDtosModifiedSince(since);
+        }
+        try (visits) {
+            visits.forEach(consumer);
+        }
+        if (visitArchive != null) {
+            visitArchive.forEachVisit(since, consumer);
+        }
+    }
+    
+    @Transactional
     public void deleteVisit(Long id) {
-        if (!visitRepository.existsById(id)) {
-            throw new ResourceNotFoundException("Visit not found with id: " + id);
+        Long patientId;
+        Long doctorId;
+        LocalDateTime visitDate;
+        if (shardedVisits != null) {
+            VisitResponseDTO visit = shardedVisits.deleteById(id)
+                    .orElseThrow(() -> new ResourceNotFoundException("Visit not found with id: " + id));
+            patientId = visit.getPatientId();
+            doctorId = visit.getDoctorId();
+            visitDate = visit.getVisitDate();
+        } else {
+            Visit visit = visitRepository.findById(id).orElse(null);
+            if (visit == null) {
+                if (visitArchive != null && visitArchive.findDtoById(id).isPresent()) {
+                    throw new IllegalArgumentException("Visit " + id + " is archived and cannot be deleted");
+                }
+                throw new ResourceNotFoundException("Visit not found with id: " + id);
+            }
+            visitRepository.delete(visit);
+            patientId = visit.getPatient().getId();
+            doctorId = visit.getDoctor().getId();
+            visitDate = visit.getVisitDate();
+        }
+        statsCounterService.visitDeleted(doctorId, visitDate);
+        visitRollupService.visitDeleted(doctorId, visitDate);
+        visitSearchService.removeAfterCommit(id);
+        visitEventService.visitDeleted(id, patientId, doctorId, visitDate);
+    }
+    
+    // Shards merge their rows by id as they stream, so nothing is held in memory beyond the open cursors
+    private void exportShardedVisits(Long doctorId, OutputStream outputStream) throws IOException {
+        try (Stream<VisitResponseDTO> visits = doctorId == null ? shardedVisits.streamAll() : shardedVisits.streamByDoctorId(doctorId);
+             SequenceWriter writer = exportWriter(outputStream)) {
+            Iterator<VisitResponseDTO> iterator = visits.iterator();
+            int written = 0;
+            while (iterator.hasNext()) {
+                writer.write(iterator.next());
+                if (++written % EXPORT_CLEAR_INTERVAL == 0) {
+                    writer.flush();
+                }
+            }
+            if (written > 0) {
+                outputStream.write('\n');
+            }
+        }
+    }
+    
+    private SequenceWriter exportWriter(OutputStream outputStream) throws IOException {
+        return objectMapper.writerFor(VisitResponseDTO.class)
+                .withRootValueSeparator("\n")
+                .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                .writeValues(outputStream);
+    }
+    
+    // Sharded visits still take their ids from the main database's sequence, so ids are unique across shards
+    private Long nextVisitId(Visit visit) {
+        SharedSessionContractImplementor session = entityManager.unwrap(SharedSessionContractImplementor.class);
+        IdentifierGenerator generator = (IdentifierGenerator) session.getEntityPersister(null, visit).getGenerator();
+        return (Long) generator.generate(session, visit);
+    }
+    
+    /**
+     * Merges the patient's archived visits after the cursor into a page read from the visits table. Both are
+     * ordered by date and id, and the table page holds the first {@code limit} table rows, so the first
+     * {@code limit} merged rows are the page; a negative limit keeps them all.
+     */
+    private List<VisitResponseDTO> withArchived(Long patientId, LocalDateTime afterDate, Long afterId,
+                                                List<VisitResponseDTO> visits, int limit) {
+        if (visitArchive == null) {
+            return visits;
+        }
+        List<VisitResponseDTO> merged = new ArrayList<>(visits);
+        for (VisitResponseDTO archived : visitArchive.findDtosByPatientId(patientId)) {
+            if (afterDate == null || archived.getVisitDate().isAfter(afterDate)
+                    || (archived.getVisitDate().isEqual(afterDate) && archived.getId() > afterId)) {
+                merged.add(archived);
+            }
         }
-        visitRepository.deleteById(id);
+        if (merged.size() == visits.size()) {
+            return visits;
+        }
+        merged.sort(Comparator.comparing(VisitResponseDTO::getVisitDate).thenComparing(VisitResponseDTO::getId));
+        return limit >= 0 && merged.size() > limit ? merged.subList(0, limit) : merged;
+    }
+    
+    private boolean mayBeArchived(LocalDateTime visitDate) {
+        return visitArchive != null && visitArchive.lastDay() != null && !visitDate.toLocalDate().isAfter(visitArchive.lastDay());
+    }
+    
+    private boolean isArchivedVisit(VisitKey key) {
+        return mayBeArchived(key.visitDate()) && visitArchive.findDtosByPatientId(key.patientId()).stream()
+                .anyMatch(visit -> visit.getDoctorId().equals(key.doctorId()) && visit.getVisitDate().equals(key.visitDate()));
+    }
+    
+    private Double toDouble(Number value) {
+        return value == null ? null : value.doubleValue();
+    }
+    
+    private boolean isDuplicateVisit(DataIntegrityViolationException e) {
+        // Shards are written with plain JDBC, where the only unique key besides the id is the visit key
+        if (shardedVisits != null && e instanceof DuplicateKeyException) {
+            return true;
+        }
+        return e.getCause() instanceof ConstraintViolationException violation
+                && violation.getConstraintName() != null
+                && violation.getConstraintName().toLowerCase().contains(Visit.UNIQUE_PATIENT_DOCTOR_DATE);
     }
     
-    private VisitResponseDTO convertToDTO(Visit visit) {
+    private Visit toEntity(VisitRequestDTO visitRequest, User patient, User doctor) {
+        Visit visit = new Visit();
+        visit.setPatient(patient);
+        visit.setDoctor(doctor);
+        visit.setVisitDate(visitRequest.getVisitDate());
+        visit.setReasonForVisit(visitRequest.getReasonForVisit());
+        visit.setSymptoms(visitRequest.getSymptoms());
+        visit.setDiagnosis(visitRequest.getDiagnosis());
+        visit.setPrescribedMedicines(visitRequest.getPrescribedMedicines());
+        visit.setHeightCm(visitRequest.getHeightCm());
+        visit.setWeightKg(visitRequest.getWeightKg());
+        visit.setBloodPressure(visitRequest.getBloodPressure());
+        visit.setPulse(visitRequest.getPulse());
+        visit.setTemperature(visitRequest.getTemperature());
+        visit.setNotes(visitRequest.getNotes());
+        return visit;
+    }
+    
+    static VisitResponseDTO convertToDTO(Visit visit) {
         return new VisitResponseDTO(
                 visit.getId(),
                 visit.getPatient().getId(),
@@ -110,5 +640,55 @@ public class VisitService {
                 visit.getNotes()
         );
     }
+    
+    private static String eTag(VisitRepository.ListVersionView view) {
+        return eTag(view.getCount(), view.getMaxId(), view.getVersionSum(), view.getUserVersionSum());
+    }
+    
+    private static String eTag(Long... parts) {
+        return Arrays.stream(parts)
+                .map(part -> part != null ? Long.toString(part) : "0")
+                .collect(Collectors.joining("-"));
+    }
+    
+    // Pages are fetched with one extra row so we know whether a next page exists
+    private CursorPageDTO<VisitResponseDTO> toPage(List<VisitResponseDTO> visits, int pageSize) {
+        String nextCursor = null;
+        if (visits.size() > pageSize) {
+            visits = visits.subList(0, pageSize);
+            nextCursor = encodeCursor(visits.get(pageSize - 1));
+        }
+        return new CursorPageDTO<>(visits, nextCursor);
+    }
+    
+    private int resolvePageSize(Integer limit) {
+        if (limit == null) {
+            return DEFAULT_PAGE_SIZE;
+        }
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("limit must be between 1 and " + MAX_PAGE_SIZE);
+        }
+        return limit;
+    }
+    
+    private String encodeCursor(VisitResponseDTO visit) {
+        String raw = visit.getVisitDate() + "|" + visit.getId();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    private VisitCursor decodeCursor(String cursor) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = raw.lastIndexOf('|');
+            return new VisitCursor(LocalDateTime.parse(raw.substring(0, separator)), Long.parseLong(raw.substring(separator + 1)));
+        } catch (IllegalArgumentException | IndexOutOfBoundsException | DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+    }
+    
+    private record VisitCursor(LocalDateTime visitDate, Long id) {
+    }
+    
+    private record VisitKey(Long patientId, Long doctorId, LocalDateTime visitDate) {
+    }
 }
-
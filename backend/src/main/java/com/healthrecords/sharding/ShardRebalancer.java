@@ -0,0 +1,322 @@
+package com.healthrecords.sharding;
+
+import com.healthrecords.entity.VisitShardBucket;
+import com.healthrecords.repository.VisitShardBucketRepository;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.ResultSetMetaData;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Moves patient buckets between shards while the application keeps serving them, one bucket at a time:
+ * <ol>
+ *     <li>COPYING: the bucket's rows are copied to the target shard while the source keeps taking writes.</li>
+ *     <li>FROZEN: writes to the bucket wait, and a final pass copies what changed during the copy and
+ *     removes what was deleted.</li>
+ *     <li>The bucket is switched to the target shard, and after a grace period the old rows are deleted.</li>
+ * </ol>
+ * Every state change is followed by a grace period of a few map refresh intervals, so all instances
+ * have seen it before the next step. Requests running longer than the grace period can still see the
+ * old state. Rebalancing should be started from one instance at a time.
+ */
+public class ShardRebalancer {
+    
+    private static final Logger log = LoggerFactory.getLogger(ShardRebalancer.class);
+    
+    private static final int PATIENT_CHUNK_SIZE = 200;
+    private static final int ROW_CHUNK_SIZE = 500;
+    
+    private final VisitShards shards;
+    private final VisitShardMap shardMap;
+    private final VisitShardBucketRepository bucketRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final long graceMillis;
+    
+    private volatile Thread worker;
+    private volatile String phase = "idle";
+    private volatile int movesPlanned;
+    private volatile int movesDone;
+    private volatile String lastError;
+    
+    public ShardRebalancer(VisitShards shards, VisitShardMap shardMap, VisitShardBucketRepository bucketRepository,
+                           PlatformTransactionManager transactionManager, long graceMillis) {
+        this.shards = shards;
+        this.shardMap = shardMap;
+        this.bucketRepository = bucketRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.graceMillis = graceMillis;
+    }
+    
+    public Map<String, Object> getStatus() {
+        VisitShardMap.Snapshot map = shardMap.current();
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("shards", shards.count());
+        status.put("bucketsPerShard", map.bucketCounts());
+        List<Map<String, Object>> unsettled = new ArrayList<>();
+        for (int bucket = 0; bucket < VisitShardMap.BUCKETS; bucket++) {
+            if (map.stateOf(bucket) != VisitShardBucket.State.STABLE || map.cleanupShardOf(bucket) >= 0) {
+                Map<String, Object> entry = new LinkedHashMap<>();
+                entry.put("bucket", bucket);
+                entry.put("shard", map.shardOfBucket(bucket));
+                entry.put("state", map.stateOf(bucket));
+                entry.put("targetShard", map.targetShardOf(bucket) >= 0 ? map.targetShardOf(bucket) : null);
+                entry.put("cleanupShard", map.cleanupShardOf(bucket) >= 0 ? map.cleanupShardOf(bucket) : null);
+                unsettled.add(entry);
+            }
+        }
+        status.put("unsettledBuckets", unsettled);
+        status.put("running", worker != null);
+        status.put("phase", phase);
+        status.put("movesPlanned", movesPlanned);
+        status.put("movesDone", movesDone);
+        status.put("lastError", lastError);
+        return status;
+    }
+    
+    /**
+     * Starts moving buckets in the background until every shard holds an equal share, moving as few
+     * buckets as possible. Moves left unfinished by a stopped instance are rolled back first.
+     */
+    public synchronized Map<String, Object> start() {
+        if (worker != null) {
+            throw new IllegalArgumentException("A visit shard rebalance is already running");
+        }
+        shardMap.refresh();
+        List<int[]> moves = plan();
+        movesPlanned = moves.size();
+        movesDone = 0;
+        lastError = null;
+        Thread thread = new Thread(() -> run(moves), "visit-shard-rebalancer");
+        thread.setDaemon(true);
+        worker = thread;
+        thread.start();
+        return getStatus();
+    }
+    
+    @PreDestroy
+    public void stop() {
+        Thread thread = worker;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+    
+    // Each move is {bucket, from, to}
+    private List<int[]> plan() {
+        VisitShardMap.Snapshot map = shardMap.current();
+        int shardCount = shards.count();
+        int[] counts = map.bucketCounts();
+        Deque<int[]> surplus = new ArrayDeque<>();
+        for (int shard = 0; shard < shardCount; shard++) {
+            int target = target(shard, shardCount);
+            for (int bucket = VisitShardMap.BUCKETS - 1; bucket >= 0 && counts[shard] > target; bucket--) {
+                if (map.shardOfBucket(bucket) == shard) {
+                    surplus.add(new int[]{bucket, shard});
+                    counts[shard]--;
+                }
+            }
+        }
+        List<int[]> moves = new ArrayList<>();
+        for (int shard = 0; shard < shardCount; shard++) {
+            while (counts[shard] < target(shard, shardCount) && !surplus.isEmpty()) {
+                int[] bucket = surplus.poll();
+                moves.add(new int[]{bucket[0], bucket[1], shard});
+                counts[shard]++;
+            }
+        }
+        return moves;
+    }
+    
+    private int target(int shard, int shardCount) {
+        return VisitShardMap.BUCKETS / shardCount + (shard < VisitShardMap.BUCKETS % shardCount ? 1 : 0);
+    }
+    
+    private void run(List<int[]> moves) {
+        try {
+            abandonUnfinishedMoves();
+            cleanupOldCopies();
+            for (int[] move : moves) {
+                move(move[0], move[1], move[2]);
+                movesDone++;
+            }
+            phase = "idle";
+            log.info("Visit shard rebalance finished after {} moves", movesDone);
+        } catch (InterruptedException e) {
+            phase = "interrupted";
+            lastError = "Interrupted";
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            phase = "failed";
+            lastError = e.getMessage();
+            log.error("Visit shard rebalance failed after {} moves", movesDone, e);
+        } finally {
+            worker = null;
+        }
+    }
+    
+    private void abandonUnfinishedMoves() {
+        for (int bucket = 0; bucket < VisitShardMap.BUCKETS; bucket++) {
+            if (shardMap.current().stateOf(bucket) != VisitShardBucket.State.STABLE) {
+                abandon(bucket);
+            }
+        }
+        shardMap.refresh();
+    }
+    
+    private void cleanupOldCopies() throws InterruptedException {
+        for (int bucket = 0; bucket < VisitShardMap.BUCKETS; bucket++) {
+            int cleanupShard = shardMap.current().cleanupShardOf(bucket);
+            if (cleanupShard >= 0) {
+                cleanup(bucket, cleanupShard);
+            }
+        }
+    }
+    
+    private void move(int bucket, int from, int to) throws InterruptedException {
+        if (!inTransaction(() -> bucketRepository.transition(bucket, from, VisitShardBucket.State.STABLE,
+                VisitShardBucket.State.COPYING, to) == 1)) {
+            log.info("Skipping visit bucket {}: no longer stable on shard {}", bucket, from);
+            return;
+        }
+        boolean moved = false;
+        try {
+            // Every instance must filter the target's copy of the bucket before rows appear there
+            phase = "copying bucket " + bucket + " from shard " + from + " to " + to;
+            awaitGrace();
+            int copied = sync(bucket, from, to);
+            
+            phase = "freezing bucket " + bucket;
+            transition(bucket, from, VisitShardBucket.State.COPYING, VisitShardBucket.State.FROZEN, to);
+            awaitGrace();
+            int changed = sync(bucket, from, to);
+            
+            if (!inTransaction(() -> bucketRepository.completeMove(bucket, from, to, VisitShardBucket.State.FROZEN,
+                    VisitShardBucket.State.STABLE) == 1)) {
+                throw new IllegalStateException("Visit bucket " + bucket + " changed state during its move");
+            }
+            moved = true;
+            shardMap.refresh();
+            log.info("Moved visit bucket {} from shard {} to {}: {} rows copied, {} changed while frozen",
+                    bucket, from, to, copied, changed);
+        } finally {
+            if (!moved) {
+                abandon(bucket);
+            }
+        }
+        // Reads that started before the switch may still be reading the old copy
+        phase = "cleaning up bucket " + bucket + " on shard " + from;
+        awaitGrace();
+        cleanup(bucket, from);
+    }
+    
+    private void transition(int bucket, int from, VisitShardBucket.State expected, VisitShardBucket.State next, int to) {
+        if (!inTransaction(() -> bucketRepository.transition(bucket, from, expected, next, to) == 1)) {
+            throw new IllegalStateException("Visit bucket " + bucket + " changed state during its move");
+        }
+        shardMap.refresh();
+    }
+    
+    private void abandon(int bucket) {
+        if (inTransaction(() -> bucketRepository.abandonMove(bucket, VisitShardBucket.State.STABLE) == 1)) {
+            log.warn("Abandoned the move of visit bucket {}", bucket);
+        }
+        shardMap.refresh();
+    }
+    
+    /**
+     * Makes the bucket's rows on {@code to} match those on {@code from}, returning the number of rows
+     * copied or removed.
+     */
+    private int sync(int bucket, int from, int to) throws InterruptedException {
+        int changed = 0;
+        List<Long> patientIds = patientIds(bucket);
+        for (int start = 0; start < patientIds.size(); start += PATIENT_CHUNK_SIZE) {
+            checkInterrupted();
+            List<Long> chunk = patientIds.subList(start, Math.min(start + PATIENT_CHUNK_SIZE, patientIds.size()));
+            Set<Long> sourceIds = visitIds(from, chunk);
+            Set<Long> targetIds = visitIds(to, chunk);
+            List<Long> missing = sourceIds.stream().filter(id -> !targetIds.contains(id)).sorted().toList();
+            List<Long> extra = targetIds.stream().filter(id -> !sourceIds.contains(id)).sorted().toList();
+            for (int i = 0; i < missing.size(); i += ROW_CHUNK_SIZE) {
+                copyRows(from, to, missing.subList(i, Math.min(i + ROW_CHUNK_SIZE, missing.size())));
+            }
+            for (int i = 0; i < extra.size(); i += ROW_CHUNK_SIZE) {
+                deleteRows(to, extra.subList(i, Math.min(i + ROW_CHUNK_SIZE, extra.size())));
+            }
+            changed += missing.size() + extra.size();
+        }
+        return changed;
+    }
+    
+    private void cleanup(int bucket, int shard) throws InterruptedException {
+        if (shardMap.current().shardOfBucket(bucket) == shard) {
+            throw new IllegalStateException("Refusing to clean up visit bucket " + bucket + " on its owning shard " + shard);
+        }
+        List<Long> patientIds = patientIds(bucket);
+        for (int start = 0; start < patientIds.size(); start += PATIENT_CHUNK_SIZE) {
+            checkInterrupted();
+            List<Long> chunk = patientIds.subList(start, Math.min(start + PATIENT_CHUNK_SIZE, patientIds.size()));
+            shards.transaction(shard).executeWithoutResult(status -> shards.jdbc(shard).update(
+                    "DELETE FROM visits WHERE patient_id IN (" + ShardedVisitStore.placeholders(chunk.size()) + ")",
+                    chunk.toArray()));
+        }
+        inTransaction(() -> bucketRepository.cleanupDone(bucket, shard) == 1);
+        shardMap.refresh();
+    }
+    
+    // Patients live in the main database; visits of patients deleted since are not moved
+    private List<Long> patientIds(int bucket) {
+        return shards.jdbc(0).queryForList("SELECT id FROM users WHERE MOD(id, " + VisitShardMap.BUCKETS + ") = ? ORDER BY id",
+                Long.class, bucket);
+    }
+    
+    private Set<Long> visitIds(int shard, List<Long> patientIds) {
+        return new HashSet<>(shards.jdbc(shard).queryForList("SELECT id FROM visits WHERE patient_id IN (" +
+                ShardedVisitStore.placeholders(patientIds.size()) + ")", Long.class, patientIds.toArray()));
+    }
+    
+    private void copyRows(int from, int to, List<Long> ids) {
+        List<Object[]> rows = shards.jdbc(from).query("SELECT " + ShardedVisitStore.COLUMNS + " FROM visits WHERE id IN (" +
+                ShardedVisitStore.placeholders(ids.size()) + ")", (rs, rowNum) -> {
+            ResultSetMetaData metaData = rs.getMetaData();
+            Object[] row = new Object[metaData.getColumnCount()];
+            for (int i = 0; i < row.length; i++) {
+                row[i] = rs.getObject(i + 1);
+            }
+            return row;
+        }, ids.toArray());
+        shards.transaction(to).executeWithoutResult(status -> shards.jdbc(to).batchUpdate(ShardedVisitStore.INSERT, rows));
+    }
+    
+    private void deleteRows(int shard, List<Long> ids) {
+        shards.transaction(shard).executeWithoutResult(status -> shards.jdbc(shard).update(
+                "DELETE FROM visits WHERE id IN (" + ShardedVisitStore.placeholders(ids.size()) + ")", ids.toArray()));
+    }
+    
+    private boolean inTransaction(BooleanSupplier action) {
+        return Boolean.TRUE.equals(transactionTemplate.execute(status -> action.getAsBoolean()));
+    }
+    
+    private void awaitGrace() throws InterruptedException {
+        Thread.sleep(graceMillis);
+    }
+    
+    private void checkInterrupted() throws InterruptedException {
+        // Clears the flag, so the database calls made while abandoning the move are not interrupted too
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+}
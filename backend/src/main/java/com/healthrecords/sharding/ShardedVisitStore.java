@@ -0,0 +1,774 @@
+package com.healthrecords.sharding;
+
+import com.healthrecords.cache.UserCache;
+import com.healthrecords.dto.VisitResponseDTO;
+import com.healthrecords.entity.User;
+import com.healthrecords.entity.Visit;
+import com.healthrecords.entity.VisitShardBucket;
+import com.healthrecords.repository.VisitField;
+import com.healthrecords.repository.VisitRepository;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reads and writes visits across the shards with plain JDBC. Queries for one patient go to the shard
+ * owning the patient's bucket; everything else is sent to all shards in parallel and the results are
+ * merged in the order the single-database query would have produced. Method names follow
+ * {@link VisitRepository}, so callers can switch between the two per call.
+ */
+public class ShardedVisitStore {
+    
+    static final String COLUMNS = "id, patient_id, doctor_id, visit_date, reason_for_visit, symptoms, diagnosis, " +
+            "prescribed_medicines, height_cm, weight_kg, blood_pressure, systolic, diastolic, pulse, temperature, notes, version, " +
+            "last_modified";
+    
+    static final String INSERT = "INSERT INTO visits (" + COLUMNS + ") " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String SEARCH_TEXT_COLUMNS = "id, patient_id, doctor_id, visit_date, reason_for_visit, " +
+            "symptoms, diagnosis, prescribed_medicines, notes";
+    private static final String KEYSET_AFTER = "(visit_date > ? OR (visit_date = ? AND id > ?))";
+    private static final String ORDER_ASC = " ORDER BY visit_date ASC, id ASC";
+    private static final String ORDER_DESC = " ORDER BY visit_date DESC, id DESC";
+    private static final int EXPORT_FETCH_SIZE = 1000;
+    private static final int ID_FETCH_SIZE = 10000;
+    private static final long FROZEN_POLL_MILLIS = 50;
+    
+    private static final Comparator<VisitResponseDTO> BY_DATE_AND_ID =
+            Comparator.comparing(VisitResponseDTO::getVisitDate).thenComparing(VisitResponseDTO::getId);
+    
+    private final VisitShards shards;
+    private final VisitShardMap shardMap;
+    private final UserCache userCache;
+    private final long frozenWaitMillis;
+    
+    public ShardedVisitStore(VisitShards shards, VisitShardMap shardMap, UserCache userCache, long frozenWaitMillis) {
+        this.shards = shards;
+        this.shardMap = shardMap;
+        this.userCache = userCache;
+        this.frozenWaitMillis = frozenWaitMillis;
+    }
+    
+    // Writes
+    
+    /**
+     * Inserts visits, grouped into one transaction per shard. Ids must already be assigned. A failure
+     * on one shard does not roll back the rows already committed on another.
+     */
+    public void insertAll(Collection<Visit> visits) {
+        Map<Integer, List<Visit>> byShard = new LinkedHashMap<>();
+        Instant now = Instant.now();
+        for (Visit visit : visits) {
+            if (visit.getLastModified() == null) {
+                visit.setLastModified(now);
+            }
+            int shard = awaitWritable(visit.getPatient().getId());
+            byShard.computeIfAbsent(shard, key -> new ArrayList<>()).add(visit);
+        }
+        byShard.forEach((shard, shardVisits) -> shards.transaction(shard).executeWithoutResult(status ->
+                shards.jdbc(shard).batchUpdate(INSERT, shardVisits, shardVisits.size(), (statement, visit) -> {
+                    statement.setLong(1, visit.getId());
+                    statement.setLong(2, visit.getPatient().getId());
+                    statement.setLong(3, visit.getDoctor().getId());
+                    statement.setObject(4, visit.getVisitDate());
+                    statement.setString(5, visit.getReasonForVisit());
+                    statement.setString(6, visit.getSymptoms());
+                    statement.setString(7, visit.getDiagnosis());
+                    statement.setString(8, visit.getPrescribedMedicines());
+                    statement.setObject(9, visit.getHeightCm());
+                    statement.setObject(10, visit.getWeightKg());
+                    statement.setString(11, visit.getBloodPressure());
+                    statement.setObject(12, visit.getSystolic());
+                    statement.setObject(13, visit.getDiastolic());
+                    statement.setObject(14, visit.getPulse());
+                    statement.setObject(15, visit.getTemperature());
+                    statement.setString(16, visit.getNotes());
+                    statement.setLong(17, visit.getVersion() != null ? visit.getVersion() : 0L);
+                    statement.setTimestamp(18, Timestamp.from(visit.getLastModified()));
+                })));
+    }
+    
+    /**
+     * Deletes a visit and returns it, or empty when it does not exist.
+     */
+    public Optional<VisitResponseDTO> deleteById(Long id) {
+        Optional<VisitResponseDTO> visit = findDtoById(id);
+        visit.ifPresent(found -> {
+            int shard = awaitWritable(found.getPatientId());
+            shards.transaction(shard).executeWithoutResult(status ->
+                    shards.jdbc(shard).update("DELETE FROM visits WHERE id = ?", id));
+        });
+        return visit;
+    }
+    
+    // Single-shard reads
+    
+    public List<VisitResponseDTO> findDtosByPatientId(Long patientId) {
+        return withNames(patientShard(patientId).query("SELECT " + COLUMNS + " FROM visits WHERE patient_id = ?" + ORDER_ASC,
+                this::mapVisit, patientId));
+    }
+    
+    public List<VisitResponseDTO> findDtoPageByPatientId(Long patientId, int limit) {
+        return withNames(patientShard(patientId).query("SELECT " + COLUMNS + " FROM visits WHERE patient_id = ?" +
+                ORDER_ASC + " LIMIT " + limit, this::mapVisit, patientId));
+    }
+    
+    public List<VisitResponseDTO> findDtoPageByPatientIdAfter(Long patientId, LocalDateTime afterDate, Long afterId, int limit) {
+        return withNames(patientShard(patientId).query("SELECT " + COLUMNS + " FROM visits WHERE patient_id = ? AND " +
+                KEYSET_AFTER + ORDER_ASC + " LIMIT " + limit, this::mapVisit, patientId, afterDate, afterDate, afterId));
+    }
+    
+    public List<VisitRepository.VitalsView> findVitalsByPatientId(Long patientId) {
+        return patientShard(patientId).query("SELECT visit_date, height_cm, weight_kg, systolic, diastolic, pulse, " +
+                "temperature FROM visits WHERE patient_id = ?" + ORDER_ASC, (rs, rowNum) -> new VitalsRow(
+                rs.getObject("visit_date", LocalDateTime.class), rs.getObject("height_cm", Double.class),
+                rs.getObject("weight_kg", Double.class), rs.getObject("systolic", Integer.class),
+                rs.getObject("diastolic", Integer.class), rs.getObject("pulse", Integer.class),
+                rs.getObject("temperature", Double.class)), patientId);
+    }
+    
+    public List<VisitRepository.VisitKeyView> findKeysByPatientIdsAndVisitDateBetween(Collection<Long> patientIds,
+                                                                                     LocalDateTime from, LocalDateTime to) {
+        Map<Integer, List<Long>> byShard = patientIds.stream()
+                .collect(Collectors.groupingBy(shardMap::shardOf, LinkedHashMap::new, Collectors.toList()));
+        List<VisitRepository.VisitKeyView> keys = new ArrayList<>();
+        byShard.forEach((shard, ids) -> {
+            List<Object> args = new ArrayList<>(ids);
+            args.add(from);
+            args.add(to);
+            keys.addAll(shards.jdbc(shard).query("SELECT patient_id, doctor_id, visit_date FROM visits WHERE patient_id IN (" +
+                    placeholders(ids.size()) + ") AND visit_date BETWEEN ? AND ?", (rs, rowNum) -> new VisitKeyRow(
+                    rs.getLong("patient_id"), rs.getLong("doctor_id"), rs.getObject("visit_date", LocalDateTime.class)),
+                    args.toArray()));
+        });
+        return keys;
+    }
+    
+    public VisitRepository.ListVersionView findListVersionByPatientId(Long patientId) {
+        return listVersion(patientShard(patientId).query("SELECT doctor_id, COUNT(*), MAX(id), SUM(version) FROM visits " +
+                "WHERE patient_id = ? GROUP BY doctor_id", this::mapGroupVersion, patientId), patientId);
+    }
+    
+    // Scatter-gather reads
+    
+    public Optional<VisitResponseDTO> findDtoById(Long id) {
+        return withNames(scatter("SELECT " + COLUMNS + " FROM visits", "id = ?", "", this::mapVisit, id))
+                .stream().findFirst();
+    }
+    
+    /**
+     * Versions behind the ETag of a visit. Names in sharded responses come from the user cache, so
+     * the user versions are taken from it as well.
+     */
+    public Optional<VisitRepository.VersionView> findVersionsById(Long id) {
+        return scatter("SELECT patient_id, doctor_id, version FROM visits", "id = ?", "", (rs, rowNum) -> new long[]{
+                rs.getLong("patient_id"), rs.getLong("doctor_id"), rs.getLong("version")}, id)
+                .stream().findFirst()
+                .map(row -> new VersionRow(row[2], userVersion(row[0]), userVersion(row[1])));
+    }
+    
+    public VisitRepository.ListVersionView findListVersionByDoctorId(Long doctorId) {
+        return listVersion(scatter("SELECT patient_id, COUNT(*), MAX(id), SUM(version) FROM visits", "doctor_id = ?",
+                " GROUP BY patient_id", this::mapGroupVersion, doctorId), doctorId);
+    }
+    
+    public List<VisitResponseDTO> findDtosByIdIn(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        return withNames(scatter("SELECT " + COLUMNS + " FROM visits", "id IN (" + placeholders(ids.size()) + ")", "",
+                this::mapVisit, ids.toArray()));
+    }
+    
+    public List<VisitResponseDTO> findAllDtos() {
+        return withNames(merged(scatter("SELECT " + COLUMNS + " FROM visits", "", ORDER_ASC, this::mapVisit), BY_DATE_AND_ID, -1));
+    }
+    
+    public List<VisitResponseDTO> findDtosByDoctorId(Long doctorId) {
+        return withNames(merged(scatter("SELECT " + COLUMNS + " FROM visits", "doctor_id = ?", ORDER_ASC, this::mapVisit,
+                doctorId), BY_DATE_AND_ID, -1));
+    }
+    
+    // Each shard returns at most limit rows, which is enough to fill the merged page
+    public List<VisitResponseDTO> findDtoPage(int limit) {
+        return withNames(merged(scatter("SELECT " + COLUMNS + " FROM visits", "", ORDER_ASC + " LIMIT " + limit,
+                this::mapVisit), BY_DATE_AND_ID, limit));
+    }
+    
+    public List<VisitResponseDTO> findDtoPageAfter(LocalDateTime afterDate, Long afterId, int limit) {
+        return withNames(merged(scatter("SELECT " + COLUMNS + " FROM visits", KEYSET_AFTER, ORDER_ASC + " LIMIT " + limit,
+                this::mapVisit, afterDate, afterDate, afterId), BY_DATE_AND_ID, limit));
+    }
+    
+    public List<VisitResponseDTO> findDtoPageByDoctorId(Long doctorId, int limit) {
+        return withNames(merged(scatter("SELECT " + COLUMNS + " FROM visits", "doctor_id = ?", ORDER_ASC + " LIMIT " + limit,
+                this::mapVisit, doctorId), BY_DATE_AND_ID, limit));
+    }
+    
+    public List<VisitResponseDTO> findDtoPageByDoctorIdAfter(Long doctorId, LocalDateTime afterDate, Long afterId, int limit) {
+        return withNames(merged(scatter("SELECT " + COLUMNS + " FROM visits", "doctor_id = ? AND " + KEYSET_AFTER,
+                ORDER_ASC + " LIMIT " + limit, this::mapVisit, doctorId, afterDate, afterDate, afterId), BY_DATE_AND_ID, limit));
+    }
+    
+    public List<VisitResponseDTO> findDtosByBloodPressureRange(int systolicMin, int systolicMax, int diastolicMin,
+                                                               int diastolicMax, LocalDateTime from, LocalDateTime to,
+                                                               int limit) {
+        return withNames(merged(scatter("SELECT " + COLUMNS + " FROM visits",
+                "systolic BETWEEN ? AND ? AND diastolic BETWEEN ? AND ? AND visit_date BETWEEN ? AND ?",
+                ORDER_DESC + " LIMIT " + limit, this::mapVisit, systolicMin, systolicMax, diastolicMin, diastolicMax,
+                from, to), BY_DATE_AND_ID.reversed(), limit));
+    }
+    
+    // As VisitRepository#findFields, with the names taken from the user cache; a negative limit reads all rows
+    public List<VisitResponseDTO> findFields(Set<VisitField> fields, Long patientId, Long doctorId,
+                                             LocalDateTime afterDate, Long afterId, int limit) {
+        EnumSet<VisitField> selected = EnumSet.of(VisitField.ID, VisitField.VISIT_DATE);
+        selected.addAll(fields);
+        boolean names = selected.contains(VisitField.PATIENT_NAME) || selected.contains(VisitField.DOCTOR_NAME);
+        if (names) {
+            selected.add(VisitField.PATIENT_ID);
+            selected.add(VisitField.DOCTOR_ID);
+        }
+        List<VisitField> columns = selected.stream().filter(field -> field.column() != null).toList();
+        String select = "SELECT " + columns.stream().map(VisitField::column).collect(Collectors.joining(", ")) + " FROM visits";
+        
+        List<String> conditions = new ArrayList<>();
+        List<Object> args = new ArrayList<>();
+        if (patientId != null) {
+            conditions.add("patient_id = ?");
+            args.add(patientId);
+        }
+        if (doctorId != null) {
+            conditions.add("doctor_id = ?");
+            args.add(doctorId);
+        }
+        if (afterDate != null) {
+            conditions.add(KEYSET_AFTER);
+            args.add(afterDate);
+            args.add(afterDate);
+            args.add(afterId);
+        }
+        String condition = String.join(" AND ", conditions);
+        String suffix = ORDER_ASC + (limit >= 0 ? " LIMIT " + limit : "");
+        RowMapper<VisitResponseDTO> mapper = (rs, rowNum) -> {
+            VisitResponseDTO visit = new VisitResponseDTO();
+            for (VisitField field : columns) {
+                field.set(visit, rs.getObject(field.column(), field.type()));
+            }
+            return visit;
+        };
+        List<VisitResponseDTO> visits = patientId != null
+                ? patientShard(patientId).query(select + " WHERE " + condition + suffix, mapper, args.toArray())
+                : merged(scatter(select, condition, suffix, mapper, args.toArray()), BY_DATE_AND_ID, limit);
+        return names ? withNames(visits) : visits;
+    }
+    
+    // Aggregates for reconciling counters and rollups
+    
+    public long count() {
+        return scatter("SELECT COUNT(*) FROM visits", "", "", (rs, rowNum) -> rs.getLong(1))
+                .stream().mapToLong(Long::longValue).sum();
+    }
+    
+    public List<VisitRepository.DoctorCountView> countGroupByDoctor() {
+        Map<Long, Long> counts = new HashMap<>();
+        scatter("SELECT doctor_id, COUNT(*) FROM visits", "", " GROUP BY doctor_id",
+                (rs, rowNum) -> Map.entry(rs.getLong(1), rs.getLong(2)))
+                .forEach(entry -> counts.merge(entry.getKey(), entry.getValue(), Long::sum));
+        return counts.entrySet().stream()
+                .<VisitRepository.DoctorCountView>map(entry -> new DoctorCountRow(entry.getKey(), entry.getValue()))
+                .toList();
+    }
+    
+    public List<VisitRepository.DayCountView> countGroupByDay() {
+        return countByDay("");
+    }
+    
+    public List<VisitRepository.DayCountView> countGroupByDayForDoctor(Long doctorId) {
+        return countByDay("doctor_id = ?", doctorId);
+    }
+    
+    public List<Long> findDistinctDoctorIds() {
+        return scatter("SELECT DISTINCT doctor_id FROM visits", "", "", (rs, rowNum) -> rs.getLong(1))
+                .stream().distinct().toList();
+    }
+    
+    // Streams; callers must close them
+    
+    public Stream<VisitResponseDTO> streamAll() {
+        return streamSorted("SELECT " + COLUMNS + " FROM visits", "", this::mapVisit, EXPORT_FETCH_SIZE,
+                Comparator.comparing(VisitResponseDTO::getId))
+                .map(this::withNames);
+    }
+    
+    public Stream<VisitResponseDTO> streamByDoctorId(Long doctorId) {
+        return streamSorted("SELECT " + COLUMNS + " FROM visits", "doctor_id = ?", this::mapVisit, EXPORT_FETCH_SIZE,
+                Comparator.comparing(VisitResponseDTO::getId), doctorId)
+                .map(this::withNames);
+    }
+    
+    public Stream<VisitResponseDTO> streamModifiedSince(Instant since) {
+        return streamSorted("SELECT " + COLUMNS + " FROM visits", "last_modified >= ?", this::mapVisit, EXPORT_FETCH_SIZE,
+                Comparator.comparing(VisitResponseDTO::getId), Timestamp.from(since))
+                .map(this::withNames);
+    }
+    
+    public Stream<Long> streamIds() {
+        return streamSorted("SELECT id FROM visits", "", (rs, rowNum) -> rs.getLong(1), ID_FETCH_SIZE,
+                Comparator.<Long>naturalOrder());
+    }
+    
+    public Stream<VisitRepository.SearchTextView> streamSearchText() {
+        return streamSorted("SELECT " + SEARCH_TEXT_COLUMNS + " FROM visits", "", this::mapSearchText, EXPORT_FETCH_SIZE,
+                Comparator.comparing(VisitRepository.SearchTextView::getId));
+    }
+    
+    public List<VisitRepository.SearchTextView> findSearchTextByIdIn(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        return scatter("SELECT " + SEARCH_TEXT_COLUMNS + " FROM visits", "id IN (" + placeholders(ids.size()) + ")", "",
+                this::mapSearchText, ids.toArray());
+    }
+    
+    // Shards other than the main database have no foreign keys to users, so deletes must check here
+    public boolean existsByPatientIdOrDoctorId(Long userId) {
+        return !scatter("SELECT id FROM visits", "patient_id = ? OR doctor_id = ?", " LIMIT 1",
+                (rs, rowNum) -> rs.getLong(1), userId, userId).isEmpty();
+    }
+    
+    public List<Long> findExistingIds(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        return scatter("SELECT id FROM visits", "id IN (" + placeholders(ids.size()) + ")", "",
+                (rs, rowNum) -> rs.getLong(1), ids.toArray());
+    }
+    
+    // Helpers
+    
+    private JdbcTemplate patientShard(Long patientId) {
+        return shards.jdbc(shardMap.shardOf(patientId));
+    }
+    
+    /**
+     * Shard to write the patient's visits to. Waits while the patient's bucket is frozen for the last
+     * step of a move, so no write lands on the old shard after its final sync.
+     */
+    private int awaitWritable(Long patientId) {
+        int bucket = VisitShardMap.bucketOf(patientId);
+        long deadline = System.currentTimeMillis() + frozenWaitMillis;
+        VisitShardMap.Snapshot map;
+        while ((map = shardMap.current()).stateOf(bucket) == VisitShardBucket.State.FROZEN) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("Visits of patient " + patientId + " are being moved to another shard, retry shortly");
+            }
+            try {
+                Thread.sleep(FROZEN_POLL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for a visit shard move", e);
+            }
+        }
+        return map.shardOfBucket(bucket);
+    }
+    
+    // Runs the query on all shards that own buckets, adding each shard's ownership filter to the condition
+    private <T> List<T> scatter(String select, String condition, String suffix, RowMapper<T> mapper, Object... args) {
+        VisitShardMap.Snapshot map = shardMap.current();
+        List<List<T>> results = shards.scatter(shard -> {
+            String sql = sql(map, select, condition, shard, suffix);
+            return sql == null ? List.<T>of() : shards.jdbc(shard).query(sql, mapper, args);
+        });
+        if (results.size() == 1) {
+            return results.get(0);
+        }
+        List<T> all = new ArrayList<>();
+        results.forEach(all::addAll);
+        return all;
+    }
+    
+    private String sql(VisitShardMap.Snapshot map, String select, String condition, int shard, String suffix) {
+        String filter = map.ownershipFilter(shard);
+        if (filter == null) {
+            return null;
+        }
+        StringBuilder sql = new StringBuilder(select);
+        if (!condition.isEmpty() || !filter.isEmpty()) {
+            sql.append(" WHERE ");
+            if (!condition.isEmpty()) {
+                sql.append('(').append(condition).append(')');
+            }
+            if (!filter.isEmpty()) {
+                sql.append(condition.isEmpty() ? "" : " AND ").append(filter);
+            }
+        }
+        return sql.append(suffix).toString();
+    }
+    
+    // Every shard's rows are already sorted, which TimSort merges in linear time per run
+    private List<VisitResponseDTO> merged(List<VisitResponseDTO> visits, Comparator<VisitResponseDTO> order, int limit) {
+        List<VisitResponseDTO> sorted = new ArrayList<>(visits);
+        sorted.sort(order);
+        return limit >= 0 && sorted.size() > limit ? new ArrayList<>(sorted.subList(0, limit)) : sorted;
+    }
+    
+    private List<VisitRepository.DayCountView> countByDay(String condition, Object... args) {
+        Map<LocalDate, Long> counts = new HashMap<>();
+        scatter("SELECT CAST(visit_date AS DATE), COUNT(*) FROM visits", condition, " GROUP BY CAST(visit_date AS DATE)",
+                (rs, rowNum) -> Map.entry(rs.getObject(1, LocalDate.class), rs.getLong(2)), args)
+                .forEach(entry -> counts.merge(entry.getKey(), entry.getValue(), Long::sum));
+        return counts.entrySet().stream()
+                .<VisitRepository.DayCountView>map(entry -> new DayCountRow(entry.getKey(), entry.getValue()))
+                .toList();
+    }
+    
+    /**
+     * Streams the rows of every shard ordered by {@code id}, merging the per-shard streams as they are
+     * read. Each shard holds a connection until the returned stream is closed.
+     */
+    private <T> Stream<T> streamSorted(String select, String condition, RowMapper<T> mapper, int fetchSize,
+                                       Comparator<T> order, Object... args) {
+        VisitShardMap.Snapshot map = shardMap.current();
+        List<Stream<T>> streams = new ArrayList<>();
+        try {
+            for (int shard = 0; shard < shards.count(); shard++) {
+                String sql = sql(map, select, condition, shard, " ORDER BY id");
+                if (sql == null) {
+                    continue;
+                }
+                PreparedStatementCreator creator = connection -> {
+                    PreparedStatement statement = connection.prepareStatement(sql);
+                    statement.setFetchSize(fetchSize);
+                    for (int i = 0; i < args.length; i++) {
+                        statement.setObject(i + 1, args[i]);
+                    }
+                    return statement;
+                };
+                streams.add(shards.jdbc(shard).queryForStream(creator, mapper));
+            }
+        } catch (RuntimeException e) {
+            streams.forEach(Stream::close);
+            throw e;
+        }
+        if (streams.size() == 1) {
+            return streams.get(0);
+        }
+        Iterator<T> merged = new MergingIterator<>(streams.stream().map(Stream::iterator).toList(), order);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(merged, Spliterator.ORDERED), false)
+                .onClose(() -> streams.forEach(Stream::close));
+    }
+    
+    // Per-user groups are {user id, count, max id, version sum}
+    private long[] mapGroupVersion(ResultSet rs, int rowNum) throws SQLException {
+        return new long[]{rs.getLong(1), rs.getLong(2), rs.getLong(3), rs.getLong(4)};
+    }
+    
+    // Combines the groups the way VisitRepository aggregates the joined rows
+    private VisitRepository.ListVersionView listVersion(List<long[]> groups, Long userId) {
+        if (groups.isEmpty()) {
+            return new ListVersionRow(0L, null, null, null);
+        }
+        long userVersion = userVersion(userId);
+        long count = 0;
+        long maxId = Long.MIN_VALUE;
+        long versionSum = 0;
+        long userVersionSum = 0;
+        for (long[] group : groups) {
+            count += group[1];
+            maxId = Math.max(maxId, group[2]);
+            versionSum += group[3];
+            userVersionSum += group[1] * (userVersion + userVersion(group[0]));
+        }
+        return new ListVersionRow(count, maxId, versionSum, userVersionSum);
+    }
+    
+    private long userVersion(long userId) {
+        return userCache.findById(userId).map(User::getVersion).orElse(0L);
+    }
+    
+    private List<VisitResponseDTO> withNames(List<VisitResponseDTO> visits) {
+        Map<Long, String> names = new HashMap<>();
+        Function<Long, String> name = id -> names.computeIfAbsent(id,
+                key -> userCache.findById(key).map(User::getFullName).orElse(null));
+        for (VisitResponseDTO visit : visits) {
+            visit.setPatientName(name.apply(visit.getPatientId()));
+            visit.setDoctorName(name.apply(visit.getDoctorId()));
+        }
+        return visits;
+    }
+    
+    private VisitResponseDTO withNames(VisitResponseDTO visit) {
+        visit.setPatientName(userCache.findById(visit.getPatientId()).map(User::getFullName).orElse(null));
+        visit.setDoctorName(userCache.findById(visit.getDoctorId()).map(User::getFullName).orElse(null));
+        return visit;
+    }
+    
+    private VisitResponseDTO mapVisit(ResultSet rs, int rowNum) throws SQLException {
+        return new VisitResponseDTO(
+                rs.getLong("id"),
+                rs.getLong("patient_id"),
+                null,
+                rs.getLong("doctor_id"),
+                null,
+                rs.getObject("visit_date", LocalDateTime.class),
+                rs.getString("reason_for_visit"),
+                rs.getString("symptoms"),
+                rs.getString("diagnosis"),
+                rs.getString("prescribed_medicines"),
+                rs.getObject("height_cm", Double.class),
+                rs.getObject("weight_kg", Double.class),
+                rs.getString("blood_pressure"),
+                rs.getObject("pulse", Integer.class),
+                rs.getObject("temperature", Double.class),
+                rs.getString("notes"));
+    }
+    
+    private VisitRepository.SearchTextView mapSearchText(ResultSet rs, int rowNum) throws SQLException {
+        return new SearchTextRow(rs.getLong("id"), rs.getLong("patient_id"), rs.getLong("doctor_id"),
+                rs.getObject("visit_date", LocalDateTime.class), rs.getString("reason_for_visit"), rs.getString("symptoms"),
+                rs.getString("diagnosis"), rs.getString("prescribed_medicines"), rs.getString("notes"));
+    }
+    
+    static String placeholders(int count) {
+        return String.join(", ", Collections.nCopies(count, "?"));
+    }
+    
+    // Always yields the smallest head among the source iterators
+    private static final class MergingIterator<T> implements Iterator<T> {
+        
+        private final PriorityQueue<Head<T>> heads;
+        
+        MergingIterator(List<Iterator<T>> sources, Comparator<T> order) {
+            heads = new PriorityQueue<>(Math.max(1, sources.size()), (a, b) -> order.compare(a.value, b.value));
+            for (Iterator<T> source : sources) {
+                if (source.hasNext()) {
+                    heads.add(new Head<>(source.next(), source));
+                }
+            }
+        }
+        
+        @Override
+        public boolean hasNext() {
+            return !heads.isEmpty();
+        }
+        
+        @Override
+        public T next() {
+            Head<T> head = heads.poll();
+            if (head == null) {
+                throw new NoSuchElementException();
+            }
+            if (head.source.hasNext()) {
+                heads.add(new Head<>(head.source.next(), head.source));
+            }
+            return head.value;
+        }
+        
+        private record Head<T>(T value, Iterator<T> source) {
+        }
+    }
+    
+    private record VisitKeyRow(Long patientId, Long doctorId, LocalDateTime visitDate) implements VisitRepository.VisitKeyView {
+        
+        @Override
+        public Long getPatientId() {
+            return patientId;
+        }
+        
+        @Override
+        public Long getDoctorId() {
+            return doctorId;
+        }
+        
+        @Override
+        public LocalDateTime getVisitDate() {
+            return visitDate;
+        }
+    }
+    
+    private record VersionRow(Long version, Long patientVersion, Long doctorVersion) implements VisitRepository.VersionView {
+        
+        @Override
+        public Long getVersion() {
+            return version;
+        }
+        
+        @Override
+        public Long getPatientVersion() {
+            return patientVersion;
+        }
+        
+        @Override
+        public Long getDoctorVersion() {
+            return doctorVersion;
+        }
+    }
+    
+    private record ListVersionRow(Long count, Long maxId, Long versionSum, Long userVersionSum)
+            implements VisitRepository.ListVersionView {
+        
+        @Override
+        public Long getCount() {
+            return count;
+        }
+        
+        @Override
+        public Long getMaxId() {
+            return maxId;
+        }
+        
+        @Override
+        public Long getVersionSum() {
+            return versionSum;
+        }
+        
+        @Override
+        public Long getUserVersionSum() {
+            return userVersionSum;
+        }
+    }
+    
+    private record DoctorCountRow(Long doctorId, Long count) implements VisitRepository.DoctorCountView {
+        
+        @Override
+        public Long getDoctorId() {
+            return doctorId;
+        }
+        
+        @Override
+        public Long getCount() {
+            return count;
+        }
+    }
+    
+    private record DayCountRow(LocalDate day, Long count) implements VisitRepository.DayCountView {
+        
+        @Override
+        public LocalDate getDay() {
+            return day;
+        }
+        
+        @Override
+        public Long getCount() {
+            return count;
+        }
+    }
+    
+    private record VitalsRow(LocalDateTime visitDate, Double heightCm, Double weightKg, Integer systolic,
+                             Integer diastolic, Integer pulse, Double temperature) implements VisitRepository.VitalsView {
+        
+        @Override
+        public LocalDateTime getVisitDate() {
+            return visitDate;
+        }
+        
+        @Override
+        public Double getHeightCm() {
+            return heightCm;
+        }
+        
+        @Override
+        public Double getWeightKg() {
+            return weightKg;
+        }
+        
+        @Override
+        public Integer getSystolic() {
+            return systolic;
+        }
+        
+        @Override
+        public Integer getDiastolic() {
+            return diastolic;
+        }
+        
+        @Override
+        public Integer getPulse() {
+            return pulse;
+        }
+        
+        @Override
+        public Double getTemperature() {
+            return temperature;
+        }
+    }
+    
+    private record SearchTextRow(Long id, Long patientId, Long doctorId, LocalDateTime visitDate, String reasonForVisit,
+                                 String symptoms, String diagnosis, String prescribedMedicines,
+                                 String notes) implements VisitRepository.SearchTextView {
+        
+        @Override
+        public Long getId() {
+            return id;
+        }
+        
+        @Override
+        public Long getPatientId() {
+            return patientId;
+        }
+        
+        @Override
+        public Long getDoctorId() {
+            return doctorId;
+        }
+        
+        @Override
+        public LocalDateTime getVisitDate() {
+            return visitDate;
+        }
+        
+        @Override
+        public String getReasonForVisit() {
+            return reasonForVisit;
+        }
+        
+        @Override
+        public String getSymptoms() {
+            return symptoms;
+        }
+        
+        @Override
+        public String getDiagnosis() {
+            return diagnosis;
+        }
+        
+        @Override
+        public String getPrescribedMedicines() {
+            return prescribedMedicines;
+        }
+        
+        @Override
+        public String getNotes() {
+            return notes;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.healthrecords.sharding;
+
+import com.healthrecords.entity.VisitShardBucket;
+import com.healthrecords.repository.VisitShardBucketRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringJoiner;
+
+/**
+ * Maps patients to shards. Patients are hashed into {@link #BUCKETS} buckets by
+ * {@code patient_id mod 256}, and each bucket is assigned to one shard in the
+ * {@code visit_shard_buckets} table. Every instance keeps a copy of that table in memory and
+ * refreshes it periodically, so a moved bucket is seen everywhere within one refresh interval.
+ */
+public class VisitShardMap {
+    
+    public static final int BUCKETS = 256;
+    
+    private static final Logger log = LoggerFactory.getLogger(VisitShardMap.class);
+    
+    private final VisitShardBucketRepository bucketRepository;
+    // Read-write so the map is always read from the primary, never from a lagging replica
+    private final TransactionTemplate transactionTemplate;
+    private final int shardCount;
+    
+    private volatile Snapshot snapshot;
+    
+    public VisitShardMap(VisitShardBucketRepository bucketRepository, PlatformTransactionManager transactionManager,
+                         int shardCount) {
+        this.bucketRepository = bucketRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.shardCount = shardCount;
+    }
+    
+    public static int bucketOf(long patientId) {
+        return (int) Math.floorMod(patientId, (long) BUCKETS);
+    }
+    
+    /**
+     * Creates the bucket rows on first start. Existing visits all live in the main database, so its
+     * buckets start there and a rebalance spreads them; a fresh installation starts spread out.
+     */
+    public void initialize(boolean mainHasVisits) {
+        transactionTemplate.executeWithoutResult(status -> {
+            if (bucketRepository.count() > 0) {
+                return;
+            }
+            List<VisitShardBucket> buckets = new ArrayList<>(BUCKETS);
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                buckets.add(new VisitShardBucket(bucket, mainHasVisits ? 0 : bucket % shardCount));
+            }
+            bucketRepository.saveAll(buckets);
+            log.info("Assigned {} visit buckets to {}", BUCKETS, mainHasVisits ? "shard 0" : shardCount + " shards");
+        });
+        refresh();
+    }
+    
+    // Synchronized so a slow scheduled refresh cannot replace the snapshot of a newer one
+    @Scheduled(fixedDelayString = "${healthrecords.sharding.map-refresh-interval-ms:1000}")
+    public synchronized void refresh() {
+        List<VisitShardBucket> rows = transactionTemplate.execute(status -> bucketRepository.findAll());
+        if (rows.size() != BUCKETS) {
+            throw new IllegalStateException("Expected " + BUCKETS + " visit shard buckets but found " + rows.size());
+        }
+        Snapshot next = new Snapshot(shardCount);
+        for (VisitShardBucket row : rows) {
+            int bucket = row.getBucket();
+            if (row.getShard() >= shardCount) {
+                throw new IllegalStateException("Visit bucket " + bucket + " is on shard " + row.getShard() +
+                        " but only " + shardCount + " shards are configured");
+            }
+            next.shard[bucket] = row.getShard();
+            next.state[bucket] = row.getState();
+            next.targetShard[bucket] = row.getTargetShard() != null ? row.getTargetShard() : -1;
+            next.cleanupShard[bucket] = row.getCleanupShard() != null ? row.getCleanupShard() : -1;
+        }
+        snapshot = next;
+    }
+    
+    public int shardCount() {
+        return shardCount;
+    }
+    
+    /**
+     * The map as last refreshed. A query touching several shards should use a single snapshot, so a
+     * bucket switching shards halfway through is read from exactly one of them.
+     */
+    public Snapshot current() {
+        return snapshot;
+    }
+    
+    public int shardOf(long patientId) {
+        return snapshot.shardOfBucket(bucketOf(patientId));
+    }
+    
+    public static final class Snapshot {
+        
+        private final int[] shard = new int[BUCKETS];
+        private final VisitShardBucket.State[] state = new VisitShardBucket.State[BUCKETS];
+        private final int[] targetShard = new int[BUCKETS];
+        private final int[] cleanupShard = new int[BUCKETS];
+        private final int shardCount;
+        
+        private Snapshot(int shardCount) {
+            this.shardCount = shardCount;
+        }
+        
+        public int shardOfBucket(int bucket) {
+            return shard[bucket];
+        }
+        
+        public VisitShardBucket.State stateOf(int bucket) {
+            return state[bucket];
+        }
+        
+        public int targetShardOf(int bucket) {
+            return targetShard[bucket];
+        }
+        
+        public int cleanupShardOf(int bucket) {
+            return cleanupShard[bucket];
+        }
+        
+        public int[] bucketCounts() {
+            int[] counts = new int[shardCount];
+            for (int owner : shard) {
+                counts[owner]++;
+            }
+            return counts;
+        }
+        
+        /**
+         * SQL condition restricting a query on {@code shardNumber} to the buckets it owns, or an empty
+         * string when no filter is needed. Shards can hold rows of buckets they do not own while a bucket
+         * is being copied to them, or before an old copy is cleaned up; those rows must not be returned
+         * twice. Returns null when the shard owns no buckets and need not be queried at all.
+         */
+        public String ownershipFilter(int shardNumber) {
+            boolean foreignRows = false;
+            StringJoiner owned = new StringJoiner(", ", "MOD(patient_id, " + BUCKETS + ") IN (", ")");
+            int ownedCount = 0;
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                if (shard[bucket] == shardNumber) {
+                    owned.add(Integer.toString(bucket));
+                    ownedCount++;
+                } else if (targetShard[bucket] == shardNumber || cleanupShard[bucket] == shardNumber) {
+                    foreignRows = true;
+                }
+            }
+            if (ownedCount == 0) {
+                return null;
+            }
+            return foreignRows ? owned.toString() : "";
+        }
+    }
+}
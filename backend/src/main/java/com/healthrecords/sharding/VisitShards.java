@@ -0,0 +1,230 @@
+package com.healthrecords.sharding;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+/**
+ * The databases holding the visits table. Shard 0 is the application's own database, whose table is
+ * managed by Hibernate; the other shards get the same table, without the foreign keys to users, when
+ * they are first opened.
+ */
+public class VisitShards implements AutoCloseable {
+    
+    private static final Logger log = LoggerFactory.getLogger(VisitShards.class);
+    
+    private static final String[][] INDEXES = {
+            {"idx_visits_patient_date", "patient_id, visit_date"},
+            {"idx_visits_doctor_date", "doctor_id, visit_date"},
+            {"idx_visits_systolic_date", "systolic, visit_date"},
+            {"idx_visits_diastolic_date", "diastolic, visit_date"},
+            {"idx_visits_last_modified", "last_modified"}
+    };
+    
+    private final List<DataSource> dataSources;
+    private final List<JdbcTemplate> jdbcTemplates = new ArrayList<>();
+    private final List<TransactionTemplate> transactionTemplates = new ArrayList<>();
+    private final ExecutorService executor;
+    
+    public VisitShards(List<DataSource> dataSources, int scatterThreads) {
+        this.dataSources = List.copyOf(dataSources);
+        for (DataSource dataSource : this.dataSources) {
+            jdbcTemplates.add(new JdbcTemplate(dataSource));
+            // Shard writes commit on their own, independent of any JPA transaction on the main database
+            TransactionTemplate transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+            transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+            transactionTemplates.add(transactionTemplate);
+        }
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(scatterThreads, runnable -> {
+            Thread thread = new Thread(runnable, "visit-shard-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    public int count() {
+        return dataSources.size();
+    }
+    
+    public JdbcTemplate jdbc(int shard) {
+        return jdbcTemplates.get(shard);
+    }
+    
+    public TransactionTemplate transaction(int shard) {
+        return transactionTemplates.get(shard);
+    }
+    
+    /**
+     * Runs the query on every shard in parallel and returns the results by shard number. The calling
+     * thread queries the last shard itself, so a busy executor cannot stall a request completely.
+     */
+    public <T> List<T> scatter(IntFunction<T> query) {
+        int last = dataSources.size() - 1;
+        List<Future<T>> futures = new ArrayList<>(last);
+        for (int shard = 0; shard < last; shard++) {
+            int target = shard;
+            futures.add(executor.submit(() -> query.apply(target)));
+        }
+        List<T> results = new ArrayList<>(dataSources.size());
+        T lastResult;
+        try {
+            lastResult = query.apply(last);
+        } catch (RuntimeException e) {
+            futures.forEach(future -> future.cancel(true));
+            throw e;
+        }
+        for (Future<T> future : futures) {
+            results.add(await(future));
+        }
+        results.add(lastResult);
+        return results;
+    }
+    
+    public void createSchema() {
+        for (int shard = 1; shard < dataSources.size(); shard++) {
+            int target = shard;
+            jdbc(shard).execute((ConnectionCallback<Void>) connection -> {
+                createTable(connection, target);
+                return null;
+            });
+        }
+    }
+    
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        for (int shard = 1; shard < dataSources.size(); shard++) {
+            if (dataSources.get(shard) instanceof AutoCloseable closeable) {
+                try {
+                    closeable.close();
+                } catch (Exception e) {
+                    log.warn("Could not close the pool of visit shard {}", shard, e);
+                }
+            }
+        }
+    }
+    
+    private <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while querying the visit shards", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException("Visit shard query failed", e.getCause());
+        }
+    }
+    
+    private void createTable(Connection connection, int shard) throws SQLException {
+        DatabaseMetaData metaData = connection.getMetaData();
+        boolean mysql = metaData.getDatabaseProductName().toLowerCase(Locale.ROOT).contains("mysql");
+        String timestamp = mysql ? "DATETIME(6)" : "TIMESTAMP(6)";
+        try (Statement statement = connection.createStatement()) {
+            if (!tableExists(metaData, "visits")) {
+                try {
+                    statement.execute("CREATE TABLE visits (" +
+                            "id BIGINT NOT NULL PRIMARY KEY, " +
+                            "patient_id BIGINT NOT NULL, " +
+                            "doctor_id BIGINT NOT NULL, " +
+                            "visit_date " + timestamp + " NOT NULL, " +
+                            "reason_for_visit VARCHAR(255), " +
+                            "symptoms VARCHAR(255), " +
+                            "diagnosis VARCHAR(255), " +
+                            "prescribed_medicines VARCHAR(255), " +
+                            "height_cm DOUBLE PRECISION, " +
+                            "weight_kg DOUBLE PRECISION, " +
+                            "blood_pressure VARCHAR(255), " +
+                            "systolic INTEGER, " +
+                            "diastolic INTEGER, " +
+                            "pulse INTEGER, " +
+                            "temperature DOUBLE PRECISION, " +
+                            "notes VARCHAR(2000), " +
+                            "version BIGINT DEFAULT 0 NOT NULL, " +
+                            "last_modified " + timestamp + ", " +
+                            "CONSTRAINT uk_visits_patient_doctor_date UNIQUE (patient_id, doctor_id, visit_date))");
+                    log.info("Created the visits table on shard {}", shard);
+                } catch (SQLException e) {
+                    // Another instance may have created it first
+                    if (!tableExists(metaData, "visits")) {
+                        throw e;
+                    }
+                }
+            }
+            // Shards created before visits were versioned
+            if (!columnExists(metaData, "visits", "version")) {
+                statement.execute("ALTER TABLE visits ADD COLUMN version BIGINT DEFAULT 0 NOT NULL");
+            }
+            // Shards created before incremental exports
+            if (!columnExists(metaData, "visits", "last_modified")) {
+                statement.execute("ALTER TABLE visits ADD COLUMN last_modified " + timestamp);
+            }
+            for (String[] index : INDEXES) {
+                if (!indexExists(metaData, "visits", index[0])) {
+                    statement.execute("CREATE INDEX " + index[0] + " ON visits (" + index[1] + ")");
+                }
+            }
+        }
+    }
+    
+    // Unquoted identifiers are stored upper case by some databases and lower case by others
+    private boolean tableExists(DatabaseMetaData metaData, String table) throws SQLException {
+        for (String name : List.of(table, table.toUpperCase(Locale.ROOT))) {
+            try (ResultSet tables = metaData.getTables(null, null, name, new String[]{"TABLE"})) {
+                if (tables.next()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+    
+    private boolean columnExists(DatabaseMetaData metaData, String table, String column) throws SQLException {
+        for (String name : List.of(table, table.toUpperCase(Locale.ROOT))) {
+            try (ResultSet columns = metaData.getColumns(null, null, name, null)) {
+                while (columns.next()) {
+                    if (column.equalsIgnoreCase(columns.getString("COLUMN_NAME"))) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+    
+    private boolean indexExists(DatabaseMetaData metaData, String table, String index) throws SQLException {
+        for (String name : List.of(table, table.toUpperCase(Locale.ROOT))) {
+            try (ResultSet indexes = metaData.getIndexInfo(null, null, name, false, false)) {
+                while (indexes.next()) {
+                    if (index.equalsIgnoreCase(indexes.getString("INDEX_NAME"))) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+}
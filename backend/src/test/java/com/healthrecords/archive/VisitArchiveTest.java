@@ -0,0 +1,166 @@
+package com.healthrecords.archive;
+
+import com.healthrecords.dto.CursorPageDTO;
+import com.healthrecords.dto.UserRequestDTO;
+import com.healthrecords.dto.UserResponseDTO;
+import com.healthrecords.dto.VisitRequestDTO;
+import com.healthrecords.dto.VisitResponseDTO;
+import com.healthrecords.entity.StatCounterDelta;
+import com.healthrecords.entity.User;
+import com.healthrecords.exception.DuplicateResourceException;
+import com.healthrecords.repository.StatCounterDeltaRepository;
+import com.healthrecords.repository.VisitRepository;
+import com.healthrecords.security.AuthenticatedUser;
+import com.healthrecords.service.StatsCounterService;
+import com.healthrecords.service.UserService;
+import com.healthrecords.service.VisitService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+// Same properties as ArchivedVisitExportTest, so both run against one context
+@SpringBootTest(properties = {
+        "healthrecords.archive.enabled=true",
+        "healthrecords.archive.dir=target/test-data/archive-${random.uuid}",
+        "healthrecords.archive.age=365d",
+        "healthrecords.archive.segment-rows=2"
+})
+@ActiveProfiles("test")
+class VisitArchiveTest {
+    
+    private static final AuthenticatedUser ADMIN = new AuthenticatedUser(0L, User.Role.ADMIN, "test", 0, Long.MAX_VALUE);
+    
+    @Autowired
+    private UserService userService;
+    
+    @Autowired
+    private VisitService visitService;
+    
+    @Autowired
+    private VisitRepository visitRepository;
+    
+    @Autowired
+    private VisitArchive visitArchive;
+    
+    @Autowired
+    private VisitArchiver visitArchiver;
+    
+    @Autowired
+    private StatsCounterService statsCounterService;
+    
+    @Autowired
+    private StatCounterDeltaRepository deltaRepository;
+    
+    private UserResponseDTO doctor;
+    private UserResponseDTO patient;
+    // Oldest first: three archived visits, then two left in the table
+    private final List<VisitResponseDTO> visits = new ArrayList<>();
+    
+    @BeforeEach
+    void archiveOldVisits() {
+        doctor = createUser(User.Role.DOCTOR, "Dr Grey");
+        patient = createUser(User.Role.PATIENT, "Pat Lee");
+        LocalDateTime old = LocalDateTime.now().truncatedTo(ChronoUnit.SECONDS).minusYears(2);
+        for (int i = 0; i < 3; i++) {
+            visits.add(createVisit(old.plusDays(i)));
+        }
+        LocalDateTime recent = LocalDateTime.now().truncatedTo(ChronoUnit.SECONDS).minusDays(2);
+        for (int i = 0; i < 2; i++) {
+            visits.add(createVisit(recent.plusDays(i)));
+        }
+        assertThat(visitArchiver.archive()).isGreaterThanOrEqualTo(3);
+        assertThat(visitRepository.findAllById(ids(visits.subList(0, 3)))).isEmpty();
+        assertThat(visitRepository.findAllById(ids(visits.subList(3, 5)))).hasSize(2);
+    }
+    
+    @Test
+    void archivedVisitsAreReadByIdAndInThePatientList() {
+        VisitResponseDTO archived = visitService.getVisitById(visits.get(1).getId());
+        assertThat(archived.getVisitDate()).isEqualTo(visits.get(1).getVisitDate());
+        assertThat(archived.getReasonForVisit()).isEqualTo("Check-up");
+        assertThat(archived.getPulse()).isEqualTo(72);
+        assertThat(archived.getPatientName()).isEqualTo("Pat Lee");
+        assertThat(archived.getDoctorName()).isEqualTo("Dr Grey");
+        
+        assertThat(ids(visitService.getVisitsByPatientId(patient.getId()))).isEqualTo(ids(visits));
+    }
+    
+    @Test
+    void patientPagesRunAcrossTheArchiveAndTheTable() {
+        List<List<Long>> pages = new ArrayList<>();
+        String after = null;
+        do {
+            CursorPageDTO<VisitResponseDTO> page = visitService.getVisitsByPatientIdPage(patient.getId(), after, 2);
+            pages.add(ids(page.getItems()));
+            after = page.getNextCursor();
+        } while (after != null);
+        
+        List<Long> expected = ids(visits);
+        assertThat(pages).containsExactly(expected.subList(0, 2), expected.subList(2, 4), expected.subList(4, 5));
+    }
+    
+    @Test
+    void archivedVisitKeysAreStillUnique() {
+        assertThatThrownBy(() -> createVisit(visits.get(0).getVisitDate()))
+                .isInstanceOf(DuplicateResourceException.class);
+        assertThat(visitService.getVisitsByPatientId(patient.getId())).hasSize(visits.size());
+    }
+    
+    @Test
+    void reconcileCountsArchivedVisits() {
+        String doctorCounter = "visits.doctor." + doctor.getId();
+        statsCounterService.flush();
+        assertThat(visitsOfDoctor()).isEqualTo(visits.size());
+        
+        deltaRepository.save(new StatCounterDelta(doctorCounter, -2));
+        statsCounterService.flush();
+        assertThat(visitsOfDoctor()).isEqualTo(visits.size() - 2);
+        
+        statsCounterService.reconcile();
+        statsCounterService.flush();
+        assertThat(visitsOfDoctor()).isEqualTo(visits.size());
+        assertThat(statsCounterService.getStats(1).get("totalVisits"))
+                .isEqualTo(visitRepository.count() + visitArchive.count());
+    }
+    
+    @SuppressWarnings("unchecked")
+    private long visitsOfDoctor() {
+        Map<Long, Long> visitsPerDoctor = (Map<Long, Long>) statsCounterService.getStats(1).get("visitsPerDoctor");
+        return visitsPerDoctor.getOrDefault(doctor.getId(), 0L);
+    }
+    
+    private VisitResponseDTO createVisit(LocalDateTime visitDate) {
+        VisitRequestDTO request = new VisitRequestDTO();
+        request.setPatientId(patient.getId());
+        request.setDoctorId(doctor.getId());
+        request.setVisitDate(visitDate);
+        request.setReasonForVisit("Check-up");
+        request.setPulse(72);
+        return visitService.createVisit(request);
+    }
+    
+    private UserResponseDTO createUser(User.Role role, String fullName) {
+        UserRequestDTO request = new UserRequestDTO();
+        request.setFullName(fullName);
+        request.setEmail(UUID.randomUUID() + "@example.com");
+        request.setPassword("secret123");
+        request.setRole(role.name());
+        return userService.createUser(request, ADMIN);
+    }
+    
+    private static List<Long> ids(List<VisitResponseDTO> visits) {
+        return visits.stream().map(VisitResponseDTO::getId).toList();
+    }
+}
@@ -0,0 +1,186 @@
+package com.healthrecords.controller;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.healthrecords.dto.UserRequestDTO;
+import com.healthrecords.dto.UserResponseDTO;
+import com.healthrecords.dto.VisitRequestDTO;
+import com.healthrecords.entity.User;
+import com.healthrecords.repository.UserRepository;
+import com.healthrecords.repository.VisitRepository;
+import com.healthrecords.security.AuthenticatedUser;
+import com.healthrecords.service.UserService;
+import com.healthrecords.service.VisitService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+class FhirExportTest {
+    
+    private static final AuthenticatedUser ADMIN = new AuthenticatedUser(0L, User.Role.ADMIN, "test", 0, Long.MAX_VALUE);
+    private static final long EXPORT_TIMEOUT_MS = 30_000;
+    
+    @Autowired
+    private MockMvc mockMvc;
+    
+    @Autowired
+    private ObjectMapper objectMapper;
+    
+    @Autowired
+    private UserService userService;
+    
+    @Autowired
+    private VisitService visitService;
+    
+    @Autowired
+    private UserRepository userRepository;
+    
+    @Autowired
+    private VisitRepository visitRepository;
+    
+    private UserResponseDTO patient;
+    
+    @BeforeEach
+    void createVisits() {
+        UserResponseDTO doctor = createUser(User.Role.DOCTOR, "Dr Grey");
+        patient = createUser(User.Role.PATIENT, "Pat Lee");
+        for (int i = 1; i <= 3; i++) {
+            VisitRequestDTO request = new VisitRequestDTO();
+            request.setPatientId(patient.getId());
+            request.setDoctorId(doctor.getId());
+            request.setVisitDate(LocalDateTime.now().minusDays(i));
+            request.setReasonForVisit("Check-up " + i);
+            request.setDiagnosis("Healthy");
+            request.setBloodPressure("120/80");
+            request.setPulse(70 + i);
+            visitService.createVisit(request);
+        }
+    }
+    
+    @Test
+    void unsupportedOutputFormatIsRejected() throws Exception {
+        mockMvc.perform(get("/api/admin/fhir/$export").param("_outputFormat", "text/csv"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.error").exists());
+    }
+    
+    @Test
+    void exportRunsInTheBackgroundAndServesGzippedNdjson() throws Exception {
+        long patients = userRepository.countByRole(User.Role.PATIENT);
+        long encounters = visitRepository.count();
+        
+        String location = mockMvc.perform(get("/api/admin/fhir/$export?_type=Patient,Encounter"))
+                .andExpect(status().isAccepted())
+                .andExpect(header().exists(HttpHeaders.CONTENT_LOCATION))
+                .andReturn().getResponse().getHeader(HttpHeaders.CONTENT_LOCATION);
+        
+        JsonNode manifest = awaitManifest(URI.create(location).getPath());
+        assertThat(manifest.path("request").asText()).contains("$export?_type=Patient,Encounter");
+        Map<String, JsonNode> files = new HashMap<>();
+        manifest.path("output").forEach(file -> files.put(file.path("type").asText(), file));
+        assertThat(files).containsOnlyKeys("Patient", "Encounter");
+        assertThat(files.get("Patient").path("count").asLong()).isEqualTo(patients);
+        assertThat(files.get("Encounter").path("count").asLong()).isEqualTo(encounters);
+        
+        List<JsonNode> patientResources = download(files.get("Patient").path("url").asText(), true);
+        assertThat(patientResources).hasSize((int) patients)
+                .allSatisfy(resource -> assertThat(resource.path("resourceType").asText()).isEqualTo("Patient"));
+        assertThat(patientResources).anySatisfy(resource ->
+                assertThat(resource.path("id").asText()).isEqualTo(patient.getId().toString()));
+        
+        List<JsonNode> encounterResources = download(files.get("Encounter").path("url").asText(), true);
+        assertThat(encounterResources).hasSize((int) encounters)
+                .allSatisfy(resource -> assertThat(resource.path("resourceType").asText()).isEqualTo("Encounter"));
+        assertThat(encounterResources).filteredOn(resource ->
+                        resource.path("subject").path("reference").asText().equals("Patient/" + patient.getId()))
+                .hasSize(3);
+        
+        // Clients that do not accept gzip get the same lines uncompressed
+        assertThat(download(files.get("Encounter").path("url").asText(), false)).isEqualTo(encounterResources);
+    }
+    
+    // Polls the status URL the way a bulk-data client does until the export has completed
+    private JsonNode awaitManifest(String statusPath) throws Exception {
+        long deadline = System.currentTimeMillis() + EXPORT_TIMEOUT_MS;
+        while (true) {
+            MockHttpServletResponse response = mockMvc.perform(get(statusPath)).andReturn().getResponse();
+            if (response.getStatus() == 200) {
+                return objectMapper.readTree(response.getContentAsString());
+            }
+            assertThat(response.getStatus()).isEqualTo(202);
+            assertThat(response.getHeader(HttpHeaders.RETRY_AFTER)).isNotNull();
+            assertThat(response.getHeader("X-Progress")).endsWith("of 2 resource types exported");
+            assertThat(System.currentTimeMillis()).as("export finished in time").isLessThan(deadline);
+            Thread.sleep(100);
+        }
+    }
+    
+    private List<JsonNode> download(String url, boolean gzip) throws Exception {
+        MockHttpServletRequestBuilder builder = get(URI.create(url).getPath());
+        if (gzip) {
+            builder.header(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate");
+        }
+        MvcResult started = mockMvc.perform(builder)
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        MockHttpServletResponse response = mockMvc.perform(asyncDispatch(started))
+                .andExpect(status().isOk())
+                .andReturn().getResponse();
+        assertThat(response.getContentType()).startsWith("application/fhir+ndjson");
+        
+        InputStream body = new ByteArrayInputStream(response.getContentAsByteArray());
+        if (gzip) {
+            assertThat(response.getHeader(HttpHeaders.CONTENT_ENCODING)).isEqualTo("gzip");
+            body = new GZIPInputStream(body);
+        } else {
+            assertThat(response.getHeader(HttpHeaders.CONTENT_ENCODING)).isNull();
+        }
+        List<JsonNode> resources = new ArrayList<>();
+        for (String line : new String(body.readAllBytes(), StandardCharsets.UTF_8).split("\n")) {
+            if (!line.isBlank()) {
+                resources.add(objectMapper.readTree(line));
+            }
+        }
+        return resources;
+    }
+    
+    private UserResponseDTO createUser(User.Role role, String fullName) {
+        UserRequestDTO request = new UserRequestDTO();
+        request.setFullName(fullName);
+        request.setEmail(UUID.randomUUID() + "@example.com");
+        request.setPassword("secret123");
+        request.setRole(role.name());
+        return userService.createUser(request, ADMIN);
+    }
+}
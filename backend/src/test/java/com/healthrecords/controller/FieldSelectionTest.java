@@ -0,0 +1,143 @@
+package com.healthrecords.controller;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.healthrecords.dto.UserRequestDTO;
+import com.healthrecords.dto.UserResponseDTO;
+import com.healthrecords.dto.VisitRequestDTO;
+import com.healthrecords.entity.User;
+import com.healthrecords.security.AuthenticatedUser;
+import com.healthrecords.service.UserService;
+import com.healthrecords.service.VisitService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+class FieldSelectionTest {
+    
+    private static final AuthenticatedUser ADMIN = new AuthenticatedUser(0L, User.Role.ADMIN, "test", 0, Long.MAX_VALUE);
+    
+    @Autowired
+    private MockMvc mockMvc;
+    
+    @Autowired
+    private ObjectMapper objectMapper;
+    
+    @Autowired
+    private UserService userService;
+    
+    @Autowired
+    private VisitService visitService;
+    
+    private UserResponseDTO doctor;
+    private UserResponseDTO patient;
+    
+    @BeforeEach
+    void createVisit() {
+        doctor = createUser(User.Role.DOCTOR, "Dr Grey");
+        patient = createUser(User.Role.PATIENT, "Pat Lee");
+        VisitRequestDTO request = new VisitRequestDTO();
+        request.setPatientId(patient.getId());
+        request.setDoctorId(doctor.getId());
+        request.setVisitDate(LocalDateTime.now().minusDays(1));
+        request.setReasonForVisit("Cough");
+        request.setSymptoms("Dry cough for two weeks");
+        request.setDiagnosis("Bronchitis");
+        request.setPrescribedMedicines("Rest and fluids");
+        request.setBloodPressure("120/80");
+        request.setPulse(72);
+        request.setNotes("Follow up in a month");
+        visitService.createVisit(request);
+    }
+    
+    @Test
+    void unknownFieldIsRejected() throws Exception {
+        mockMvc.perform(get("/api/visits").param("fields", "id,bogus"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.error").value("Unknown field: bogus"));
+        mockMvc.perform(get("/api/visits/patient/" + patient.getId()).param("fields", "patient.email"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/api/users").param("fields", "password"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/api/users").param("fields", ","))
+                .andExpect(status().isBadRequest());
+    }
+    
+    @Test
+    void nestedPathsSelectTheRelatedUser() throws Exception {
+        List<Map<String, Object>> visits = list("/api/visits/doctor/" + doctor.getId(),
+                "id,patient.fullName,doctor.id");
+        
+        assertThat(visits).singleElement().satisfies(visit -> {
+            assertThat(visit).containsOnlyKeys("id", "patientName", "doctorId");
+            assertThat(visit).containsEntry("patientName", "Pat Lee");
+            assertThat(((Number) visit.get("doctorId")).longValue()).isEqualTo(doctor.getId());
+        });
+    }
+    
+    @Test
+    void summaryLeavesOutHeavyVisitFields() throws Exception {
+        List<Map<String, Object>> visits = list("/api/visits/patient/" + patient.getId(), "summary");
+        
+        assertThat(visits).singleElement().satisfies(visit -> {
+            assertThat(visit).containsOnlyKeys("id", "patientId", "patientName", "doctorId", "doctorName",
+                    "visitDate", "reasonForVisit", "diagnosis");
+            assertThat(visit).containsEntry("doctorName", "Dr Grey").containsEntry("diagnosis", "Bronchitis");
+        });
+    }
+    
+    @Test
+    void summaryLeavesOutUserContactDetails() throws Exception {
+        List<Map<String, Object>> users = list("/api/users", "summary");
+        
+        assertThat(users).isNotEmpty().allSatisfy(user ->
+                assertThat(user).containsOnlyKeys("id", "fullName", "email", "role"));
+    }
+    
+    @Test
+    void responsesWithoutFieldsAreComplete() throws Exception {
+        List<Map<String, Object>> visits = objectMapper.readValue(mockMvc.perform(get("/api/visits/patient/" + patient.getId()))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString(), new TypeReference<>() {
+        });
+        
+        assertThat(visits).singleElement().satisfies(visit -> assertThat(visit)
+                .containsEntry("notes", "Follow up in a month")
+                .containsEntry("symptoms", "Dry cough for two weeks")
+                .containsEntry("prescribedMedicines", "Rest and fluids"));
+    }
+    
+    private List<Map<String, Object>> list(String url, String fields) throws Exception {
+        String body = mockMvc.perform(get(url).param("fields", fields))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        return objectMapper.readValue(body, new TypeReference<>() {
+        });
+    }
+    
+    private UserResponseDTO createUser(User.Role role, String fullName) {
+        UserRequestDTO request = new UserRequestDTO();
+        request.setFullName(fullName);
+        request.setEmail(UUID.randomUUID() + "@example.com");
+        request.setPassword("secret123");
+        request.setRole(role.name());
+        return userService.createUser(request, ADMIN);
+    }
+}
@@ -0,0 +1,116 @@
+package com.healthrecords.controller;
+
+import com.healthrecords.dto.UserRequestDTO;
+import com.healthrecords.dto.UserResponseDTO;
+import com.healthrecords.dto.VisitRequestDTO;
+import com.healthrecords.entity.User;
+import com.healthrecords.metrics.SqlStatementCounter;
+import com.healthrecords.security.AuthenticatedUser;
+import com.healthrecords.service.UserService;
+import com.healthrecords.service.VisitService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Listing endpoints must read their rows in a fixed number of statements, however many rows there are.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+class ListingStatementCountTest {
+    
+    private static final AuthenticatedUser ADMIN = new AuthenticatedUser(0L, User.Role.ADMIN, "test", 0, Long.MAX_VALUE);
+    
+    @Autowired
+    private MockMvc mockMvc;
+    
+    @Autowired
+    private UserService userService;
+    
+    @Autowired
+    private VisitService visitService;
+    
+    @Test
+    void visitListsUseTheSameStatementsForFewAndManyRows() throws Exception {
+        UserResponseDTO doctor = createUser(User.Role.DOCTOR);
+        UserResponseDTO patient = createUser(User.Role.PATIENT);
+        List<String> urls = List.of(
+                "/api/visits",
+                "/api/visits?limit=50",
+                "/api/visits/patient/" + patient.getId(),
+                "/api/visits/patient/" + patient.getId() + "?limit=50",
+                "/api/visits/doctor/" + doctor.getId(),
+                "/api/visits/doctor/" + doctor.getId() + "?limit=50");
+        
+        createVisits(doctor, patient, 2);
+        List<Integer> few = statementCounts(urls);
+        createVisits(doctor, patient, 30);
+        List<Integer> many = statementCounts(urls);
+        
+        assertThat(many).isEqualTo(few);
+        assertThat(many).allSatisfy(count -> assertThat(count).isBetween(1, 2));
+    }
+    
+    @Test
+    void userListsUseTheSameStatementsForFewAndManyRows() throws Exception {
+        List<String> urls = List.of(
+                "/api/users",
+                "/api/users?limit=50",
+                "/api/users?role=DOCTOR",
+                "/api/users?role=DOCTOR&limit=50");
+        
+        createUser(User.Role.DOCTOR);
+        createUser(User.Role.PATIENT);
+        List<Integer> few = statementCounts(urls);
+        for (int i = 0; i < 30; i++) {
+            createUser(i % 2 == 0 ? User.Role.DOCTOR : User.Role.PATIENT);
+        }
+        List<Integer> many = statementCounts(urls);
+        
+        assertThat(many).isEqualTo(few);
+        assertThat(many).allSatisfy(count -> assertThat(count).isBetween(1, 2));
+    }
+    
+    private List<Integer> statementCounts(List<String> urls) throws Exception {
+        List<Integer> counts = new ArrayList<>();
+        for (String url : urls) {
+            SqlStatementCounter.reset();
+            mockMvc.perform(get(url)).andExpect(status().isOk());
+            counts.add(SqlStatementCounter.current());
+        }
+        return counts;
+    }
+    
+    private UserResponseDTO createUser(User.Role role) {
+        UserRequestDTO request = new UserRequestDTO();
+        request.setFullName(role + " " + UUID.randomUUID());
+        request.setEmail(UUID.randomUUID() + "@example.com");
+        request.setPassword("secret123");
+        request.setRole(role.name());
+        return userService.createUser(request, ADMIN);
+    }
+    
+    private void createVisits(UserResponseDTO doctor, UserResponseDTO patient, int count) {
+        for (int i = 0; i < count; i++) {
+            VisitRequestDTO request = new VisitRequestDTO();
+            request.setPatientId(patient.getId());
+            request.setDoctorId(doctor.getId());
+            request.setVisitDate(LocalDateTime.now().minusDays(i));
+            request.setReasonForVisit("Checkup");
+            visitService.createVisit(request);
+        }
+    }
+}
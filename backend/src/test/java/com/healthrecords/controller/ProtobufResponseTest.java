@@ -0,0 +1,380 @@
+package com.healthrecords.controller;
+
+import com.google.protobuf.DescriptorProtos.DescriptorProto;
+import com.google.protobuf.DescriptorProtos.EnumDescriptorProto;
+import com.google.protobuf.DescriptorProtos.EnumValueDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FieldDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+import com.google.protobuf.DescriptorProtos.MessageOptions;
+import com.google.protobuf.DescriptorProtos.OneofDescriptorProto;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.EnumValueDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Descriptors.FileDescriptor;
+import com.google.protobuf.DynamicMessage;
+import com.healthrecords.dto.UserRequestDTO;
+import com.healthrecords.dto.UserResponseDTO;
+import com.healthrecords.dto.VisitRequestDTO;
+import com.healthrecords.dto.VisitResponseDTO;
+import com.healthrecords.entity.User;
+import com.healthrecords.security.AuthenticatedUser;
+import com.healthrecords.service.UserService;
+import com.healthrecords.service.VisitService;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+class ProtobufResponseTest {
+    
+    private static final AuthenticatedUser ADMIN = new AuthenticatedUser(0L, User.Role.ADMIN, "test", 0, Long.MAX_VALUE);
+    private static final String PROTOBUF = "application/x-protobuf";
+    private static final Path SCHEMA = Path.of("src/main/proto/health_records.proto");
+    
+    private static FileDescriptor schema;
+    
+    @Autowired
+    private MockMvc mockMvc;
+    
+    @Autowired
+    private UserService userService;
+    
+    @Autowired
+    private VisitService visitService;
+    
+    private UserResponseDTO doctor;
+    private UserResponseDTO patient;
+    private VisitResponseDTO fullVisit;
+    private VisitResponseDTO sparseVisit;
+    
+    @BeforeAll
+    static void loadSchema() throws Exception {
+        schema = ProtoSchema.parse(Files.readString(SCHEMA, StandardCharsets.UTF_8));
+    }
+    
+    @BeforeEach
+    void createVisits() {
+        UserRequestDTO doctorRequest = userRequest(User.Role.DOCTOR, "Dr Grey");
+        doctorRequest.setSpecialization("Cardiology");
+        doctorRequest.setDateOfBirth(LocalDate.of(1975, 4, 12));
+        doctor = userService.createUser(doctorRequest, ADMIN);
+        patient = userService.createUser(userRequest(User.Role.PATIENT, "Pat Lee"), ADMIN);
+        
+        LocalDateTime visitDate = LocalDateTime.now().truncatedTo(ChronoUnit.SECONDS).minusDays(2);
+        VisitRequestDTO request = visitRequest(visitDate);
+        request.setSymptoms("Dry cough");
+        request.setDiagnosis("Bronchitis");
+        request.setPrescribedMedicines("Rest and fluids");
+        request.setHeightCm(172.5);
+        request.setWeightKg(68.2);
+        request.setBloodPressure("120/80");
+        request.setPulse(72);
+        request.setTemperature(37.4);
+        request.setNotes("Follow up in a month");
+        fullVisit = visitService.createVisit(request);
+        // Only the required fields, so everything optional is absent from the message
+        sparseVisit = visitService.createVisit(visitRequest(visitDate.plusDays(1)));
+    }
+    
+    @Test
+    void visitMessagesFollowTheSchema() throws Exception {
+        DynamicMessage visit = fetch("/api/visits/" + fullVisit.getId(), "Visit");
+        assertThat(visit.getField(field(visit, "id"))).isEqualTo(fullVisit.getId());
+        assertThat(visit.getField(field(visit, "patient_id"))).isEqualTo(patient.getId());
+        assertThat(visit.getField(field(visit, "patient_name"))).isEqualTo("Pat Lee");
+        assertThat(visit.getField(field(visit, "doctor_id"))).isEqualTo(doctor.getId());
+        assertThat(visit.getField(field(visit, "doctor_name"))).isEqualTo("Dr Grey");
+        assertThat(visit.getField(field(visit, "visit_date")))
+                .isEqualTo(DateTimeFormatter.ISO_LOCAL_DATE_TIME.format(fullVisit.getVisitDate()));
+        assertThat(visit.getField(field(visit, "reason_for_visit"))).isEqualTo("Check-up");
+        assertThat(visit.getField(field(visit, "symptoms"))).isEqualTo("Dry cough");
+        assertThat(visit.getField(field(visit, "diagnosis"))).isEqualTo("Bronchitis");
+        assertThat(visit.getField(field(visit, "prescribed_medicines"))).isEqualTo("Rest and fluids");
+        assertThat(visit.getField(field(visit, "height_cm"))).isEqualTo(172.5);
+        assertThat(visit.getField(field(visit, "weight_kg"))).isEqualTo(68.2);
+        assertThat(visit.getField(field(visit, "blood_pressure"))).isEqualTo("120/80");
+        assertThat(visit.getField(field(visit, "pulse"))).isEqualTo(72);
+        assertThat(visit.getField(field(visit, "temperature"))).isEqualTo(37.4);
+        assertThat(visit.getField(field(visit, "notes"))).isEqualTo("Follow up in a month");
+        assertThat(visit.getUnknownFields().asMap()).isEmpty();
+    }
+    
+    @Test
+    void nullVisitFieldsAreAbsent() throws Exception {
+        DynamicMessage visit = fetch("/api/visits/" + sparseVisit.getId(), "Visit");
+        assertThat(visit.getField(field(visit, "id"))).isEqualTo(sparseVisit.getId());
+        assertThat(visit.getField(field(visit, "reason_for_visit"))).isEqualTo("Check-up");
+        for (String absent : List.of("symptoms", "diagnosis", "prescribed_medicines", "height_cm", "weight_kg",
+                "blood_pressure", "pulse", "temperature", "notes")) {
+            assertThat(visit.hasField(field(visit, absent))).as(absent).isFalse();
+        }
+    }
+    
+    @Test
+    void userMessagesFollowTheSchema() throws Exception {
+        DynamicMessage user = fetch("/api/users/" + doctor.getId(), "User");
+        assertThat(user.getField(field(user, "id"))).isEqualTo(doctor.getId());
+        assertThat(user.getField(field(user, "full_name"))).isEqualTo("Dr Grey");
+        assertThat(user.getField(field(user, "email"))).isEqualTo(doctor.getEmail());
+        assertThat(role(user)).isEqualTo("DOCTOR");
+        assertThat(user.getField(field(user, "date_of_birth"))).isEqualTo("1975-04-12");
+        assertThat(user.getField(field(user, "specialization"))).isEqualTo("Cardiology");
+        for (String absent : List.of("phone_number", "gender", "address")) {
+            assertThat(user.hasField(field(user, absent))).as(absent).isFalse();
+        }
+        
+        DynamicMessage other = fetch("/api/users/" + patient.getId(), "User");
+        assertThat(role(other)).isEqualTo("PATIENT");
+        assertThat(other.hasField(field(other, "specialization"))).isFalse();
+        assertThat(other.hasField(field(other, "date_of_birth"))).isFalse();
+    }
+    
+    @Test
+    void listsAreWrappedInListMessages() throws Exception {
+        DynamicMessage visitList = fetch("/api/visits/patient/" + patient.getId(), "VisitList");
+        List<DynamicMessage> visits = repeated(visitList, "visits");
+        assertThat(visits).extracting(visit -> visit.getField(field(visit, "id")))
+                .containsExactlyInAnyOrder(fullVisit.getId(), sparseVisit.getId());
+        assertThat(visits).allSatisfy(visit ->
+                assertThat(visit.getField(field(visit, "patient_id"))).isEqualTo(patient.getId()));
+        
+        DynamicMessage userList = fetch("/api/users?role=DOCTOR", "UserList");
+        List<DynamicMessage> users = repeated(userList, "users");
+        assertThat(users).isNotEmpty().allSatisfy(user -> assertThat(role(user)).isEqualTo("DOCTOR"));
+        assertThat(users).extracting(user -> user.getField(field(user, "id"))).contains(doctor.getId());
+        
+        DynamicMessage empty = fetch("/api/visits/patient/" + doctor.getId(), "VisitList");
+        assertThat(repeated(empty, "visits")).isEmpty();
+    }
+    
+    @Test
+    void errorsAreErrorMessages() throws Exception {
+        MockHttpServletResponse response = mockMvc.perform(get("/api/visits/" + Long.MAX_VALUE).accept(PROTOBUF))
+                .andReturn().getResponse();
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.NOT_FOUND.value());
+        assertThat(response.getContentType()).startsWith(PROTOBUF);
+        DynamicMessage error = DynamicMessage.parseFrom(message("Error"), response.getContentAsByteArray());
+        Map<String, String> fields = new HashMap<>();
+        for (DynamicMessage entry : repeated(error, "fields")) {
+            fields.put((String) entry.getField(field(entry, "key")), (String) entry.getField(field(entry, "value")));
+        }
+        assertThat(fields).containsKey("error");
+    }
+    
+    private DynamicMessage fetch(String url, String type) throws Exception {
+        MockHttpServletResponse response = mockMvc.perform(get(url).accept(PROTOBUF)).andReturn().getResponse();
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.OK.value());
+        assertThat(response.getContentType()).startsWith(PROTOBUF);
+        return DynamicMessage.parseFrom(message(type), response.getContentAsByteArray());
+    }
+    
+    private static Descriptor message(String type) {
+        return schema.findMessageTypeByName(type);
+    }
+    
+    private static FieldDescriptor field(DynamicMessage message, String name) {
+        return message.getDescriptorForType().findFieldByName(name);
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static List<DynamicMessage> repeated(DynamicMessage message, String name) {
+        return (List<DynamicMessage>) message.getField(field(message, name));
+    }
+    
+    private static String role(DynamicMessage user) {
+        return ((EnumValueDescriptor) user.getField(field(user, "role"))).getName();
+    }
+    
+    private VisitRequestDTO visitRequest(LocalDateTime visitDate) {
+        VisitRequestDTO request = new VisitRequestDTO();
+        request.setPatientId(patient.getId());
+        request.setDoctorId(doctor.getId());
+        request.setVisitDate(visitDate);
+        request.setReasonForVisit("Check-up");
+        return request;
+    }
+    
+    private static UserRequestDTO userRequest(User.Role role, String fullName) {
+        UserRequestDTO request = new UserRequestDTO();
+        request.setFullName(fullName);
+        request.setEmail(UUID.randomUUID() + "@example.com");
+        request.setPassword("secret123");
+        request.setRole(role.name());
+        return request;
+    }
+    
+    /**
+     * Builds descriptors from the subset of proto3 that health_records.proto uses (messages, enums,
+     * optional, repeated and map fields), since protoc is not part of the build.
+     */
+    private static final class ProtoSchema {
+        
+        private static final Pattern TOKEN = Pattern.compile("//[^\n]*|\"[^\"]*\"|[A-Za-z_][\\w.]*|\\d+|[{}<>;=,]");
+        private static final Map<String, FieldDescriptorProto.Type> SCALARS = Map.of(
+                "int64", FieldDescriptorProto.Type.TYPE_INT64,
+                "int32", FieldDescriptorProto.Type.TYPE_INT32,
+                "double", FieldDescriptorProto.Type.TYPE_DOUBLE,
+                "string", FieldDescriptorProto.Type.TYPE_STRING,
+                "bool", FieldDescriptorProto.Type.TYPE_BOOL);
+        
+        private final List<String> tokens = new ArrayList<>();
+        private int next;
+        
+        private ProtoSchema(String source) {
+            Matcher matcher = TOKEN.matcher(source);
+            while (matcher.find()) {
+                if (!matcher.group().startsWith("//")) {
+                    tokens.add(matcher.group());
+                }
+            }
+        }
+        
+        static FileDescriptor parse(String source) throws Exception {
+            ProtoSchema parser = new ProtoSchema(source);
+            FileDescriptorProto.Builder file = FileDescriptorProto.newBuilder().setName("health_records.proto");
+            List<String> enums = new ArrayList<>();
+            for (int i = 0; i + 1 < parser.tokens.size(); i++) {
+                if (parser.tokens.get(i).equals("enum")) {
+                    enums.add(parser.tokens.get(i + 1));
+                }
+            }
+            while (parser.next < parser.tokens.size()) {
+                String keyword = parser.take();
+                switch (keyword) {
+                    case "syntax" -> {
+                        parser.expect("=");
+                        file.setSyntax(parser.take().replace("\"", ""));
+                        parser.expect(";");
+                    }
+                    case "package" -> {
+                        file.setPackage(parser.take());
+                        parser.expect(";");
+                    }
+                    case "option" -> parser.skipPast(";");
+                    case "message" -> file.addMessageType(parser.message(enums));
+                    case "enum" -> file.addEnumType(parser.enumType());
+                    default -> throw new IllegalArgumentException("Unexpected token in the schema: " + keyword);
+                }
+            }
+            return FileDescriptor.buildFrom(file.build(), new FileDescriptor[0]);
+        }
+        
+        private DescriptorProto message(List<String> enums) {
+            DescriptorProto.Builder message = DescriptorProto.newBuilder().setName(take());
+            expect("{");
+            while (!peek().equals("}")) {
+                FieldDescriptorProto.Builder field = FieldDescriptorProto.newBuilder()
+                        .setLabel(FieldDescriptorProto.Label.LABEL_OPTIONAL);
+                String type = take();
+                if (type.equals("map")) {
+                    expect("<");
+                    String keyType = take();
+                    expect(",");
+                    String valueType = take();
+                    expect(">");
+                    String name = take();
+                    String entryName = Character.toUpperCase(name.charAt(0)) + name.substring(1) + "Entry";
+                    message.addNestedType(DescriptorProto.newBuilder()
+                            .setName(entryName)
+                            .addField(typed(FieldDescriptorProto.newBuilder().setName("key").setNumber(1)
+                                    .setLabel(FieldDescriptorProto.Label.LABEL_OPTIONAL), keyType, enums))
+                            .addField(typed(FieldDescriptorProto.newBuilder().setName("value").setNumber(2)
+                                    .setLabel(FieldDescriptorProto.Label.LABEL_OPTIONAL), valueType, enums))
+                            .setOptions(MessageOptions.newBuilder().setMapEntry(true)));
+                    field.setName(name).setLabel(FieldDescriptorProto.Label.LABEL_REPEATED)
+                            .setType(FieldDescriptorProto.Type.TYPE_MESSAGE).setTypeName(entryName);
+                } else {
+                    if (type.equals("repeated")) {
+                        field.setLabel(FieldDescriptorProto.Label.LABEL_REPEATED);
+                        type = take();
+                    } else if (type.equals("optional")) {
+                        // proto3 optional fields track presence through a synthetic oneof
+                        field.setProto3Optional(true).setOneofIndex(message.getOneofDeclCount());
+                        type = take();
+                    }
+                    field.setName(take());
+                    typed(field, type, enums);
+                    if (field.getProto3Optional()) {
+                        message.addOneofDecl(OneofDescriptorProto.newBuilder().setName("_" + field.getName()));
+                    }
+                }
+                expect("=");
+                field.setNumber(Integer.parseInt(take()));
+                expect(";");
+                message.addField(field);
+            }
+            expect("}");
+            return message.build();
+        }
+        
+        private EnumDescriptorProto enumType() {
+            EnumDescriptorProto.Builder enumType = EnumDescriptorProto.newBuilder().setName(take());
+            expect("{");
+            while (!peek().equals("}")) {
+                String name = take();
+                expect("=");
+                enumType.addValue(EnumValueDescriptorProto.newBuilder().setName(name).setNumber(Integer.parseInt(take())));
+                expect(";");
+            }
+            expect("}");
+            return enumType.build();
+        }
+        
+        private static FieldDescriptorProto.Builder typed(FieldDescriptorProto.Builder field, String type, List<String> enums) {
+            FieldDescriptorProto.Type scalar = SCALARS.get(type);
+            if (scalar != null) {
+                return field.setType(scalar);
+            }
+            return field.setType(enums.contains(type) ? FieldDescriptorProto.Type.TYPE_ENUM : FieldDescriptorProto.Type.TYPE_MESSAGE)
+                    .setTypeName(type);
+        }
+        
+        private String take() {
+            return tokens.get(next++);
+        }
+        
+        private String peek() {
+            return tokens.get(next);
+        }
+        
+        private void expect(String token) {
+            String actual = take();
+            if (!actual.equals(token)) {
+                throw new IllegalArgumentException("Expected " + token + " in the schema but found " + actual);
+            }
+        }
+        
+        private void skipPast(String token) {
+            while (!take().equals(token)) {
+                // Skipped
+            }
+        }
+    }
+}
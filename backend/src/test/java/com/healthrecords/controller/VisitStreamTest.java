@@ -0,0 +1,224 @@
+package com.healthrecords.controller;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.healthrecords.dto.LoginRequestDTO;
+import com.healthrecords.dto.UserRequestDTO;
+import com.healthrecords.dto.UserResponseDTO;
+import com.healthrecords.dto.VisitRequestDTO;
+import com.healthrecords.dto.VisitResponseDTO;
+import com.healthrecords.entity.User;
+import com.healthrecords.security.AuthenticatedUser;
+import com.healthrecords.security.TokenService;
+import com.healthrecords.service.UserService;
+import com.healthrecords.service.VisitService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+// With tokens required, so a stream opened without a valid ticket is turned away
+@SpringBootTest(properties = {
+        "healthrecords.auth.required=true",
+        "healthrecords.events.poll-interval-ms=50"
+})
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+class VisitStreamTest {
+    
+    private static final AuthenticatedUser ADMIN = new AuthenticatedUser(0L, User.Role.ADMIN, "test", 0, Long.MAX_VALUE);
+    private static final String PASSWORD = "secret123";
+    private static final long EVENT_TIMEOUT_MS = 10_000;
+    
+    @Autowired
+    private MockMvc mockMvc;
+    
+    @Autowired
+    private ObjectMapper objectMapper;
+    
+    @Autowired
+    private UserService userService;
+    
+    @Autowired
+    private VisitService visitService;
+    
+    @Autowired
+    private TokenService tokenService;
+    
+    private UserResponseDTO doctor;
+    private UserResponseDTO patient;
+    
+    @BeforeEach
+    void createUsers() {
+        doctor = createUser(User.Role.DOCTOR, "Dr Grey");
+        patient = createUser(User.Role.PATIENT, "Pat Lee");
+    }
+    
+    @Test
+    void streamWithATicketReceivesCreatedAndDeletedVisits() throws Exception {
+        String ticket = streamTicket(login(doctor));
+        MvcResult stream = mockMvc.perform(get("/api/visits/stream")
+                        .param("doctorId", doctor.getId().toString())
+                        .param("ticket", ticket)
+                        .accept(MediaType.TEXT_EVENT_STREAM))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        MockHttpServletResponse response = stream.getResponse();
+        assertThat(response.getStatus()).isEqualTo(200);
+        // The poller starts from the newest change once it sees a subscriber; let it get there first
+        Thread.sleep(300);
+        
+        // A visit of another doctor must not show up on this stream
+        UserResponseDTO otherDoctor = createUser(User.Role.DOCTOR, "Dr Hale");
+        VisitResponseDTO other = createVisit(otherDoctor);
+        VisitResponseDTO visit = createVisit(doctor);
+        // Deleted before the poller read the creation, the created event would go out without the visit
+        awaitEvents(response, 1);
+        visitService.deleteVisit(visit.getId());
+        
+        List<Event> events = awaitEvents(response, 2);
+        assertThat(events).extracting(Event::name).containsExactly("visit-created", "visit-deleted");
+        Event created = events.get(0);
+        assertThat(created.data().path("type").asText()).isEqualTo("CREATED");
+        assertThat(created.data().path("visitId").asLong()).isEqualTo(visit.getId());
+        assertThat(created.data().path("doctorId").asLong()).isEqualTo(doctor.getId());
+        assertThat(created.data().path("patientId").asLong()).isEqualTo(patient.getId());
+        assertThat(created.data().path("visit").path("reasonForVisit").asText()).isEqualTo("Check-up");
+        Event deleted = events.get(1);
+        assertThat(deleted.data().path("type").asText()).isEqualTo("DELETED");
+        assertThat(deleted.data().path("visitId").asLong()).isEqualTo(visit.getId());
+        assertThat(deleted.data().path("visit").isMissingNode() || deleted.data().path("visit").isNull()).isTrue();
+        assertThat(Long.parseLong(deleted.id())).isGreaterThan(Long.parseLong(created.id()));
+        assertThat(events).noneMatch(event -> event.data().path("visitId").asLong() == other.getId());
+    }
+    
+    @Test
+    void streamWithoutAValidTicketIsRejected() throws Exception {
+        String doctorId = doctor.getId().toString();
+        mockMvc.perform(get("/api/visits/stream").param("doctorId", doctorId).accept(MediaType.TEXT_EVENT_STREAM))
+                .andExpect(status().isUnauthorized());
+        
+        // Signed correctly, but issued for an access token that has already expired
+        long past = System.currentTimeMillis() / 1000 - 120;
+        String expired = tokenService.issueStreamTicket(
+                new AuthenticatedUser(doctor.getId(), User.Role.DOCTOR, "expired", past - 60, past)).token();
+        mockMvc.perform(get("/api/visits/stream").param("doctorId", doctorId).param("ticket", expired)
+                        .accept(MediaType.TEXT_EVENT_STREAM))
+                .andExpect(status().isUnauthorized())
+                .andExpect(jsonPath("$.error").value("Invalid or expired token"));
+        
+        String accessToken = login(doctor);
+        String ticket = streamTicket(accessToken);
+        String tampered = ticket.substring(0, ticket.length() - 2) + (ticket.endsWith("AA") ? "BB" : "AA");
+        mockMvc.perform(get("/api/visits/stream").param("doctorId", doctorId).param("ticket", tampered)
+                        .accept(MediaType.TEXT_EVENT_STREAM))
+                .andExpect(status().isUnauthorized());
+        // Tickets and access tokens are not interchangeable
+        mockMvc.perform(get("/api/visits/stream").param("doctorId", doctorId).param("ticket", accessToken)
+                        .accept(MediaType.TEXT_EVENT_STREAM))
+                .andExpect(status().isUnauthorized());
+        mockMvc.perform(get("/api/users/" + doctorId).header(HttpHeaders.AUTHORIZATION, "Bearer " + ticket))
+                .andExpect(status().isUnauthorized());
+        // Nor is a ticket accepted on other endpoints
+        mockMvc.perform(get("/api/users/" + doctorId).param("ticket", ticket))
+                .andExpect(status().isUnauthorized());
+        mockMvc.perform(post("/api/auth/stream-ticket")).andExpect(status().isUnauthorized());
+    }
+    
+    private List<Event> awaitEvents(MockHttpServletResponse response, int count) throws Exception {
+        long deadline = System.currentTimeMillis() + EVENT_TIMEOUT_MS;
+        List<Event> events = parse(response.getContentAsString());
+        while (events.size() < count) {
+            assertThat(System.currentTimeMillis()).as("%d events received in time", count).isLessThan(deadline);
+            Thread.sleep(50);
+            events = parse(response.getContentAsString());
+        }
+        return events;
+    }
+    
+    // Server-Sent Events are blocks of "field:value" lines ending in a blank line; heartbeats are comments
+    private List<Event> parse(String body) throws Exception {
+        List<Event> events = new ArrayList<>();
+        int complete = body.lastIndexOf("\n\n");
+        if (complete < 0) {
+            return events;
+        }
+        for (String block : body.substring(0, complete).split("\n\n")) {
+            String id = null;
+            String name = null;
+            StringBuilder data = new StringBuilder();
+            for (String line : block.split("\n")) {
+                if (line.startsWith("id:")) {
+                    id = line.substring(3);
+                } else if (line.startsWith("event:")) {
+                    name = line.substring(6);
+                } else if (line.startsWith("data:")) {
+                    data.append(line.substring(5));
+                }
+            }
+            if (name != null) {
+                events.add(new Event(id, name, objectMapper.readTree(data.toString())));
+            }
+        }
+        return events;
+    }
+    
+    private String login(UserResponseDTO user) throws Exception {
+        LoginRequestDTO request = new LoginRequestDTO();
+        request.setEmail(user.getEmail());
+        request.setPassword(PASSWORD);
+        String body = mockMvc.perform(post("/api/auth/login")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(request)))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        return objectMapper.readTree(body).path("accessToken").asText();
+    }
+    
+    private String streamTicket(String accessToken) throws Exception {
+        String body = mockMvc.perform(post("/api/auth/stream-ticket").header(HttpHeaders.AUTHORIZATION, "Bearer " + accessToken))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        return objectMapper.readTree(body).path("ticket").asText();
+    }
+    
+    private VisitResponseDTO createVisit(UserResponseDTO visitDoctor) {
+        VisitRequestDTO request = new VisitRequestDTO();
+        request.setPatientId(patient.getId());
+        request.setDoctorId(visitDoctor.getId());
+        request.setVisitDate(LocalDateTime.now().minusHours(1));
+        request.setReasonForVisit("Check-up");
+        return visitService.createVisit(request);
+    }
+    
+    private UserResponseDTO createUser(User.Role role, String fullName) {
+        UserRequestDTO request = new UserRequestDTO();
+        request.setFullName(fullName);
+        request.setEmail(UUID.randomUUID() + "@example.com");
+        request.setPassword(PASSWORD);
+        request.setRole(role.name());
+        return userService.createUser(request, ADMIN);
+    }
+    
+    private record Event(String id, String name, JsonNode data) {
+    }
+}
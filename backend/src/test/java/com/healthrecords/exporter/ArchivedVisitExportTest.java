@@ -0,0 +1,159 @@
+package com.healthrecords.exporter;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.healthrecords.archive.VisitArchive;
+import com.healthrecords.archive.VisitArchiver;
+import com.healthrecords.dto.ExportJobDTO;
+import com.healthrecords.dto.UserRequestDTO;
+import com.healthrecords.dto.UserResponseDTO;
+import com.healthrecords.dto.VisitRequestDTO;
+import com.healthrecords.dto.VisitResponseDTO;
+import com.healthrecords.entity.ExportJob;
+import com.healthrecords.entity.User;
+import com.healthrecords.repository.VisitRepository;
+import com.healthrecords.security.AuthenticatedUser;
+import com.healthrecords.service.UserService;
+import com.healthrecords.service.VisitService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = {
+        "healthrecords.archive.enabled=true",
+        "healthrecords.archive.dir=target/test-data/archive-${random.uuid}",
+        "healthrecords.archive.age=365d",
+        "healthrecords.archive.segment-rows=2"
+})
+@ActiveProfiles("test")
+class ArchivedVisitExportTest {
+    
+    private static final AuthenticatedUser ADMIN = new AuthenticatedUser(0L, User.Role.ADMIN, "test", 0, Long.MAX_VALUE);
+    private static final List<String> VISIT_TYPES = List.of("Encounter", "Condition", "Observation");
+    
+    @Autowired
+    private ObjectMapper objectMapper;
+    
+    @Autowired
+    private UserService userService;
+    
+    @Autowired
+    private VisitService visitService;
+    
+    @Autowired
+    private VisitRepository visitRepository;
+    
+    @Autowired
+    private VisitArchive visitArchive;
+    
+    @Autowired
+    private VisitArchiver visitArchiver;
+    
+    @Autowired
+    private BulkExporter bulkExporter;
+    
+    @Test
+    void exportsIncludeArchivedVisits() throws Exception {
+        UserResponseDTO doctor = createUser(User.Role.DOCTOR, "Dr Grey");
+        UserResponseDTO patient = createUser(User.Role.PATIENT, "Pat Lee");
+        List<String> archivedIds = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            archivedIds.add(createVisit(patient, doctor, LocalDateTime.now().minusYears(2).plusDays(i)).getId().toString());
+        }
+        String recentId = createVisit(patient, doctor, LocalDateTime.now().minusDays(1)).getId().toString();
+        
+        Instant beforeArchiving = Instant.now();
+        assertThat(visitArchiver.archive()).isGreaterThanOrEqualTo(3);
+        assertThat(visitRepository.findAllById(archivedIds.stream().map(Long::valueOf).toList())).isEmpty();
+        
+        Map<String, List<JsonNode>> full = export(null);
+        assertThat(full.get("Encounter")).hasSize((int) (visitRepository.count() + visitArchive.count()));
+        assertThat(ids(full.get("Encounter"))).containsAll(archivedIds).contains(recentId);
+        assertThat(ids(full.get("Condition"))).containsAll(archivedIds);
+        assertThat(encounters(full.get("Observation"))).containsAll(archivedIds);
+        assertThat(full.get("Encounter")).filteredOn(encounter -> archivedIds.contains(encounter.path("id").asText()))
+                .allSatisfy(encounter -> assertThat(encounter.path("subject").path("display").asText()).isEqualTo("Pat Lee"));
+        
+        // A visit changed shortly before it was archived has left the table, so its segment is exported again
+        assertThat(ids(export(beforeArchiving).get("Encounter"))).containsAll(archivedIds);
+        Thread.sleep(10);
+        assertThat(ids(export(Instant.now()).get("Encounter"))).doesNotContainAnyElementsOf(archivedIds);
+    }
+    
+    private Map<String, List<JsonNode>> export(Instant since) throws Exception {
+        ExportJobDTO job = bulkExporter.start(since, VISIT_TYPES, "test");
+        long deadline = System.currentTimeMillis() + 30_000;
+        while ((job = bulkExporter.getJob(job.getId())).getStatus() != ExportJob.Status.COMPLETED) {
+            assertThat(job.getStatus()).isNotEqualTo(ExportJob.Status.FAILED);
+            assertThat(System.currentTimeMillis()).as("export finished in time").isLessThan(deadline);
+            Thread.sleep(50);
+        }
+        Map<String, List<JsonNode>> resources = new HashMap<>();
+        for (String type : VISIT_TYPES) {
+            resources.put(type, new ArrayList<>());
+        }
+        for (ExportJobDTO.Output output : job.getOutput()) {
+            if (output.getCount() == 0) {
+                continue;
+            }
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new GZIPInputStream(Files.newInputStream(bulkExporter.getFile(job.getId(), output.getType()))),
+                    StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.isBlank()) {
+                        resources.get(output.getType()).add(objectMapper.readTree(line));
+                    }
+                }
+            }
+            assertThat(resources.get(output.getType())).hasSize((int) output.getCount());
+        }
+        return resources;
+    }
+    
+    private static List<String> ids(List<JsonNode> resources) {
+        return resources.stream().map(resource -> resource.path("id").asText()).toList();
+    }
+    
+    private static List<String> encounters(List<JsonNode> resources) {
+        return resources.stream()
+                .map(resource -> resource.path("encounter").path("reference").asText().replace("Encounter/", ""))
+                .toList();
+    }
+    
+    private VisitResponseDTO createVisit(UserResponseDTO patient, UserResponseDTO doctor, LocalDateTime visitDate) {
+        VisitRequestDTO request = new VisitRequestDTO();
+        request.setPatientId(patient.getId());
+        request.setDoctorId(doctor.getId());
+        request.setVisitDate(visitDate);
+        request.setReasonForVisit("Check-up");
+        request.setDiagnosis("Healthy");
+        request.setPulse(72);
+        return visitService.createVisit(request);
+    }
+    
+    private UserResponseDTO createUser(User.Role role, String fullName) {
+        UserRequestDTO request = new UserRequestDTO();
+        request.setFullName(fullName);
+        request.setEmail(UUID.randomUUID() + "@example.com");
+        request.setPassword("secret123");
+        request.setRole(role.name());
+        return userService.createUser(request, ADMIN);
+    }
+}
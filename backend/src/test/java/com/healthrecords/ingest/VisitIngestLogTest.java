@@ -0,0 +1,148 @@
+package com.healthrecords.ingest;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class VisitIngestLogTest {
+    
+    private static final long SEGMENT_BYTES = 1 << 20;
+    // Record header: payload length and CRC32
+    private static final int HEADER_BYTES = 8;
+    
+    @TempDir
+    Path dir;
+    
+    @Test
+    void aTornRecordAtTheEndIsCutOffOnOpen() throws IOException {
+        try (VisitIngestLog log = new VisitIngestLog(dir, SEGMENT_BYTES)) {
+            appendAll(log, "visit-1", "visit-2", "visit-3");
+        }
+        Path segment = lastSegment();
+        long intact = Files.size(segment);
+        // A crash in the middle of a write leaves the header and part of the payload
+        ByteBuffer torn = ByteBuffer.allocate(HEADER_BYTES + 3).putInt(100).putInt(42).put(new byte[3]).flip();
+        try (FileChannel out = FileChannel.open(segment, StandardOpenOption.APPEND)) {
+            out.write(torn);
+        }
+        
+        try (VisitIngestLog log = new VisitIngestLog(dir, SEGMENT_BYTES)) {
+            assertThat(Files.size(segment)).isEqualTo(intact);
+            assertThat(readAll(log)).containsExactly("visit-1", "visit-2", "visit-3");
+            appendAll(log, "visit-4");
+            assertThat(readAll(log)).containsExactly("visit-1", "visit-2", "visit-3", "visit-4");
+        }
+    }
+    
+    @Test
+    void aRecordFailingItsChecksumAtTheEndIsCutOffOnOpen() throws IOException {
+        try (VisitIngestLog log = new VisitIngestLog(dir, SEGMENT_BYTES)) {
+            appendAll(log, "visit-1", "visit-2", "visit-3");
+        }
+        Path segment = lastSegment();
+        long size = Files.size(segment);
+        try (FileChannel out = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer last = ByteBuffer.allocate(1);
+            out.read(last, size - 1);
+            out.write(ByteBuffer.wrap(new byte[]{(byte) (last.get(0) ^ 0xFF)}), size - 1);
+        }
+        
+        try (VisitIngestLog log = new VisitIngestLog(dir, SEGMENT_BYTES)) {
+            assertThat(Files.size(segment)).isEqualTo(size - HEADER_BYTES - "visit-3".length());
+            assertThat(readAll(log)).containsExactly("visit-1", "visit-2");
+            appendAll(log, "visit-4");
+            assertThat(readAll(log)).containsExactly("visit-1", "visit-2", "visit-4");
+        }
+    }
+    
+    @Test
+    void recordsAfterTheCheckpointAreReplayedAfterARestart() throws IOException {
+        // Small segments, so the log rolls over several times
+        long segmentBytes = 64;
+        List<String> visits = IntStream.rangeClosed(1, 12).mapToObj(i -> "visit-" + i).toList();
+        try (VisitIngestLog log = new VisitIngestLog(dir, segmentBytes)) {
+            appendAll(log, visits.toArray(String[]::new));
+            VisitIngestLog.Batch applied = log.read(log.checkpoint(), 5);
+            assertThat(decode(applied.records())).isEqualTo(visits.subList(0, 5));
+            log.commit(applied.next());
+        }
+        assertThat(segmentCount()).isGreaterThan(1);
+        
+        try (VisitIngestLog log = new VisitIngestLog(dir, segmentBytes)) {
+            assertThat(readAll(log)).isEqualTo(visits.subList(5, visits.size()));
+            appendAll(log, "visit-13");
+            assertThat(readAll(log)).hasSize(visits.size() - 5 + 1).endsWith("visit-13");
+            log.commit(log.read(log.checkpoint(), Integer.MAX_VALUE).next());
+        }
+        
+        try (VisitIngestLog log = new VisitIngestLog(dir, segmentBytes)) {
+            assertThat(readAll(log)).isEmpty();
+            assertThat(segmentCount()).isEqualTo(1);
+        }
+    }
+    
+    @Test
+    void concurrentAppendsAcrossRolloversAreAllDurable() throws Exception {
+        List<String> visits = IntStream.range(0, 200).mapToObj(i -> "visit-" + i).toList();
+        try (VisitIngestLog log = new VisitIngestLog(dir, 128)) {
+            CompletableFuture.allOf(visits.stream()
+                    .map(visit -> CompletableFuture.runAsync(() -> {
+                        try {
+                            log.append(visit.getBytes(StandardCharsets.UTF_8));
+                        } catch (IOException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }))
+                    .toArray(CompletableFuture[]::new)).get();
+            assertThat(readAll(log)).containsExactlyInAnyOrderElementsOf(visits);
+        }
+        try (VisitIngestLog log = new VisitIngestLog(dir, 128)) {
+            assertThat(readAll(log)).containsExactlyInAnyOrderElementsOf(visits);
+        }
+    }
+    
+    private static void appendAll(VisitIngestLog log, String... visits) throws IOException {
+        for (String visit : visits) {
+            log.append(visit.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+    
+    private static List<String> readAll(VisitIngestLog log) throws IOException {
+        return decode(log.read(log.checkpoint(), Integer.MAX_VALUE).records());
+    }
+    
+    private static List<String> decode(List<byte[]> records) {
+        List<String> visits = new ArrayList<>();
+        for (byte[] record : records) {
+            visits.add(new String(record, StandardCharsets.UTF_8));
+        }
+        return visits;
+    }
+    
+    private Path lastSegment() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".log")).sorted()
+                    .reduce((first, second) -> second).orElseThrow();
+        }
+    }
+    
+    private long segmentCount() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".log")).count();
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.healthrecords.sharding;
+
+import com.healthrecords.dto.UserRequestDTO;
+import com.healthrecords.dto.UserResponseDTO;
+import com.healthrecords.dto.VisitRequestDTO;
+import com.healthrecords.entity.User;
+import com.healthrecords.entity.VisitShardBucket;
+import com.healthrecords.security.AuthenticatedUser;
+import com.healthrecords.service.UserService;
+import com.healthrecords.service.VisitService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+// Visits are spread over the main database and one more H2 database
+@SpringBootTest(properties = {
+        "healthrecords.sharding.shard-urls=jdbc:h2:mem:shard-${random.uuid};MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1",
+        "healthrecords.sharding.map-refresh-interval-ms=50",
+        "healthrecords.sharding.move-grace-ms=200",
+        "healthrecords.sharding.frozen-wait-ms=1000"
+})
+@ActiveProfiles("test")
+class ShardRebalancerTest {
+    
+    private static final AuthenticatedUser ADMIN = new AuthenticatedUser(0L, User.Role.ADMIN, "test", 0, Long.MAX_VALUE);
+    // A fresh installation puts odd buckets on shard 1; moving this one to shard 0 leaves one bucket to move back
+    private static final int MOVED_BUCKET = VisitShardMap.BUCKETS - 1;
+    private static final int INITIAL_VISITS = 20;
+    
+    @Autowired
+    private UserService userService;
+    
+    @Autowired
+    private VisitService visitService;
+    
+    @Autowired
+    private VisitShards shards;
+    
+    @Autowired
+    private VisitShardMap shardMap;
+    
+    @Autowired
+    private ShardRebalancer rebalancer;
+    
+    @Test
+    void movesABucketWhileVisitsAreWritten() throws Exception {
+        shards.jdbc(0).update("UPDATE visit_shard_buckets SET shard = 0 WHERE bucket = ?", MOVED_BUCKET);
+        shardMap.refresh();
+        UserResponseDTO doctor = createUser(User.Role.DOCTOR);
+        UserResponseDTO patient = createUser(User.Role.PATIENT);
+        while (VisitShardMap.bucketOf(patient.getId()) != MOVED_BUCKET) {
+            patient = createUser(User.Role.PATIENT);
+        }
+        LocalDateTime start = LocalDateTime.now().minusYears(1);
+        for (int i = 0; i < INITIAL_VISITS; i++) {
+            createVisit(patient.getId(), doctor.getId(), start.plusMinutes(i));
+        }
+        assertThat(countOn(0, patient.getId())).isEqualTo(INITIAL_VISITS);
+        
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicInteger written = new AtomicInteger();
+        AtomicInteger writtenWhileFrozen = new AtomicInteger();
+        AtomicInteger rejected = new AtomicInteger();
+        long patientId = patient.getId();
+        long doctorId = doctor.getId();
+        CompletableFuture<Void> writer = CompletableFuture.runAsync(() -> {
+            int minute = INITIAL_VISITS;
+            while (!stop.get()) {
+                boolean frozen = shardMap.current().stateOf(MOVED_BUCKET) == VisitShardBucket.State.FROZEN;
+                try {
+                    createVisit(patientId, doctorId, start.plusMinutes(minute++));
+                    written.incrementAndGet();
+                    if (frozen) {
+                        writtenWhileFrozen.incrementAndGet();
+                    }
+                } catch (IllegalStateException e) {
+                    rejected.incrementAndGet();
+                }
+                sleep(10);
+            }
+        });
+        
+        Map<String, Object> status = rebalancer.start();
+        assertThat(status.get("movesPlanned")).isEqualTo(1);
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (Boolean.TRUE.equals(rebalancer.getStatus().get("running"))) {
+            assertThat(System.currentTimeMillis()).as("rebalance finished in time").isLessThan(deadline);
+            Thread.sleep(50);
+        }
+        stop.set(true);
+        writer.get(10, TimeUnit.SECONDS);
+        
+        status = rebalancer.getStatus();
+        assertThat(status.get("lastError")).isNull();
+        assertThat(status.get("movesDone")).isEqualTo(1);
+        VisitShardMap.Snapshot map = shardMap.current();
+        assertThat(map.shardOfBucket(MOVED_BUCKET)).isEqualTo(1);
+        assertThat(map.stateOf(MOVED_BUCKET)).isEqualTo(VisitShardBucket.State.STABLE);
+        assertThat(map.cleanupShardOf(MOVED_BUCKET)).isEqualTo(-1);
+        
+        // Writes made while the bucket was frozen waited for the switch instead of failing
+        assertThat(written.get()).isGreaterThan(0);
+        assertThat(writtenWhileFrozen.get()).isGreaterThan(0);
+        assertThat(rejected.get()).isZero();
+        int expected = INITIAL_VISITS + written.get();
+        assertThat(countOn(1, patientId)).isEqualTo(expected);
+        assertThat(countOn(0, patientId)).isZero();
+        assertThat(visitService.getVisitsByPatientId(patientId)).hasSize(expected);
+    }
+    
+    @Test
+    void writesToAFrozenBucketWaitAndAreRejectedWhenItStaysFrozen() throws Exception {
+        UserResponseDTO doctor = createUser(User.Role.DOCTOR);
+        UserResponseDTO patient = createUser(User.Role.PATIENT);
+        int bucket = VisitShardMap.bucketOf(patient.getId());
+        int shard = shardMap.shardOf(patient.getId());
+        LocalDateTime visitDate = LocalDateTime.now().minusDays(1);
+        
+        freeze(bucket, 1 - shard);
+        try {
+            assertThatThrownBy(() -> createVisit(patient.getId(), doctor.getId(), visitDate))
+                    .isInstanceOf(IllegalStateException.class)
+                    .hasMessageContaining("being moved");
+            
+            CompletableFuture<Void> waiting = CompletableFuture.runAsync(() ->
+                    createVisit(patient.getId(), doctor.getId(), visitDate));
+            Thread.sleep(300);
+            assertThat(waiting).isNotDone();
+            unfreeze(bucket);
+            waiting.get(5, TimeUnit.SECONDS);
+        } finally {
+            unfreeze(bucket);
+        }
+        assertThat(countOn(shard, patient.getId())).isEqualTo(1);
+    }
+    
+    private void freeze(int bucket, int targetShard) {
+        shards.jdbc(0).update("UPDATE visit_shard_buckets SET state = 'FROZEN', target_shard = ? WHERE bucket = ?",
+                targetShard, bucket);
+        shardMap.refresh();
+    }
+    
+    private void unfreeze(int bucket) {
+        shards.jdbc(0).update("UPDATE visit_shard_buckets SET state = 'STABLE', target_shard = NULL WHERE bucket = ?", bucket);
+        shardMap.refresh();
+    }
+    
+    private int countOn(int shard, long patientId) {
+        return shards.jdbc(shard).queryForObject("SELECT COUNT(*) FROM visits WHERE patient_id = ?", Integer.class, patientId);
+    }
+    
+    private void createVisit(long patientId, long doctorId, LocalDateTime visitDate) {
+        VisitRequestDTO request = new VisitRequestDTO();
+        request.setPatientId(patientId);
+        request.setDoctorId(doctorId);
+        request.setVisitDate(visitDate);
+        request.setReasonForVisit("Check-up");
+        visitService.createVisit(request);
+    }
+    
+    private UserResponseDTO createUser(User.Role role) {
+        UserRequestDTO request = new UserRequestDTO();
+        request.setFullName(role == User.Role.DOCTOR ? "Dr Grey" : "Pat Lee");
+        request.setEmail(UUID.randomUUID() + "@example.com");
+        request.setPassword("secret123");
+        request.setRole(role.name());
+        return userService.createUser(request, ADMIN);
+    }
+    
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.healthrecords.sharding;
+
+import com.healthrecords.dto.UserRequestDTO;
+import com.healthrecords.dto.UserResponseDTO;
+import com.healthrecords.dto.VisitRequestDTO;
+import com.healthrecords.entity.User;
+import com.healthrecords.repository.UserRepository;
+import com.healthrecords.security.AuthenticatedUser;
+import com.healthrecords.service.UserService;
+import com.healthrecords.service.VisitService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = {
+        "healthrecords.sharding.shard-urls=jdbc:h2:mem:shard-${random.uuid};MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1",
+        "healthrecords.sharding.map-refresh-interval-ms=50",
+        "healthrecords.sharding.move-grace-ms=200",
+        "healthrecords.sharding.frozen-wait-ms=1000"
+})
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+class ShardedUserDeleteTest {
+    
+    private static final AuthenticatedUser ADMIN = new AuthenticatedUser(0L, User.Role.ADMIN, "test", 0, Long.MAX_VALUE);
+    
+    @Autowired
+    private MockMvc mockMvc;
+    
+    @Autowired
+    private UserService userService;
+    
+    @Autowired
+    private VisitService visitService;
+    
+    @Autowired
+    private UserRepository userRepository;
+    
+    @Autowired
+    private VisitShardMap shardMap;
+    
+    @Test
+    void usersWithVisitsOnAnotherShardAreNotDeleted() throws Exception {
+        UserResponseDTO doctor = createUser(User.Role.DOCTOR, "Dr Grey");
+        UserResponseDTO patient = createUser(User.Role.PATIENT, "Pat Lee");
+        while (shardMap.shardOf(patient.getId()) != 1) {
+            patient = createUser(User.Role.PATIENT, "Pat Lee");
+        }
+        VisitRequestDTO request = new VisitRequestDTO();
+        request.setPatientId(patient.getId());
+        request.setDoctorId(doctor.getId());
+        request.setVisitDate(LocalDateTime.now().minusDays(1));
+        request.setReasonForVisit("Cough");
+        visitService.createVisit(request);
+        
+        mockMvc.perform(delete("/api/users/" + patient.getId())).andExpect(status().isConflict());
+        mockMvc.perform(delete("/api/users/" + doctor.getId())).andExpect(status().isConflict());
+        assertThat(userRepository.existsById(patient.getId())).isTrue();
+        assertThat(userRepository.existsById(doctor.getId())).isTrue();
+        assertThat(visitService.getVisitsByPatientId(patient.getId())).hasSize(1);
+        
+        UserResponseDTO withoutVisits = createUser(User.Role.PATIENT, "Sam Roe");
+        mockMvc.perform(delete("/api/users/" + withoutVisits.getId())).andExpect(status().isNoContent());
+    }
+    
+    private UserResponseDTO createUser(User.Role role, String fullName) {
+        UserRequestDTO request = new UserRequestDTO();
+        request.setFullName(fullName);
+        request.setEmail(UUID.randomUUID() + "@example.com");
+        request.setPassword("secret123");
+        request.setRole(role.name());
+        return userService.createUser(request, ADMIN);
+    }
+}
@@ -9,5 +9,30 @@ const axiosClient = axios.create({
   },
 });
 
+// Attach the access token issued at login to every request
+axiosClient.interceptors.request.use((config) => {
+  const storedUser = localStorage.getItem('currentUser');
+  const accessToken = storedUser ? JSON.parse(storedUser).accessToken : null;
+  if (accessToken) {
+    config.headers.Authorization = `Bearer ${accessToken}`;
+  }
+  return config;
+});
+
+// An expired or revoked token ends the session: drop it and start over at the login page
+axiosClient.interceptors.response.use(
+  (response) => response,
+  (error) => {
+    const url = error.config?.url || '';
+    if (error.response?.status === 401 && !url.startsWith('/auth/')) {
+      localStorage.removeItem('currentUser');
+      if (window.location.pathname !== '/login') {
+        window.location.assign('/login');
+      }
+    }
+    return Promise.reject(error);
+  }
+);
+
 export default axiosClient;
 
@@ -0,0 +1,81 @@
+import axiosClient from './axiosClient';
+
+const byDateDesc = (a, b) => new Date(b.visitDate) - new Date(a.visitDate);
+const RECONNECT_DELAY_MS = 3000;
+
+// EventSource cannot send the Authorization header, so a logged-in user opens the stream with a
+// short-lived stream ticket instead of putting the access token in the URL
+const streamUrl = async (query, lastEventId) => {
+  const params = new URLSearchParams(query);
+  if (localStorage.getItem('currentUser')) {
+    const response = await axiosClient.post('/auth/stream-ticket');
+    params.set('ticket', response.data.ticket);
+  }
+  if (lastEventId) {
+    params.set('lastEventId', lastEventId);
+  }
+  return `${axiosClient.defaults.baseURL}/visits/stream?${params}`;
+};
+
+// Keeps a visit list current from the server's event stream. The browser retries dropped connections on its
+// own; once the ticket has expired the stream is reopened with a new one, resuming after the last event seen.
+// Returns a function that closes the stream.
+export const subscribeToVisits = (query, setVisits, reload) => {
+  let source = null;
+  let lastEventId = null;
+  let closed = false;
+  let retryTimer = null;
+
+  const addVisit = async (visitId, visit) => {
+    try {
+      // Events carry the visit; older servers only sent its id
+      const loaded = visit ?? (await axiosClient.get(`/visits/${visitId}`)).data;
+      setVisits((visits) => [...visits.filter((existing) => existing.id !== visitId), loaded].sort(byDateDesc));
+    } catch (error) {
+      // Deleted again before it could be loaded
+      console.error('Error fetching new visit:', error);
+    }
+  };
+
+  const connect = async () => {
+    let url;
+    try {
+      url = await streamUrl(query, lastEventId);
+    } catch (error) {
+      console.error('Error opening visit stream:', error);
+      retryTimer = setTimeout(connect, RECONNECT_DELAY_MS);
+      return;
+    }
+    if (closed) {
+      return;
+    }
+    source = new EventSource(url);
+    source.addEventListener('visit-created', (event) => {
+      lastEventId = event.lastEventId;
+      const { visitId, visit } = JSON.parse(event.data);
+      addVisit(visitId, visit);
+    });
+    source.addEventListener('visit-deleted', (event) => {
+      lastEventId = event.lastEventId;
+      const { visitId } = JSON.parse(event.data);
+      setVisits((visits) => visits.filter((visit) => visit.id !== visitId));
+    });
+    // The changes missed while disconnected are no longer available
+    source.addEventListener('reset', reload);
+    source.onerror = () => {
+      if (source.readyState === EventSource.CLOSED && !closed) {
+        retryTimer = setTimeout(connect, RECONNECT_DELAY_MS);
+      }
+    };
+  };
+
+  connect();
+
+  return () => {
+    closed = true;
+    clearTimeout(retryTimer);
+    if (source) {
+      source.close();
+    }
+  };
+};
@@ -37,6 +37,8 @@ export const AuthProvider = ({ children }) => {
   };
 
   const logout = () => {
+    // Revoke the token server-side; the local session is cleared regardless
+    axiosClient.post('/auth/logout').catch(() => {});
     setCurrentUser(null);
     localStorage.removeItem('currentUser');
   };
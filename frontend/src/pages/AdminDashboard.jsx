@@ -17,8 +17,8 @@ const AdminDashboard = () => {
     try {
       const [statsRes, doctorsRes, patientsRes] = await Promise.all([
         axiosClient.get('/admin/stats'),
-        axiosClient.get('/users?role=DOCTOR'),
-        axiosClient.get('/users?role=PATIENT'),
+        axiosClient.get('/users?role=DOCTOR&fields=id,fullName,email,specialization,phoneNumber'),
+        axiosClient.get('/users?role=PATIENT&fields=id,fullName,email,phoneNumber,gender'),
       ]);
       setStats(statsRes.data);
       setDoctors(doctorsRes.data);
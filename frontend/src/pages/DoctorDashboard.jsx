@@ -2,6 +2,7 @@ import React, { useState, useEffect } from 'react';
 import { Link } from 'react-router-dom';
 import { useAuth } from '../context/AuthContext';
 import axiosClient from '../api/axiosClient';
+import { subscribeToVisits } from '../api/visitEvents';
 
 const DoctorDashboard = () => {
   const { currentUser } = useAuth();
@@ -14,9 +15,15 @@ const DoctorDashboard = () => {
     }
   }, [currentUser]);
 
+  useEffect(() => {
+    if (currentUser) {
+      return subscribeToVisits({ doctorId: currentUser.id }, setVisits, fetchVisits);
+    }
+  }, [currentUser]);
+
   const fetchVisits = async () => {
     try {
-      const response = await axiosClient.get(`/visits/doctor/${currentUser.id}`);
+      const response = await axiosClient.get(`/visits/doctor/${currentUser.id}?fields=summary`);
       setVisits(response.data);
     } catch (error) {
       console.error('Error fetching visits:', error);
@@ -40,7 +40,7 @@ const DoctorVisitForm = () => {
 
   const fetchPatients = async () => {
     try {
-      const response = await axiosClient.get('/users?role=PATIENT');
+      const response = await axiosClient.get('/users?role=PATIENT&fields=summary');
       setPatients(response.data);
     } catch (error) {
       console.error('Error fetching patients:', error);
@@ -25,7 +25,7 @@ const ManageDoctors = () => {
 
   const fetchDoctors = async () => {
     try {
-      const response = await axiosClient.get('/users?role=DOCTOR');
+      const response = await axiosClient.get('/users?role=DOCTOR&fields=id,fullName,email,specialization,phoneNumber');
       setDoctors(response.data);
     } catch (error) {
       console.error('Error fetching doctors:', error);
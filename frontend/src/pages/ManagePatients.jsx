@@ -22,7 +22,7 @@ const ManagePatients = () => {
 
   const fetchPatients = async () => {
     try {
-      const response = await axiosClient.get('/users?role=PATIENT');
+      const response = await axiosClient.get('/users?role=PATIENT&fields=id,fullName,email,phoneNumber,gender,dateOfBirth');
       setPatients(response.data);
     } catch (error) {
       console.error('Error fetching patients:', error);
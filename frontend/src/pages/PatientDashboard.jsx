@@ -1,6 +1,7 @@
 import React, { useState, useEffect } from 'react';
 import { useAuth } from '../context/AuthContext';
 import axiosClient from '../api/axiosClient';
+import { subscribeToVisits } from '../api/visitEvents';
 
 const PatientDashboard = () => {
   const { currentUser } = useAuth();
@@ -14,10 +15,16 @@ const PatientDashboard = () => {
     }
   }, [currentUser]);
 
+  useEffect(() => {
+    if (currentUser) {
+      return subscribeToVisits({ patientId: currentUser.id }, setVisits, fetchData);
+    }
+  }, [currentUser]);
+
   const fetchData = async () => {
     try {
       const [visitsRes, userRes] = await Promise.all([
-        axiosClient.get(`/visits/patient/${currentUser.id}`),
+        axiosClient.get(`/visits/patient/${currentUser.id}?fields=summary`),
         axiosClient.get(`/users/${currentUser.id}`),
       ]);
       setVisits(visitsRes.data);
@@ -29,6 +36,16 @@ const PatientDashboard = () => {
     }
   };
 
+  // The list only holds the summary fields
+  const showVisitDetails = async (id) => {
+    try {
+      const { data: visit } = await axiosClient.get(`/visits/${id}`);
+      alert(`Visit Details:\n\nDate: ${new Date(visit.visitDate).toLocaleString()}\nDoctor: ${visit.doctorName}\nReason: ${visit.reasonForVisit || 'N/A'}\nSymptoms: ${visit.symptoms || 'N/A'}\nDiagnosis: ${visit.diagnosis || 'N/A'}\nMedicines: ${visit.prescribedMedicines || 'N/A'}\nNotes: ${visit.notes || 'N/A'}`);
+    } catch (error) {
+      console.error('Error fetching visit:', error);
+    }
+  };
+
   if (loading) {
     return <div className="container">Loading...</div>;
   }
@@ -86,9 +103,7 @@ const PatientDashboard = () => {
                   <td>
                     <button
                       className="btn btn-primary"
-                      onClick={() => {
-                        alert(`Visit Details:\n\nDate: ${new Date(visit.visitDate).toLocaleString()}\nDoctor: ${visit.doctorName}\nReason: ${visit.reasonForVisit || 'N/A'}\nSymptoms: ${visit.symptoms || 'N/A'}\nDiagnosis: ${visit.diagnosis || 'N/A'}\nMedicines: ${visit.prescribedMedicines || 'N/A'}\nNotes: ${visit.notes || 'N/A'}`);
-                      }}
+                      onClick={() => showVisitDetails(visit.id)}
                     >
                       View Details
                     </button>
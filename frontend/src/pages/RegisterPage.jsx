@@ -9,12 +9,10 @@ const RegisterPage = () => {
     email: '',
     password: '',
     confirmPassword: '',
-    role: 'PATIENT',
     phoneNumber: '',
     gender: '',
     dateOfBirth: '',
-    address: '',
-    specialization: ''
+    address: ''
   });
   const [error, setError] = useState('');
   const [loading, setLoading] = useState(false);
@@ -51,18 +49,14 @@ const RegisterPage = () => {
         fullName: formData.fullName,
         email: formData.email,
         password: formData.password,
-        role: formData.role,
+        // Doctors and admins are added by an admin
+        role: 'PATIENT',
         phoneNumber: formData.phoneNumber,
         gender: formData.gender,
         dateOfBirth: formData.dateOfBirth,
         address: formData.address
       };
 
-      // Add specialization only for doctors
-      if (formData.role === 'DOCTOR') {
-        userData.specialization = formData.specialization;
-      }
-
       // Register user
       await axiosClient.post('/users', userData);
       
@@ -131,34 +125,6 @@ const RegisterPage = () => {
             />
           </div>
 
-          <div className="form-group">
-            <label>Role:*</label>
-            <select
-              name="role"
-              value={formData.role}
-              onChange={handleChange}
-              required
-            >
-              <option value="PATIENT">Patient</option>
-              <option value="DOCTOR">Doctor</option>
-              <option value="ADMIN">Admin</option>
-            </select>
-          </div>
-
-          {formData.role === 'DOCTOR' && (
-            <div className="form-group">
-              <label>Specialization:*</label>
-              <input
-                type="text"
-                name="specialization"
-                value={formData.specialization}
-                onChange={handleChange}
-                required
-                placeholder="e.g., Cardiology, General Medicine"
-              />
-            </div>
-          )}
-
           <div className="form-group">
             <label>Phone Number:</label>
             <input